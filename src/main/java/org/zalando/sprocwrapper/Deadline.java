@@ -0,0 +1,103 @@
+package org.zalando.sprocwrapper;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.dao.QueryTimeoutException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Point in time by which the sproc calls of the current thread must complete. The time budget is spent across all
+ * phases of a call: connection checkout, session setup and the statements on all shards (including sequential multi
+ * shard calls). Statements still running when the deadline expires are cancelled, calls started after it fail right
+ * away. Both fail with a {@link QueryTimeoutException}.
+ *
+ * <pre>
+ * try (Deadline.Scope scope = Deadline.after(200, TimeUnit.MILLISECONDS).attach()) {
+ *     orderService.findOrders(customer);
+ * }
+ * </pre>
+ *
+ * <p>Nested scopes never extend the deadline of an enclosing scope.</p>
+ */
+public final class Deadline {
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long deadlineNanos;
+
+    private Deadline(final long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * @return  a deadline the given duration from now
+     */
+    public static Deadline after(final long duration, final TimeUnit unit) {
+        Preconditions.checkArgument(duration >= 0, "duration must not be negative: %s", duration);
+        return new Deadline(System.nanoTime() + unit.toNanos(duration));
+    }
+
+    /**
+     * @return  the deadline of the current thread, null if there is none
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * makes this deadline the deadline of the current thread until the returned scope is closed. If the current thread
+     * already has an earlier deadline, it is kept.
+     */
+    public Scope attach() {
+        final Deadline previous = CURRENT.get();
+        CURRENT.set(previous != null && previous.deadlineNanos - deadlineNanos < 0 ? previous : this);
+        return new Scope(previous);
+    }
+
+    /**
+     * @return  the time left until the deadline, 0 if it expired
+     */
+    public long remaining(final TimeUnit unit) {
+        return unit.convert(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    public boolean isExpired() {
+        return deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * @throws  QueryTimeoutException  if the deadline expired
+     */
+    public void check(final String what) {
+        if (isExpired()) {
+            throw new QueryTimeoutException("Deadline exceeded " + what);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Deadline{remainingMillis=" + remaining(TimeUnit.MILLISECONDS) + '}';
+    }
+
+    /**
+     * restores the previous deadline of the thread on close.
+     */
+    public static final class Scope implements AutoCloseable {
+
+        private final Deadline previous;
+
+        private Scope(final Deadline previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+}
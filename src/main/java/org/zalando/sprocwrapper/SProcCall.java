@@ -103,6 +103,119 @@ public @interface SProcCall {
 
     }
 
+    /**
+     * result cache of a read only sproc, see {@link org.zalando.sprocwrapper.cache.SProcResultCache}.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({})
+    public static @interface Cache {
+
+        /**
+         * time in milliseconds a result is cached, 0 disables the cache.
+         *
+         * @return
+         */
+        long ttlMillis() default 0;
+
+        /**
+         * maximum estimated size in bytes of all cached arguments and results, least recently used results are
+         * evicted first.
+         *
+         * @return
+         */
+        long maximumWeightBytes() default 16 * 1024 * 1024;
+
+        /**
+         * persist the cached results to a memory-mapped file, so that a restarted JVM starts with a warm cache.
+         * Restored results are served once and revalidated against the database in the background. Results must be
+         * {@link java.io.Serializable} and may only contain the declared result types and JDK value and collection
+         * types, see {@link org.zalando.sprocwrapper.cache.SProcResultCaches}. The file is named after the sproc,
+         * results are only restored for the same shards and physical data sources, described by their
+         * {@code toString()} (e.g. a connection pool name) or their class.
+         *
+         * @return
+         */
+        boolean persistent() default false;
+    }
+
+    /**
+     * asynchronous write-behind of a void write sproc, see {@link org.zalando.sprocwrapper.proxy.WriteBehindBuffer}.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({})
+    public static @interface WriteBehind {
+
+        /**
+         * maximum number of calls queued per shard, 0 disables write-behind.
+         *
+         * @return
+         */
+        int queueCapacity() default 0;
+
+        /**
+         * maximum number of calls written in one JDBC batch. A shard queue holding this many calls is flushed right
+         * away.
+         *
+         * @return
+         */
+        int flushSize() default 100;
+
+        /**
+         * time in milliseconds between two flushes of the shard queues.
+         *
+         * @return
+         */
+        long flushIntervalMillis() default 100;
+
+        /**
+         * what happens to calls arriving while the queue of their shard is full.
+         *
+         * @return
+         */
+        Overflow overflow() default Overflow.BLOCK;
+    }
+
+    public static enum Overflow {
+
+        /**
+         * wait for free space in the queue, at most until the {@link org.zalando.sprocwrapper.Deadline} of the caller.
+         */
+        BLOCK,
+
+        /**
+         * drop the call, it is counted by {@link org.zalando.sprocwrapper.proxy.WriteBehindBuffer#getDropped()}.
+         */
+        DROP,
+
+        /**
+         * execute the call synchronously.
+         */
+        CALLER_RUNS
+    }
+
+    /**
+     * Admission priority of sproc calls, see {@link SProcService#maxConcurrentCalls()}.
+     */
+    public static enum Priority {
+
+        /**
+         * the priority of the service, see {@link SProcService#priority()}.
+         */
+        USE_FROM_SERVICE,
+
+        /**
+         * calls serving user requests: may use the whole capacity of the service and are admitted before waiting batch
+         * calls. They wait at most {@link SProcService#admissionTimeoutMillis()} for admission.
+         */
+        INTERACTIVE,
+
+        /**
+         * calls of background jobs: may only use {@link SProcService#batchConcurrencyPercent()} of the capacity and
+         * wait until they are admitted, i.e. batch jobs are slowed down instead of failing.
+         */
+        BATCH
+    }
+
     String name() default "";
 
     String sql() default "";
@@ -130,6 +243,68 @@ public @interface SProcCall {
      */
     boolean parallel() default false;
 
+    /**
+     * maximum number of rows collected from multiple shards (runOnAllShards or searchShards). As soon as enough rows
+     * are collected, the remaining shards are not queried anymore and still running statements are cancelled. Only
+     * supported for sprocs returning a List, without auto partitioning or sharded write transaction, 0 means no limit.
+     *
+     * @return
+     */
+    int limit() default 0;
+
+    /**
+     * maximum number of shard results buffered for sprocs returning a {@link java.util.stream.Stream}. The rows of
+     * multi shard calls are streamed shard by shard in order of completion, the next shard is queried once the rows of
+     * a shard are consumed. Only parallel sprocs query more than one shard at a time, 0 means all shards at once.
+     *
+     * @return
+     */
+    int streamBuffer() default 0;
+
+    /**
+     * skip shards whose data source is unhealthy (open circuit breaker) in runOnAllShards and searchShards calls,
+     * instead of failing the whole call. The skipped shards are reported by
+     * {@link org.zalando.sprocwrapper.sharding.ShardExecutionReport#last()}.
+     *
+     * @return
+     */
+    boolean skipUnhealthyShards() default false;
+
+    /**
+     * return the results of the shards which answered within {@link #shardDeadlineMillis()} in runOnAllShards and
+     * searchShards calls, instead of failing the whole call if a shard fails or is slow. Shards which failed or missed
+     * their deadline are reported by {@link org.zalando.sprocwrapper.sharding.ShardExecutionReport#last()}. The call
+     * only fails if no shard answered. Not supported for sharded write transactions.
+     *
+     * @return
+     */
+    boolean partialResults() default false;
+
+    /**
+     * time in milliseconds each shard has to answer in partial result mode, the statements of late shards are
+     * cancelled. Parallel calls query all shards at once, sequential calls give every shard its own deadline.
+     *
+     * @return
+     */
+    long shardDeadlineMillis() default 0;
+
+    /**
+     * size of the routing cache of searchShards sprocs, 0 disables it. The cache learns on which shard the result for
+     * the given arguments was found: known arguments are looked up on their shard first, other searches probe the
+     * shards in order of their hit probability.
+     *
+     * @return
+     */
+    int searchCacheSize() default 0;
+
+    /**
+     * time in milliseconds a search without result on any shard is remembered by the routing cache: repeated searches
+     * return the empty result without querying the shards. 0 disables caching of misses.
+     *
+     * @return
+     */
+    long searchCacheMissTtlMillis() default 1000;
+
     /**
      * flag this stored procedure call as read only: read only sprocs may run in cases were writing calls would not be
      * allowed (maintenance, migration, ..)
@@ -138,6 +313,48 @@ public @interface SProcCall {
      */
     boolean readOnly() default true;
 
+    /**
+     * route calls of this read only sproc to the read replicas of the shard, if the data source provider is a
+     * {@link org.zalando.sprocwrapper.dsprovider.ReplicaAwareDataSourceProvider}. Other sprocs always run on the
+     * primary.
+     *
+     * @return
+     */
+    boolean readFromReplicas() default false;
+
+    /**
+     * cancel the statement of this sproc when the calling thread is interrupted while it waits for the database, e.g.
+     * because the future of a task calling the sproc was cancelled. The thread is checked periodically during the
+     * call. Calls running on multiple shards in parallel always cancel their statements when interrupted.
+     *
+     * @return
+     */
+    boolean interruptible() default false;
+
+    /**
+     * hedge read only single shard calls: if the first attempt did not complete within the
+     * {@link #hedgeDelayPercentile()} of the recent latencies, the call is sent to a second replica of the shard. The
+     * first response wins, the other attempt is cancelled. Requires {@link #readFromReplicas()} and a
+     * {@link org.zalando.sprocwrapper.dsprovider.ReplicaAwareDataSourceProvider} with at least two replicas per shard.
+     *
+     * @return
+     */
+    boolean hedged() default false;
+
+    /**
+     * latency percentile (1 - 99) of this sproc after which a hedged call sends its second attempt.
+     *
+     * @return
+     */
+    int hedgeDelayPercentile() default 95;
+
+    /**
+     * maximum percentage of calls which may be hedged, i.e. the maximum extra load caused by hedging.
+     *
+     * @return
+     */
+    int hedgeBudgetPercent() default 5;
+
     /**
      * Defines how sharded writes will be handled. If set to {@link WriteTransaction#NONE}, no transaction context will
      * be created. If set to {@link WriteTransaction#ONE_PHASE}, all errors during the sproc call will be rolled back.
@@ -146,6 +363,93 @@ public @interface SProcCall {
      */
     WriteTransaction shardedWriteTransaction() default WriteTransaction.USE_FROM_SERVICE;
 
+    /**
+     * admission priority of this sproc, see {@link SProcService#priority()}.
+     *
+     * @return
+     */
+    Priority priority() default Priority.USE_FROM_SERVICE;
+
+    /**
+     * maximum number of concurrent calls of this sproc, enforced before a connection is taken. Calls over the limit
+     * wait like calls over {@link SProcService#maxConcurrentCalls()}. 0 means no limit.
+     *
+     * @return
+     */
+    int maxConcurrentCalls() default 0;
+
+    /**
+     * maximum rate of calls per second of this sproc, calls over the rate are delayed. 0 means no limit.
+     *
+     * @return
+     */
+    double maxCallsPerSecond() default 0;
+
+    /**
+     * cache the results of this read only sproc in process, keyed by the arguments of the call. Cached results can be
+     * invalidated by {@link org.zalando.sprocwrapper.cache.SProcResultCaches}. Not supported for sprocs returning a
+     * {@link java.util.stream.Stream}.
+     *
+     * @return
+     */
+    Cache cache() default @Cache;
+
+    /**
+     * share one execution of this read only sproc between concurrent calls with equal arguments, e.g. to avoid a
+     * stampede of identical calls after a cache expired. Calls arriving while an identical call runs get its result
+     * (List results as copy) or its exception. Not supported for sprocs returning a {@link java.util.stream.Stream}.
+     *
+     * @return
+     */
+    boolean singleFlight() default false;
+
+    /**
+     * memoize the results of this read only sproc within an open {@link org.zalando.sprocwrapper.SProcScope}: calls
+     * with equal arguments in the scope return the result of the first call. Not supported for sprocs returning a
+     * {@link java.util.stream.Stream}.
+     *
+     * @return
+     */
+    boolean scoped() default false;
+
+    /**
+     * keep all rows of this reference data sproc (without arguments, returning a List) in an in-memory snapshot,
+     * reloaded in the background every given milliseconds. The sproc and its {@link SnapshotLookup} methods are served
+     * from the snapshot. 0 disables the snapshot.
+     *
+     * @return
+     */
+    long snapshotRefreshMillis() default 0;
+
+    /**
+     * queue calls of this void write sproc and write them asynchronously in JDBC batches: calls return right away and
+     * failures are only logged and counted. Only supported for single shard sprocs without advisory lock. Arguments
+     * must not be modified after the call.
+     *
+     * @return
+     */
+    WriteBehind writeBehind() default @WriteBehind;
+
+    /**
+     * run this sproc as {@code COPY (SELECT * FROM sproc(...)) TO STDOUT} to export large results. The arguments are
+     * inlined as escaped literals, since COPY does not take bind parameters. If the method has an
+     * {@link java.io.OutputStream} argument, the raw COPY data is written to it and the number of rows is returned
+     * ({@code long} or {@code void}). Otherwise the method must return a {@link java.util.stream.Stream}: the rows are
+     * decoded from the text format while the stream is consumed, which must be closed if it is not read to the end.
+     * Decoded rows only support columns of simple types. Only supported for single shard sprocs without custom sql.
+     *
+     * @return
+     */
+    boolean copyOut() default false;
+
+    /**
+     * options of the COPY command of {@link #copyOut()} sprocs writing to an {@link java.io.OutputStream}, e.g.
+     * {@code FORMAT binary} or {@code FORMAT csv, HEADER}.
+     *
+     * @return
+     */
+    String copyOutOptions() default "";
+
     Class<?> resultMapper() default Void.class;
 
     long timeoutInMilliSeconds() default 0;
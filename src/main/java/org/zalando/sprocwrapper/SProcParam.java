@@ -29,4 +29,14 @@ public @interface SProcParam {
      * @return
      */
     boolean sensitive() default false;
+
+    /**
+     * load this list parameter with {@code COPY} into a temporary staging table and pass it to the sproc from there,
+     * instead of sending it as one array literal. Meant for lists of many rows, e.g. {@code @DatabaseType} objects.
+     * Only supported for write sprocs ({@code readOnly = false}) without custom sql, the rows are copied in the
+     * transaction of the sproc call.
+     *
+     * @return
+     */
+    boolean bulk() default false;
 }
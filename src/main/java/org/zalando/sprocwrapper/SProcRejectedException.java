@@ -0,0 +1,21 @@
+package org.zalando.sprocwrapper;
+
+import org.springframework.dao.TransientDataAccessResourceException;
+
+/**
+ * Signals that a sproc call was not admitted, because the concurrency or rate quota of the sproc or its service was
+ * exhausted and no capacity became available in time. No connection was taken for the call.
+ */
+public class SProcRejectedException extends TransientDataAccessResourceException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a {@code SProcRejectedException} with specified detail message.
+     *
+     * @param  msg  the detail message
+     */
+    public SProcRejectedException(final String msg) {
+        super(msg);
+    }
+}
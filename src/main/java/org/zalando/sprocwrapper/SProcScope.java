@@ -0,0 +1,112 @@
+package org.zalando.sprocwrapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Memoizes the results of sproc calls of the current thread, e.g. for the duration of a web request:
+ *
+ * <pre>
+ * try (SProcScope scope = SProcScope.open()) {
+ *     articleService.getArticle(sku);
+ *     articleService.getArticle(sku); // memoized
+ * }
+ * </pre>
+ *
+ * <p>Within the scope, calls of a sproc annotated with {@code @SProcCall(scoped = true)} with equal arguments return
+ * the result of the first call (List results as copies). Other sprocs always run. A call of a sproc declared with
+ * {@code readOnly = false} drops all memoized results of the scope. Failures and Stream results
+ * are not memoized. Nested scopes share the memoized results of the outermost scope, which drops them on close.</p>
+ *
+ * <p>The scope is bound to the thread which opened it, calls from other threads are not memoized.</p>
+ */
+public final class SProcScope implements AutoCloseable {
+
+    private static final ThreadLocal<SProcScope> CURRENT = new ThreadLocal<>();
+
+    private final Map<List<Object>, Optional<Object>> results;
+
+    private final boolean outermost;
+
+    private int hits;
+
+    private SProcScope(final Map<List<Object>, Optional<Object>> results, final boolean outermost) {
+        this.results = results;
+        this.outermost = outermost;
+    }
+
+    /**
+     * opens a scope for the current thread, which must be closed by the same thread.
+     */
+    public static SProcScope open() {
+        final SProcScope enclosing = CURRENT.get();
+        if (enclosing != null) {
+            return new SProcScope(enclosing.results, false);
+        }
+
+        final SProcScope scope = new SProcScope(new HashMap<>(), true);
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    /**
+     * @return  the scope of the current thread, null if there is none
+     */
+    public static SProcScope current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @param   sproc  identity of the called sproc
+     *
+     * @return  the memoized result of the sproc for the arguments, the result of the call if there is none
+     */
+    public Object get(final Object sproc, final Object[] args, final Supplier<Object> call) {
+        final List<Object> key = new ArrayList<>();
+        key.add(sproc);
+        if (args != null) {
+            key.addAll(Arrays.asList(args));
+        }
+
+        Optional<Object> result = results.get(key);
+        if (result == null) {
+            result = Optional.ofNullable(call.get());
+            results.put(key, result);
+        } else {
+            hits++;
+        }
+
+        return result.map(SProcScope::copy).orElse(null);
+    }
+
+    /**
+     * drops all memoized results, e.g. after the data was changed.
+     */
+    public void clear() {
+        results.clear();
+    }
+
+    /**
+     * @return  number of calls answered from memoized results of this scope
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    @Override
+    public void close() {
+        if (outermost) {
+            results.clear();
+            CURRENT.remove();
+        }
+    }
+
+    private static Object copy(final Object result) {
+        return result instanceof List ? new ArrayList<>((List<?>) result) : result;
+    }
+}
@@ -35,4 +35,28 @@ public @interface SProcService {
      * back. In the last case, the Postgres instance must be configured to manage 2-phase-commits (XA).
      */
     WriteTransaction shardedWriteTransaction() default WriteTransaction.NONE;
+
+    /**
+     * priority of the sprocs of this service, can be overridden per sproc by {@link SProcCall#priority()}.
+     * {@link SProcCall.Priority#USE_FROM_SERVICE} means {@link SProcCall.Priority#INTERACTIVE} here.
+     */
+    SProcCall.Priority priority() default SProcCall.Priority.INTERACTIVE;
+
+    /**
+     * maximum number of concurrent sproc calls of this service proxy, enforced before a connection is taken. Calls
+     * over the limit are queued, waiting interactive calls are admitted first. 0 means no limit.
+     */
+    int maxConcurrentCalls() default 0;
+
+    /**
+     * share of {@link #maxConcurrentCalls()} in percent which batch calls may use, the rest is reserved for
+     * interactive calls.
+     */
+    int batchConcurrencyPercent() default 50;
+
+    /**
+     * maximum time in milliseconds interactive calls wait for admission before they fail with a
+     * {@link SProcRejectedException}. The deadline of the caller ({@link Deadline}) bounds the wait of all calls.
+     */
+    long admissionTimeoutMillis() default 1000;
 }
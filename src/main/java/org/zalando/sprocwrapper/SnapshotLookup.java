@@ -0,0 +1,39 @@
+package org.zalando.sprocwrapper;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Serves a service method from the in-memory snapshot of a reference data sproc (see
+ * {@link SProcCall#snapshotRefreshMillis()}) instead of calling the database. The single argument of the method is
+ * looked up in an index of the rows by the given key field. Methods returning a List get all rows with the key, other
+ * methods the first one (or null).
+ *
+ * <pre>
+ * &#64;SProcCall(snapshotRefreshMillis = 60000)
+ * List&lt;Country&gt; getAllCountries();
+ *
+ * &#64;SnapshotLookup(snapshot = "getAllCountries", key = "id")
+ * Country getCountry(long id);
+ * </pre>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface SnapshotLookup {
+
+    /**
+     * name of the service method whose snapshot is searched.
+     *
+     * @return
+     */
+    String snapshot();
+
+    /**
+     * name of the field of the rows matched against the argument.
+     *
+     * @return
+     */
+    String key();
+}
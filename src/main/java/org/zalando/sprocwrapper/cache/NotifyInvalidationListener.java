@@ -0,0 +1,213 @@
+package org.zalando.sprocwrapper.cache;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+import javax.sql.DataSource;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+
+import org.zalando.sprocwrapper.dsprovider.DataSourceProvider;
+
+/**
+ * Invalidates cached sproc results on PostgreSQL notifications, so that results can be cached with long TTLs. The
+ * listener keeps a dedicated connection of its data source, subscribes to the given channels with {@code LISTEN} and
+ * interprets the payload of every notification:
+ *
+ * <ul>
+ *   <li>{@code get_article} removes all cached results of the sproc,</li>
+ *   <li>{@code get_article:123,DE} removes the results of the sproc for the arguments whose string values are
+ *     {@code 123} and {@code DE},</li>
+ *   <li>{@code zcat_*} removes the results of all sprocs whose name starts with {@code zcat_} (a namespace),</li>
+ *   <li>an empty payload removes all cached results.</li>
+ * </ul>
+ *
+ * <pre>
+ * CREATE FUNCTION article_changed() RETURNS trigger AS $$
+ * BEGIN
+ *   PERFORM pg_notify('sproc_cache', 'get_article:' || NEW.a_id);
+ *   RETURN NEW;
+ * END $$ LANGUAGE plpgsql;
+ * </pre>
+ *
+ * <p>Caches are registered by sproc name only, so every invalidation applies to the caches of all sprocs with that
+ * name in the JVM, whichever data source they were loaded from. Notifications sent while the connection is lost are
+ * missed: after reconnecting, all cached results in the JVM are removed, including those of sprocs on other data
+ * sources. Frequent reconnects of one listener therefore empty every cache. The data source should not be limited by a {@link org.zalando.sprocwrapper.dsprovider.ConcurrencyLimitedDataSource},
+ * the listener holds its connection until it is closed.</p>
+ */
+public class NotifyInvalidationListener implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NotifyInvalidationListener.class);
+
+    private static final int POLL_MILLIS = 500;
+    private static final long MIN_RECONNECT_MILLIS = 1000;
+    private static final long MAX_RECONNECT_MILLIS = 30000;
+
+    private final DataSource dataSource;
+
+    private final List<String> channels;
+
+    private final Thread thread;
+
+    private volatile boolean closed;
+
+    private volatile boolean listening;
+
+    public NotifyInvalidationListener(final DataSource dataSource, final Collection<String> channels) {
+        Preconditions.checkArgument(!channels.isEmpty(), "at least one channel is required");
+        this.dataSource = Objects.requireNonNull(dataSource, "dataSource");
+        this.channels = ImmutableList.copyOf(channels);
+        this.thread = new Thread(this::run, "sproc-cache-listener-" + this.channels);
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * starts a listener per shard data source of the provider.
+     */
+    public static List<NotifyInvalidationListener> start(final DataSourceProvider dataSourceProvider,
+            final Collection<String> channels) {
+        final List<NotifyInvalidationListener> listeners = new ArrayList<>();
+        for (final Integer shardId : dataSourceProvider.getDistinctShardIds()) {
+            final NotifyInvalidationListener listener = new NotifyInvalidationListener(
+                    dataSourceProvider.getDataSource(shardId), channels);
+            listener.start();
+            listeners.add(listener);
+        }
+
+        return listeners;
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * @return  true while the listener is subscribed to its channels
+     */
+    public boolean isListening() {
+        return listening;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+        try {
+            thread.join(POLL_MILLIS * 2);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        long reconnectMillis = MIN_RECONNECT_MILLIS;
+        boolean connectedBefore = false;
+        while (!closed) {
+            try (Connection connection = dataSource.getConnection()) {
+                final PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                try (Statement statement = connection.createStatement()) {
+                    for (final String channel : channels) {
+                        statement.execute("LISTEN " + quoteIdentifier(channel));
+                    }
+                }
+
+                if (!connection.getAutoCommit()) {
+                    connection.commit();
+                }
+
+                if (connectedBefore) {
+                    LOG.warn("Reconnected listener on {}, removing all cached results", channels);
+                    SProcResultCaches.invalidateAll();
+                }
+
+                connectedBefore = true;
+                listening = true;
+                reconnectMillis = MIN_RECONNECT_MILLIS;
+                LOG.info("Listening for cache invalidations on {}", channels);
+
+                while (!closed) {
+                    final PGNotification[] notifications = pgConnection.getNotifications(POLL_MILLIS);
+                    if (notifications != null) {
+                        for (final PGNotification notification : notifications) {
+                            LOG.debug("Cache invalidation on {}: {}", notification.getName(),
+                                notification.getParameter());
+                            invalidate(notification.getParameter());
+                        }
+                    }
+                }
+            } catch (final SQLException | RuntimeException e) {
+                if (closed) {
+                    return;
+                }
+
+                LOG.warn("Cache invalidation listener on {} failed, reconnecting in {} ms", channels,
+                    reconnectMillis, e);
+                try {
+                    Thread.sleep(reconnectMillis);
+                } catch (final InterruptedException ie) {
+                    return;
+                }
+
+                reconnectMillis = Math.min(MAX_RECONNECT_MILLIS, reconnectMillis * 2);
+            } finally {
+                listening = false;
+            }
+        }
+    }
+
+    /**
+     * removes the cached results named by the payload of a notification.
+     */
+    static void invalidate(final String payload) {
+        if (payload == null || payload.isEmpty()) {
+            SProcResultCaches.invalidateAll();
+            return;
+        }
+
+        final int separator = payload.indexOf(':');
+        final String sprocName = separator < 0 ? payload : payload.substring(0, separator);
+        if (sprocName.endsWith("*")) {
+            SProcResultCaches.invalidateNamespace(sprocName.substring(0, sprocName.length() - 1));
+        } else if (separator < 0) {
+            SProcResultCaches.invalidate(sprocName);
+        } else {
+            final List<String> args = Splitter.on(',').splitToList(payload.substring(separator + 1));
+            for (final SProcResultCache cache : SProcResultCaches.get(sprocName)) {
+                cache.invalidateIf(key -> matches(key, args));
+            }
+        }
+    }
+
+    private static boolean matches(final List<Object> key, final List<String> args) {
+        if (key.size() != args.size()) {
+            return false;
+        }
+
+        for (int i = 0; i < args.size(); i++) {
+            if (!args.get(i).equals(String.valueOf(key.get(i)))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static String quoteIdentifier(final String identifier) {
+        return '"' + identifier.replace("\"", "\"\"") + '"';
+    }
+}
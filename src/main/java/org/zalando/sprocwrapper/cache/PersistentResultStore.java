@@ -0,0 +1,300 @@
+package org.zalando.sprocwrapper.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import java.lang.reflect.Proxy;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+
+/**
+ * Memory-mapped file with the serialized results of a cached sproc, so that a restarted JVM starts with a warm cache.
+ * The file starts with a header:
+ *
+ * <ul>
+ *   <li>magic number and format version,</li>
+ *   <li>fingerprint of the cluster, the sproc signature and the result type, results of another cluster or schema
+ *     are ignored,</li>
+ *   <li>length and CRC32 of the payload, a truncated or corrupt file is ignored.</li>
+ * </ul>
+ *
+ * <p>Files are replaced atomically, readers never see a partially written file. Files of the same sproc written under
+ * a former name are deleted. Results must be {@link java.io.Serializable}.</p>
+ *
+ * <p>The file is read with Java serialization, so it must not be writable by anybody else: the directory is created
+ * accessible by the owner only, and a file or directory which is not owned by the user of the process or which is
+ * writable by group or others is not read. Deserialization is restricted to the given result and argument types and
+ * to the value and collection classes of {@code java.lang}, {@code java.math}, {@code java.time}, {@code java.util}
+ * and {@code java.sql}.</p>
+ */
+final class PersistentResultStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PersistentResultStore.class);
+
+    private static final int MAGIC = 0x53504352;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 8;
+
+    private static final int MAX_DEPTH = 32;
+
+    private static final String SUFFIX = ".cache";
+
+    private static final Set<String> VALUE_PACKAGES = ImmutableSet.of("java.lang", "java.math", "java.time",
+            "java.util", "java.sql");
+
+    private static final Set<PosixFilePermission> FOREIGN_WRITE = ImmutableSet.of(PosixFilePermission.GROUP_WRITE,
+            PosixFilePermission.OTHERS_WRITE);
+
+    private final Path file;
+
+    private final long fingerprint;
+
+    private final Set<Class<?>> types;
+
+    /**
+     * @param  schema  description of the sproc signature and result type, a file written for another schema is
+     *                 ignored
+     * @param  types   the result and argument types which may be deserialized besides the JDK value types
+     */
+    PersistentResultStore(final Path file, final String schema, final Set<Class<?>> types) {
+        this.file = file;
+        this.fingerprint = Hashing.sha256().hashString(schema, StandardCharsets.UTF_8).asLong();
+        this.types = ImmutableSet.copyOf(types);
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return  the persisted results by key, empty if the file is missing, of another schema or corrupt
+     */
+    Map<List<Object>, Optional<Object>> read() {
+        try {
+            if (Files.notExists(file, LinkOption.NOFOLLOW_LINKS)) {
+                return Collections.emptyMap();
+            }
+
+            if (!isPrivate(file.toAbsolutePath().getParent()) || !isPrivate(file)) {
+                LOG.warn("Ignoring persisted results {}: not owned by {} or writable by others", file,
+                    System.getProperty("user.name"));
+                return Collections.emptyMap();
+            }
+        } catch (final IOException e) {
+            LOG.warn("Ignoring persisted results {}: unreadable", file, e);
+            return Collections.emptyMap();
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, LinkOption.NOFOLLOW_LINKS)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                LOG.info("Ignoring persisted results {}: unknown format", file);
+                return Collections.emptyMap();
+            }
+
+            if (buffer.getLong() != fingerprint) {
+                LOG.info("Ignoring persisted results {}: written for another schema", file);
+                return Collections.emptyMap();
+            }
+
+            final int length = buffer.getInt();
+            final long checksum = buffer.getLong();
+            if (length < 0 || buffer.remaining() != length) {
+                LOG.warn("Ignoring persisted results {}: truncated", file);
+                return Collections.emptyMap();
+            }
+
+            final byte[] payload = new byte[length];
+            buffer.get(payload);
+            if (crc(payload) != checksum) {
+                LOG.warn("Ignoring persisted results {}: checksum mismatch", file);
+                return Collections.emptyMap();
+            }
+
+            return deserialize(payload);
+        } catch (final NoSuchFileException e) {
+            return Collections.emptyMap();
+        } catch (final IOException | ClassNotFoundException | ClassCastException | IllegalArgumentException e) {
+            LOG.warn("Ignoring persisted results {}: unreadable", file, e);
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * replaces the file with the given results.
+     */
+    void write(final Map<List<Object>, Optional<Object>> results) throws IOException {
+        final byte[] payload = serialize(results);
+
+        final Path directory = file.toAbsolutePath().getParent();
+        if (Files.notExists(directory)) {
+            if (Files.getFileStore(existingAncestor(directory)).supportsFileAttributeView(PosixFileAttributeView.class)) {
+                Files.createDirectories(directory,
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            } else {
+                Files.createDirectories(directory);
+            }
+        }
+
+        if (!isPrivate(directory)) {
+            throw new IOException("Directory " + directory + " is not owned by " + System.getProperty("user.name")
+                    + " or writable by others");
+        }
+
+        final Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(),
+                ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        HEADER_SIZE + payload.length);
+                buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(fingerprint).putInt(payload.length)
+                      .putLong(crc(payload)).put(payload);
+                buffer.force();
+            }
+
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        deleteStaleFiles(directory);
+    }
+
+    /**
+     * deletes the files of the same sproc written under a former name ({@code <sproc>-<hash>.cache}).
+     */
+    private void deleteStaleFiles(final Path directory) throws IOException {
+        final String name = file.getFileName().toString();
+        if (!name.endsWith(SUFFIX)) {
+            return;
+        }
+
+        final String stale = name.substring(0, name.length() - SUFFIX.length()) + "-*" + SUFFIX;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, stale)) {
+            for (final Path staleFile : files) {
+                LOG.info("Deleting stale persisted results {}", staleFile);
+                Files.deleteIfExists(staleFile);
+            }
+        }
+    }
+
+    private static byte[] serialize(final Map<List<Object>, Optional<Object>> results) throws IOException {
+        final ArrayList<Object[]> entries = new ArrayList<>(results.size());
+        for (final Map.Entry<List<Object>, Optional<Object>> result : results.entrySet()) {
+            entries.add(new Object[] {new ArrayList<>(result.getKey()), result.getValue().orElse(null)});
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(entries);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<List<Object>, Optional<Object>> deserialize(final byte[] payload) throws IOException,
+        ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+            in.setObjectInputFilter(this::filter);
+            final List<Object[]> entries = (List<Object[]>) in.readObject();
+            final Map<List<Object>, Optional<Object>> results = new HashMap<>(entries.size() * 2);
+            for (final Object[] entry : entries) {
+                results.put((List<Object>) entry[0], Optional.ofNullable(entry[1]));
+            }
+
+            return results;
+        }
+    }
+
+    private ObjectInputFilter.Status filter(final ObjectInputFilter.FilterInfo info) {
+        if (info.depth() > MAX_DEPTH) {
+            return ObjectInputFilter.Status.REJECTED;
+        }
+
+        Class<?> type = info.serialClass();
+        if (type == null) {
+            return ObjectInputFilter.Status.UNDECIDED;
+        }
+
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+
+        if (type.isPrimitive() || types.contains(type)
+                || (VALUE_PACKAGES.contains(type.getPackageName()) && !Proxy.isProxyClass(type))) {
+            return ObjectInputFilter.Status.ALLOWED;
+        }
+
+        LOG.warn("Rejecting class {} in persisted results {}", type.getName(), file);
+        return ObjectInputFilter.Status.REJECTED;
+    }
+
+    /**
+     * @return  true if the path is owned by the user of the process and not writable by group or others
+     */
+    private static boolean isPrivate(final Path path) throws IOException {
+        final UserPrincipal user = path.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName(
+                System.getProperty("user.name"));
+        if (!user.equals(Files.getOwner(path, LinkOption.NOFOLLOW_LINKS))) {
+            return false;
+        }
+
+        final PosixFileAttributeView posix = Files.getFileAttributeView(path, PosixFileAttributeView.class,
+                LinkOption.NOFOLLOW_LINKS);
+        if (posix == null) {
+            return true;
+        }
+
+        final Set<PosixFilePermission> permissions = posix.readAttributes().permissions();
+        return FOREIGN_WRITE.stream().noneMatch(permissions::contains);
+    }
+
+    private static Path existingAncestor(final Path path) {
+        Path ancestor = path;
+        while (ancestor != null && Files.notExists(ancestor)) {
+            ancestor = ancestor.getParent();
+        }
+
+        return ancestor == null ? path.getRoot() : ancestor;
+    }
+
+    private static long crc(final byte[] payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.wrap(payload));
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,124 @@
+package org.zalando.sprocwrapper.cache;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Estimates the heap size of sproc results in bytes (64 bit JVM with compressed references). Objects are walked
+ * reflectively up to a maximum depth, deeper objects count with a fixed size.
+ */
+final class ResultWeigher {
+
+    private static final int HEADER = 16;
+    private static final int REFERENCE = 4;
+    private static final int MAX_DEPTH = 8;
+
+    private ResultWeigher() { }
+
+    static int weigh(final Object value) {
+        return (int) Math.min(Integer.MAX_VALUE, weigh(value, 0, new IdentityHashMap<>()));
+    }
+
+    private static long weigh(final Object value, final int depth, final IdentityHashMap<Object, Object> visited) {
+        if (value == null || visited.put(value, value) != null) {
+            return 0;
+        }
+
+        if (value instanceof String) {
+            return HEADER + 24 + ((String) value).length();
+        }
+
+        if (value instanceof Number || value instanceof Boolean || value instanceof Character
+                || value instanceof Enum || value instanceof Date) {
+            return HEADER + 8;
+        }
+
+        if (depth >= MAX_DEPTH) {
+            return HEADER;
+        }
+
+        if (value instanceof Collection) {
+            long weight = HEADER + 32;
+            for (final Object element : (Collection<?>) value) {
+                weight += REFERENCE + weigh(element, depth + 1, visited);
+            }
+
+            return weight;
+        }
+
+        if (value instanceof Map) {
+            long weight = HEADER + 48;
+            for (final Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                weight += HEADER + 16 + weigh(entry.getKey(), depth + 1, visited)
+                        + weigh(entry.getValue(), depth + 1, visited);
+            }
+
+            return weight;
+        }
+
+        final Class<?> type = value.getClass();
+        if (type.isArray()) {
+            final int length = Array.getLength(value);
+            if (type.getComponentType().isPrimitive()) {
+                return HEADER + (long) length * primitiveSize(type.getComponentType());
+            }
+
+            long weight = HEADER + (long) length * REFERENCE;
+            for (int i = 0; i < length; i++) {
+                weight += weigh(Array.get(value, i), depth + 1, visited);
+            }
+
+            return weight;
+        }
+
+        long weight = HEADER;
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (final Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+
+                if (field.getType().isPrimitive()) {
+                    weight += primitiveSize(field.getType());
+                } else {
+                    weight += REFERENCE + weigh(read(field, value), depth + 1, visited);
+                }
+            }
+        }
+
+        return weight;
+    }
+
+    private static Object read(final Field field, final Object value) {
+        try {
+            field.setAccessible(true);
+            return field.get(value);
+        } catch (final RuntimeException | IllegalAccessException e) {
+
+            // e.g. fields of JDK classes not opened to us
+            return null;
+        }
+    }
+
+    private static int primitiveSize(final Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+
+        return 1;
+    }
+}
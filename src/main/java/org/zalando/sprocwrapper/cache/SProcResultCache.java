@@ -0,0 +1,251 @@
+package org.zalando.sprocwrapper.cache;
+
+import java.io.IOException;
+
+import java.nio.file.Path;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * In-process cache of the results of a read only sproc, keyed by the arguments of the call. Entries expire a fixed time
+ * after they were loaded, the least recently used entries are evicted when the estimated size of all entries exceeds
+ * the maximum weight. Concurrent calls with equal arguments share one execution.
+ *
+ * <p>The arguments must be immutable values with {@code equals} and {@code hashCode}. List results are handed out as
+ * copies, their elements are shared between all callers and must not be modified.</p>
+ *
+ * <p>A persistent cache additionally writes its results to a memory-mapped file (see
+ * {@link SProcResultCaches#persistAll()}) and restores them on start. A restored result is served once and revalidated
+ * against the database in the background. Restored results not requested within the TTL are dropped.</p>
+ */
+public class SProcResultCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SProcResultCache.class);
+
+    // a single thread, so that revalidating a warm cache after a restart does not flood the database
+    private static final ExecutorService REVALIDATOR = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("sproc-cache-revalidate-%d").setDaemon(true).build());
+
+    private final String sprocName;
+
+    private final Cache<List<Object>, Optional<Object>> results;
+
+    private final PersistentResultStore store;
+
+    private final Map<List<Object>, Optional<Object>> restored;
+
+    private final long restoredUntilNanos;
+
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    /**
+     * @param  sprocName           name of the cached sproc, see {@link SProcResultCaches}
+     * @param  ttlMillis           time a result is cached
+     * @param  maximumWeightBytes  maximum estimated size of all cached arguments and results
+     */
+    public SProcResultCache(final String sprocName, final long ttlMillis, final long maximumWeightBytes) {
+        this(sprocName, ttlMillis, maximumWeightBytes, null, null, Collections.emptySet());
+    }
+
+    /**
+     * @param  sprocName           name of the cached sproc, see {@link SProcResultCaches}
+     * @param  ttlMillis           time a result is cached
+     * @param  maximumWeightBytes  maximum estimated size of all cached arguments and results
+     * @param  persistentFile      file the results are persisted to, null for an in-memory cache
+     * @param  schema              description of the sproc signature and result type, results persisted for another
+     *                             schema are not restored
+     * @param  persistentTypes     classes of the arguments and results which may be restored, besides the JDK value
+     *                             and collection classes
+     */
+    public SProcResultCache(final String sprocName, final long ttlMillis, final long maximumWeightBytes,
+            final Path persistentFile, final String schema, final Set<Class<?>> persistentTypes) {
+        Preconditions.checkArgument(ttlMillis > 0, "result cache TTL must be positive: %s", ttlMillis);
+        Preconditions.checkArgument(maximumWeightBytes > 0, "result cache weight must be positive: %s",
+            maximumWeightBytes);
+        this.sprocName = sprocName;
+        this.results = CacheBuilder.newBuilder().expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                                   .maximumWeight(maximumWeightBytes)
+                                   .weigher((final List<Object> key, final Optional<Object> value) ->
+                                           ResultWeigher.weigh(key) + ResultWeigher.weigh(value.orElse(null)))
+                                   .recordStats().build();
+
+        if (persistentFile == null) {
+            this.store = null;
+            this.restored = Collections.emptyMap();
+        } else {
+            this.store = new PersistentResultStore(persistentFile, schema, persistentTypes);
+            this.restored = new ConcurrentHashMap<>(store.read());
+            LOG.info("Restored {} results of {} from {}", restored.size(), sprocName, persistentFile);
+        }
+
+        this.restoredUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        SProcResultCaches.register(this);
+    }
+
+    /**
+     * @return  the cached result for the arguments, loaded from the sproc if absent
+     */
+    public Object get(final Object[] args, final Supplier<Object> loader) {
+        final List<Object> key = key(args);
+        if (!restored.isEmpty()) {
+            final Optional<Object> warm = takeRestored(key);
+            if (warm != null) {
+                results.put(key, warm);
+                REVALIDATOR.execute(() -> revalidate(key, loader));
+                return warm.map(SProcResultCache::copy).orElse(null);
+            }
+        }
+
+        final Optional<Object> result;
+        try {
+            result = results.get(key, () -> {
+                        dirty.set(true);
+                        return Optional.ofNullable(freeze(loader.get()));
+                    });
+        } catch (final UncheckedExecutionException | ExecutionError e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+
+            throw e;
+        } catch (final ExecutionException e) {
+
+            // the loader does not throw checked exceptions
+            throw new IllegalStateException(e.getCause());
+        }
+
+        return result.map(SProcResultCache::copy).orElse(null);
+    }
+
+    /**
+     * removes the result for the given arguments.
+     */
+    public void invalidate(final Object... args) {
+        final List<Object> key = key(args);
+        restored.remove(key);
+        results.invalidate(key);
+        dirty.set(true);
+    }
+
+    /**
+     * removes the results whose arguments match the predicate.
+     */
+    public void invalidateIf(final Predicate<List<Object>> arguments) {
+        restored.keySet().removeIf(arguments);
+        results.asMap().keySet().removeIf(arguments);
+        dirty.set(true);
+    }
+
+    /**
+     * removes all results.
+     */
+    public void invalidateAll() {
+        restored.clear();
+        results.invalidateAll();
+        dirty.set(true);
+    }
+
+    /**
+     * writes the cached results to the persistent file, if they changed since they were last written.
+     *
+     * @return  false if the cache is not persistent or unchanged
+     */
+    public boolean persist() throws IOException {
+        if (store == null || !dirty.getAndSet(false)) {
+            return false;
+        }
+
+        try {
+            store.write(results.asMap());
+        } catch (final IOException | RuntimeException e) {
+            dirty.set(true);
+            throw e;
+        }
+
+        return true;
+    }
+
+    public boolean isPersistent() {
+        return store != null;
+    }
+
+    public String getSprocName() {
+        return sprocName;
+    }
+
+    /**
+     * @return  hits, misses, loads and evictions since the cache was created
+     */
+    public CacheStats stats() {
+        return results.stats();
+    }
+
+    public long size() {
+        return results.size();
+    }
+
+    private Optional<Object> takeRestored(final List<Object> key) {
+        if (System.nanoTime() - restoredUntilNanos > 0) {
+            restored.clear();
+            return null;
+        }
+
+        return restored.remove(key);
+    }
+
+    private void revalidate(final List<Object> key, final Supplier<Object> loader) {
+        try {
+            results.put(key, Optional.ofNullable(freeze(loader.get())));
+            dirty.set(true);
+        } catch (final RuntimeException e) {
+            LOG.warn("Could not revalidate restored result of {}, dropping it", sprocName, e);
+            results.invalidate(key);
+        }
+    }
+
+    private static List<Object> key(final Object[] args) {
+        return args == null ? Collections.emptyList() : Arrays.asList(args.clone());
+    }
+
+    private static Object freeze(final Object result) {
+        return result instanceof List ? Collections.unmodifiableList(new ArrayList<>((List<?>) result)) : result;
+    }
+
+    private static Object copy(final Object result) {
+        return result instanceof List ? new ArrayList<>((List<?>) result) : result;
+    }
+
+    @Override
+    public String toString() {
+        return "SProcResultCache{" + sprocName + ", " + results.stats() + '}';
+    }
+}
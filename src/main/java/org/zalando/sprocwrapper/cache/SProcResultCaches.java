@@ -0,0 +1,164 @@
+package org.zalando.sprocwrapper.cache;
+
+import java.io.IOException;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Registry of the result caches of all sproc proxies, to invalidate cached results after the underlying data changed:
+ *
+ * <pre>
+ * SProcResultCaches.invalidate("get_country_config", "DE");
+ * </pre>
+ *
+ * <p>Caches of proxies which are no longer referenced are dropped from the registry.</p>
+ *
+ * <p>Persistent caches are written to the persistent directory every minute and when the JVM shuts down. The directory
+ * is taken from the system environment ({@value #PERSISTENT_DIRECTORY_ENV}) unless it is set explicitly, and defaults
+ * to a directory in {@code java.io.tmpdir}. It is created accessible by its owner only; persisted results are not read
+ * from a directory or file which is owned by another user or writable by group or others.</p>
+ */
+public final class SProcResultCaches {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SProcResultCaches.class);
+
+    private static final String PERSISTENT_DIRECTORY_ENV = "sproc.result.cache.directory";
+
+    private static final long PERSIST_INTERVAL_MILLIS = 60000;
+
+    private static final Map<String, Set<SProcResultCache>> CACHES_BY_SPROC_NAME = new ConcurrentHashMap<>();
+
+    private static volatile Path persistentDirectory;
+
+    private static ScheduledExecutorService persister;
+
+    private SProcResultCaches() {
+        // utility class: private constructor
+    }
+
+    static void register(final SProcResultCache cache) {
+        CACHES_BY_SPROC_NAME.computeIfAbsent(cache.getSprocName(),
+            sprocName -> Collections.newSetFromMap(new MapMaker().weakKeys().makeMap())).add(cache);
+
+        if (cache.isPersistent()) {
+            startPersister();
+        }
+    }
+
+    /**
+     * removes all cached results of the sprocs whose name starts with the prefix, e.g. the namespace of a service.
+     */
+    public static void invalidateNamespace(final String prefix) {
+        for (final String sprocName : CACHES_BY_SPROC_NAME.keySet()) {
+            if (sprocName.startsWith(prefix)) {
+                invalidate(sprocName);
+            }
+        }
+    }
+
+    /**
+     * removes all cached results of all sprocs.
+     */
+    public static void invalidateAll() {
+        invalidateNamespace("");
+    }
+
+    /**
+     * @return  the directory persistent caches are written to
+     */
+    public static Path getPersistentDirectory() {
+        Path directory = persistentDirectory;
+        if (directory == null) {
+            String configured = null;
+            try {
+                configured = System.getenv(PERSISTENT_DIRECTORY_ENV);
+            } catch (final Exception e) {
+                // ignore - e.g. if a security manager exists and permissions are denied.
+            }
+
+            directory = Strings.isNullOrEmpty(configured)
+                ? Paths.get(System.getProperty("java.io.tmpdir"), "sprocwrapper-cache") : Paths.get(configured);
+            persistentDirectory = directory;
+        }
+
+        return directory;
+    }
+
+    /**
+     * sets the directory persistent caches are written to, must be called before the sproc proxies are built.
+     */
+    public static void setPersistentDirectory(final Path directory) {
+        persistentDirectory = directory;
+    }
+
+    /**
+     * writes all persistent caches whose results changed since they were last written.
+     */
+    public static void persistAll() {
+        for (final Set<SProcResultCache> caches : CACHES_BY_SPROC_NAME.values()) {
+            for (final SProcResultCache cache : ImmutableList.copyOf(caches)) {
+                try {
+                    cache.persist();
+                } catch (final IOException | RuntimeException e) {
+                    LOG.warn("Could not persist results of {}", cache.getSprocName(), e);
+                }
+            }
+        }
+    }
+
+    private static synchronized void startPersister() {
+        if (persister != null) {
+            return;
+        }
+
+        persister = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("sproc-cache-persister-%d").setDaemon(true).build());
+        persister.scheduleWithFixedDelay(SProcResultCaches::persistAll, PERSIST_INTERVAL_MILLIS,
+            PERSIST_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(SProcResultCaches::persistAll, "sproc-cache-shutdown"));
+    }
+
+    /**
+     * @return  the result caches of all proxies calling the sproc
+     */
+    public static Collection<SProcResultCache> get(final String sprocName) {
+        final Set<SProcResultCache> caches = CACHES_BY_SPROC_NAME.get(sprocName);
+        return caches == null ? ImmutableList.of() : ImmutableList.copyOf(caches);
+    }
+
+    /**
+     * removes all cached results of the sproc.
+     */
+    public static void invalidate(final String sprocName) {
+        for (final SProcResultCache cache : get(sprocName)) {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * removes the cached result of the sproc for the given arguments.
+     */
+    public static void invalidate(final String sprocName, final Object... args) {
+        for (final SProcResultCache cache : get(sprocName)) {
+            cache.invalidate(args);
+        }
+    }
+}
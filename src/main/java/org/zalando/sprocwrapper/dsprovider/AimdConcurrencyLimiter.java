@@ -0,0 +1,142 @@
+package org.zalando.sprocwrapper.dsprovider;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Concurrency limit adapted from the observed latency (additive increase, multiplicative decrease): every call slower
+ * than the latency threshold (or failing) shrinks the limit by the backoff ratio, fast calls grow it by one per
+ * {@code limit} calls while at least half of the limit is in use. Callers over the limit wait for a permit.
+ */
+public class AimdConcurrencyLimiter {
+
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitAvailable = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param  initialLimit            start value of the limit
+     * @param  minLimit                the limit never shrinks below
+     * @param  maxLimit                the limit never grows above
+     * @param  latencyThresholdMillis  calls taking longer shrink the limit
+     */
+    public AimdConcurrencyLimiter(final int initialLimit, final int minLimit, final int maxLimit,
+            final long latencyThresholdMillis) {
+        Preconditions.checkArgument(minLimit > 0 && minLimit <= initialLimit && initialLimit <= maxLimit,
+            "limits must satisfy 0 < min <= initial <= max: %s, %s, %s", minLimit, initialLimit, maxLimit);
+        Preconditions.checkArgument(latencyThresholdMillis > 0, "latency threshold must be positive: %s",
+            latencyThresholdMillis);
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMillis);
+    }
+
+    /**
+     * takes a permit, waiting at most the given time for one.
+     *
+     * @return  false if no permit became available in time
+     */
+    public boolean tryAcquire(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) limit) {
+                if (remaining <= 0) {
+                    rejected.increment();
+                    return false;
+                }
+
+                remaining = permitAvailable.awaitNanos(remaining);
+            }
+
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * gives a permit back and adapts the limit.
+     *
+     * @param  latencyNanos  time the permit was held
+     * @param  dropped       true if the call failed without telling anything about its latency, e.g. timed out
+     */
+    public void release(final long latencyNanos, final boolean dropped) {
+        lock.lock();
+        try {
+            final boolean saturated = inFlight * 2 >= limit;
+            inFlight--;
+
+            if (dropped || latencyNanos > latencyThresholdNanos) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+            } else if (saturated) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+
+            signalIfAvailable();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * gives a permit back without adapting the limit, for uses whose latency tells nothing about the load of the
+     * data source.
+     */
+    public void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            signalIfAvailable();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signalIfAvailable() {
+        if (inFlight < (int) limit) {
+            permitAvailable.signal();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return  number of calls which did not get a permit in time
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
@@ -1,155 +1,345 @@
 package org.zalando.sprocwrapper.dsprovider;
 
+import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
 import org.apache.commons.beanutils.BeanUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
 
 import javax.sql.DataSource;
 import java.lang.reflect.InvocationTargetException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
-
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Maps virtual shard ids to data sources using the lowest bits of the virtual shard id. The data source keys are bit
+ * strings: "0" and "1" configure two shards, "00", "01", "10" and "11" four shards, "0", "01" and "11" three shards
+ * (the first one getting half of the virtual shards).
+ *
+ * <p>The mapping (topology) can be replaced at runtime, e.g. to split a shard, using
+ * {@link #updateTopology(long, Map)}. Routing reads an immutable {@link Topology} snapshot without locking and hands
+ * out the configured data sources. Calls already running on the old topology keep their connections. To wait for them
+ * with {@link Topology#awaitDrained(long, TimeUnit)}, their connections must be counted: enable
+ * {@link #setInFlightTracking(boolean) in-flight tracking} before the update, at least as long before as the longest
+ * call may take (e.g. the statement timeout), and disable it again once the old topology is drained:</p>
+ *
+ * <pre>
+ * provider.setInFlightTracking(true);
+ * ... // wait for calls started before
+ * final Topology old = provider.getTopology();
+ * if (provider.updateTopology(old.getVersion(), newDataSources)) {
+ *     old.awaitDrained(30, TimeUnit.SECONDS);
+ * }
+ * provider.setInFlightTracking(false);
+ * </pre>
+ */
 public class BitmapShardDataSourceProvider implements DataSourceProvider {
 
     private static final Logger LOG = LoggerFactory.getLogger(BitmapShardDataSourceProvider.class);
 
-    private final DataSource[] dataSources;
-
-    private final int mask;
+    private final AtomicReference<Topology> topology;
 
-    private final List<Integer> distinctShardIds;
+    // wraps every connection while enabled
+    private volatile boolean inFlightTracking = false;
 
     public BitmapShardDataSourceProvider(final Map<String, DataSource> connectionDataSources) {
+        topology = new AtomicReference<>(new Topology(1, connectionDataSources));
+    }
 
-        int maskLength = 0;
-        for (final Entry<String, DataSource> entry : connectionDataSources.entrySet()) {
-            if (entry.getKey().length() > maskLength) {
-                maskLength = entry.getKey().length();
-            }
-        }
+    public BitmapShardDataSourceProvider(final Class<? extends DataSource> dataSourceClass,
+            final Map<String, String> commonDataSourceProperties, final Map<String, String> connectionUrls)
+        throws InstantiationException, IllegalAccessException, InvocationTargetException, SecurityException, NoSuchMethodException {
 
-        mask = (1 << maskLength) - 1;
+        final Map<String, DataSource> connectionDataSources = Maps.newHashMap();
+        for (final Entry<String, String> entry : connectionUrls.entrySet()) {
+            final DataSource ds = dataSourceClass.getDeclaredConstructor().newInstance();
+            for (final Entry<String, String> prop : commonDataSourceProperties.entrySet()) {
+                BeanUtils.setProperty(ds, prop.getKey(), prop.getValue());
+            }
 
-        dataSources = new DataSource[1 << maskLength];
+            final String[] parts = entry.getValue().split("\\|");
 
-        for (final Entry<String, DataSource> entry : connectionDataSources.entrySet()) {
-            final DataSource ds = entry.getValue();
+            BeanUtils.setProperty(ds, "jdbcUrl", parts[0]);
 
-            for (int i = 0; i < dataSources.length; i++) {
-                final String binaryString = Strings.repeat("0", maskLength) + Integer.toBinaryString(i);
-                if (binaryString.endsWith(entry.getKey())) {
-                    LOG.debug("Configured {} at index {}", entry.getValue(), i);
-                    if (dataSources[i] != null) {
-                        throw new IllegalArgumentException(
-                            "Bitmask misconfigured for shards: two connections configured for index " + i);
-                    }
+            if (parts.length > 1) {
 
-                    dataSources[i] = ds;
-                }
+                // a little bit hacky, because "initSQL" is boneCP-specific
+                BeanUtils.setProperty(ds, "initSQL", parts[1]);
             }
-        }
 
-        for (int i = 0; i < dataSources.length; i++) {
-            if (dataSources[i] == null) {
-                throw new IllegalArgumentException("Not enough connection URLs configured for mask length " + maskLength
-                        + ": datasource at index " + i + " is missing");
-            }
+            LOG.debug("Configured " + entry.getValue() + " for mask " + entry.getKey());
+            connectionDataSources.put(entry.getKey(), ds);
         }
 
-        distinctShardIds = Lists.newArrayList();
+        topology = new AtomicReference<>(new Topology(1, connectionDataSources));
+    }
 
-        final Set<DataSource> seenDataSources = Sets.newHashSet();
+    @Override
+    public int getDataSourceId(final int virtualShardId) {
+        return topology.get().getDataSourceId(virtualShardId);
+    }
 
-        for (int i = 0; i < dataSources.length; i++) {
-            if (!seenDataSources.contains(dataSources[i])) {
-                distinctShardIds.add(i);
-                seenDataSources.add(dataSources[i]);
-            }
+    @Override
+    public DataSource getDataSource(final int virtualShardId) {
+        final Topology current = topology.get();
+        if (inFlightTracking) {
+            return current.getTrackedDataSource(virtualShardId);
         }
+
+        current.markUntracked();
+        return current.getDataSource(virtualShardId);
     }
 
-    public BitmapShardDataSourceProvider(final Class<? extends DataSource> dataSourceClass,
-            final Map<String, String> commonDataSourceProperties, final Map<String, String> connectionUrls)
-        throws InstantiationException, IllegalAccessException, InvocationTargetException, SecurityException, NoSuchMethodException {
+    @Override
+    public List<Integer> getDistinctShardIds() {
+        return topology.get().getDistinctShardIds();
+    }
 
-        int maskLength = 0;
-        for (final Entry<String, String> entry : connectionUrls.entrySet()) {
-            if (entry.getKey().length() > maskLength) {
-                maskLength = entry.getKey().length();
-            }
+    /**
+     * @return  the current topology
+     */
+    public Topology getTopology() {
+        return topology.get();
+    }
+
+    public boolean isInFlightTracking() {
+        return inFlightTracking;
+    }
+
+    /**
+     * enables or disables counting the connections handed out through each topology (disabled by default). While
+     * enabled, the provider hands out wrappers of the configured data sources whose connections notify the topology
+     * when they are closed. A topology can only be drained if tracking was enabled during its whole lifetime, i.e.
+     * before the first call after it was created.
+     */
+    public void setInFlightTracking(final boolean enabled) {
+        inFlightTracking = enabled;
+    }
+
+    /**
+     * replaces the topology if it was not changed concurrently.
+     *
+     * @param   expectedVersion        version of the topology the new one is based on
+     * @param   connectionDataSources  data sources by bit mask, see constructor
+     *
+     * @return  true if the topology was replaced, false if the current topology does not have the expected version
+     *
+     * @throws  IllegalArgumentException  if the bit masks do not cover all shards
+     */
+    public boolean updateTopology(final long expectedVersion, final Map<String, DataSource> connectionDataSources) {
+        final Topology current = topology.get();
+        if (current.getVersion() != expectedVersion) {
+            return false;
         }
 
-        mask = (1 << maskLength) - 1;
-        dataSources = new DataSource[1 << maskLength];
+        final Topology next = new Topology(expectedVersion + 1, connectionDataSources);
+        if (!topology.compareAndSet(current, next)) {
+            return false;
+        }
 
-        for (final Entry<String, String> entry : connectionUrls.entrySet()) {
-            final DataSource ds = dataSourceClass.getDeclaredConstructor().newInstance();
-            for (final Entry<String, String> prop : commonDataSourceProperties.entrySet()) {
-                BeanUtils.setProperty(ds, prop.getKey(), prop.getValue());
+        LOG.info("Shard topology updated to version {}: {} distinct shards", next.getVersion(),
+            next.getDistinctShardIds().size());
+        return true;
+    }
+
+    /**
+     * Immutable mapping of virtual shard ids to data sources. Connections obtained through the tracked data sources of
+     * a topology are counted until they are closed, so that replaced topologies can be drained.
+     */
+    public static final class Topology {
+
+        private final long version;
+
+        private final DataSource[] dataSources;
+
+        private final DataSource[] trackedDataSources;
+
+        private final int mask;
+
+        private final List<Integer> distinctShardIds;
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        // set once data sources of this topology were handed out without in-flight tracking
+        private volatile boolean untracked = false;
+
+        private Topology(final long version, final Map<String, DataSource> connectionDataSources) {
+            this.version = version;
+
+            int maskLength = 0;
+            for (final Entry<String, DataSource> entry : connectionDataSources.entrySet()) {
+                if (entry.getKey().length() > maskLength) {
+                    maskLength = entry.getKey().length();
+                }
             }
 
-            final String[] parts = entry.getValue().split("\\|");
+            mask = (1 << maskLength) - 1;
 
-            BeanUtils.setProperty(ds, "jdbcUrl", parts[0]);
+            dataSources = new DataSource[1 << maskLength];
+            trackedDataSources = new DataSource[1 << maskLength];
 
-            if (parts.length > 1) {
+            final Map<DataSource, DataSource> wrappers = new IdentityHashMap<>();
+            for (final Entry<String, DataSource> entry : connectionDataSources.entrySet()) {
+                final DataSource ds = entry.getValue();
+                DataSource tracked = wrappers.get(ds);
+                if (tracked == null) {
+                    tracked = new InFlightDataSource(ds);
+                    wrappers.put(ds, tracked);
+                }
 
-                // a little bit hacky, because "initSQL" is boneCP-specific
-                BeanUtils.setProperty(ds, "initSQL", parts[1]);
+                for (int i = 0; i < dataSources.length; i++) {
+                    final String binaryString = Strings.repeat("0", maskLength) + Integer.toBinaryString(i);
+                    if (binaryString.endsWith(entry.getKey())) {
+                        LOG.debug("Configured {} at index {}", entry.getValue(), i);
+                        if (dataSources[i] != null) {
+                            throw new IllegalArgumentException(
+                                "Bitmask misconfigured for shards: two connections configured for index " + i);
+                        }
+
+                        dataSources[i] = ds;
+                        trackedDataSources[i] = tracked;
+                    }
+                }
             }
 
             for (int i = 0; i < dataSources.length; i++) {
-                final String binaryString = Strings.repeat("0", maskLength) + Integer.toBinaryString(i);
-                if (binaryString.endsWith(entry.getKey())) {
-                    LOG.debug("Configured " + entry.getValue() + " at index " + i);
-                    if (dataSources[i] != null) {
-                        throw new IllegalArgumentException(
-                            "Bitmask misconfigured for shards: two connections configured for index " + i);
-                    }
+                if (dataSources[i] == null) {
+                    throw new IllegalArgumentException("Not enough connection URLs configured for mask length "
+                            + maskLength + ": datasource at index " + i + " is missing");
+                }
+            }
 
-                    dataSources[i] = ds;
+            final ImmutableList.Builder<Integer> shardIds = ImmutableList.builder();
+            final Map<DataSource, Boolean> seenDataSources = new IdentityHashMap<>();
+
+            for (int i = 0; i < dataSources.length; i++) {
+                if (seenDataSources.put(dataSources[i], Boolean.TRUE) == null) {
+                    shardIds.add(i);
                 }
             }
+
+            distinctShardIds = shardIds.build();
         }
 
-        for (int i = 0; i < dataSources.length; i++) {
-            if (dataSources[i] == null) {
-                throw new IllegalArgumentException("Not enough connection URLs configured for mask length " + maskLength
-                        + ": datasource at index " + i + " is missing");
-            }
+        public long getVersion() {
+            return version;
+        }
+
+        public int getDataSourceId(final int virtualShardId) {
+            return virtualShardId & mask;
+        }
+
+        /**
+         * @return  the configured data source of the virtual shard
+         */
+        public DataSource getDataSource(final int virtualShardId) {
+            return dataSources[virtualShardId & mask];
+        }
+
+        /**
+         * @return  wrapper of the configured data source of the virtual shard, counting its connections for this
+         *          topology
+         */
+        public DataSource getTrackedDataSource(final int virtualShardId) {
+            return trackedDataSources[virtualShardId & mask];
+        }
+
+        public List<Integer> getDistinctShardIds() {
+            return distinctShardIds;
         }
 
-        distinctShardIds = Lists.newArrayList();
+        /**
+         * @return  number of connections obtained through the tracked data sources of this topology which are not
+         *          closed yet
+         */
+        public int getInFlightCalls() {
+            return inFlight.get();
+        }
 
-        final Set<DataSource> seenDataSources = Sets.newHashSet();
+        /**
+         * waits until all connections obtained through the tracked data sources of this topology are closed.
+         *
+         * @return  true if the topology is drained, false if the timeout elapsed before
+         *
+         * @throws  IllegalStateException  if the provider handed out data sources of this topology without in-flight
+         *                                 tracking, whose connections can not be waited for
+         */
+        public boolean awaitDrained(final long timeout, final TimeUnit unit) throws InterruptedException {
+            Preconditions.checkArgument(timeout >= 0, "timeout must not be negative: %s", timeout);
+            Preconditions.checkState(!untracked,
+                "Topology version %s handed out connections without in-flight tracking and can not be drained,"
+                    + " enable the tracking before the topology is updated", version);
+
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (inFlight) {
+                while (inFlight.get() > 0) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
 
-        for (int i = 0; i < dataSources.length; i++) {
-            if (!seenDataSources.contains(dataSources[i])) {
-                distinctShardIds.add(i);
-                seenDataSources.add(dataSources[i]);
+                    TimeUnit.NANOSECONDS.timedWait(inFlight, remaining);
+                }
             }
+
+            return true;
         }
 
-    }
+        private void markUntracked() {
+            if (!untracked) {
+                untracked = true;
+            }
+        }
 
-    @Override
-    public int getDataSourceId(final int virtualShardId) {
-        return virtualShardId & mask;
-    }
+        private Connection track(final Connection connection) {
+            inFlight.incrementAndGet();
+            return ConnectionHooks.onClose(connection, () -> {
+                    if (inFlight.decrementAndGet() == 0) {
+                        synchronized (inFlight) {
+                            inFlight.notifyAll();
+                        }
+                    }
+                });
+        }
 
-    @Override
-    public DataSource getDataSource(final int virtualShardId) {
-        return dataSources[virtualShardId & mask];
-    }
+        @Override
+        public String toString() {
+            return "Topology{version=" + version + ", mask=" + mask + ", distinctShardIds=" + distinctShardIds + '}';
+        }
 
-    @Override
-    public List<Integer> getDistinctShardIds() {
-        return distinctShardIds;
-    }
+        /**
+         * counts the connections of the data source for the enclosing topology.
+         */
+        private final class InFlightDataSource extends DelegatingDataSource {
+
+            private InFlightDataSource(final DataSource targetDataSource) {
+                super(targetDataSource);
+            }
 
+            @Override
+            public Connection getConnection() throws SQLException {
+                return track(super.getConnection());
+            }
+
+            @Override
+            public Connection getConnection(final String username, final String password) throws SQLException {
+                return track(super.getConnection(username, password));
+            }
+
+            @Override
+            public String toString() {
+                return getTargetDataSource().toString();
+            }
+        }
+    }
 }
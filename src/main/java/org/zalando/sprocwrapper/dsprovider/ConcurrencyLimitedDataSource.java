@@ -0,0 +1,104 @@
+package org.zalando.sprocwrapper.dsprovider;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import com.google.common.base.Preconditions;
+
+import org.zalando.sprocwrapper.sharding.ShardOverloadedException;
+
+/**
+ * Bulkhead for a single data source: a connection can only be obtained with a permit of the data source's
+ * {@link AimdConcurrencyLimiter}, which is released when the connection is closed. The time the connection is held
+ * adapts the limit. Callers wait at most {@code maxWaitMillis} for a permit before the call is rejected with a
+ * {@link ShardOverloadedException}, so a slow shard neither exhausts its connection pool nor blocks all callers.
+ *
+ * <p>Connections taken with {@link #getUnsampledConnection()} need a permit as well, but do not adapt the limit:
+ * the sproc wrapper uses it for the short checkout mapping the call parameters, which would otherwise count as a fast
+ * call and grow the limit.</p>
+ */
+public class ConcurrencyLimitedDataSource extends DelegatingDataSource {
+
+    private final AimdConcurrencyLimiter limiter;
+    private final long maxWaitNanos;
+
+    public ConcurrencyLimitedDataSource(final DataSource targetDataSource, final AimdConcurrencyLimiter limiter,
+            final long maxWaitMillis) {
+        super(targetDataSource);
+        Preconditions.checkArgument(maxWaitMillis >= 0, "maxWaitMillis must not be negative: %s", maxWaitMillis);
+        this.limiter = Preconditions.checkNotNull(limiter, "limiter");
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        final long start = acquire();
+        try {
+            return track(super.getConnection(), start);
+        } catch (final SQLException | RuntimeException e) {
+            limiter.release(System.nanoTime() - start, true);
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(final String username, final String password) throws SQLException {
+        final long start = acquire();
+        try {
+            return track(super.getConnection(username, password), start);
+        } catch (final SQLException | RuntimeException e) {
+            limiter.release(System.nanoTime() - start, true);
+            throw e;
+        }
+    }
+
+    /**
+     * takes a connection with a permit, whose hold time is not sampled by the limiter.
+     */
+    public Connection getUnsampledConnection() throws SQLException {
+        acquire();
+        try {
+            return ConnectionHooks.onClose(super.getConnection(), limiter::release);
+        } catch (final SQLException | RuntimeException e) {
+            limiter.release();
+            throw e;
+        }
+    }
+
+    private long acquire() {
+        final boolean acquired;
+        try {
+            acquired = limiter.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ShardOverloadedException("Interrupted while waiting for a connection of " + this);
+        }
+
+        if (!acquired) {
+            throw new ShardOverloadedException("Concurrency limit " + limiter.getLimit() + " of " + this
+                    + " reached, no connection available within " + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos)
+                    + " ms");
+        }
+
+        return System.nanoTime();
+    }
+
+    private Connection track(final Connection connection, final long start) {
+        return ConnectionHooks.onClose(connection, () -> limiter.release(System.nanoTime() - start, false));
+    }
+
+    public AimdConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    @Override
+    public String toString() {
+        return getTargetDataSource().toString();
+    }
+}
@@ -0,0 +1,92 @@
+package org.zalando.sprocwrapper.dsprovider;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.MapMaker;
+
+/**
+ * Decorates the data sources of a provider with a {@link ConcurrencyLimitedDataSource} per physical data source, each
+ * with its own adaptive limit. Data sources wrapping the same physical data source (see {@link DelegatingDataSource}),
+ * e.g. the in-flight tracking of several topologies, share its limit.
+ *
+ * <p>Combined with replicas, this provider must be the primary provider of the {@link ReplicaAwareDataSourceProvider}
+ * (the replicas can be wrapped in a {@link ConcurrencyLimitedDataSource} individually):</p>
+ *
+ * <pre>
+ * new ReplicaAwareDataSourceProvider(new ConcurrencyLimitingDataSourceProvider(primaries, ...), replicasByPrimary)
+ * </pre>
+ *
+ * <p>The other order is not supported: wrapping a {@code ReplicaAwareDataSourceProvider} hides it from the sproc
+ * calls, so that read only calls lose the replica routing and hedging and all calls go to the primaries.</p>
+ */
+public class ConcurrencyLimitingDataSourceProvider implements DataSourceProvider {
+
+    private final DataSourceProvider delegate;
+    private final int initialLimit;
+    private final int maxLimit;
+    private final long latencyThresholdMillis;
+    private final long maxWaitMillis;
+
+    private final Map<DataSource, ConcurrencyLimitedDataSource> limitedDataSources = new MapMaker().weakKeys()
+                                                                                                    .makeMap();
+
+    // keyed by the physical data source: wrappers of the delegate (e.g. per topology) share the limit of the pool
+    private final Map<DataSource, AimdConcurrencyLimiter> limiters = new MapMaker().weakKeys().makeMap();
+
+    /**
+     * @param  delegate                provider of the data sources to limit
+     * @param  initialLimit            start value of the concurrency limit of each data source
+     * @param  maxLimit                maximum concurrency per data source, e.g. its connection pool size
+     * @param  latencyThresholdMillis  calls holding a connection longer shrink the limit
+     * @param  maxWaitMillis           time a call waits for a permit before it is rejected
+     */
+    public ConcurrencyLimitingDataSourceProvider(final DataSourceProvider delegate, final int initialLimit,
+            final int maxLimit, final long latencyThresholdMillis, final long maxWaitMillis) {
+        Preconditions.checkArgument(initialLimit > 0 && initialLimit <= maxLimit,
+            "limits must satisfy 0 < initial <= max: %s, %s", initialLimit, maxLimit);
+        Preconditions.checkArgument(latencyThresholdMillis > 0, "latency threshold must be positive: %s",
+            latencyThresholdMillis);
+        Preconditions.checkArgument(maxWaitMillis >= 0, "maxWaitMillis must not be negative: %s", maxWaitMillis);
+        this.delegate = Preconditions.checkNotNull(delegate, "delegate");
+        this.initialLimit = initialLimit;
+        this.maxLimit = maxLimit;
+        this.latencyThresholdMillis = latencyThresholdMillis;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    @Override
+    public int getDataSourceId(final int virtualShardId) {
+        return delegate.getDataSourceId(virtualShardId);
+    }
+
+    @Override
+    public DataSource getDataSource(final int virtualShardId) {
+        return limitedDataSources.computeIfAbsent(delegate.getDataSource(virtualShardId),
+                ds -> new ConcurrencyLimitedDataSource(ds, getLimiter(ds), maxWaitMillis));
+    }
+
+    /**
+     * @return  the limiter of the physical data source behind the given one
+     */
+    private AimdConcurrencyLimiter getLimiter(final DataSource dataSource) {
+        DataSource physical = dataSource;
+        while (physical instanceof DelegatingDataSource
+                && ((DelegatingDataSource) physical).getTargetDataSource() != null) {
+            physical = ((DelegatingDataSource) physical).getTargetDataSource();
+        }
+
+        return limiters.computeIfAbsent(physical,
+                ds -> new AimdConcurrencyLimiter(initialLimit, 1, maxLimit, latencyThresholdMillis));
+    }
+
+    @Override
+    public List<Integer> getDistinctShardIds() {
+        return delegate.getDistinctShardIds();
+    }
+}
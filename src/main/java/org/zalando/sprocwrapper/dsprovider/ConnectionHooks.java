@@ -0,0 +1,48 @@
+package org.zalando.sprocwrapper.dsprovider;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import java.sql.Connection;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.reflect.AbstractInvocationHandler;
+import com.google.common.reflect.Reflection;
+
+/**
+ * Helper for data sources that need to know when a connection handed out by them is given back.
+ */
+final class ConnectionHooks {
+
+    private ConnectionHooks() {
+        // utility class: private constructor
+    }
+
+    /**
+     * returns a view of the given connection which runs the callback exactly once, when the connection is closed.
+     */
+    static Connection onClose(final Connection connection, final Runnable callback) {
+        final AtomicBoolean closed = new AtomicBoolean(false);
+        return Reflection.newProxy(Connection.class, new AbstractInvocationHandler() {
+                    @Override
+                    protected Object handleInvocation(final Object proxy, final Method method, final Object[] args)
+                        throws Throwable {
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (final InvocationTargetException e) {
+                            throw e.getCause();
+                        } finally {
+                            if ("close".equals(method.getName()) && closed.compareAndSet(false, true)) {
+                                callback.run();
+                            }
+                        }
+                    }
+
+                    @Override
+                    public String toString() {
+                        return connection.toString();
+                    }
+                });
+    }
+}
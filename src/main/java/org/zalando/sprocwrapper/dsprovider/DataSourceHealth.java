@@ -0,0 +1,240 @@
+package org.zalando.sprocwrapper.dsprovider;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+
+/**
+ * Health of a single physical data source (shard): rolling error rate, latency moving average and number of time-outs.
+ * Acts as a circuit breaker: if too many calls failed recently, the circuit opens and calls fail fast until a single
+ * probe call after {@link DataSourceHealthRegistry#getOpenDurationMillis()} succeeds.
+ *
+ * <p>Only failures of the data source itself (connection problems, time-outs, shutdowns) count as errors: exceptions
+ * raised by the stored procedure mean that the database is responsive.</p>
+ */
+public class DataSourceHealth {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final int BUCKETS = 10;
+    private static final long BUCKET_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final double EWMA_WEIGHT = 0.1;
+
+    private final String name;
+
+    // rolling window of BUCKETS seconds
+    private final long[] bucketEpochs = new long[BUCKETS];
+    private final int[] calls = new int[BUCKETS];
+    private final int[] failures = new int[BUCKETS];
+
+    private long timeouts = 0;
+    private double latencyEwmaNanos = 0;
+
+    private State state = State.CLOSED;
+    private long openedAtNanos = 0;
+
+    DataSourceHealth(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return  true if a call may be sent to this data source. While the circuit is open, a single probe call is let
+     *          through every {@link DataSourceHealthRegistry#getOpenDurationMillis()} (state {@link State#HALF_OPEN}).
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+
+        if (isProbeDue()) {
+
+            // a probe whose result was never recorded (e.g. cancelled) does not block further probes
+            state = State.HALF_OPEN;
+            openedAtNanos = System.nanoTime();
+            return true;
+        }
+
+        // without circuit breaker the state is only tracked
+        return !DataSourceHealthRegistry.isCircuitBreakerEnabled();
+    }
+
+    /**
+     * same as {@link #allowRequest()}, but does not start a probe call and ignores whether the circuit breaker is
+     * enabled.
+     *
+     * @return  true if the circuit is closed or a probe call is due
+     */
+    public synchronized boolean isAvailable() {
+        return state == State.CLOSED || isProbeDue();
+    }
+
+    private boolean isProbeDue() {
+        return System.nanoTime() - openedAtNanos
+                >= TimeUnit.MILLISECONDS.toNanos(DataSourceHealthRegistry.getOpenDurationMillis());
+    }
+
+    public synchronized void recordSuccess(final long latencyNanos) {
+        record(latencyNanos, false);
+        if (state == State.HALF_OPEN) {
+            state = State.CLOSED;
+            clearWindow();
+        }
+    }
+
+    /**
+     * records a failed call. Exceptions which are not caused by the data source are counted as success.
+     */
+    public synchronized void recordFailure(final long latencyNanos, final Throwable failure) {
+        final boolean timeout = isTimeout(failure);
+        if (!timeout && !isDataSourceFailure(failure)) {
+            recordSuccess(latencyNanos);
+            return;
+        }
+
+        if (timeout) {
+            timeouts++;
+        }
+
+        record(latencyNanos, true);
+
+        if (state == State.HALF_OPEN || (state == State.CLOSED && isFailureRateExceeded())) {
+            state = State.OPEN;
+            openedAtNanos = System.nanoTime();
+        }
+    }
+
+    private void record(final long latencyNanos, final boolean failed) {
+        final long epoch = System.nanoTime() / BUCKET_NANOS;
+        final int bucket = (int) Math.floorMod(epoch, (long) BUCKETS);
+        if (bucketEpochs[bucket] != epoch) {
+            bucketEpochs[bucket] = epoch;
+            calls[bucket] = 0;
+            failures[bucket] = 0;
+        }
+
+        calls[bucket]++;
+        if (failed) {
+            failures[bucket]++;
+        }
+
+        latencyEwmaNanos = latencyEwmaNanos == 0 ? latencyNanos
+                                                 : latencyEwmaNanos + EWMA_WEIGHT * (latencyNanos - latencyEwmaNanos);
+    }
+
+    private void clearWindow() {
+        for (int i = 0; i < BUCKETS; i++) {
+            calls[i] = 0;
+            failures[i] = 0;
+        }
+    }
+
+    private boolean isFailureRateExceeded() {
+        final long windowCalls = getWindowCalls();
+        return windowCalls >= DataSourceHealthRegistry.getMinimumCalls()
+                && getErrorRate() >= DataSourceHealthRegistry.getFailureRateThreshold();
+    }
+
+    private long getWindowCalls() {
+        final long oldestEpoch = System.nanoTime() / BUCKET_NANOS - BUCKETS + 1;
+        long sum = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (bucketEpochs[i] >= oldestEpoch) {
+                sum += calls[i];
+            }
+        }
+
+        return sum;
+    }
+
+    /**
+     * @return  ratio of failed calls in the rolling window of the last 10 seconds
+     */
+    public synchronized double getErrorRate() {
+        final long oldestEpoch = System.nanoTime() / BUCKET_NANOS - BUCKETS + 1;
+        long callSum = 0;
+        long failureSum = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (bucketEpochs[i] >= oldestEpoch) {
+                callSum += calls[i];
+                failureSum += failures[i];
+            }
+        }
+
+        return callSum == 0 ? 0 : (double) failureSum / callSum;
+    }
+
+    public synchronized double getLatencyEwmaMillis() {
+        return latencyEwmaNanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public synchronized long getTimeouts() {
+        return timeouts;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public boolean isHealthy() {
+        return getState() == State.CLOSED;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    static boolean isTimeout(final Throwable failure) {
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof QueryTimeoutException || t instanceof SQLTimeoutException
+                    || t instanceof SocketTimeoutException) {
+                return true;
+            }
+
+            // query_canceled: raised by statement_timeout
+            if (t instanceof SQLException && "57014".equals(((SQLException) t).getSQLState())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    static boolean isDataSourceFailure(final Throwable failure) {
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof CannotGetJdbcConnectionException || t instanceof SQLTransientConnectionException
+                    || t instanceof ConnectException) {
+                return true;
+            }
+
+            if (t instanceof SQLException) {
+                final String sqlState = ((SQLException) t).getSQLState();
+
+                // connection exceptions, shutdowns and "too many connections"
+                if (sqlState != null
+                        && (sqlState.startsWith("08") || sqlState.startsWith("57P") || "53300".equals(sqlState))) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "DataSourceHealth{name=" + name + ", state=" + getState() + ", errorRate=" + getErrorRate()
+                + ", latencyEwmaMillis=" + getLatencyEwmaMillis() + ", timeouts=" + getTimeouts() + '}';
+    }
+}
@@ -0,0 +1,121 @@
+package org.zalando.sprocwrapper.dsprovider;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.MapMaker;
+
+/**
+ * Keeps the {@link DataSourceHealth} of every physical data source used to execute stored procedures. Data sources
+ * wrapping other data sources ({@link DelegatingDataSource}) share the health of the data source they wrap.
+ *
+ * <p>The circuit breaker settings apply to all data sources. The circuit breaker is disabled by default: the health is
+ * tracked, but only sprocs declaring {@link org.zalando.sprocwrapper.SProcCall#skipUnhealthyShards()} act on it.</p>
+ */
+public final class DataSourceHealthRegistry {
+
+    // weak keys: compared by identity, do not prevent discarded pools from being collected
+    private static final ConcurrentMap<DataSource, DataSourceHealth> HEALTH_BY_DATASOURCE = new MapMaker().weakKeys()
+                                                                                                          .makeMap();
+
+    private static volatile boolean circuitBreakerEnabled = false;
+    private static volatile double failureRateThreshold = 0.5;
+    private static volatile int minimumCalls = 20;
+    private static volatile long openDurationMillis = 5000;
+
+    private DataSourceHealthRegistry() {
+        // utility class: private constructor
+    }
+
+    /**
+     * @return  the health of the physical data source behind the given data source, null for data sources pinned to a
+     *          single connection (transactions)
+     */
+    public static DataSourceHealth getHealth(final DataSource dataSource) {
+        final DataSource physical = unwrap(dataSource);
+        if (physical == null || physical instanceof SameConnectionDatasource) {
+            return null;
+        }
+
+        return HEALTH_BY_DATASOURCE.computeIfAbsent(physical, ds -> new DataSourceHealth(ds.toString()));
+    }
+
+    /**
+     * @return  true if the circuit of the given data source is closed or a probe call is due (does not start a probe
+     *          call of an open circuit)
+     */
+    public static boolean isAvailable(final DataSource dataSource) {
+        final DataSourceHealth health = getHealth(dataSource);
+        return health == null || health.isAvailable();
+    }
+
+    /**
+     * @return  snapshot of the health of all data sources used so far
+     */
+    public static Map<DataSource, DataSourceHealth> getAll() {
+        return ImmutableMap.copyOf(HEALTH_BY_DATASOURCE);
+    }
+
+    private static DataSource unwrap(final DataSource dataSource) {
+        DataSource ds = dataSource;
+        while (ds instanceof DelegatingDataSource && ((DelegatingDataSource) ds).getTargetDataSource() != null) {
+            ds = ((DelegatingDataSource) ds).getTargetDataSource();
+        }
+
+        return ds;
+    }
+
+    public static boolean isCircuitBreakerEnabled() {
+        return circuitBreakerEnabled;
+    }
+
+    /**
+     * enables or disables failing fast for unhealthy data sources (disabled by default). Health statistics are collected
+     * in any case.
+     */
+    public static void setCircuitBreakerEnabled(final boolean enabled) {
+        circuitBreakerEnabled = enabled;
+    }
+
+    public static double getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * @param  threshold  ratio of failed calls in the rolling window which opens the circuit
+     */
+    public static void setFailureRateThreshold(final double threshold) {
+        Preconditions.checkArgument(threshold > 0 && threshold <= 1, "threshold must be in (0, 1]: %s", threshold);
+        failureRateThreshold = threshold;
+    }
+
+    public static int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    /**
+     * @param  calls  minimum number of calls in the rolling window before the circuit can open
+     */
+    public static void setMinimumCalls(final int calls) {
+        Preconditions.checkArgument(calls > 0, "minimum calls must be positive: %s", calls);
+        minimumCalls = calls;
+    }
+
+    public static long getOpenDurationMillis() {
+        return openDurationMillis;
+    }
+
+    /**
+     * @param  millis  time an open circuit rejects calls before a probe call is let through
+     */
+    public static void setOpenDurationMillis(final long millis) {
+        Preconditions.checkArgument(millis >= 0, "open duration must not be negative: %s", millis);
+        openDurationMillis = millis;
+    }
+}
@@ -0,0 +1,126 @@
+package org.zalando.sprocwrapper.dsprovider;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Maps virtual shard ids to any number of data sources using jump consistent hashing (Lamping and Veach, "A Fast,
+ * Minimal Memory, Consistent Hash Algorithm"). When a data source is added, only 1/N of the virtual shard ids are moved
+ * to the new data source, all others keep their data source.
+ *
+ * <p>Data sources can only be added at the end: their order must never change. Should be combined with a strategy
+ * producing uniformly distributed virtual shard ids, e.g.
+ * {@link org.zalando.sprocwrapper.sharding.VirtualShardJumpHashStrategy}.</p>
+ */
+public class JumpHashDataSourceProvider implements DataSourceProvider {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JumpHashDataSourceProvider.class);
+
+    private final AtomicReference<Shards> shards;
+
+    public JumpHashDataSourceProvider(final List<DataSource> dataSources) {
+        shards = new AtomicReference<>(new Shards(dataSources));
+    }
+
+    @Override
+    public int getDataSourceId(final int virtualShardId) {
+        return jumpHash(virtualShardId, shards.get().dataSources.size());
+    }
+
+    @Override
+    public DataSource getDataSource(final int virtualShardId) {
+        final List<DataSource> dataSources = shards.get().dataSources;
+        return dataSources.get(jumpHash(virtualShardId, dataSources.size()));
+    }
+
+    /**
+     * @return  one virtual shard id per data source
+     */
+    @Override
+    public List<Integer> getDistinctShardIds() {
+        return shards.get().distinctShardIds;
+    }
+
+    public int getShardCount() {
+        return shards.get().dataSources.size();
+    }
+
+    /**
+     * adds a data source as the last shard. About 1/N of the virtual shard ids are moved to it, the data has to be
+     * migrated beforehand.
+     */
+    public void addDataSource(final DataSource dataSource) {
+        Preconditions.checkNotNull(dataSource, "dataSource");
+
+        Shards current;
+        Shards next;
+        do {
+            current = shards.get();
+            next = new Shards(ImmutableList.<DataSource>builder().addAll(current.dataSources).add(dataSource)
+                        .build());
+        } while (!shards.compareAndSet(current, next));
+
+        LOG.info("Added data source {} as shard {}", dataSource, next.dataSources.size() - 1);
+    }
+
+    /**
+     * jump consistent hash of the (mixed) virtual shard id.
+     *
+     * @return  bucket in [0, buckets)
+     */
+    static int jumpHash(final int virtualShardId, final int buckets) {
+
+        // virtual shard ids of simple strategies are small numbers, spread them over 64 bits first
+        long key = mix(virtualShardId);
+        long b = -1;
+        long j = 0;
+        while (j < buckets) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+
+        return (int) b;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    /**
+     * immutable snapshot of the data sources with a virtual shard id routed to each of them.
+     */
+    private static final class Shards {
+
+        private final List<DataSource> dataSources;
+
+        private final List<Integer> distinctShardIds;
+
+        private Shards(final List<DataSource> dataSources) {
+            Preconditions.checkArgument(!dataSources.isEmpty(), "at least one data source is needed");
+            this.dataSources = ImmutableList.copyOf(dataSources);
+
+            final Integer[] shardIds = new Integer[dataSources.size()];
+            int found = 0;
+            for (int virtualShardId = 0; found < shardIds.length; virtualShardId++) {
+                final int bucket = jumpHash(virtualShardId, shardIds.length);
+                if (shardIds[bucket] == null) {
+                    shardIds[bucket] = virtualShardId;
+                    found++;
+                }
+            }
+
+            this.distinctShardIds = ImmutableList.copyOf(shardIds);
+        }
+    }
+}
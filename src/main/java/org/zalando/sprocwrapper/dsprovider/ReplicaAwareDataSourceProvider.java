@@ -0,0 +1,244 @@
+package org.zalando.sprocwrapper.dsprovider;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Data source provider where every shard consists of a primary and any number of read replicas. Calls of sprocs
+ * flagged as {@link org.zalando.sprocwrapper.SProcCall#readFromReplicas() readFromReplicas} are balanced across the
+ * replicas of the shard (least outstanding requests first, then lowest latency), all other calls go to the primary.
+ * If no replica can provide a connection, these calls fall back to the primary.
+ */
+public class ReplicaAwareDataSourceProvider implements DataSourceProvider {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicaAwareDataSourceProvider.class);
+
+    private final DataSourceProvider primaryProvider;
+
+    private final Map<DataSource, ReplicaSet> replicaSetsByPrimary = new IdentityHashMap<>();
+
+    /**
+     * @param  primaryProvider       provider of the primary data sources
+     * @param  replicasByPrimary     read replicas of each primary data source, primaries without replicas may be
+     *                               omitted
+     */
+    public ReplicaAwareDataSourceProvider(final DataSourceProvider primaryProvider,
+            final Map<DataSource, List<DataSource>> replicasByPrimary) {
+        this.primaryProvider = Preconditions.checkNotNull(primaryProvider, "primaryProvider");
+
+        for (final Entry<DataSource, List<DataSource>> entry : replicasByPrimary.entrySet()) {
+            final ImmutableList.Builder<ReplicaDataSource> replicas = ImmutableList.builder();
+            for (final DataSource replica : entry.getValue()) {
+                replicas.add(replica instanceof ReplicaDataSource ? (ReplicaDataSource) replica
+                                                                  : new ReplicaDataSource(replica));
+            }
+
+            replicaSetsByPrimary.put(entry.getKey(), new ReplicaSet(entry.getKey(), replicas.build()));
+        }
+    }
+
+    @Override
+    public int getDataSourceId(final int virtualShardId) {
+        return primaryProvider.getDataSourceId(virtualShardId);
+    }
+
+    /**
+     * @return  the primary data source of the shard
+     */
+    @Override
+    public DataSource getDataSource(final int virtualShardId) {
+        return primaryProvider.getDataSource(virtualShardId);
+    }
+
+    @Override
+    public List<Integer> getDistinctShardIds() {
+        return primaryProvider.getDistinctShardIds();
+    }
+
+    /**
+     * @return  data source balancing read only calls across the replicas of the shard, the primary data source if the
+     *          shard has no replicas
+     */
+    public DataSource getReadOnlyDataSource(final int virtualShardId) {
+        final DataSource primary = getDataSource(virtualShardId);
+        final ReplicaSet replicaSet = getReplicaSet(primary);
+        return replicaSet == null ? primary : replicaSet;
+    }
+
+    /**
+     * @return  the replicas of the shard, ordered by preference (least loaded first), or an empty list
+     */
+    public List<ReplicaDataSource> getReplicas(final int virtualShardId) {
+        final ReplicaSet replicaSet = getReplicaSet(getDataSource(virtualShardId));
+        return replicaSet == null ? Collections.<ReplicaDataSource>emptyList() : replicaSet.byPreference();
+    }
+
+    /**
+     * @return  data sources for the two attempts of a hedged read only call, empty if the shard has less than two
+     *          replicas. The first attempt starts at the preferred replica, the second one at the next replica; both
+     *          fall back to the following replicas and finally to the primary like
+     *          {@link #getReadOnlyDataSource(int)}.
+     */
+    public List<DataSource> getHedgingDataSources(final int virtualShardId) {
+        final ReplicaSet replicaSet = getReplicaSet(getDataSource(virtualShardId));
+        if (replicaSet == null || replicaSet.replicas.size() < 2) {
+            return Collections.emptyList();
+        }
+
+        final List<ReplicaDataSource> replicas = replicaSet.byPreference();
+        return ImmutableList.<DataSource>of(new FallbackDataSource(replicas, 0, replicaSet.primary),
+                new FallbackDataSource(replicas, 1, replicaSet.primary));
+    }
+
+    /**
+     * the primary provider may wrap the configured data sources (e.g. {@link BitmapShardDataSourceProvider}).
+     */
+    private ReplicaSet getReplicaSet(final DataSource primary) {
+        DataSource ds = primary;
+        ReplicaSet replicaSet = replicaSetsByPrimary.get(ds);
+        while (replicaSet == null && ds instanceof DelegatingDataSource) {
+            ds = ((DelegatingDataSource) ds).getTargetDataSource();
+            replicaSet = replicaSetsByPrimary.get(ds);
+        }
+
+        return replicaSet;
+    }
+
+    private static final class ReplicaSet extends AbstractDataSource {
+
+        private final DataSource primary;
+        private final List<ReplicaDataSource> replicas;
+
+        private ReplicaSet(final DataSource primary, final List<ReplicaDataSource> replicas) {
+            this.primary = primary;
+            this.replicas = replicas;
+        }
+
+        List<ReplicaDataSource> byPreference() {
+
+            // take a snapshot of the load figures, they change concurrently
+            final int size = replicas.size();
+            final Candidate[] candidates = new Candidate[size];
+            for (int i = 0; i < size; i++) {
+                candidates[i] = new Candidate(replicas.get(i));
+            }
+
+            Arrays.sort(candidates, Candidate.BY_LOAD);
+
+            final ReplicaDataSource[] ordered = new ReplicaDataSource[size];
+            for (int i = 0; i < size; i++) {
+                ordered[i] = candidates[i].replica;
+            }
+
+            return Arrays.asList(ordered);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return connect(byPreference(), 0, primary);
+        }
+
+        @Override
+        public Connection getConnection(final String username, final String password) throws SQLException {
+            throw new UnsupportedOperationException("Replica sets only support the configured credentials");
+        }
+
+        @Override
+        public String toString() {
+            return "ReplicaSet{primary=" + primary + ", replicas=" + replicas + '}';
+        }
+    }
+
+    /**
+     * @return  a connection of the first available replica starting at the given position, of the primary if no
+     *          replica can provide one
+     */
+    private static Connection connect(final List<ReplicaDataSource> replicas, final int first,
+            final DataSource primary) throws SQLException {
+        for (int i = first; i < replicas.size(); i++) {
+            final ReplicaDataSource replica = replicas.get(i);
+            if (!replica.isAvailable()) {
+                break;
+            }
+
+            try {
+                return replica.getConnection();
+            } catch (final SQLException e) {
+                LOG.warn("Could not get connection from replica {}, trying next one", replica.getTargetDataSource(), e);
+            }
+        }
+
+        LOG.debug("No replica available, falling back to primary {}", primary);
+        return primary.getConnection();
+    }
+
+    /**
+     * attempt of a hedged call. Delegates to the replica it starts at, so that it shares the health of that replica.
+     */
+    private static final class FallbackDataSource extends DelegatingDataSource {
+
+        private final List<ReplicaDataSource> replicas;
+        private final int first;
+        private final DataSource primary;
+
+        private FallbackDataSource(final List<ReplicaDataSource> replicas, final int first, final DataSource primary) {
+            super(replicas.get(first));
+            this.replicas = replicas;
+            this.first = first;
+            this.primary = primary;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return connect(replicas, first, primary);
+        }
+
+        @Override
+        public Connection getConnection(final String username, final String password) throws SQLException {
+            throw new UnsupportedOperationException("Replica sets only support the configured credentials");
+        }
+
+        @Override
+        public String toString() {
+            return "FallbackDataSource{first=" + replicas.get(first) + ", primary=" + primary + '}';
+        }
+    }
+
+    private static final class Candidate {
+
+        static final Comparator<Candidate> BY_LOAD = Comparator.comparing((final Candidate c) -> !c.available)
+                                                               .thenComparingInt(c -> c.outstanding)
+                                                               .thenComparingDouble(c -> c.latency);
+
+        final ReplicaDataSource replica;
+        final boolean available;
+        final int outstanding;
+        final double latency;
+
+        Candidate(final ReplicaDataSource replica) {
+            this.replica = replica;
+            this.available = replica.isAvailable();
+            this.outstanding = replica.getOutstandingRequests();
+            this.latency = replica.getLatencyEwmaNanos();
+        }
+    }
+}
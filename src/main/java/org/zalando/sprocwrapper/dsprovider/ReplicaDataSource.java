@@ -0,0 +1,91 @@
+package org.zalando.sprocwrapper.dsprovider;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * A read replica of a shard. Keeps track of the number of connections currently checked out (outstanding requests)
+ * and of an exponentially weighted moving average of the time connections are held, which are used to balance read
+ * only calls across the replicas of a shard.
+ */
+public class ReplicaDataSource extends DelegatingDataSource {
+
+    private static final double EWMA_WEIGHT = 0.2;
+
+    private static final long UNAVAILABLE_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    private volatile double latencyEwmaNanos = 0;
+
+    // 0 if the replica is available
+    private volatile long unavailableUntilNanos = 0;
+
+    public ReplicaDataSource(final DataSource targetDataSource) {
+        super(targetDataSource);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return getTrackedConnection(null, null);
+    }
+
+    @Override
+    public Connection getConnection(final String username, final String password) throws SQLException {
+        return getTrackedConnection(username, password);
+    }
+
+    private Connection getTrackedConnection(final String username, final String password) throws SQLException {
+        final long start = System.nanoTime();
+        outstanding.incrementAndGet();
+
+        final Connection connection;
+        try {
+            connection = username == null ? super.getConnection() : super.getConnection(username, password);
+        } catch (final SQLException | RuntimeException e) {
+            outstanding.decrementAndGet();
+            unavailableUntilNanos = System.nanoTime() + UNAVAILABLE_BACKOFF_NANOS;
+            throw e;
+        }
+
+        unavailableUntilNanos = 0;
+        return ConnectionHooks.onClose(connection, () -> release(start));
+    }
+
+    private void release(final long start) {
+        outstanding.decrementAndGet();
+
+        final long latency = System.nanoTime() - start;
+        final double ewma = latencyEwmaNanos;
+        latencyEwmaNanos = ewma == 0 ? latency : ewma + EWMA_WEIGHT * (latency - ewma);
+    }
+
+    /**
+     * @return  number of connections currently checked out from this replica
+     */
+    public int getOutstandingRequests() {
+        return outstanding.get();
+    }
+
+    /**
+     * @return  moving average of the time a connection of this replica was held, in nanoseconds
+     */
+    public double getLatencyEwmaNanos() {
+        return latencyEwmaNanos;
+    }
+
+    /**
+     * @return  false if acquiring a connection failed recently
+     */
+    public boolean isAvailable() {
+        final long unavailableUntil = unavailableUntilNanos;
+        return unavailableUntil == 0 || System.nanoTime() - unavailableUntil >= 0;
+    }
+}
@@ -0,0 +1,176 @@
+package org.zalando.sprocwrapper.dsprovider;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+import org.zalando.sprocwrapper.sharding.VirtualShardKeyStrategy;
+
+/**
+ * Simulates the placement of shard keys for a combination of shard strategy and data source provider: how evenly the
+ * keys are spread over the shards, and how many keys move to another shard when the cluster grows.
+ */
+public final class ShardPlacementSimulator {
+
+    private final VirtualShardKeyStrategy strategy;
+    private final IntFunction<DataSourceProvider> providerFactory;
+
+    /**
+     * @param  strategy         maps keys to virtual shard ids
+     * @param  providerFactory  creates a provider for the given number of shards
+     */
+    public ShardPlacementSimulator(final VirtualShardKeyStrategy strategy,
+            final IntFunction<DataSourceProvider> providerFactory) {
+        this.strategy = strategy;
+        this.providerFactory = providerFactory;
+    }
+
+    /**
+     * places the keys on {@code fromShards} and on {@code toShards} shards. Shards are identified by the position of
+     * their data source in the distinct shard ids of the provider, data source ids need not be contiguous (e.g. the
+     * bit masks of {@link BitmapShardDataSourceProvider}).
+     */
+    public Report simulate(final List<?> keys, final int fromShards, final int toShards) {
+        Preconditions.checkArgument(fromShards > 0 && toShards > 0, "shard counts must be positive");
+
+        final DataSourceProvider from = providerFactory.apply(fromShards);
+        final DataSourceProvider to = providerFactory.apply(toShards);
+        final Map<DataSource, Integer> fromPositions = positions(from);
+        final Map<DataSource, Integer> toPositions = positions(to);
+        final long[] load = new long[toPositions.size()];
+        final Object[] args = new Object[1];
+        long moved = 0;
+
+        for (final Object key : keys) {
+            args[0] = key;
+
+            final int virtualShardId = strategy.getShardId(args);
+            final int before = fromPositions.get(from.getDataSource(virtualShardId));
+            final int after = toPositions.get(to.getDataSource(virtualShardId));
+            if (before != after) {
+                moved++;
+            }
+
+            load[after]++;
+        }
+
+        return new Report(keys.size(), fromShards, toShards, moved, load);
+    }
+
+    /**
+     * @return  position of each distinct data source of the provider
+     */
+    private static Map<DataSource, Integer> positions(final DataSourceProvider provider) {
+        final Map<DataSource, Integer> positions = new IdentityHashMap<>();
+        for (final int shardId : provider.getDistinctShardIds()) {
+            positions.putIfAbsent(provider.getDataSource(shardId), positions.size());
+        }
+
+        return positions;
+    }
+
+    /**
+     * @return  the given number of data sources for simulations, they cannot be connected
+     */
+    public static List<DataSource> dataSources(final int count) {
+        final List<DataSource> dataSources = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            dataSources.add(new SimulatedDataSource("shard" + i));
+        }
+
+        return dataSources;
+    }
+
+    private static final class SimulatedDataSource extends AbstractDataSource {
+
+        private final String name;
+
+        private SimulatedDataSource(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            throw new SQLException("Simulated data source " + name + " cannot be connected");
+        }
+
+        @Override
+        public Connection getConnection(final String username, final String password) throws SQLException {
+            return getConnection();
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * key movement and balance of a simulated placement.
+     */
+    public static final class Report {
+
+        private final long keys;
+        private final int fromShards;
+        private final int toShards;
+        private final long movedKeys;
+        private final long[] keysPerShard;
+
+        private Report(final long keys, final int fromShards, final int toShards, final long movedKeys,
+                final long[] keysPerShard) {
+            this.keys = keys;
+            this.fromShards = fromShards;
+            this.toShards = toShards;
+            this.movedKeys = movedKeys;
+            this.keysPerShard = keysPerShard;
+        }
+
+        public long getMovedKeys() {
+            return movedKeys;
+        }
+
+        /**
+         * @return  fraction of keys placed on another shard, ideally {@code |toShards - fromShards| / max(shards)}
+         */
+        public double getMovedFraction() {
+            return keys == 0 ? 0 : (double) movedKeys / keys;
+        }
+
+        /**
+         * @return  number of keys placed on each shard after the change
+         */
+        public long[] getKeysPerShard() {
+            return keysPerShard.clone();
+        }
+
+        /**
+         * @return  keys on the fullest shard divided by the mean number of keys per shard (1.0 is perfect balance)
+         */
+        public double getImbalance() {
+            long max = 0;
+            for (final long load : keysPerShard) {
+                max = Math.max(max, load);
+            }
+
+            return keys == 0 ? 1 : max / ((double) keys / keysPerShard.length);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d keys, %d -> %d shards: %.2f%% moved (ideal %.2f%%), max/mean load %.3f", keys,
+                    fromShards, toShards, 100 * getMovedFraction(),
+                    100.0 * Math.abs(toShards - fromShards) / Math.max(fromShards, toShards), getImbalance());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.zalando.sprocwrapper.proxy;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import org.zalando.sprocwrapper.Deadline;
+import org.zalando.sprocwrapper.SProcCall;
+import org.zalando.sprocwrapper.SProcRejectedException;
+
+/**
+ * Admits calls of a sproc according to its rate and concurrency quota and the concurrency limit of its service.
+ * Interactive calls wait at most the admission timeout, batch calls wait until they are admitted. Both never wait
+ * past the {@link Deadline} of the caller.
+ *
+ * <p>Admission covers the sproc call only: rows of a returned stream may still be fetched after the permit was
+ * released.</p>
+ */
+class AdmissionControl {
+
+    private final String name;
+    private final SProcCall.Priority priority;
+    private final long timeoutNanos;
+    private final AdmissionGate serviceGate;
+    private final Semaphore concurrencyQuota;
+    private final RateLimiter rateQuota;
+
+    /**
+     * @param  serviceGate        concurrency limit shared by all sprocs of the service, null for none
+     * @param  maxConcurrentCalls  concurrency quota of the sproc, 0 for none
+     * @param  maxCallsPerSecond   rate quota of the sproc, 0 for none
+     */
+    AdmissionControl(final String name, final SProcCall.Priority priority, final long timeoutMillis,
+            final AdmissionGate serviceGate, final int maxConcurrentCalls, final double maxCallsPerSecond) {
+        if (maxConcurrentCalls < 0 || maxCallsPerSecond < 0) {
+            throw new IllegalArgumentException("Quotas of sproc " + name + " must not be negative");
+        }
+
+        this.name = name;
+        this.priority = priority;
+        this.timeoutNanos = priority == SProcCall.Priority.BATCH ? Long.MAX_VALUE
+                                                                     : TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.serviceGate = serviceGate;
+        this.concurrencyQuota = maxConcurrentCalls > 0 ? new Semaphore(maxConcurrentCalls, true) : null;
+        this.rateQuota = maxCallsPerSecond > 0 ? RateLimiter.create(maxCallsPerSecond) : null;
+    }
+
+    /**
+     * waits until the call is admitted.
+     *
+     * @return  the permit of the call, which must be closed when the call completed
+     *
+     * @throws  SProcRejectedException  if the call was not admitted in time or the thread was interrupted
+     */
+    Permit admit() {
+        final long start = System.nanoTime();
+        final Deadline deadline = Deadline.current();
+        final long timeout = deadline == null ? timeoutNanos
+                                              : Math.min(timeoutNanos, deadline.remaining(TimeUnit.NANOSECONDS));
+
+        try {
+            if (rateQuota != null && !rateQuota.tryAcquire(1, timeout, TimeUnit.NANOSECONDS)) {
+                throw rejected("rate quota exhausted");
+            }
+
+            if (concurrencyQuota != null
+                    && !concurrencyQuota.tryAcquire(remaining(start, timeout), TimeUnit.NANOSECONDS)) {
+                throw rejected("concurrency quota exhausted");
+            }
+
+            try {
+                if (serviceGate != null && !serviceGate.tryEnter(priority, remaining(start, timeout))) {
+                    throw rejected("service concurrency limit reached");
+                }
+            } catch (final InterruptedException | RuntimeException e) {
+                if (concurrencyQuota != null) {
+                    concurrencyQuota.release();
+                }
+
+                throw e;
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw rejected("interrupted while waiting for admission");
+        }
+
+        return this::release;
+    }
+
+    private void release() {
+        if (serviceGate != null) {
+            serviceGate.exit();
+        }
+
+        if (concurrencyQuota != null) {
+            concurrencyQuota.release();
+        }
+    }
+
+    private static long remaining(final long start, final long timeout) {
+        return timeout - (System.nanoTime() - start);
+    }
+
+    private SProcRejectedException rejected(final String reason) {
+        return new SProcRejectedException("Call of sproc " + name + " (" + priority + ") not admitted: " + reason);
+    }
+
+    /**
+     * releases the capacity taken by an admitted call.
+     */
+    interface Permit extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,109 @@
+package org.zalando.sprocwrapper.proxy;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+
+import org.zalando.sprocwrapper.SProcCall;
+
+/**
+ * Bounds the concurrent calls of all sprocs of a service proxy. Interactive calls may use the whole capacity and are
+ * admitted before waiting batch calls. Batch calls only get a share of the capacity, so interactive calls find free
+ * capacity even while batch jobs are running.
+ */
+class AdmissionGate {
+
+    private final int capacity;
+    private final int batchCapacity;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition interactiveAdmissible = lock.newCondition();
+    private final Condition batchAdmissible = lock.newCondition();
+
+    private int inFlight;
+    private int interactiveWaiting;
+
+    AdmissionGate(final int capacity, final int batchPercent) {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive: %s", capacity);
+        Preconditions.checkArgument(batchPercent > 0 && batchPercent <= 100,
+            "batch percent must be between 1 and 100: %s", batchPercent);
+        this.capacity = capacity;
+        this.batchCapacity = Math.max(1, capacity * batchPercent / 100);
+    }
+
+    /**
+     * enters the gate, waiting at most the given time.
+     *
+     * @return  false if the call was not admitted in time
+     */
+    boolean tryEnter(final SProcCall.Priority priority, final long timeoutNanos) throws InterruptedException {
+        final boolean interactive = priority == SProcCall.Priority.INTERACTIVE;
+        long remaining = timeoutNanos;
+        lock.lockInterruptibly();
+        try {
+            if (interactive) {
+                interactiveWaiting++;
+            }
+
+            try {
+                while (!isAdmissible(interactive)) {
+                    if (remaining <= 0) {
+                        return false;
+                    }
+
+                    remaining = (interactive ? interactiveAdmissible : batchAdmissible).awaitNanos(remaining);
+                }
+            } finally {
+                if (interactive) {
+                    interactiveWaiting--;
+                }
+            }
+
+            inFlight++;
+            return true;
+        } finally {
+
+            // hand a signal on: capacity may be left, or a call we were waiting behind gave up
+            signalNext();
+            lock.unlock();
+        }
+    }
+
+    void exit() {
+        lock.lock();
+        try {
+            inFlight--;
+            signalNext();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isAdmissible(final boolean interactive) {
+        if (interactive) {
+            return inFlight < capacity;
+        }
+
+        return interactiveWaiting == 0 && inFlight < batchCapacity;
+    }
+
+    private void signalNext() {
+        if (interactiveWaiting > 0) {
+            if (inFlight < capacity) {
+                interactiveAdmissible.signal();
+            }
+        } else if (inFlight < batchCapacity) {
+            batchAdmissible.signal();
+        }
+    }
+}
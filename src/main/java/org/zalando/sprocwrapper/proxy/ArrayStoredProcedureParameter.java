@@ -70,4 +70,8 @@ class ArrayStoredProcedureParameter extends StoredProcedureParameter {
         return result;
     }
 
+    @Override
+    String getDatabaseTypeName() {
+        return innerTypeName + "[]";
+    }
 }
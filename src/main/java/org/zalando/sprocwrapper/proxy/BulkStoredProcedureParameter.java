@@ -0,0 +1,148 @@
+package org.zalando.sprocwrapper.proxy;
+
+import java.lang.reflect.Method;
+
+import java.nio.charset.StandardCharsets;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+import java.util.Collection;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import com.google.common.hash.Hashing;
+
+import org.zalando.typemapper.postgres.PgCopyText;
+
+/**
+ * List parameter loaded with {@code COPY} into a temporary staging table instead of being sent as one array literal.
+ * The staging table is created once per database session and emptied before every call. The sproc gets the staged
+ * rows as array aggregated on the database, the placeholder of the parameter only tells if the list is null.
+ */
+class BulkStoredProcedureParameter extends ArrayStoredProcedureParameter {
+
+    private static final int MAX_IDENTIFIER_LENGTH = 63;
+
+    private static final int TYPE_HASH_LENGTH = 8;
+
+    private static final int COPY_BUFFER_CHARS = 64 * 1024;
+
+    private final String stagingTable;
+
+    BulkStoredProcedureParameter(final Class<?> clazz, final Method m, final String typeName, final int sqlType,
+            final int javaPosition, final boolean sensitive) {
+        super(clazz, m, typeName, sqlType, javaPosition, sensitive);
+
+        if (!Collection.class.isAssignableFrom(clazz)) {
+            throw new IllegalArgumentException("SprocService-Param: [" + m.getDeclaringClass().getName() + ", "
+                    + m.getName() + "] Bulk parameters must be lists: " + clazz.getName());
+        }
+
+        stagingTable = stagingTableName(javaPosition, innerTypeName);
+    }
+
+    /**
+     * @return  name of the staging table of the parameter. Type names which are too long for an identifier or contain
+     *          other characters than letters, digits and underscores are shortened and replaced, and get a hash of the
+     *          full type name appended, so that the tables of different types do not collide.
+     */
+    static String stagingTableName(final int javaPosition, final String typeName) {
+        final String sanitized = typeName.replaceAll("[^A-Za-z0-9_]", "_");
+        final String table = "sproc_bulk_" + javaPosition + "_" + sanitized;
+        if (sanitized.equals(typeName) && table.length() <= MAX_IDENTIFIER_LENGTH) {
+            return table;
+        }
+
+        final String hash = Hashing.sha256().hashString(typeName, StandardCharsets.UTF_8).toString().substring(0,
+                TYPE_HASH_LENGTH);
+        return table.substring(0, Math.min(table.length(), MAX_IDENTIFIER_LENGTH - TYPE_HASH_LENGTH - 1)) + "_"
+                + hash;
+    }
+
+    @Override
+    public int getType() {
+        return Types.BOOLEAN;
+    }
+
+    String getStagingTable() {
+        return stagingTable;
+    }
+
+    /**
+     * @return  expression taking the place of the parameter in the sproc call
+     */
+    String getSqlExpression() {
+        return "(SELECT CASE WHEN ? THEN NULL ELSE coalesce(array_agg(v ORDER BY n), '{}') END FROM " + stagingTable
+                + ")";
+    }
+
+    @Override
+    public Object mapParam(final Object value, final Connection connection) {
+        return new Rows((Collection<?>) value);
+    }
+
+    /**
+     * rows of a call, copied to the staging table right before the sproc is executed on the same connection.
+     */
+    final class Rows {
+
+        private final Collection<?> list;
+
+        private Rows(final Collection<?> list) {
+            this.list = list;
+        }
+
+        /**
+         * copies the rows to the staging table, which must be used in the same transaction.
+         *
+         * @return  the value bound to the placeholder of the parameter: whether the list is null
+         */
+        Boolean copyIn(final Connection connection) throws SQLException {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TEMP TABLE IF NOT EXISTS " + stagingTable + " (n bigint, v " + innerTypeName
+                        + ") ON COMMIT DELETE ROWS; TRUNCATE " + stagingTable);
+            }
+
+            if (list == null) {
+                return Boolean.TRUE;
+            }
+
+            final CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn("COPY " + stagingTable
+                        + " (n, v) FROM STDIN");
+            try {
+                final StringBuilder sb = new StringBuilder(COPY_BUFFER_CHARS + 1024);
+                long n = 0;
+                for (final Object row : list) {
+                    PgCopyText.appendRow(sb, connection, n++, row);
+                    if (sb.length() >= COPY_BUFFER_CHARS) {
+                        write(copyIn, sb);
+                    }
+                }
+
+                write(copyIn, sb);
+                copyIn.endCopy();
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+
+            return Boolean.FALSE;
+        }
+
+        private void write(final CopyIn copyIn, final StringBuilder sb) throws SQLException {
+            final byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+            copyIn.writeToCopy(bytes, 0, bytes.length);
+            sb.setLength(0);
+        }
+
+        @Override
+        public String toString() {
+            return list == null ? "null" : list.size() + " rows copied to " + stagingTable;
+        }
+    }
+}
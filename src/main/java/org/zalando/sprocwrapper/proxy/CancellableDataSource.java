@@ -0,0 +1,159 @@
+package org.zalando.sprocwrapper.proxy;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import com.google.common.reflect.AbstractInvocationHandler;
+import com.google.common.reflect.Reflection;
+
+import org.zalando.sprocwrapper.Deadline;
+
+/**
+ * Wraps the data source of a single shard task and remembers every statement created through it, so that a running
+ * sproc call can be aborted from another thread using {@link Statement#cancel()}.
+ *
+ * <p>Optionally limits the number of rows fetched by each statement, and the time spent waiting for a connection to
+ * the deadline of the call.</p>
+ */
+class CancellableDataSource extends DelegatingDataSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CancellableDataSource.class);
+
+    private final Set<Statement> statements = ConcurrentHashMap.newKeySet();
+    private final int maxRows;
+    private final Deadline deadline;
+    private volatile boolean cancelled = false;
+
+    CancellableDataSource(final DataSource targetDataSource, final int maxRows) {
+        this(targetDataSource, maxRows, null);
+    }
+
+    CancellableDataSource(final DataSource targetDataSource, final int maxRows, final Deadline deadline) {
+        super(targetDataSource);
+        this.maxRows = maxRows;
+        this.deadline = deadline;
+    }
+
+    Deadline getDeadline() {
+        return deadline;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        checkNotCancelled();
+        return track(DeadlineTimer.getConnection(super::getConnection, deadline, "shard statement"));
+    }
+
+    @Override
+    public Connection getConnection(final String username, final String password) throws SQLException {
+        checkNotCancelled();
+        return track(DeadlineTimer.getConnection(() -> super.getConnection(username, password), deadline,
+                    "shard statement"));
+    }
+
+    /**
+     * cancels all statements currently executed through this data source. Statements created afterwards are
+     * cancelled right away.
+     */
+    public void cancel() {
+        cancelled = true;
+        for (final Statement statement : statements) {
+            cancel(statement);
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void checkNotCancelled() throws SQLException {
+        if (cancelled) {
+            throw new SQLException("Execution was cancelled");
+        }
+    }
+
+    private static void cancel(final Statement statement) {
+        try {
+            if (!statement.isClosed()) {
+                statement.cancel();
+            }
+        } catch (final SQLException e) {
+            LOG.warn("Could not cancel statement", e);
+        }
+    }
+
+    private Connection track(final Connection connection) {
+
+        // statements created through this connection, closed with it
+        final Set<Statement> connectionStatements = ConcurrentHashMap.newKeySet();
+        return Reflection.newProxy(Connection.class, new AbstractInvocationHandler() {
+                    @Override
+                    protected Object handleInvocation(final Object proxy, final Method method, final Object[] args)
+                        throws Throwable {
+                        final Object result;
+                        try {
+                            result = method.invoke(connection, args);
+                        } catch (final InvocationTargetException e) {
+                            throw e.getCause();
+                        } finally {
+                            if ("close".equals(method.getName())) {
+                                statements.removeAll(connectionStatements);
+                                connectionStatements.clear();
+                            }
+                        }
+
+                        if (result instanceof Statement) {
+                            register((Statement) result, connectionStatements);
+                        }
+
+                        return result;
+                    }
+
+                    @Override
+                    public String toString() {
+                        return connection.toString();
+                    }
+                });
+    }
+
+    private void register(final Statement statement, final Set<Statement> connectionStatements)
+        throws SQLException {
+        if (maxRows > 0) {
+            statement.setMaxRows(maxRows);
+        }
+
+        // statements closed before their connection are dropped when the next one is created
+        for (final Statement registered : connectionStatements) {
+            if (registered.isClosed()) {
+                connectionStatements.remove(registered);
+                statements.remove(registered);
+            }
+        }
+
+        connectionStatements.add(statement);
+        statements.add(statement);
+
+        // cancel() may have been called concurrently, before the statement was registered
+        if (cancelled) {
+            cancel(statement);
+        }
+    }
+
+    int getOpenStatementCount() {
+        return statements.size();
+    }
+}
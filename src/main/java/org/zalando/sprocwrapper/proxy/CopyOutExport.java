@@ -0,0 +1,262 @@
+package org.zalando.sprocwrapper.proxy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+
+import java.nio.charset.StandardCharsets;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import javax.sql.DataSource;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyInputStream;
+import org.postgresql.core.Utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.jdbc.support.SQLStateSQLExceptionTranslator;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Streams;
+
+import org.zalando.typemapper.core.TypeMapper;
+import org.zalando.typemapper.core.TypeMapperFactory;
+import org.zalando.typemapper.core.fieldMapper.FieldMapperRegister;
+import org.zalando.typemapper.postgres.PgCopyText;
+import org.zalando.typemapper.postgres.PgTypeHelper;
+
+/**
+ * Runs a sproc as {@code COPY (SELECT * FROM sproc(...)) TO STDOUT}, which streams large results much cheaper than a
+ * result set. COPY does not take bind parameters: the arguments are serialized like array elements and inlined as
+ * escaped string literals, cast to the
+ * database type of the parameter. Sensitive arguments are redacted from the logged statement.
+ *
+ * <p>The raw COPY data is either written to an {@link OutputStream} argument of the call, or decoded from the text
+ * format row by row while the returned stream is consumed. The connection is held until the stream is read to the end
+ * or closed.</p>
+ */
+class CopyOutExport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CopyOutExport.class);
+
+    private static final int READ_BUFFER_CHARS = 64 * 1024;
+
+    private final String name;
+    private final List<StoredProcedureParameter> params;
+
+    // position of the OutputStream argument, -1 if the rows are decoded
+    private final int sinkPosition;
+    private final String options;
+
+    private final Class<?> rowType;
+
+    // maps rows with named columns, null for rows of a single simple value
+    private final TypeMapper<?> typeMapper;
+
+    private volatile List<String> columnNames;
+
+    /**
+     * export writing the raw COPY data to the OutputStream argument at the given position.
+     */
+    CopyOutExport(final String name, final List<StoredProcedureParameter> params, final int sinkPosition,
+            final String options) {
+        this.name = name;
+        this.params = ImmutableList.copyOf(params);
+        this.sinkPosition = sinkPosition;
+        this.options = options;
+        this.rowType = null;
+        this.typeMapper = null;
+    }
+
+    /**
+     * export decoding the rows into the given type.
+     */
+    CopyOutExport(final String name, final List<StoredProcedureParameter> params, final Class<?> rowType,
+            final boolean simpleRows) {
+        this.name = name;
+        this.params = ImmutableList.copyOf(params);
+        this.sinkPosition = -1;
+        this.options = "";
+        this.rowType = rowType;
+        this.typeMapper = simpleRows ? null : TypeMapperFactory.createTypeMapper(rowType);
+    }
+
+    boolean isDecoding() {
+        return sinkPosition < 0;
+    }
+
+    /**
+     * @return  the number of rows written to the OutputStream argument, or the Stream of decoded rows
+     */
+    Object execute(final DataSource dataSource, final Object[] args) {
+        final Connection connection;
+        try {
+            connection = dataSource.getConnection();
+        } catch (final SQLException e) {
+            throw new CannotGetJdbcConnectionException("Failed to acquire connection for COPY of " + name, e);
+        }
+
+        boolean streaming = false;
+        try {
+            final String select = select(args, connection, false);
+            final String copy = copy(select);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(copy(select(args, connection, true)));
+            }
+
+            final PGConnection pgConnection = connection.unwrap(PGConnection.class);
+            if (!isDecoding()) {
+                return pgConnection.getCopyAPI().copyOut(copy, (OutputStream) args[sinkPosition]);
+            }
+
+            final List<String> columns = typeMapper == null ? null : getColumnNames(connection, select);
+            final Stream<Object> rows = decode(connection, new PGCopyInputStream(pgConnection, copy), columns);
+            streaming = true;
+            return rows;
+        } catch (final SQLException e) {
+            throw translate(e);
+        } catch (final IOException e) {
+            throw new DataAccessResourceFailureException("Could not copy result of " + name, e);
+        } finally {
+            if (!streaming) {
+                close(connection);
+            }
+        }
+    }
+
+    private String copy(final String select) {
+        return "COPY (" + select + ") TO STDOUT" + (options.isEmpty() ? "" : " WITH (" + options + ")");
+    }
+
+    /**
+     * @param  redacted  replaces the values of sensitive parameters, for logging
+     */
+    private String select(final Object[] args, final Connection connection, final boolean redacted)
+        throws SQLException {
+        final StringBuilder sb = new StringBuilder("SELECT * FROM ").append(name).append(" ( ");
+        for (int i = 0; i < params.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+
+            final StoredProcedureParameter param = params.get(i);
+            final Object value = args[param.getJavaPos()];
+            if (value == null) {
+                sb.append("NULL");
+            } else if (redacted && param.isSensitive()) {
+                sb.append("<SENSITIVE>");
+            } else {
+                sb.append("E'");
+                Utils.escapeLiteral(sb, PgTypeHelper.toPgString(value, connection), false);
+                sb.append('\'');
+            }
+
+            sb.append("::").append(param.getDatabaseTypeName());
+        }
+
+        return sb.append(" )").toString();
+    }
+
+    /**
+     * @return  the column names of the result, described once without executing the sproc
+     */
+    private List<String> getColumnNames(final Connection connection, final String select) throws SQLException {
+        List<String> names = columnNames;
+        if (names == null) {
+            try (PreparedStatement statement = connection.prepareStatement(select)) {
+                final ResultSetMetaData metaData = statement.getMetaData();
+                names = new ArrayList<>(metaData.getColumnCount());
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    names.add(metaData.getColumnName(i));
+                }
+            }
+
+            columnNames = names;
+        }
+
+        return names;
+    }
+
+    private Stream<Object> decode(final Connection connection, final PGCopyInputStream copyStream,
+            final List<String> columns) {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(copyStream, StandardCharsets.UTF_8),
+                READ_BUFFER_CHARS);
+        final AtomicBoolean closed = new AtomicBoolean();
+        final Runnable release = () -> {
+            if (closed.compareAndSet(false, true)) {
+                try {
+
+                    // cancels the COPY if the stream was not read to the end
+                    reader.close();
+                } catch (final IOException e) {
+                    LOG.warn("Could not cancel COPY of {}", name, e);
+                }
+
+                close(connection);
+            }
+        };
+
+        final Iterator<Object> rows = new AbstractIterator<Object>() {
+            @Override
+            protected Object computeNext() {
+                try {
+                    final String line = reader.readLine();
+                    if (line == null) {
+                        release.run();
+                        return endOfData();
+                    }
+
+                    return map(PgCopyText.parseRow(line), columns);
+                } catch (final IOException e) {
+                    release.run();
+                    throw e.getCause() instanceof SQLException ? translate((SQLException) e.getCause())
+                                                               : new DataAccessResourceFailureException(
+                                                                   "Could not read COPY result of " + name, e);
+                } catch (final SQLException e) {
+                    release.run();
+                    throw translate(e);
+                }
+            }
+        };
+
+        return Streams.stream(rows).onClose(release);
+    }
+
+    private Object map(final List<String> values, final List<String> columns) throws SQLException {
+        if (typeMapper == null) {
+            final String value = values.get(0);
+            return value == null ? null : FieldMapperRegister.getMapperForClass(rowType).mapField(value, rowType);
+        }
+
+        return typeMapper.mapRow(columns, values);
+    }
+
+    private DataAccessException translate(final SQLException e) {
+        return new SQLStateSQLExceptionTranslator().translate("COPY of " + name, null, e);
+    }
+
+    private void close(final Connection connection) {
+        try {
+            connection.close();
+        } catch (final SQLException e) {
+            LOG.warn("Could not release connection", e);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.zalando.sprocwrapper.proxy;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.springframework.dao.QueryTimeoutException;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.zalando.sprocwrapper.Deadline;
+
+/**
+ * Enforces the deadlines of sproc calls: cancels their statements and interrupts connection checkouts still waiting
+ * for the pool when the deadline expires. The timer thread only triggers, statements are cancelled on a separate
+ * thread pool: {@link java.sql.Statement#cancel()} opens a new connection to the database and a slow cancel must not
+ * delay the other deadlines.
+ */
+final class DeadlineTimer {
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("sproc-deadline-timer-%d").setDaemon(true).build());
+
+    static final ExecutorService CANCELLER = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat(
+                "sproc-statement-canceller-%d").setDaemon(true).build());
+
+    private DeadlineTimer() {
+        // utility class: private constructor
+    }
+
+    /**
+     * cancels the statements of the data source when the deadline expires, unless the returned future is cancelled
+     * before.
+     */
+    static ScheduledFuture<?> cancelOnExpiry(final Deadline deadline, final CancellableDataSource dataSource) {
+        return TIMER.schedule(() -> CANCELLER.execute(dataSource::cancel), deadline.remaining(TimeUnit.NANOSECONDS),
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * takes a connection from the data source, waiting at most until the deadline expires. Connection pools waiting
+     * for a free connection give up when the waiting thread is interrupted, which the timer does on expiry. The
+     * thread is left interrupted in that case.
+     *
+     * @throws  QueryTimeoutException  if the deadline expired while waiting for the connection
+     */
+    static Connection getConnection(final DataSource dataSource, final Deadline deadline, final String what)
+        throws SQLException {
+        return getConnection(dataSource::getConnection, deadline, what);
+    }
+
+    static Connection getConnection(final Checkout checkout, final Deadline deadline, final String what)
+        throws SQLException {
+        if (deadline == null) {
+            return checkout.getConnection();
+        }
+
+        deadline.check("before connection checkout for " + what);
+
+        final Waiter waiter = new Waiter(Thread.currentThread());
+        final ScheduledFuture<?> expiry = TIMER.schedule(waiter::expire, deadline.remaining(TimeUnit.NANOSECONDS),
+                TimeUnit.NANOSECONDS);
+        try {
+            return checkout.getConnection();
+        } catch (final SQLException | RuntimeException e) {
+            if (waiter.isExpired()) {
+                throw new QueryTimeoutException("Deadline exceeded while waiting for a connection for " + what, e);
+            }
+
+            throw e;
+        } finally {
+            expiry.cancel(false);
+            waiter.finish();
+        }
+    }
+
+    /**
+     * takes a connection from a data source.
+     */
+    interface Checkout {
+
+        Connection getConnection() throws SQLException;
+    }
+
+    /**
+     * a thread waiting for a connection, which is interrupted when it waits too long.
+     */
+    private static final class Waiter {
+
+        private final Thread thread;
+        private boolean waiting = true;
+        private boolean expired = false;
+
+        private Waiter(final Thread thread) {
+            this.thread = thread;
+        }
+
+        synchronized void expire() {
+            if (waiting) {
+                expired = true;
+                thread.interrupt();
+            }
+        }
+
+        synchronized boolean isExpired() {
+            return expired;
+        }
+
+        /**
+         * stops the checkout. The interrupt of an expired checkout stays visible to the caller, even if the pool
+         * consumed it while giving up.
+         */
+        synchronized void finish() {
+            waiting = false;
+            if (expired) {
+                thread.interrupt();
+            }
+        }
+    }
+}
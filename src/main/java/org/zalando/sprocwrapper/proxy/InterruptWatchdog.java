@@ -0,0 +1,89 @@
+package org.zalando.sprocwrapper.proxy;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cancels the statements of threads which are interrupted while they wait for a sproc call, e.g. because their
+ * future was cancelled. JDBC drivers do not react to interrupts while blocked in a statement, so the threads are
+ * checked periodically from the outside. The check only runs while calls are watched, the statements are cancelled
+ * on the canceller executor.
+ */
+class InterruptWatchdog {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InterruptWatchdog.class);
+
+    private final Map<CancellableDataSource, Thread> watched = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+    private final Executor canceller;
+    private final long checkIntervalMillis;
+    private ScheduledFuture<?> checks;
+
+    InterruptWatchdog(final ScheduledExecutorService timer, final Executor canceller, final long checkIntervalMillis) {
+        this.timer = timer;
+        this.canceller = canceller;
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    /**
+     * cancels the statements of the data source when the current thread is interrupted, until the returned
+     * registration is closed.
+     */
+    Registration watch(final CancellableDataSource dataSource) {
+        final Thread thread = Thread.currentThread();
+        if (thread.isInterrupted()) {
+            dataSource.cancel();
+        } else {
+            watched.put(dataSource, thread);
+            startChecks();
+        }
+
+        return () -> watched.remove(dataSource);
+    }
+
+    void check() {
+        for (final Map.Entry<CancellableDataSource, Thread> entry : watched.entrySet()) {
+            if (entry.getValue().isInterrupted() && watched.remove(entry.getKey()) != null) {
+                LOG.debug("Cancelling statements of interrupted thread {}", entry.getValue().getName());
+                canceller.execute(entry.getKey()::cancel);
+            }
+        }
+
+        stopChecksIfIdle();
+    }
+
+    synchronized boolean isChecking() {
+        return checks != null;
+    }
+
+    private synchronized void startChecks() {
+        if (checks == null) {
+            checks = timer.scheduleWithFixedDelay(this::check, checkIntervalMillis, checkIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // registrations racing with this stop restart the checks, as they are added before startChecks() is called
+    private synchronized void stopChecksIfIdle() {
+        if (checks != null && watched.isEmpty()) {
+            checks.cancel(false);
+            checks = null;
+        }
+    }
+
+    /**
+     * stops watching a data source.
+     */
+    interface Registration extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+}
@@ -6,16 +6,23 @@ import java.util.Arrays;
 
 import com.google.common.base.Preconditions;
 
+import org.zalando.sprocwrapper.Deadline;
+
 public class InvocationContext {
 
     private final Object proxy;
     private final Method method;
     private final Object[] args;
+    private final Deadline deadline;
 
+    /**
+     * creates the context of an invocation by the current thread, with the thread's {@link Deadline}.
+     */
     public InvocationContext(final Object proxy, final Method method, final Object[] args) {
         this.proxy = Preconditions.checkNotNull(proxy, "proxy");
         this.method = Preconditions.checkNotNull(method, "method");
         this.args = args;
+        this.deadline = Deadline.current();
     }
 
     public Object getProxy() {
@@ -30,6 +37,13 @@ public class InvocationContext {
         return args;
     }
 
+    /**
+     * @return  the deadline of the invoking thread, null if there is none
+     */
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
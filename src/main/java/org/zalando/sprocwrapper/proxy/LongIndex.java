@@ -0,0 +1,111 @@
+package org.zalando.sprocwrapper.proxy;
+
+import java.util.Arrays;
+
+/**
+ * Immutable hash index from primitive {@code long} keys to row numbers (open addressing with linear probing), so that
+ * lookups by id neither box the key nor walk entry objects. Rows with equal keys are kept in row order.
+ */
+final class LongIndex {
+
+    private static final int[] NO_ROWS = new int[0];
+
+    private final long[] slotKeys;
+
+    // group number + 1 of the key in the slot, 0 for free slots
+    private final int[] slotGroups;
+
+    // rows of group g are rows[groupStarts[g]] .. rows[groupStarts[g + 1] - 1]
+    private final int[] groupStarts;
+    private final int[] rows;
+
+    private final int mask;
+
+    /**
+     * @param  keys     key of every row
+     * @param  present  whether the row has a key, rows without key are not indexed
+     */
+    LongIndex(final long[] keys, final boolean[] present) {
+        final int capacity = Math.max(2, Integer.highestOneBit(Math.max(1, keys.length) * 2 - 1) << 1);
+        this.mask = capacity - 1;
+        this.slotKeys = new long[capacity];
+        this.slotGroups = new int[capacity];
+
+        final int[] groupOfRow = new int[keys.length];
+        final int[] groupSizes = new int[keys.length + 1];
+        int groups = 0;
+        int indexed = 0;
+        for (int row = 0; row < keys.length; row++) {
+            if (!present[row]) {
+                groupOfRow[row] = -1;
+                continue;
+            }
+
+            int slot = slot(keys[row]);
+            while (slotGroups[slot] != 0 && slotKeys[slot] != keys[row]) {
+                slot = (slot + 1) & mask;
+            }
+
+            if (slotGroups[slot] == 0) {
+                slotKeys[slot] = keys[row];
+                slotGroups[slot] = ++groups;
+            }
+
+            groupOfRow[row] = slotGroups[slot] - 1;
+            groupSizes[groupOfRow[row] + 1]++;
+            indexed++;
+        }
+
+        this.groupStarts = new int[groups + 1];
+        for (int group = 0; group < groups; group++) {
+            groupStarts[group + 1] = groupStarts[group] + groupSizes[group + 1];
+        }
+
+        this.rows = new int[indexed];
+
+        final int[] next = Arrays.copyOf(groupStarts, groups);
+        for (int row = 0; row < keys.length; row++) {
+            if (groupOfRow[row] >= 0) {
+                rows[next[groupOfRow[row]]++] = row;
+            }
+        }
+    }
+
+    /**
+     * @return  the numbers of the rows with the key, in row order
+     */
+    int[] get(final long key) {
+        final int group = group(key);
+        return group < 0 ? NO_ROWS : Arrays.copyOfRange(rows, groupStarts[group], groupStarts[group + 1]);
+    }
+
+    /**
+     * @return  the number of the first row with the key, -1 if there is none
+     */
+    int first(final long key) {
+        final int group = group(key);
+        return group < 0 ? -1 : rows[groupStarts[group]];
+    }
+
+    private int group(final long key) {
+        int slot = slot(key);
+        while (slotGroups[slot] != 0) {
+            if (slotKeys[slot] == key) {
+                return slotGroups[slot] - 1;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    int size() {
+        return groupStarts.length - 1;
+    }
+
+    private int slot(final long key) {
+        final long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
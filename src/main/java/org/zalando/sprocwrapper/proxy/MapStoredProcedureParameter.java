@@ -25,4 +25,8 @@ public class MapStoredProcedureParameter extends StoredProcedureParameter {
         return new HStore((Map<?, ?>) value);
     }
 
+    @Override
+    String getDatabaseTypeName() {
+        return declaredTypeName.isEmpty() ? "hstore" : declaredTypeName;
+    }
 }
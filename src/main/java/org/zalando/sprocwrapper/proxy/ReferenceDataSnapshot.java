@@ -0,0 +1,268 @@
+package org.zalando.sprocwrapper.proxy;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * In-memory copy of all rows of a reference data sproc (small, hot tables read through a "get all" sproc) with an
+ * index per lookup key. Integral keys (e.g. {@code long} ids) are indexed by a {@link LongIndex}, other keys by their
+ * {@code equals}.
+ *
+ * <p>The snapshot is reloaded once per refresh interval. Readers never block on a reload: the stale snapshot is
+ * served while a background thread loads its successor, which then replaces it atomically. Only the first load is
+ * done by the calling thread. If a reload fails, the stale snapshot is served until the next interval.</p>
+ */
+class ReferenceDataSnapshot {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReferenceDataSnapshot.class);
+
+    private static final ExecutorService REFRESHER = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("sproc-snapshot-refresh-%d").setDaemon(true).build());
+
+    private final String name;
+
+    private final long refreshNanos;
+
+    private final Map<String, Field> keyFields;
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private volatile Snapshot snapshot;
+
+    /**
+     * @param  rowType  type of the rows
+     * @param  keys     names of the row fields to index
+     */
+    ReferenceDataSnapshot(final String name, final long refreshMillis, final Class<?> rowType,
+            final Collection<String> keys) {
+        Preconditions.checkArgument(refreshMillis > 0, "snapshot refresh interval must be positive: %s",
+            refreshMillis);
+        this.name = name;
+        this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(refreshMillis);
+
+        final ImmutableMap.Builder<String, Field> fields = ImmutableMap.builder();
+        for (final String key : ImmutableSet.copyOf(keys)) {
+            fields.put(key, findField(rowType, key));
+        }
+
+        this.keyFields = fields.build();
+    }
+
+    /**
+     * @return  all rows of the snapshot
+     */
+    List<Object> getRows(final Supplier<Object> loader) {
+        return new ArrayList<>(current(loader).rows);
+    }
+
+    /**
+     * @return  the rows whose key field equals the value, in the order of the sproc result
+     */
+    List<Object> find(final String key, final Object value, final Supplier<Object> loader) {
+        return current(loader).find(key, value);
+    }
+
+    /**
+     * @return  the first row whose key field equals the value, null if there is none
+     */
+    Object findFirst(final String key, final Object value, final Supplier<Object> loader) {
+        return current(loader).findFirst(key, value);
+    }
+
+    private Snapshot current(final Supplier<Object> loader) {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                current = snapshot;
+                if (current == null) {
+                    current = load(loader);
+                    snapshot = current;
+                }
+            }
+        } else if (System.nanoTime() - current.refreshedNanos >= refreshNanos && refreshing.compareAndSet(false, true)) {
+            final Snapshot stale = current;
+            REFRESHER.execute(() -> refresh(stale, loader));
+        }
+
+        return current;
+    }
+
+    private void refresh(final Snapshot stale, final Supplier<Object> loader) {
+        try {
+            snapshot = load(loader);
+        } catch (final RuntimeException e) {
+            LOG.warn("Could not refresh snapshot of {}, serving the stale snapshot until the next refresh", name, e);
+            snapshot = stale.retainedAt(System.nanoTime());
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    private Snapshot load(final Supplier<Object> loader) {
+        final long start = System.nanoTime();
+        final Object result = loader.get();
+        final List<Object> rows = result == null ? Collections.emptyList()
+                                                 : Collections.unmodifiableList(new ArrayList<>((List<?>) result));
+
+        final ImmutableMap.Builder<String, LongIndex> longIndexes = ImmutableMap.builder();
+        final ImmutableMap.Builder<String, ImmutableListMultimap<Object, Object>> objectIndexes =
+            ImmutableMap.builder();
+        for (final Map.Entry<String, Field> keyField : keyFields.entrySet()) {
+            final Field field = keyField.getValue();
+            if (isIntegral(field.getType())) {
+                final long[] keys = new long[rows.size()];
+                final boolean[] present = new boolean[rows.size()];
+                for (int row = 0; row < keys.length; row++) {
+                    final Number key = (Number) read(field, rows.get(row));
+                    present[row] = key != null;
+                    keys[row] = key == null ? 0 : key.longValue();
+                }
+
+                longIndexes.put(keyField.getKey(), new LongIndex(keys, present));
+            } else {
+                final ImmutableListMultimap.Builder<Object, Object> index = ImmutableListMultimap.builder();
+                for (final Object row : rows) {
+                    final Object key = read(field, row);
+                    if (key != null) {
+                        index.put(key, row);
+                    }
+                }
+
+                objectIndexes.put(keyField.getKey(), index.build());
+            }
+        }
+
+        LOG.debug("Loaded snapshot of {} with {} rows in {} ms", name, rows.size(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return new Snapshot(rows, longIndexes.build(), objectIndexes.build(), System.nanoTime());
+    }
+
+    private static Field findField(final Class<?> rowType, final String key) {
+        for (Class<?> c = rowType; c != null && c != Object.class; c = c.getSuperclass()) {
+            try {
+                final Field field = c.getDeclaredField(key);
+                field.setAccessible(true);
+                return field;
+            } catch (final NoSuchFieldException e) {
+                // look in super class
+            }
+        }
+
+        throw new IllegalArgumentException("Snapshot key " + key + " is not a field of " + rowType.getName());
+    }
+
+    private static Object read(final Field field, final Object row) {
+        try {
+            return field.get(row);
+        } catch (final IllegalAccessException e) {
+            throw new IllegalStateException("Could not read snapshot key " + field.getName(), e);
+        }
+    }
+
+    private static boolean isIntegral(final Class<?> type) {
+        return type == long.class || type == Long.class || type == int.class || type == Integer.class
+                || type == short.class || type == Short.class || type == byte.class || type == Byte.class;
+    }
+
+    /**
+     * a service method served from the snapshot.
+     */
+    static final class Access {
+
+        private final ReferenceDataSnapshot snapshot;
+        private final Method source;
+        private final String key;
+        private final boolean list;
+
+        /**
+         * @param  source  the service method of the sproc loading the snapshot
+         * @param  key     key field the single argument is looked up by, null to get all rows
+         * @param  list    whether all rows with the key are returned, or the first one only
+         */
+        Access(final ReferenceDataSnapshot snapshot, final Method source, final String key, final boolean list) {
+            this.snapshot = snapshot;
+            this.source = source;
+            this.key = key;
+            this.list = list;
+        }
+
+        Method getSource() {
+            return source;
+        }
+
+        Object get(final Object[] args, final Supplier<Object> loader) {
+            if (key == null) {
+                return snapshot.getRows(loader);
+            }
+
+            return list ? snapshot.find(key, args[0], loader) : snapshot.findFirst(key, args[0], loader);
+        }
+    }
+
+    private static final class Snapshot {
+
+        private final List<Object> rows;
+        private final Map<String, LongIndex> longIndexes;
+        private final Map<String, ImmutableListMultimap<Object, Object>> objectIndexes;
+        private final long refreshedNanos;
+
+        Snapshot(final List<Object> rows, final Map<String, LongIndex> longIndexes,
+                final Map<String, ImmutableListMultimap<Object, Object>> objectIndexes, final long refreshedNanos) {
+            this.rows = rows;
+            this.longIndexes = longIndexes;
+            this.objectIndexes = objectIndexes;
+            this.refreshedNanos = refreshedNanos;
+        }
+
+        Snapshot retainedAt(final long nanos) {
+            return new Snapshot(rows, longIndexes, objectIndexes, nanos);
+        }
+
+        List<Object> find(final String key, final Object value) {
+            final LongIndex longIndex = longIndexes.get(key);
+            if (longIndex == null) {
+                return new ArrayList<>(objectIndexes.get(key).get(value));
+            }
+
+            final List<Object> found = new ArrayList<>();
+            if (value != null) {
+                for (final int row : longIndex.get(((Number) value).longValue())) {
+                    found.add(rows.get(row));
+                }
+            }
+
+            return found;
+        }
+
+        Object findFirst(final String key, final Object value) {
+            final LongIndex longIndex = longIndexes.get(key);
+            if (longIndex == null) {
+                final List<Object> found = objectIndexes.get(key).get(value);
+                return found.isEmpty() ? null : found.get(0);
+            }
+
+            final int row = value == null ? -1 : longIndex.first(((Number) value).longValue());
+            return row < 0 ? null : rows.get(row);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package org.zalando.sprocwrapper.proxy;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+
+import org.zalando.sprocwrapper.Deadline;
+
+/**
+ * Sends a second attempt of a read only call to another equivalent data source (replica) if the first attempt did not
+ * complete within a percentile of the recently observed latencies. The first response wins and the other attempt is
+ * cancelled. The extra load is bounded by a budget: only the given percentage of calls may be hedged.
+ */
+class RequestHedger {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RequestHedger.class);
+
+    // number of latency samples kept to compute the hedging delay
+    private static final int SAMPLES = 256;
+
+    // hedge only if the delay is based on enough samples
+    private static final int MIN_SAMPLES = 32;
+
+    // the hedging delay is recomputed after this number of new samples
+    private static final int RECOMPUTE_INTERVAL = 32;
+
+    // budget in hundredths of a hedge, a call earns budgetPercent of them, a hedge costs 100
+    private static final long HEDGE_COST = 100;
+    private static final long MAX_BUDGET = 10 * HEDGE_COST;
+
+    private final int delayPercentile;
+    private final int budgetPercent;
+
+    private final long[] latencies = new long[SAMPLES];
+    private long samples = 0;
+    private volatile long delayNanos = -1;
+
+    private final AtomicLong budget = new AtomicLong();
+
+    RequestHedger(final int delayPercentile, final int budgetPercent) {
+        Preconditions.checkArgument(delayPercentile > 0 && delayPercentile < 100,
+            "hedge delay percentile must be between 1 and 99: %s", delayPercentile);
+        Preconditions.checkArgument(budgetPercent > 0 && budgetPercent <= 100,
+            "hedge budget must be between 1 and 100 percent: %s", budgetPercent);
+        this.delayPercentile = delayPercentile;
+        this.budgetPercent = budgetPercent;
+    }
+
+    /**
+     * executes the call on the first data source, hedging to the second one if the first is too slow. As long as the
+     * hedging delay is not known yet or the budget cannot pay for a hedge, the call runs on the calling thread.
+     *
+     * @param  dataSources  at least two equivalent data sources, ordered by preference
+     * @param  deadline     deadline of the call bounding the connection checkouts, or {@code null}
+     * @param  call         the sproc call to execute on a data source
+     * @param  pool         thread pool running the attempts
+     */
+    Object execute(final List<? extends DataSource> dataSources, final Deadline deadline,
+            final Function<DataSource, Object> call, final ExecutorService pool) {
+        Preconditions.checkArgument(dataSources.size() > 1, "hedging needs at least two data sources");
+
+        earnBudget();
+
+        final long delay = delayNanos;
+        if (delay < 0 || budget.get() < HEDGE_COST) {
+            final long start = System.nanoTime();
+            final Object result = call.apply(dataSources.get(0));
+            record(System.nanoTime() - start);
+            return result;
+        }
+
+        final CompletionService<Object> completionService = new ExecutorCompletionService<>(pool);
+        final CancellableDataSource[] attempts = new CancellableDataSource[2];
+        final Future<?>[] futures = new Future<?>[2];
+
+        attempts[0] = new CancellableDataSource(dataSources.get(0), 0, deadline);
+        futures[0] = completionService.submit(timed(attempts[0], call));
+
+        try {
+            Future<Object> done = completionService.poll(delay, TimeUnit.NANOSECONDS);
+
+            int running = 1;
+            if (done == null && spendBudget()) {
+                LOG.debug("hedging call to {} after {} ns", dataSources.get(1), delay);
+                attempts[1] = new CancellableDataSource(dataSources.get(1), 0, deadline);
+                futures[1] = completionService.submit(timed(attempts[1], call));
+                running = 2;
+            }
+
+            while (true) {
+                if (done == null) {
+                    done = completionService.take();
+                }
+
+                running--;
+                try {
+                    return done.get();
+                } catch (final ExecutionException e) {
+                    if (running == 0) {
+                        Throwables.throwIfUnchecked(e.getCause());
+                        throw new RuntimeException(e.getCause());
+                    }
+
+                    // the other attempt may still succeed
+                    LOG.debug("hedged attempt failed, waiting for the other one", e.getCause());
+                    done = null;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for hedged sproc call", e);
+        } finally {
+
+            // cancel the loser (cancelling a finished attempt has no effect)
+            for (int i = 0; i < attempts.length; i++) {
+                if (attempts[i] != null && !futures[i].isDone()) {
+                    futures[i].cancel(true);
+                    attempts[i].cancel();
+                }
+            }
+        }
+    }
+
+    private Callable<Object> timed(final DataSource dataSource, final Function<DataSource, Object> call) {
+        return () -> {
+            final long start = System.nanoTime();
+            final Object result = call.apply(dataSource);
+            record(System.nanoTime() - start);
+            return result;
+        };
+    }
+
+    private void earnBudget() {
+        budget.getAndUpdate(b -> Math.min(MAX_BUDGET, b + budgetPercent));
+    }
+
+    private boolean spendBudget() {
+        return budget.getAndUpdate(b -> b >= HEDGE_COST ? b - HEDGE_COST : b) >= HEDGE_COST;
+    }
+
+    private synchronized void record(final long latencyNanos) {
+        latencies[(int) (samples % SAMPLES)] = latencyNanos;
+        samples++;
+
+        if (samples >= MIN_SAMPLES && samples % RECOMPUTE_INTERVAL == 0) {
+            final long[] sorted = Arrays.copyOf(latencies, (int) Math.min(samples, SAMPLES));
+            Arrays.sort(sorted);
+            delayNanos = sorted[(int) ((long) (sorted.length - 1) * delayPercentile / 100)];
+        }
+    }
+
+    long getDelayNanos() {
+        return delayNanos;
+    }
+}
@@ -3,19 +3,32 @@ package org.zalando.sprocwrapper.proxy;
 import org.zalando.sprocwrapper.SProcCall;
 import org.zalando.sprocwrapper.SProcParam;
 import org.zalando.sprocwrapper.SProcService;
+import org.zalando.sprocwrapper.SnapshotLookup;
+import org.zalando.sprocwrapper.cache.SProcResultCache;
+import org.zalando.sprocwrapper.cache.SProcResultCaches;
+import org.zalando.sprocwrapper.dsprovider.DataSourceProvider;
+import org.zalando.sprocwrapper.globalvaluetransformer.GlobalValueTransformerLoader;
+import org.zalando.sprocwrapper.proxy.executors.SingleRowSimpleTypeExecutor;
 import org.zalando.sprocwrapper.sharding.ShardKey;
 import org.zalando.sprocwrapper.sharding.VirtualShardKeyStrategy;
 import org.zalando.sprocwrapper.util.NameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
 
+import java.io.OutputStream;
 import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.*;
+import java.util.stream.Stream;
+import javax.sql.DataSource;
 
 /**
  * @author Soroosh Sarabadani
@@ -52,6 +65,198 @@ public class SProcCallHandler {
 
     }
 
+    private SearchShardsCache getSearchShardsCache(final SProcCall scA) {
+        if (scA.searchCacheSize() == 0) {
+            return null;
+        }
+
+        if (!scA.searchShards()) {
+            throw new IllegalArgumentException("Only searchShards sprocs can use a search cache");
+        }
+
+        return new SearchShardsCache(scA.searchCacheSize(), scA.searchCacheMissTtlMillis());
+    }
+
+    private SProcResultCache getResultCache(SProcCall scA, Method method, String name, DataSourceProvider dataSourceProvider) {
+        if (scA.cache().ttlMillis() == 0) {
+            return null;
+        }
+
+        if (!scA.readOnly()) {
+            throw new IllegalArgumentException("Only readOnly sprocs can be cached");
+        }
+
+        if (!scA.cache().persistent()) {
+            return new SProcResultCache(name, scA.cache().ttlMillis(), scA.cache().maximumWeightBytes());
+        }
+
+        // results persisted for another cluster or schema are not restored, the file is overwritten
+        final String schema = describeCluster(dataSourceProvider) + '\n' + describeSchema(method, name);
+        return new SProcResultCache(name, scA.cache().ttlMillis(), scA.cache().maximumWeightBytes(),
+                SProcResultCaches.getPersistentDirectory().resolve(name + ".cache"), schema, describeTypes(method));
+    }
+
+    /**
+     * @return  description of the sproc signature and the fields of its result type, persisted results are only
+     *          restored for the same description
+     */
+    static String describeSchema(Method method, String name) {
+        final StringBuilder schema = new StringBuilder(name).append(' ').append(method.toGenericString());
+        describeTypes(method.getGenericReturnType(), new HashSet<>(), schema);
+        return schema.toString();
+    }
+
+    /**
+     * @return  the classes of the arguments and the result of the sproc and of their fields, the only non JDK classes
+     *          persisted results may contain
+     */
+    static Set<Class<?>> describeTypes(Method method) {
+        final Set<Class<?>> classes = new HashSet<>();
+        describeTypes(method.getGenericReturnType(), classes, new StringBuilder());
+        for (Type parameterType : method.getGenericParameterTypes()) {
+            describeTypes(parameterType, classes, new StringBuilder());
+        }
+
+        // serialized objects also carry the descriptors of their super classes
+        for (Class<?> type : new ArrayList<>(classes)) {
+            for (Class<?> c = type.getSuperclass(); c != null && c != Object.class; c = c.getSuperclass()) {
+                classes.add(c);
+            }
+        }
+        return classes;
+    }
+
+    private static void describeTypes(Type root, Set<Class<?>> classes, StringBuilder fields) {
+        final Deque<Type> types = new ArrayDeque<>(Collections.singleton(root));
+        while (!types.isEmpty()) {
+            final Type type = types.pop();
+            if (type instanceof ParameterizedType) {
+                types.push(((ParameterizedType) type).getRawType());
+                types.addAll(Arrays.asList(((ParameterizedType) type).getActualTypeArguments()));
+            } else if (type instanceof GenericArrayType) {
+                types.push(((GenericArrayType) type).getGenericComponentType());
+            } else if (type instanceof Class && classes.add((Class<?>) type)
+                    && !((Class<?>) type).getName().startsWith("java.")) {
+                for (Class<?> c = (Class<?>) type; c != null && c != Object.class; c = c.getSuperclass()) {
+                    for (Field field : c.getDeclaredFields()) {
+                        if (!Modifier.isStatic(field.getModifiers())) {
+                            fields.append(' ').append(field.getGenericType().getTypeName()).append(' ').append(field.getName());
+                            types.add(field.getGenericType());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return  description of the shards of the provider and their physical data sources, which is stable across
+     *          restarts: wrapping data sources (e.g. {@link DelegatingDataSource}) are skipped, data sources without
+     *          own {@code toString()} (e.g. the name of the connection pool) are described by their class
+     */
+    static String describeCluster(DataSourceProvider dataSourceProvider) {
+        if (dataSourceProvider == null) {
+            return "";
+        }
+
+        final StringBuilder cluster = new StringBuilder(dataSourceProvider.getClass().getName());
+        for (int shardId : dataSourceProvider.getDistinctShardIds()) {
+            cluster.append(' ').append(shardId).append('=').append(describeDataSource(dataSourceProvider.getDataSource(shardId)));
+        }
+        return cluster.toString();
+    }
+
+    private static String describeDataSource(DataSource dataSource) {
+        DataSource ds = dataSource;
+        while (ds instanceof DelegatingDataSource && ((DelegatingDataSource) ds).getTargetDataSource() != null) {
+            ds = ((DelegatingDataSource) ds).getTargetDataSource();
+        }
+
+        if (ds == null) {
+            return "";
+        }
+
+        try {
+            if (ds.getClass().getMethod("toString").getDeclaringClass() != Object.class) {
+                return ds.toString();
+            }
+        } catch (NoSuchMethodException e) {
+            // every class has a toString() method
+        }
+        return ds.getClass().getName();
+    }
+
+    private SingleFlight getSingleFlight(SProcCall scA, String name) {
+        if (!scA.singleFlight()) {
+            return null;
+        }
+
+        if (!scA.readOnly()) {
+            throw new IllegalArgumentException("Only readOnly sprocs can share executions");
+        }
+
+        return new SingleFlight(name);
+    }
+
+    private WriteBehindBuffer getWriteBehind(SProcCall scA, String name) {
+        final SProcCall.WriteBehind writeBehind = scA.writeBehind();
+        if (writeBehind.queueCapacity() == 0) {
+            return null;
+        }
+
+        if (scA.readOnly()) {
+            throw new IllegalArgumentException("Only write sprocs can be written behind");
+        }
+
+        return new WriteBehindBuffer(name, writeBehind.queueCapacity(), writeBehind.flushSize(),
+                writeBehind.flushIntervalMillis(), writeBehind.overflow());
+    }
+
+    private CopyOutExport getCopyOut(SProcCall scA, Method method, String name, List<StoredProcedureParameter> params)
+        throws InstantiationException, IllegalAccessException, NoSuchMethodException, InvocationTargetException {
+        if (!scA.copyOut()) {
+            if (!scA.copyOutOptions().isEmpty()) {
+                throw new IllegalArgumentException("COPY options are only supported by copyOut sprocs");
+            }
+
+            return null;
+        }
+
+        final Class<?>[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (OutputStream.class.isAssignableFrom(parameterTypes[i])) {
+                final Class<?> returnType = method.getReturnType();
+                if (returnType != long.class && returnType != Long.class && returnType != void.class) {
+                    throw new IllegalArgumentException("Sprocs copying to an OutputStream must return long or void");
+                }
+
+                return new CopyOutExport(name, params, i, scA.copyOutOptions());
+            }
+        }
+
+        if (method.getReturnType() != Stream.class || !scA.copyOutOptions().isEmpty()
+                || !(method.getGenericReturnType() instanceof ParameterizedType)) {
+            throw new IllegalArgumentException("Decoded copyOut sprocs must return a Stream and use the text format");
+        }
+
+        final Class<?> rowType = (Class<?>) ((ParameterizedType) method.getGenericReturnType()).getActualTypeArguments()[0];
+        final boolean simpleRows = SingleRowSimpleTypeExecutor.SIMPLE_TYPES.containsKey(rowType)
+                || GlobalValueTransformerLoader.getValueTransformerForClass(rowType) != null;
+        return new CopyOutExport(name, params, rowType, simpleRows);
+    }
+
+    private RequestHedger getRequestHedger(SProcCall scA) {
+        if (!scA.hedged()) {
+            return null;
+        }
+
+        if (!scA.readOnly() || !scA.readFromReplicas()) {
+            throw new IllegalArgumentException("Only readOnly sprocs reading from replicas can be hedged");
+        }
+
+        return new RequestHedger(scA.hedgeDelayPercentile(), scA.hedgeBudgetPercent());
+    }
+
     private boolean isValidationActive(SProcCall scA, SProcServiceAnnotationHandler.HandlerResult handlerResult) {
         boolean result = handlerResult.isValidationActive();
 
@@ -64,6 +269,82 @@ public class SProcCallHandler {
         return result;
     }
 
+    /**
+     * @return  the admission control of the sproc methods which have a quota or belong to a service with a concurrency
+     *          limit
+     */
+    Map<Method, AdmissionControl> handleAdmission(Class c, SProcServiceAnnotationHandler.HandlerResult handlerResult) {
+        Map<Method, AdmissionControl> result = new HashMap<>();
+        for (Method method : this.findSProcCallAnnotatedMethods(c)) {
+            final SProcCall scA = method.getAnnotation(SProcCall.class);
+            if (handlerResult.getAdmissionGate() == null && scA.maxConcurrentCalls() == 0 && scA.maxCallsPerSecond() == 0) {
+                continue;
+            }
+
+            final SProcCall.Priority priority = scA.priority() == SProcCall.Priority.USE_FROM_SERVICE
+                    ? handlerResult.getPriority() : scA.priority();
+            result.put(method, new AdmissionControl(c.getSimpleName() + "." + method.getName(),
+                    priority, handlerResult.getAdmissionTimeoutMillis(),
+                    handlerResult.getAdmissionGate(), scA.maxConcurrentCalls(), scA.maxCallsPerSecond()));
+        }
+        return result;
+    }
+
+    /**
+     * @return  the methods served from reference data snapshots: the snapshot sprocs and their lookup methods
+     */
+    Map<Method, ReferenceDataSnapshot.Access> handleSnapshots(Class c) {
+        final Map<String, Method> sourcesByName = new HashMap<>();
+        for (Method method : this.findSProcCallAnnotatedMethods(c)) {
+            final SProcCall scA = method.getAnnotation(SProcCall.class);
+            if (scA.snapshotRefreshMillis() == 0) {
+                continue;
+            }
+
+            if (!scA.readOnly() || method.getParameterTypes().length > 0 || method.getReturnType() != List.class
+                    || !(method.getGenericReturnType() instanceof ParameterizedType)) {
+                throw new IllegalArgumentException("Only readOnly sprocs without arguments returning a List can be snapshots: " + method);
+            }
+
+            sourcesByName.put(method.getName(), method);
+        }
+
+        final Map<Method, SnapshotLookup> lookups = new HashMap<>();
+        final Map<String, Set<String>> keysBySourceName = new HashMap<>();
+        for (Method method : c.getMethods()) {
+            final SnapshotLookup lookup = method.getAnnotation(SnapshotLookup.class);
+            if (lookup == null) {
+                continue;
+            }
+
+            if (!sourcesByName.containsKey(lookup.snapshot()) || method.getParameterTypes().length != 1) {
+                throw new IllegalArgumentException("Snapshot lookup must have one argument and refer to a snapshot sproc: " + method);
+            }
+
+            lookups.put(method, lookup);
+            keysBySourceName.computeIfAbsent(lookup.snapshot(), name -> new HashSet<>()).add(lookup.key());
+        }
+
+        final Map<Method, ReferenceDataSnapshot.Access> result = new HashMap<>();
+        final Map<String, ReferenceDataSnapshot> snapshotsBySourceName = new HashMap<>();
+        for (Method source : sourcesByName.values()) {
+            final Class<?> rowType = (Class<?>) ((ParameterizedType) source.getGenericReturnType()).getActualTypeArguments()[0];
+            final ReferenceDataSnapshot snapshot = new ReferenceDataSnapshot(c.getSimpleName() + "." + source.getName(),
+                    source.getAnnotation(SProcCall.class).snapshotRefreshMillis(), rowType,
+                    keysBySourceName.getOrDefault(source.getName(), Collections.emptySet()));
+            snapshotsBySourceName.put(source.getName(), snapshot);
+            result.put(source, new ReferenceDataSnapshot.Access(snapshot, source, null, true));
+        }
+
+        for (Map.Entry<Method, SnapshotLookup> lookup : lookups.entrySet()) {
+            final String sourceName = lookup.getValue().snapshot();
+            result.put(lookup.getKey(), new ReferenceDataSnapshot.Access(snapshotsBySourceName.get(sourceName),
+                    sourcesByName.get(sourceName), lookup.getValue().key(),
+                    List.class.isAssignableFrom(lookup.getKey().getReturnType())));
+        }
+        return result;
+    }
+
     public static SProcService.WriteTransaction mapSprocWriteTransactionToServiceWriteTransaction(SProcCall.WriteTransaction scWiWriteTransaction, SProcServiceAnnotationHandler.HandlerResult handlerResult) {
         SProcService.WriteTransaction serviceWriteTransaction = handlerResult.getWriteTransaction();
         if (scWiWriteTransaction == null) {
@@ -90,6 +371,15 @@ public class SProcCallHandler {
     }
 
     public Map<Method, StoredProcedure> handle(Class c, SProcServiceAnnotationHandler.HandlerResult handlerResult) {
+        return handle(c, handlerResult, null);
+    }
+
+    /**
+     * @param  dataSourceProvider  provider the sprocs are called with, distinguishes the persisted results of cached
+     *                             sprocs of different clusters
+     */
+    public Map<Method, StoredProcedure> handle(Class c, SProcServiceAnnotationHandler.HandlerResult handlerResult,
+            DataSourceProvider dataSourceProvider) {
         if (handlerResult == null) {
             throw new IllegalArgumentException("handlerResult should not be null");
         }
@@ -152,8 +442,13 @@ public class SProcCallHandler {
                         final String dbTypeName = sParam.type();
 
                         try {
-                            params.add(StoredProcedureParameter.createParameter(clazz, genericType,
-                                    method, dbTypeName, sParam.sqlType(), pos, sParam.sensitive()));
+                            if (sParam.bulk()) {
+                                params.add(new BulkStoredProcedureParameter(clazz, method, dbTypeName,
+                                        sParam.sqlType(), pos, sParam.sensitive()));
+                            } else {
+                                params.add(StoredProcedureParameter.createParameter(clazz, genericType,
+                                        method, dbTypeName, sParam.sqlType(), pos, sParam.sensitive()));
+                            }
                         } catch (final InstantiationException | IllegalAccessException | NoSuchMethodException | IllegalArgumentException | SecurityException | InvocationTargetException e) {
                             LOG.error("Could not instantiate StoredProcedureParameter. ABORTING.", e);
                             throw new IllegalArgumentException("Could not instantiate StoredProcedureParameter. ABORTING.");
@@ -163,7 +458,8 @@ public class SProcCallHandler {
 
                 pos++;
             }
-            final StoredProcedure storedProcedure = createStoredProcedure(scA, handlerResult, method, name, params, sprocStrategy, shardKeyParameters, resultMapper, useValidation);
+            final StoredProcedure storedProcedure = createStoredProcedure(scA, handlerResult, method, name, params, sprocStrategy, shardKeyParameters, resultMapper, useValidation,
+                    dataSourceProvider);
 
             result.put(method, storedProcedure);
         }
@@ -173,16 +469,19 @@ public class SProcCallHandler {
     private StoredProcedure createStoredProcedure(SProcCall scA, SProcServiceAnnotationHandler.HandlerResult handlerResult,
         Method method, String name, List<StoredProcedureParameter> params,
         VirtualShardKeyStrategy sprocStrategy, List<ShardKeyParameter> shardKeyParameters,
-        RowMapper<?> resultMapper, boolean useValidation) {
+        RowMapper<?> resultMapper, boolean useValidation, DataSourceProvider dataSourceProvider) {
         try {
             SProcService.WriteTransaction writeTransaction = mapSprocWriteTransactionToServiceWriteTransaction(scA.shardedWriteTransaction(), handlerResult);
 
             String query = !"".equals(scA.sql()) ? scA.sql() : null;
 
             StoredProcedure storedProcedure = new StoredProcedure(name, query, params, method.getGenericReturnType(), sprocStrategy, shardKeyParameters,
-                    scA.runOnAllShards(), scA.searchShards(), scA.parallel(), resultMapper,
-                    scA.timeoutInMilliSeconds(), new SProcCall.AdvisoryLock(scA.adivsoryLockName(),scA.adivsoryLockId()), useValidation, scA.readOnly(),
-                    writeTransaction);
+                    scA.runOnAllShards(), scA.searchShards(), scA.parallel(), scA.limit(), scA.streamBuffer(), scA.skipUnhealthyShards(),
+                    scA.partialResults(), scA.shardDeadlineMillis(), resultMapper,
+                    scA.timeoutInMilliSeconds(), new SProcCall.AdvisoryLock(scA.adivsoryLockName(),scA.adivsoryLockId()), useValidation, scA.readOnly(), scA.readFromReplicas(), scA.interruptible(),
+                    writeTransaction, getRequestHedger(scA), getSearchShardsCache(scA),
+                    getResultCache(scA, method, name, dataSourceProvider), getSingleFlight(scA, name), scA.scoped(), getWriteBehind(scA, name),
+                    getCopyOut(scA, method, name, params));
 
             return storedProcedure;
         } catch (final InstantiationException | IllegalAccessException | NoSuchMethodException | IllegalArgumentException | SecurityException | InvocationTargetException e) {
@@ -19,6 +19,9 @@ import org.zalando.sprocwrapper.dsprovider.DataSourceProvider;
 class SProcProxy extends AbstractInvocationHandler {
 
     private final HashMap<Method, StoredProcedure> sprocs = new HashMap<Method, StoredProcedure>();
+    private final HashMap<Method, AdmissionControl> admissionControls = new HashMap<Method, AdmissionControl>();
+    private final HashMap<Method, ReferenceDataSnapshot.Access> snapshotAccesses =
+        new HashMap<Method, ReferenceDataSnapshot.Access>();
     private final DataSourceProvider dataSourceProvider;
 
     private static final Logger LOG = LoggerFactory.getLogger(SProcProxy.class);
@@ -33,6 +36,14 @@ class SProcProxy extends AbstractInvocationHandler {
         return true;
     }
 
+    void addAdmissionControl(final Method method, final AdmissionControl admissionControl) {
+        admissionControls.put(method, admissionControl);
+    }
+
+    void addSnapshotAccess(final Method method, final ReferenceDataSnapshot.Access snapshotAccess) {
+        snapshotAccesses.put(method, snapshotAccess);
+    }
+
     public SProcProxy(final DataSourceProvider provider, final String description) {
         if (provider == null) {
             throw new IllegalArgumentException("DataSourceProvider cannot be null");
@@ -44,6 +55,15 @@ class SProcProxy extends AbstractInvocationHandler {
 
     @Override
     protected Object handleInvocation(final Object proxy, final Method method, final Object[] args) {
+        final ReferenceDataSnapshot.Access snapshotAccess = snapshotAccesses.get(method);
+        if (snapshotAccess != null) {
+            return snapshotAccess.get(args, () -> executeSproc(proxy, snapshotAccess.getSource(), new Object[0]));
+        }
+
+        return executeSproc(proxy, method, args);
+    }
+
+    private Object executeSproc(final Object proxy, final Method method, final Object[] args) {
         final StoredProcedure p = sprocs.get(method);
 
         if (p == null) {
@@ -51,7 +71,15 @@ class SProcProxy extends AbstractInvocationHandler {
             return null;
         }
 
-        return p.execute(dataSourceProvider, new InvocationContext(proxy, method, args));
+        final AdmissionControl admissionControl = admissionControls.get(method);
+        if (admissionControl == null) {
+            return p.execute(dataSourceProvider, new InvocationContext(proxy, method, args));
+        }
+
+        // admit before the sproc takes a connection, so that queued calls do not hold one
+        try (AdmissionControl.Permit permit = admissionControl.admit()) {
+            return p.execute(dataSourceProvider, new InvocationContext(proxy, method, args));
+        }
     }
 
     @Override
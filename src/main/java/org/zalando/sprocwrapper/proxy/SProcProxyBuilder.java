@@ -30,12 +30,20 @@ public class SProcProxyBuilder {
 
         try {
             SProcServiceAnnotationHandler.HandlerResult handlerResult = sProcServiceAnnotationHandler.handle(c);
-            Map<Method, StoredProcedure> spMap = sProcCallHandler.handle(c, handlerResult);
+            Map<Method, StoredProcedure> spMap = sProcCallHandler.handle(c, handlerResult, d);
             for (Method method : spMap.keySet()) {
                 StoredProcedure storedProcedure = spMap.get(method);
                 LOG.debug("{} registering {}", c.getSimpleName(), storedProcedure);
                 proxy.addStoredProcedure(method, storedProcedure);
             }
+            Map<Method, AdmissionControl> admissionControls = sProcCallHandler.handleAdmission(c, handlerResult);
+            for (Method method : admissionControls.keySet()) {
+                proxy.addAdmissionControl(method, admissionControls.get(method));
+            }
+            Map<Method, ReferenceDataSnapshot.Access> snapshots = sProcCallHandler.handleSnapshots(c);
+            for (Method method : snapshots.keySet()) {
+                proxy.addSnapshotAccess(method, snapshots.get(method));
+            }
         } catch (IllegalArgumentException ex) {
             return null;
         }
@@ -1,4 +1,5 @@
 package org.zalando.sprocwrapper.proxy;
+import org.zalando.sprocwrapper.SProcCall;
 import org.zalando.sprocwrapper.SProcService;
 import org.zalando.sprocwrapper.sharding.VirtualShardKeyStrategy;
 
@@ -14,6 +15,7 @@ class SProcServiceAnnotationHandler {
     private static final Logger LOG = LoggerFactory.getLogger(SProcServiceAnnotationHandler.class);
     private static final String DEFAULT_PREFIX = "";
     private static final VirtualShardKeyStrategy DEFAULT_VIRTUAL_SHARD_KEY_STRATEGY = new VirtualShardKeyStrategy();
+    private static final long DEFAULT_ADMISSION_TIMEOUT_MILLIS = 1000;
 
     protected static final HandlerResult DEFAULT_HANDLER_RESULT = new HandlerResult(DEFAULT_PREFIX, DEFAULT_VIRTUAL_SHARD_KEY_STRATEGY, false, SProcService.WriteTransaction.NONE);
 
@@ -23,13 +25,24 @@ class SProcServiceAnnotationHandler {
         private final VirtualShardKeyStrategy shardKeyStrategy;
         private boolean validationActive;
         private SProcService.WriteTransaction writeTransaction;
+        private final SProcCall.Priority priority;
+        private final long admissionTimeoutMillis;
+        private final AdmissionGate admissionGate;
 
         public HandlerResult(String prefix, VirtualShardKeyStrategy shardKeyStrategy, boolean validationActive, SProcService.WriteTransaction writeTransaction) {
+            this(prefix, shardKeyStrategy, validationActive, writeTransaction, SProcCall.Priority.INTERACTIVE, DEFAULT_ADMISSION_TIMEOUT_MILLIS, null);
+        }
+
+        HandlerResult(String prefix, VirtualShardKeyStrategy shardKeyStrategy, boolean validationActive, SProcService.WriteTransaction writeTransaction,
+                      SProcCall.Priority priority, long admissionTimeoutMillis, AdmissionGate admissionGate) {
 
             this.prefix = prefix;
             this.shardKeyStrategy = shardKeyStrategy;
             this.validationActive = validationActive;
             this.writeTransaction = writeTransaction;
+            this.priority = priority;
+            this.admissionTimeoutMillis = admissionTimeoutMillis;
+            this.admissionGate = admissionGate;
         }
 
         public String getPrefix() {
@@ -47,6 +60,21 @@ class SProcServiceAnnotationHandler {
         public SProcService.WriteTransaction getWriteTransaction() {
             return this.writeTransaction;
         }
+
+        public SProcCall.Priority getPriority() {
+            return priority;
+        }
+
+        public long getAdmissionTimeoutMillis() {
+            return admissionTimeoutMillis;
+        }
+
+        /**
+         * @return  the concurrency limit shared by all sprocs of the service, null if there is none
+         */
+        AdmissionGate getAdmissionGate() {
+            return admissionGate;
+        }
     }
 
     public SProcServiceAnnotationHandler() {
@@ -71,6 +99,17 @@ class SProcServiceAnnotationHandler {
             prefix = serviceAnnotation.namespace() + "_";
         }
 
-        return new HandlerResult(prefix, keyStrategy, serviceAnnotation.validate(), serviceAnnotation.shardedWriteTransaction());
+        AdmissionGate admissionGate = null;
+        if (serviceAnnotation.maxConcurrentCalls() > 0) {
+            admissionGate = new AdmissionGate(serviceAnnotation.maxConcurrentCalls(), serviceAnnotation.batchConcurrencyPercent());
+        }
+
+        SProcCall.Priority priority = serviceAnnotation.priority();
+        if (priority == SProcCall.Priority.USE_FROM_SERVICE) {
+            priority = SProcCall.Priority.INTERACTIVE;
+        }
+
+        return new HandlerResult(prefix, keyStrategy, serviceAnnotation.validate(), serviceAnnotation.shardedWriteTransaction(),
+                priority, serviceAnnotation.admissionTimeoutMillis(), admissionGate);
     }
 }
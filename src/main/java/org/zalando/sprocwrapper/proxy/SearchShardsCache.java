@@ -0,0 +1,146 @@
+package org.zalando.sprocwrapper.proxy;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+
+/**
+ * Learns on which shard the results of a searchShards sproc were found:
+ *
+ * <ul>
+ *   <li>a bounded map of the most recent keys (sproc arguments) to the shard which had the result,</li>
+ *   <li>a Bloom filter per shard with all keys found on the shard, surviving evictions from the map,</li>
+ *   <li>the number of hits per shard, to order the search of unknown keys by hit probability,</li>
+ *   <li>recent misses (no shard had a result), which are answered without searching for a short time.</li>
+ * </ul>
+ *
+ * <p>The cache only changes the order of the search: a key found on another shard than expected is still found.</p>
+ */
+class SearchShardsCache {
+
+    private static final Funnel<List<Object>> KEY_FUNNEL = (key, into) ->
+            Funnels.stringFunnel(StandardCharsets.UTF_8).funnel(Arrays.deepToString(key.toArray()), into);
+
+    private static final double BLOOM_FILTER_FPP = 0.01;
+
+    private final int maxSize;
+
+    private final Cache<List<Object>, Integer> shardIdByKey;
+
+    private final Cache<List<Object>, Boolean> misses;
+
+    private final Map<Integer, BloomFilter<List<Object>>> keysByShardId = new ConcurrentHashMap<>();
+
+    private final Map<Integer, LongAdder> hitsByShardId = new ConcurrentHashMap<>();
+
+    /**
+     * @param  maxSize         maximum number of keys in the key to shard map, expected number of keys per shard
+     * @param  missTtlMillis   time a key without result on any shard is remembered, 0 disables negative caching
+     */
+    SearchShardsCache(final int maxSize, final long missTtlMillis) {
+        Preconditions.checkArgument(maxSize > 0, "search cache size must be positive: %s", maxSize);
+        Preconditions.checkArgument(missTtlMillis >= 0, "search cache miss TTL must not be negative: %s",
+            missTtlMillis);
+        this.maxSize = maxSize;
+        this.shardIdByKey = CacheBuilder.newBuilder().maximumSize(maxSize).build();
+        this.misses = missTtlMillis == 0 ? null
+                                         : CacheBuilder.newBuilder().maximumSize(maxSize)
+                                                       .expireAfterWrite(missTtlMillis, TimeUnit.MILLISECONDS).build();
+    }
+
+    static List<Object> key(final Object[] args) {
+        return args == null ? Collections.emptyList() : Arrays.asList(args.clone());
+    }
+
+    /**
+     * @return  the shard the key was last found on, null if unknown
+     */
+    Integer getShardId(final List<Object> key) {
+        return shardIdByKey.getIfPresent(key);
+    }
+
+    /**
+     * @return  true if the key was recently searched on all shards without result
+     */
+    boolean isKnownMiss(final List<Object> key) {
+        return misses != null && misses.getIfPresent(key) != null;
+    }
+
+    /**
+     * @return  the shard ids ordered by the probability to find the key: the shard the key was found on, shards whose
+     *          Bloom filter may contain the key, then all other shards by number of hits
+     */
+    List<Integer> order(final List<Integer> shardIds, final List<Object> key) {
+        final Integer knownShardId = getShardId(key);
+        final Map<Integer, Boolean> bloomFilterMatches = Maps.newHashMapWithExpectedSize(shardIds.size());
+        final Map<Integer, Long> hits = Maps.newHashMapWithExpectedSize(shardIds.size());
+        for (final int shardId : shardIds) {
+            final LongAdder adder = hitsByShardId.get(shardId);
+            hits.put(shardId, adder == null ? 0 : adder.sum());
+            bloomFilterMatches.put(shardId, mightContain(shardId, key));
+        }
+
+        final List<Integer> ordered = Lists.newArrayList(shardIds);
+        ordered.sort(Comparator.comparing((Integer shardId) -> shardId.equals(knownShardId))
+                               .thenComparing(bloomFilterMatches::get).thenComparing(hits::get).reversed());
+        return ordered;
+    }
+
+    private boolean mightContain(final int shardId, final List<Object> key) {
+        final BloomFilter<List<Object>> filter = keysByShardId.get(shardId);
+        return filter != null && filter.mightContain(key);
+    }
+
+    void recordHit(final List<Object> key, final int shardId) {
+        shardIdByKey.put(key, shardId);
+        if (misses != null) {
+            misses.invalidate(key);
+        }
+
+        hitsByShardId.computeIfAbsent(shardId, id -> new LongAdder()).increment();
+
+        BloomFilter<List<Object>> filter = keysByShardId.computeIfAbsent(shardId, id -> newBloomFilter());
+        if (filter.approximateElementCount() >= maxSize) {
+
+            // saturated filters only produce false positives: start over
+            filter = newBloomFilter();
+            keysByShardId.put(shardId, filter);
+        }
+
+        filter.put(key);
+    }
+
+    void recordMiss(final List<Object> key) {
+        shardIdByKey.invalidate(key);
+        if (misses != null) {
+            misses.put(key, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * forgets the shard of the key, e.g. because the key was not found there anymore.
+     */
+    void invalidate(final List<Object> key) {
+        shardIdByKey.invalidate(key);
+    }
+
+    private BloomFilter<List<Object>> newBloomFilter() {
+        return BloomFilter.create(KEY_FUNNEL, maxSize, BLOOM_FILTER_FPP);
+    }
+}
@@ -0,0 +1,182 @@
+package org.zalando.sprocwrapper.proxy;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import org.zalando.sprocwrapper.sharding.ShardedDataAccessException;
+
+/**
+ * Iterates over the rows of a sproc executed on multiple shards in order of completion of the shards: the rows of a
+ * shard are available as soon as the shard delivered its result, without waiting for the slowest shard.
+ *
+ * <p>At most {@code concurrency} shard results are running or buffered at any time (including the one being
+ * iterated), the next shard is only queried once the rows of a shard are consumed. The first failing shard fails the
+ * iteration, rows of other shards may have been returned already. {@link #close()} cancels the shards still running,
+ * so streams should be used with try-with-resources if they are not consumed completely.</p>
+ *
+ * <p>Not thread safe, like all iterators.</p>
+ */
+class ShardResultIterator<T> implements Iterator<T>, AutoCloseable {
+
+    private final Deque<Entry<Integer, Callable<Object>>> pending;
+    private final Map<Integer, CancellableDataSource> dataSources;
+    private final ExecutorService executorService;
+    private final String query;
+    private final int shardCount;
+
+    private final BlockingQueue<FutureTask<Object>> completed = new LinkedBlockingQueue<>();
+    private final Map<FutureTask<Object>, Integer> running = Maps.newHashMap();
+
+    private Iterator<T> current = Collections.emptyIterator();
+    private boolean consumingShard = false;
+    private int received = 0;
+    private boolean closed = false;
+
+    /**
+     * @param  calls        sproc calls by shard id, in the order the shards should be queried
+     * @param  dataSources  data sources of the calls by shard id, cancelled on close
+     * @param  concurrency  maximum number of shard results running or buffered
+     */
+    ShardResultIterator(final Map<Integer, Callable<Object>> calls,
+            final Map<Integer, CancellableDataSource> dataSources, final int concurrency,
+            final ExecutorService executorService, final String query) {
+        Preconditions.checkArgument(concurrency > 0, "concurrency must be positive: %s", concurrency);
+        this.pending = new ArrayDeque<>(calls.entrySet());
+        this.dataSources = Maps.newHashMap(dataSources);
+        this.executorService = executorService;
+        this.query = query;
+        this.shardCount = calls.size();
+
+        for (int i = 0; i < concurrency; i++) {
+            startNext();
+        }
+    }
+
+    /**
+     * @return  a sequential stream of the rows, closing the stream closes the iterator
+     */
+    Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, 0), false).onClose(this::close);
+    }
+
+    private void startNext() {
+        final Entry<Integer, Callable<Object>> call = pending.poll();
+        if (call == null) {
+            return;
+        }
+
+        final FutureTask<Object> task = new FutureTask<Object>(call.getValue()) {
+            @Override
+            protected void done() {
+                completed.add(this);
+            }
+        };
+        running.put(task, call.getKey());
+        executorService.execute(task);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (consumingShard) {
+
+                // the rows of the last shard are consumed: its buffer slot is free for the next shard
+                consumingShard = false;
+                startNext();
+            }
+
+            if (closed || received == shardCount) {
+                return false;
+            }
+
+            current = rowsOf(takeCompleted());
+            consumingShard = true;
+            received++;
+        }
+
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return current.next();
+    }
+
+    private FutureTask<Object> takeCompleted() {
+        try {
+            return completed.take();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new ShardedDataAccessException("Interrupted while streaming sproc results from shards, query: "
+                    + query, ImmutableMap.<Integer, Throwable>of());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Iterator<T> rowsOf(final FutureTask<Object> task) {
+        final Integer shardId = running.remove(task);
+        dataSources.remove(shardId);
+
+        final Object result;
+        try {
+            result = task.get();
+        } catch (final InterruptedException | ExecutionException e) {
+            close();
+
+            final Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            throw new ShardedDataAccessException("Got exception while streaming sproc results from shard " + shardId
+                    + ": " + cause.getMessage() + ", query: " + query, ImmutableMap.of(shardId, cause));
+        }
+
+        if (result == null) {
+            return Collections.emptyIterator();
+        }
+
+        return ((Collection<T>) result).iterator();
+    }
+
+    /**
+     * stops the iteration: shards not queried yet are skipped, running shard calls are cancelled.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        current = Collections.emptyIterator();
+        pending.clear();
+        for (final FutureTask<Object> task : running.keySet()) {
+            task.cancel(true);
+        }
+
+        for (final CancellableDataSource shardDs : dataSources.values()) {
+            shardDs.cancel();
+        }
+    }
+}
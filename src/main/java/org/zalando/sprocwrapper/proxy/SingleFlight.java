@@ -0,0 +1,89 @@
+package org.zalando.sprocwrapper.proxy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.dao.TransientDataAccessResourceException;
+
+import org.zalando.sprocwrapper.Deadline;
+
+/**
+ * Shares one execution of a read only sproc between concurrent calls with equal arguments: the first call executes
+ * the sproc, calls arriving while it runs wait for its result (or its exception) instead of executing the sproc
+ * again. List results are handed out as copies, their elements are shared.
+ */
+class SingleFlight {
+
+    private final String name;
+
+    private final ConcurrentMap<List<Object>, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder sharedCalls = new LongAdder();
+
+    SingleFlight(final String name) {
+        this.name = name;
+    }
+
+    Object execute(final Object[] args, final Supplier<Object> call) {
+        final List<Object> key = args == null ? Collections.emptyList() : Arrays.asList(args.clone());
+        final CompletableFuture<Object> flight = new CompletableFuture<>();
+        final CompletableFuture<Object> running = inFlight.putIfAbsent(key, flight);
+        if (running != null) {
+            sharedCalls.increment();
+            return copy(await(running));
+        }
+
+        try {
+            final Object result = call.get();
+            flight.complete(result);
+            return copy(result);
+        } catch (final RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * @return  number of calls which got the result of another call
+     */
+    long getSharedCalls() {
+        return sharedCalls.sum();
+    }
+
+    private Object await(final CompletableFuture<Object> running) {
+        final Deadline deadline = Deadline.current();
+        try {
+            return deadline == null ? running.get() : running.get(deadline.remaining(TimeUnit.NANOSECONDS),
+                    TimeUnit.NANOSECONDS);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw (Error) e.getCause();
+        } catch (final TimeoutException e) {
+            throw new QueryTimeoutException("Deadline exceeded waiting for identical call of " + name, e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransientDataAccessResourceException("Interrupted while waiting for identical call of " + name,
+                e);
+        }
+    }
+
+    private static Object copy(final Object result) {
+        return result instanceof List ? new ArrayList<>((List<?>) result) : result;
+    }
+}
@@ -4,20 +4,29 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.ParameterizedType;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import javax.sql.DataSource;
 import javax.annotation.concurrent.Immutable;
@@ -25,16 +34,28 @@ import javax.annotation.concurrent.Immutable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.springframework.dao.QueryTimeoutException;
 import org.springframework.jdbc.CannotGetJdbcConnectionException;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.support.SQLStateSQLExceptionTranslator;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 
+import org.zalando.sprocwrapper.Deadline;
+import org.zalando.sprocwrapper.SProcScope;
+import org.zalando.sprocwrapper.cache.SProcResultCache;
+import org.zalando.sprocwrapper.dsprovider.ConcurrencyLimitedDataSource;
+import org.zalando.sprocwrapper.dsprovider.DataSourceHealth;
+import org.zalando.sprocwrapper.dsprovider.DataSourceHealthRegistry;
 import org.zalando.sprocwrapper.dsprovider.DataSourceProvider;
+import org.zalando.sprocwrapper.dsprovider.ReplicaAwareDataSourceProvider;
 import org.zalando.sprocwrapper.dsprovider.SameConnectionDatasource;
 import org.zalando.sprocwrapper.globalvaluetransformer.GlobalValueTransformerLoader;
 import org.zalando.sprocwrapper.sharding.ShardedDataAccessException;
@@ -49,6 +70,10 @@ import org.zalando.sprocwrapper.proxy.executors.SingleRowCustomMapperExecutor;
 import org.zalando.sprocwrapper.proxy.executors.SingleRowSimpleTypeExecutor;
 import org.zalando.sprocwrapper.proxy.executors.SingleRowTypeMapperExecutor;
 import org.zalando.sprocwrapper.proxy.executors.ValidationExecutorWrapper;
+import org.zalando.sprocwrapper.sharding.ShardExecutionReport;
+import org.zalando.sprocwrapper.sharding.ShardOverloadedException;
+import org.zalando.sprocwrapper.sharding.ShardStatistics;
+import org.zalando.sprocwrapper.sharding.ShardUnavailableException;
 import org.zalando.sprocwrapper.sharding.ShardedObject;
 import org.zalando.sprocwrapper.sharding.VirtualShardKeyStrategy;
 
@@ -78,13 +103,36 @@ class StoredProcedure {
     private final List<ShardKeyParameter> shardKeyParameters;
     private final boolean autoPartition;
 
-    // whether the result type is a collection (List)
+    // whether shard keys may be sampled for the heavy hitters: not if any of them is sensitive
+    private final boolean sampleShardKeys;
+
+    // whether the result type is a collection (List or Stream)
     private final boolean collectionResult;
+
+    // whether the rows are returned as Stream, multi shard results are streamed in order of completion
+    private final boolean streamResult;
+    private final int streamBuffer;
     private final boolean runOnAllShards;
     private final boolean searchShards;
     private final boolean parallel;
+    private final int limit;
+    private final boolean skipUnhealthyShards;
+    private final boolean partialResults;
+    private final long shardDeadlineNanos;
     private final boolean readOnly;
+    private final boolean readFromReplicas;
+    private final boolean interruptible;
     private final WriteTransaction writeTransaction;
+    private final RequestHedger hedger;
+    private final SearchShardsCache searchCache;
+    private final SProcResultCache resultCache;
+    private final SingleFlight singleFlight;
+    private final boolean scoped;
+    private final WriteBehindBuffer writeBehind;
+    private final CopyOutExport copyOut;
+
+    // whether list parameters are copied to staging tables before the call
+    private final boolean bulkLoad;
 
     private final Executor executor;
 
@@ -95,14 +143,26 @@ class StoredProcedure {
 
     private static final ExecutorService PARALLEL_THREAD_POOL = Executors.newCachedThreadPool();
 
+    private static final ShardStatistics STATISTICS = ShardStatistics.getInstance();
+
+    // the thread of the watchdog is only started by the first watched call
+    private static final InterruptWatchdog INTERRUPT_WATCHDOG = new InterruptWatchdog(
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat(
+                    "sproc-interrupt-watchdog-%d").setDaemon(true).build()), DeadlineTimer.CANCELLER, 20);
+
     private final long timeout;
     private final AdvisoryLock adivsoryLock;
 
     public StoredProcedure(final String name, final String query, final List<StoredProcedureParameter> params, final java.lang.reflect.Type genericType,
                            final VirtualShardKeyStrategy sStrategy, final List<ShardKeyParameter> shardKeyParameters, final boolean runOnAllShards, final boolean searchShards,
-                           final boolean parallel, final RowMapper<?> resultMapper, final long timeout,
+                           final boolean parallel, final int limit, final int streamBuffer, final boolean skipUnhealthyShards,
+                           final boolean partialResults, final long shardDeadlineMillis, final RowMapper<?> resultMapper, final long timeout,
                            final AdvisoryLock advisoryLock, final boolean useValidation, final boolean readOnly,
-                           final WriteTransaction writeTransaction) throws InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+                           final boolean readFromReplicas, final boolean interruptible,
+                           final WriteTransaction writeTransaction, final RequestHedger hedger,
+                           final SearchShardsCache searchCache, final SProcResultCache resultCache,
+                           final SingleFlight singleFlight, final boolean scoped, final WriteBehindBuffer writeBehind,
+                           final CopyOutExport copyOut) throws InstantiationException, IllegalAccessException, InvocationTargetException, NoSuchMethodException {
         this.name = name;
         this.params = new ArrayList<>(params);
         this.types = createTypes(params);
@@ -113,12 +173,28 @@ class StoredProcedure {
         this.shardStrategy = sStrategy;
         this.shardKeyParameters = new ArrayList<>(shardKeyParameters);
         this.autoPartition = isAutoPartition(shardKeyParameters);
+        this.sampleShardKeys = !isSensitive(params, shardKeyParameters);
 
         this.runOnAllShards = runOnAllShards;
         this.searchShards = searchShards;
         this.parallel = parallel;
+        this.limit = limit;
+        this.streamBuffer = streamBuffer;
+        this.skipUnhealthyShards = skipUnhealthyShards;
+        this.partialResults = partialResults;
+        this.shardDeadlineNanos = TimeUnit.MILLISECONDS.toNanos(shardDeadlineMillis);
         this.readOnly = readOnly;
+        this.readFromReplicas = readFromReplicas;
+        this.interruptible = interruptible;
         this.writeTransaction = writeTransaction;
+        this.hedger = hedger;
+        this.searchCache = searchCache;
+        this.resultCache = resultCache;
+        this.singleFlight = singleFlight;
+        this.scoped = scoped;
+        this.writeBehind = writeBehind;
+        this.copyOut = copyOut;
+        this.bulkLoad = params.stream().anyMatch(p -> p instanceof BulkStoredProcedureParameter);
 
         this.adivsoryLock = advisoryLock;
         this.timeout = timeout;
@@ -128,7 +204,8 @@ class StoredProcedure {
         if (genericType instanceof ParameterizedType) {
             final ParameterizedType pType = (ParameterizedType) genericType;
 
-            if (java.util.List.class.isAssignableFrom((Class<?>) pType.getRawType())
+            final boolean stream = Stream.class.equals(pType.getRawType());
+            if ((stream || java.util.List.class.isAssignableFrom((Class<?>) pType.getRawType()))
                     && pType.getActualTypeArguments().length > 0) {
                 returnType = (Class<?>) pType.getActualTypeArguments()[0];
 
@@ -143,14 +220,17 @@ class StoredProcedure {
                 }
 
                 collectionResult = true;
+                streamResult = stream;
             } else {
                 collectionResult = false;
+                streamResult = false;
                 exec = SINGLE_ROW_TYPE_MAPPER_EXECUTOR;
                 returnType = (Class<?>) pType.getRawType();
             }
 
         } else {
             collectionResult = false;
+            streamResult = false;
             returnType = (Class<?>) genericType;
 
             // check if we have a value transformer (and initialize the registry):
@@ -167,6 +247,88 @@ class StoredProcedure {
             }
         }
 
+        if (limit < 0 || (limit > 0 && !collectionResult)) {
+            throw new IllegalArgumentException("Limit of sproc " + name
+                    + " must be positive and is only supported for List results: " + limit);
+        }
+
+        if (limit > 0 && (autoPartition || (!readOnly && writeTransaction != WriteTransaction.NONE))) {
+            throw new IllegalArgumentException("Limit of sproc " + name
+                    + " is not supported for auto partitioned calls or sharded write transactions, as the shards not"
+                    + " queried after the limit was reached would be committed without being executed");
+        }
+
+        if (streamResult && (limit > 0 || searchShards)) {
+            throw new IllegalArgumentException("Stream result of sproc " + name
+                    + " does not support limit or searchShards, use Stream.limit() instead");
+        }
+
+        if (streamBuffer < 0 || (streamBuffer > 0 && !streamResult)) {
+            throw new IllegalArgumentException("Stream buffer of sproc " + name
+                    + " must be positive and is only supported for Stream results: " + streamBuffer);
+        }
+
+        if (readFromReplicas && !readOnly) {
+            throw new IllegalArgumentException("Only readOnly sprocs can read from replicas: " + name);
+        }
+
+        if (resultCache != null && (!readOnly || streamResult)) {
+            throw new IllegalArgumentException("Only readOnly sprocs not returning a Stream can be cached: " + name);
+        }
+
+        if (singleFlight != null && (!readOnly || streamResult)) {
+            throw new IllegalArgumentException("Only readOnly sprocs not returning a Stream can share executions: "
+                    + name);
+        }
+
+        if (scoped && (!readOnly || streamResult || copyOut != null)) {
+            throw new IllegalArgumentException("Only readOnly sprocs not returning a Stream can be memoized in a scope: "
+                    + name);
+        }
+
+        if (writeBehind != null
+                && (readOnly || (returnType != void.class && returnType != Void.class) || runOnAllShards || searchShards
+                    || autoPartition || bulkLoad || (advisoryLock != null && !advisoryLock.equals(AdvisoryLock.NoLock.LOCK)))) {
+            throw new IllegalArgumentException("Only void write sprocs running on a single shard without advisory lock"
+                    + " or bulk parameters can be written behind: " + name);
+        }
+
+        if (copyOut != null
+                && (runOnAllShards || searchShards || autoPartition || query != null || bulkLoad || resultCache != null
+                    || singleFlight != null || writeBehind != null || hedger != null || timeout > 0
+                    || (advisoryLock != null && !advisoryLock.equals(AdvisoryLock.NoLock.LOCK)) || useValidation
+                    || valueTransformerForClass != null
+                    || params.stream().anyMatch(p -> p instanceof GlobalValueTransformedParameter)
+                    || copyOut.isDecoding() != streamResult)) {
+            throw new IllegalArgumentException("Only single shard sprocs without custom sql, caching, write-behind,"
+                    + " timeout, advisory lock, validation or global value transformers, returning a Stream or writing"
+                    + " to an OutputStream, can be run as COPY: " + name);
+        }
+
+        if (bulkLoad && (readOnly || query != null)) {
+            throw new IllegalArgumentException("Bulk parameters are only supported by write sprocs without custom sql: "
+                    + name);
+        }
+
+        if (skipUnhealthyShards && !runOnAllShards && !searchShards) {
+            throw new IllegalArgumentException("Sproc " + name
+                    + " can only skip unhealthy shards if it runs on all shards or searches shards");
+        }
+
+        if (partialResults
+                && (!runOnAllShards && !searchShards || streamResult
+                    || (!readOnly && writeTransaction != WriteTransaction.NONE))) {
+            throw new IllegalArgumentException("Sproc " + name
+                    + " can only return partial results if it runs on all shards or searches shards without"
+                    + " sharded write transaction and does not return a Stream");
+        }
+
+        if (partialResults != shardDeadlineMillis > 0) {
+            throw new IllegalArgumentException("Shard deadline of sproc " + name
+                    + " must be positive for partial results and is only supported for partial results: "
+                    + shardDeadlineMillis);
+        }
+
         if (this.timeout > 0 || (this.adivsoryLock != null && !(this.adivsoryLock.equals(AdvisoryLock.NoLock.LOCK)))) {
 
             // Wrapper provides locking and changing of session settings functionality
@@ -184,6 +346,10 @@ class StoredProcedure {
             exec = new GlobalTransformerExecutorWrapper(exec);
         }
         this.executor = exec;
+
+        if (writeBehind != null) {
+            writeBehind.start(this::writeBatch);
+        }
     }
 
     public String getName() {
@@ -211,6 +377,43 @@ class StoredProcedure {
         return ps;
     }
 
+    /**
+     * writes queued write-behind calls as one JDBC batch in one transaction.
+     */
+    private void writeBatch(final DataSource dataSource, final List<Object[]> calls) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            final boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+
+            // PgJDBC rejects batched statements returning rows, like sproc calls, with "A result was returned when none
+            // was expected", unless it expects generated keys: it then keeps the returned rows as generated keys
+            // instead. Void sprocs return one empty row per call, released when the statement is closed. The behaviour
+            // is verified by WriteBehindIT.
+            try (PreparedStatement statement = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS)) {
+                if (timeout > 0) {
+                    statement.setQueryTimeout((int) ((timeout + 999) / 1000));
+                }
+
+                for (final Object[] args : calls) {
+                    final Object[] values = getParams(args, connection);
+                    for (int i = 0; i < values.length; i++) {
+                        StatementCreatorUtils.setParameterValue(statement, i + 1, types[i], values[i]);
+                    }
+
+                    statement.addBatch();
+                }
+
+                statement.executeBatch();
+                connection.commit();
+            } catch (final SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
     private static int[] createTypes(final List<StoredProcedureParameter> params) {
         int[] types = new int[params.size()];
         int i = 0;
@@ -225,20 +428,37 @@ class StoredProcedure {
             return shardStrategy.getShardId(null);
         }
 
+        if (shardKeyParameters.size() == 1) {
+
+            // most common case: hash the key without allocating a key array
+            final Object key = shardKey(objs[shardKeyParameters.get(0).getPos()]);
+            final int shardId = shardStrategy.getShardIdForKey(key);
+            if (STATISTICS.isEnabled()) {
+                STATISTICS.recordKey(shardId, key, sampleShardKeys);
+            }
+
+            return shardId;
+        }
+
         final Object[] keys = new Object[shardKeyParameters.size()];
         int i = 0;
         Object obj;
         for (final ShardKeyParameter p : shardKeyParameters) {
             obj = objs[p.getPos()];
-            if (obj instanceof ShardedObject) {
-                obj = ((ShardedObject) obj).getShardKey();
-            }
-
-            keys[i] = obj;
+            keys[i] = shardKey(obj);
             i++;
         }
 
-        return shardStrategy.getShardId(keys);
+        final int shardId = shardStrategy.getShardId(keys);
+        if (STATISTICS.isEnabled()) {
+            STATISTICS.recordKey(shardId, Arrays.asList(keys), sampleShardKeys);
+        }
+
+        return shardId;
+    }
+
+    private static Object shardKey(final Object obj) {
+        return obj instanceof ShardedObject ? ((ShardedObject) obj).getShardKey() : obj;
     }
 
     public String getSqlParameterList() {
@@ -248,14 +468,15 @@ class StoredProcedure {
     private static String createSqlParameterList(final List<StoredProcedureParameter> params) {
         String s = "";
         boolean first = true;
-        for (int i = 1; i <= params.size(); ++i) {
+        for (final StoredProcedureParameter p : params) {
             if (!first) {
                 s += ",";
             }
 
             first = false;
 
-            s += "?";
+            s += p instanceof BulkStoredProcedureParameter ? ((BulkStoredProcedureParameter) p).getSqlExpression()
+                                                           : "?";
         }
 
         return s;
@@ -265,6 +486,19 @@ class StoredProcedure {
         return "SELECT * FROM " + name + " ( " + sqlParameterList + " )";
     }
 
+    private static boolean isSensitive(final List<StoredProcedureParameter> params,
+                                       final List<ShardKeyParameter> shardKeyParameters) {
+        for (final ShardKeyParameter k : shardKeyParameters) {
+            for (final StoredProcedureParameter p : params) {
+                if (p.getJavaPos() == k.getPos() && p.isSensitive()) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
     private static boolean isAutoPartition(final List<ShardKeyParameter> shardKeyParameters) {
         for (ShardKeyParameter p : shardKeyParameters) {
             if (List.class.isAssignableFrom(p.getType())) {
@@ -345,8 +579,10 @@ class StoredProcedure {
         int shardId;
         Integer existingShardId;
         DataSource dataSource;
+        final Object[] keyArgs = new Object[1];
         for (final Object key : originalArgument) {
-            shardId = getShardId(new Object[] {key});
+            keyArgs[0] = key;
+            shardId = getShardId(keyArgs);
             dataSource = dataSourceProvider.getDataSource(shardId);
             existingShardId = shardIdByDataSource.get(dataSource);
             if (existingShardId != null) {
@@ -382,11 +618,95 @@ class StoredProcedure {
 
     public Object execute(final DataSourceProvider dp, final InvocationContext invocation) {
 
+        // calls answered without querying the shards (caches, shared executions) must not report an earlier call
+        ShardExecutionReport.clear();
+
+        final SProcScope scope = SProcScope.current();
+        if (scope != null) {
+            if (scoped) {
+                return scope.get(this, invocation.getArgs(), () -> executeUnscoped(dp, invocation));
+            } else if (!readOnly) {
+                scope.clear();
+            }
+        }
+
+        return executeUnscoped(dp, invocation);
+    }
+
+    private Object executeUnscoped(final DataSourceProvider dp, final InvocationContext invocation) {
+        if (copyOut != null) {
+            final Object[] args = invocation.getArgs();
+            return copyOut.execute(getDataSource(dp, getShardId(args)), args);
+        }
+
+        if (writeBehind != null) {
+            final Object[] args = invocation.getArgs();
+            final DataSource dataSource = getDataSource(dp, getShardId(args));
+            if (writeBehind.add(dataSource, args == null ? new Object[0] : args.clone())) {
+                return null;
+            }
+
+            // overflowing or closed queue: execute synchronously
+        }
+
+        if (resultCache != null) {
+
+            // the cache already shares the loads of concurrent calls with equal arguments
+            return resultCache.get(invocation.getArgs(), () -> executeCall(dp, invocation));
+        }
+
+        if (singleFlight != null) {
+            return singleFlight.execute(invocation.getArgs(), () -> executeCall(dp, invocation));
+        }
+
+        final Object result = executeCall(dp, invocation);
+        if (streamResult && !(result instanceof Stream)) {
+            return result == null ? Stream.empty() : ((Collection<?>) result).stream();
+        }
+
+        return result;
+    }
+
+    private Object executeCall(final DataSourceProvider dp, final InvocationContext invocation) {
+
         List<Integer> shardIds = null;
         Map<Integer, Object[]> partitionedArguments = null;
+        final List<Integer> skippedShardIds = Lists.newArrayList();
+        List<Object> searchKey = null;
         if (runOnAllShards || searchShards) {
 
             shardIds = dp.getDistinctShardIds();
+
+            if (skipUnhealthyShards) {
+                shardIds = Lists.newArrayList(shardIds);
+                for (final Iterator<Integer> it = shardIds.iterator(); it.hasNext();) {
+                    final Integer shardId = it.next();
+                    if (!DataSourceHealthRegistry.isAvailable(getDataSource(dp, shardId))) {
+                        it.remove();
+                        skippedShardIds.add(shardId);
+                    }
+                }
+
+                if (shardIds.isEmpty()) {
+                    throw new ShardUnavailableException("All shards are unavailable for " + name);
+                }
+
+                if (!skippedShardIds.isEmpty()) {
+                    LOG.warn("Skipping unhealthy shards {} for {}", skippedShardIds, name);
+                }
+            }
+
+            ShardExecutionReport.setLast(new ShardExecutionReport(skippedShardIds));
+
+            if (searchCache != null) {
+                searchKey = SearchShardsCache.key(invocation.getArgs());
+                if (searchCache.isKnownMiss(searchKey)) {
+                    LOG.trace("search of {} answered by routing cache: no shard has a result", name);
+                    return collectionResult ? Lists.newArrayList() : null;
+                }
+
+                shardIds = searchCache.order(shardIds, searchKey);
+            }
         } else {
             if (autoPartition) {
                 partitionedArguments = partitionArguments(dp, invocation.getArgs());
@@ -403,14 +723,27 @@ class StoredProcedure {
             }
         }
 
-        final DataSource firstDs = dp.getDataSource(shardIds.get(0));
+        final DataSource firstDs = getDataSource(dp, shardIds.get(0));
+        if (shardIds.size() == 1) {
+            checkAvailable(firstDs, shardIds.get(0));
+        }
+
+        // the connection is only needed to map the parameters: prefer a healthy shard
+        final DataSource mappingDs = getMappingDataSource(dp, shardIds, firstDs);
+
+        // the short mapping checkout must not count as a fast call of an adaptive concurrency limit
+        final DeadlineTimer.Checkout checkout = mappingDs instanceof ConcurrencyLimitedDataSource
+            ? ((ConcurrencyLimitedDataSource) mappingDs)::getUnsampledConnection : mappingDs::getConnection;
         Connection connection = null;
+        final long connectStart = System.nanoTime();
         try {
-            connection = firstDs.getConnection();
+            connection = DeadlineTimer.getConnection(checkout, invocation.getDeadline(), "sproc " + name);
 
         } catch (final SQLException e) {
-            throw new CannotGetJdbcConnectionException("Failed to acquire connection for virtual shard "
-                    + shardIds.get(0) + " for " + name, e);
+            final CannotGetJdbcConnectionException ex = new CannotGetJdbcConnectionException(
+                    "Failed to acquire connection for virtual shard " + shardIds.get(0) + " for " + name, e);
+            recordFailure(mappingDs, System.nanoTime() - connectStart, ex);
+            throw ex;
         }
 
         final List<Object[]> paramValues = Lists.newArrayList();
@@ -419,6 +752,8 @@ class StoredProcedure {
                 paramValues.add(getParams(partitionedArguments.get(shardId), connection));
             }
 
+            checkDeadline(invocation, "after parameter mapping");
+
         } finally {
             if (connection != null) {
                 try {
@@ -434,9 +769,45 @@ class StoredProcedure {
                 LOG.debug(getDebugLog(paramValues.get(0)));
             }
 
+            if (hedger != null && dp instanceof ReplicaAwareDataSourceProvider) {
+                // every attempt falls back to the other replicas and the primary like the read only data source
+                final List<DataSource> attempts = ((ReplicaAwareDataSourceProvider) dp).getHedgingDataSources(
+                        shardIds.get(0));
+                if (!attempts.isEmpty()) {
+                    final Object[] params = paramValues.get(0);
+                    final int shardId = shardIds.get(0);
+                    return hedger.execute(attempts, invocation.getDeadline(),
+                            ds -> executeOnShard(dp, shardId, ds, params, invocation, false), PARALLEL_THREAD_POOL);
+                }
+            }
+
+            if (limit > 0) {
+
+                // runOnAllShards or searchShards resolved to a single shard, e.g. in single database deployments
+                return limitRows(executeOnShard(dp, shardIds.get(0), new CancellableDataSource(firstDs, limit,
+                                invocation.getDeadline()),
+                            paramValues.get(0), invocation, false));
+            }
+
             // most common case: only one shard and no argument partitioning
-            return execute(firstDs, paramValues.get(0), invocation);
+            return executeOnShard(dp, shardIds.get(0), firstDs, paramValues.get(0), invocation, false);
         } else {
+            if (searchKey != null) {
+                final Object cachedResult = searchOnCachedShard(dp, invocation, searchKey, shardIds, paramValues);
+                if (cachedResult != null) {
+                    return cachedResult;
+                }
+
+                if (shardIds.isEmpty()) {
+                    searchCache.recordMiss(searchKey);
+                    return collectionResult ? Lists.newArrayList() : null;
+                }
+            }
+
+            if (streamResult && (readOnly || writeTransaction == WriteTransaction.NONE)) {
+                return executeStreaming(dp, invocation, shardIds, paramValues);
+            }
+
             Map<Integer, SameConnectionDatasource> transactionalDatasources = null;
             try {
 
@@ -446,7 +817,13 @@ class StoredProcedure {
                 final List<?> results = Lists.newArrayList();
                 Object sprocResult = null;
                 final long start = System.currentTimeMillis();
-                if (parallel) {
+                if (partialResults) {
+                    sprocResult = executeWithPartialResults(dp, invocation, shardIds, paramValues, results,
+                            skippedShardIds);
+                } else if (parallel && limit > 0) {
+                    sprocResult = executeInParallelWithLimit(dp, invocation, shardIds, paramValues,
+                            transactionalDatasources, results);
+                } else if (parallel) {
                     sprocResult = executeInParallel(dp, invocation, shardIds, paramValues, transactionalDatasources,
                             results, sprocResult);
                 } else {
@@ -464,7 +841,18 @@ class StoredProcedure {
                 // no error - we may need to commit
                 commitTransaction(transactionalDatasources);
 
+                if (searchKey != null && !isSearchHit(collectionResult ? results : sprocResult)
+                        && ShardExecutionReport.last().isComplete()) {
+                    searchCache.recordMiss(searchKey);
+                }
+
                 if (collectionResult) {
+                    if (limit > 0 && results.size() > limit) {
+
+                        // shards may have delivered more rows than needed in total
+                        return Lists.newArrayList(results.subList(0, limit));
+                    }
+
                     return results;
                 } else {
 
@@ -513,14 +901,21 @@ class StoredProcedure {
         final List<String> exceptions = Lists.newArrayList();
         final ImmutableMap.Builder<Integer, Throwable> causes = ImmutableMap.builder();
         for (final int shardId : shardIds) {
+            checkDeadline(invocation, "before querying shard " + shardId);
             shardDs = getShardDs(dp, transactionalDatasources, shardId);
             if (LOG.isDebugEnabled()) {
                 LOG.debug(getDebugLog(paramValues.get(i)));
             }
 
+            if (limit > 0) {
+
+                // fetch only the rows still missing from this shard
+                shardDs = new CancellableDataSource(shardDs, limit - results.size(), invocation.getDeadline());
+            }
+
             sprocResult = null;
             try {
-                sprocResult = execute(shardDs, paramValues.get(i), invocation);
+                sprocResult = executeOnShard(dp, shardId, shardDs, paramValues.get(i), invocation, false);
             } catch (final Exception e) {
 
                 // remember all exceptions and go on
@@ -529,6 +924,11 @@ class StoredProcedure {
             }
 
             if (addResultsBreakWhenSharded(results, sprocResult)) {
+                recordSearchHit(invocation, shardId);
+                break;
+            }
+
+            if (limitReached(results)) {
                 break;
             }
 
@@ -558,7 +958,7 @@ class StoredProcedure {
                 LOG.debug(getDebugLog(paramValues.get(i)));
             }
 
-            final FutureTask<Object> task = new FutureTask<>(with(shardDs, paramValues.get(i), invocation));
+            final FutureTask<Object> task = new FutureTask<>(with(dp, shardId, shardDs, paramValues.get(i), invocation));
             tasks.put(shardId, task);
             PARALLEL_THREAD_POOL.execute(task);
             i++;
@@ -572,9 +972,14 @@ class StoredProcedure {
                 sprocResult = taskToFinish.getValue().get();
             } catch (final InterruptedException ex) {
 
-                // remember all exceptions and go on
-                exceptions.add("got sharding execution exception: " + ex.getMessage() + ", query: " + query);
-                causes.put(taskToFinish.getKey(), ex);
+                // the caller gave up: cancel the statements of all shards
+                for (final FutureTask<Object> task : tasks.values()) {
+                    task.cancel(true);
+                }
+
+                Thread.currentThread().interrupt();
+                throw new ShardedDataAccessException("Interrupted while executing sproc on shards, query: " + query,
+                    ImmutableMap.<Integer, Throwable>of());
             } catch (final ExecutionException ex) {
 
                 // remember all exceptions and go on
@@ -584,6 +989,7 @@ class StoredProcedure {
             }
 
             if (addResultsBreakWhenSharded(results, sprocResult)) {
+                recordSearchHit(invocation, taskToFinish.getKey());
                 break;
             }
         }
@@ -596,17 +1002,493 @@ class StoredProcedure {
         return sprocResult;
     }
 
-    private Callable<Object> with(final DataSource shardDs, final Object[] params, final InvocationContext invocation) {
+    /**
+     * executes the sproc in parallel on all shards and processes the shard results in order of completion: once the
+     * limit is reached, the remaining shard tasks are cancelled and their running statements are aborted.
+     */
+    private Object executeInParallelWithLimit(final DataSourceProvider dp, final InvocationContext invocation,
+                                              final List<Integer> shardIds, final List<Object[]> paramValues,
+                                              final Map<Integer, SameConnectionDatasource> transactionalDatasources,
+                                              final List<?> results) {
+
+        final CompletionService<Object> completionService = new ExecutorCompletionService<>(PARALLEL_THREAD_POOL);
+        final Map<Future<Object>, Integer> shardIdByTask = Maps.newHashMapWithExpectedSize(shardIds.size());
+        final Map<Integer, CancellableDataSource> dataSources = Maps.newHashMapWithExpectedSize(shardIds.size());
+        int i = 0;
+
+        for (final int shardId : shardIds) {
+            final CancellableDataSource shardDs = new CancellableDataSource(getShardDs(dp, transactionalDatasources,
+                        shardId), limit, invocation.getDeadline());
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(getDebugLog(paramValues.get(i)));
+            }
+
+            dataSources.put(shardId, shardDs);
+            shardIdByTask.put(completionService.submit(with(dp, shardId, shardDs, paramValues.get(i), invocation)), shardId);
+            i++;
+        }
+
+        final List<String> exceptions = Lists.newArrayList();
+        final ImmutableMap.Builder<Integer, Throwable> causes = ImmutableMap.builder();
+        Object sprocResult = null;
+
+        try {
+            for (int finished = 0; finished < shardIds.size(); finished++) {
+                Future<Object> task = null;
+                try {
+                    task = completionService.take();
+                    sprocResult = task.get();
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new ShardedDataAccessException("Interrupted while executing sproc on shards, query: "
+                            + query, ImmutableMap.<Integer, Throwable>of());
+                } catch (final ExecutionException ex) {
+
+                    // remember all exceptions and go on
+                    final Integer shardId = shardIdByTask.get(task);
+                    exceptions.add("got sharding execution exception: " + ex.getCause().getMessage() + ", query: "
+                            + query);
+                    causes.put(shardId, ex.getCause());
+                    continue;
+                }
+
+                dataSources.remove(shardIdByTask.get(task));
+                if (addResultsBreakWhenSharded(results, sprocResult)) {
+                    recordSearchHit(invocation, shardIdByTask.get(task));
+                    break;
+                }
+
+                if (limitReached(results)) {
+                    break;
+                }
+            }
+        } finally {
+
+            // abort all shards which did not finish yet
+            for (final Future<Object> task : shardIdByTask.keySet()) {
+                task.cancel(true);
+            }
+
+            for (final CancellableDataSource shardDs : dataSources.values()) {
+                shardDs.cancel();
+            }
+        }
+
+        if (!exceptions.isEmpty()) {
+            throw new ShardedDataAccessException("Got exception(s) while executing sproc on shards: "
+                    + Joiner.on(", ").join(exceptions), causes.build());
+        }
+
+        return sprocResult;
+    }
+
+    /**
+     * executes the sproc on the shards (in parallel or one after the other) and collects the results of the shards
+     * which answered within their deadline. Late shards are cancelled, failed and late shards are reported in the
+     * {@link ShardExecutionReport}. Fails only if no shard answered.
+     */
+    private Object executeWithPartialResults(final DataSourceProvider dp, final InvocationContext invocation,
+                                             final List<Integer> shardIds, final List<Object[]> paramValues,
+                                             final List<?> results, final List<Integer> skippedShardIds) {
+
+        final CompletionService<Object> completionService = new ExecutorCompletionService<>(PARALLEL_THREAD_POOL);
+
+        // running shard tasks in order of submission, i.e. of their deadlines
+        final Map<Future<Object>, Integer> running = Maps.newLinkedHashMap();
+        final Map<Future<Object>, Long> deadlines = Maps.newHashMapWithExpectedSize(shardIds.size());
+        final Map<Integer, CancellableDataSource> dataSources = Maps.newHashMapWithExpectedSize(shardIds.size());
+        final Map<Integer, Throwable> failures = Maps.newLinkedHashMap();
+        final List<Integer> timedOutShardIds = Lists.newArrayList();
+        final int concurrency = parallel ? shardIds.size() : 1;
+        int next = 0;
+        int answered = 0;
+        Object sprocResult = null;
+
+        try {
+            while (next < shardIds.size() || !running.isEmpty()) {
+                while (next < shardIds.size() && running.size() < concurrency) {
+                    final int shardId = shardIds.get(next);
+                    final CancellableDataSource shardDs = new CancellableDataSource(getDataSource(dp, shardId),
+                            limit > 0 ? limit - results.size() : 0, invocation.getDeadline());
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug(getDebugLog(paramValues.get(next)));
+                    }
+
+                    final Future<Object> task = completionService.submit(with(dp, shardId, shardDs,
+                                paramValues.get(next), invocation));
+                    running.put(task, shardId);
+                    deadlines.put(task, shardDeadline(invocation));
+                    dataSources.put(shardId, shardDs);
+                    next++;
+                }
+
+                final Future<Object> oldest = running.keySet().iterator().next();
+                final long remaining = deadlines.get(oldest) - System.nanoTime();
+                final Future<Object> task;
+                try {
+                    task = remaining > 0 ? completionService.poll(remaining, TimeUnit.NANOSECONDS)
+                                         : completionService.poll();
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new ShardedDataAccessException("Interrupted while executing sproc on shards, query: "
+                            + query, ImmutableMap.<Integer, Throwable>of());
+                }
+
+                if (task == null) {
+
+                    // the oldest shard missed its deadline
+                    final Integer shardId = running.remove(oldest);
+                    oldest.cancel(true);
+                    dataSources.remove(shardId).cancel();
+                    timedOutShardIds.add(shardId);
+                    LOG.warn("Shard {} missed its deadline of {} ms for {}", shardId,
+                        TimeUnit.NANOSECONDS.toMillis(shardDeadlineNanos), name);
+                    continue;
+                }
+
+                final Integer shardId = running.remove(task);
+                if (shardId == null) {
+
+                    // cancelled after its deadline
+                    continue;
+                }
+
+                dataSources.remove(shardId);
+                try {
+                    sprocResult = task.get();
+                } catch (final InterruptedException | ExecutionException ex) {
+                    final Throwable cause = ex instanceof ExecutionException ? ex.getCause() : ex;
+                    LOG.warn("Shard {} failed for {}: {}", shardId, name, cause.getMessage());
+                    failures.put(shardId, cause);
+                    continue;
+                }
+
+                answered++;
+                if (addResultsBreakWhenSharded(results, sprocResult)) {
+                    recordSearchHit(invocation, shardId);
+                    break;
+                }
+
+                if (limitReached(results)) {
+                    break;
+                }
+            }
+        } finally {
+
+            // abort all shards which are not needed anymore
+            for (final Future<Object> task : running.keySet()) {
+                task.cancel(true);
+            }
+
+            for (final CancellableDataSource shardDs : dataSources.values()) {
+                shardDs.cancel();
+            }
+        }
+
+        ShardExecutionReport.setLast(new ShardExecutionReport(skippedShardIds, failures, timedOutShardIds));
+
+        if (answered == 0) {
+            throw new ShardedDataAccessException("No shard answered in time, failed shards: " + failures.keySet()
+                    + ", timed out shards: " + timedOutShardIds + ", query: " + query, failures);
+        }
+
+        return sprocResult;
+    }
+
+    /**
+     * executes the sproc on all shards and streams the rows of each shard as soon as the shard completes. Sequential
+     * sprocs query one shard at a time, parallel ones up to {@code streamBuffer} (default: all) shards at once.
+     */
+    private Stream<?> executeStreaming(final DataSourceProvider dp, final InvocationContext invocation,
+                                       final List<Integer> shardIds, final List<Object[]> paramValues) {
+        final Map<Integer, Callable<Object>> calls = Maps.newLinkedHashMap();
+        final Map<Integer, CancellableDataSource> dataSources = Maps.newHashMapWithExpectedSize(shardIds.size());
+        int i = 0;
+
+        for (final int shardId : shardIds) {
+            final CancellableDataSource shardDs = new CancellableDataSource(getDataSource(dp, shardId), 0,
+                    invocation.getDeadline());
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(getDebugLog(paramValues.get(i)));
+            }
+
+            dataSources.put(shardId, shardDs);
+            calls.put(shardId, with(dp, shardId, shardDs, paramValues.get(i), invocation));
+            i++;
+        }
+
+        final int concurrency = !parallel ? 1 : (streamBuffer > 0 ? streamBuffer : shardIds.size());
+        return new ShardResultIterator<>(calls, dataSources, concurrency, PARALLEL_THREAD_POOL, query).stream();
+    }
+
+    /**
+     * looks the search key up on the shard it was found on before. If it is not found there anymore, the shard is
+     * removed from the shards to search.
+     *
+     * @return  the result, null if the key is not known or was not found on its shard
+     */
+    private Object searchOnCachedShard(final DataSourceProvider dp, final InvocationContext invocation,
+                                       final List<Object> searchKey, final List<Integer> shardIds,
+                                       final List<Object[]> paramValues) {
+        final Integer cachedShardId = searchCache.getShardId(searchKey);
+        if (cachedShardId == null || !cachedShardId.equals(shardIds.get(0))) {
+            return null;
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("search of {} routed to shard {} by routing cache", name, cachedShardId);
+        }
+
+        final Object result = executeOnShard(dp, cachedShardId, getDataSource(dp, cachedShardId), paramValues.get(0),
+                invocation, false);
+        if (isSearchHit(result)) {
+            searchCache.recordHit(searchKey, cachedShardId);
+            return result;
+        }
+
+        searchCache.invalidate(searchKey);
+        shardIds.remove(0);
+        paramValues.remove(0);
+        return null;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private boolean isSearchHit(final Object sprocResult) {
+        return sprocResult != null && !(collectionResult && ((Collection) sprocResult).isEmpty());
+    }
+
+    private void recordSearchHit(final InvocationContext invocation, final int shardId) {
+        if (searchCache != null) {
+            searchCache.recordHit(SearchShardsCache.key(invocation.getArgs()), shardId);
+        }
+    }
+
+    private boolean limitReached(final List<?> results) {
+        return limit > 0 && results.size() >= limit;
+    }
+
+    /**
+     * @return  the result of a single shard cut to the limit, in case the driver ignored the maximum number of rows
+     */
+    private Object limitRows(final Object sprocResult) {
+        if (sprocResult instanceof List && ((List<?>) sprocResult).size() > limit) {
+            return Lists.newArrayList(((List<?>) sprocResult).subList(0, limit));
+        }
+
+        return sprocResult;
+    }
+
+    private Callable<Object> with(final DataSourceProvider dp, final int shardId, final DataSource shardDs,
+                                  final Object[] params, final InvocationContext invocation) {
         return new Callable<Object>() {
             @Override
             public Object call() throws Exception {
-                return StoredProcedure.this.execute(shardDs, params, invocation);
+                return StoredProcedure.this.executeOnShard(dp, shardId, shardDs, params, invocation, true);
             }
         };
     }
 
+    /**
+     * @return  the point in time (nano time) a shard started now must answer by in partial result mode: the shard
+     *          deadline, or the deadline of the call if it is earlier
+     */
+    private long shardDeadline(final InvocationContext invocation) {
+        final long shardDeadline = System.nanoTime() + shardDeadlineNanos;
+        final Deadline deadline = invocation.getDeadline();
+        if (deadline == null) {
+            return shardDeadline;
+        }
+
+        final long callDeadline = System.nanoTime() + deadline.remaining(TimeUnit.NANOSECONDS);
+        return callDeadline - shardDeadline < 0 ? callDeadline : shardDeadline;
+    }
+
+    /**
+     * executes the sproc and records the call in the shard statistics. The statements are cancelled when the deadline
+     * expires or the executing thread is interrupted, if it is a pool thread of a multi shard execution or the sproc
+     * is {@link org.zalando.sprocwrapper.SProcCall#interruptible() interruptible}. The connection checkout waits at most until the deadline.
+     * Data sources already wrapped by the multi shard executions are used as is, calls without deadline and interrupt
+     * handling use the shard data source directly.
+     */
+    private Object executeOnShard(final DataSourceProvider dp, final int shardId, final DataSource shardDs,
+                                  final Object[] params, final InvocationContext invocation, final boolean pooled) {
+        final Deadline deadline = invocation.getDeadline();
+        final boolean watchInterrupts = pooled || interruptible;
+        final DataSource ds = (deadline == null && !watchInterrupts) || shardDs instanceof CancellableDataSource
+            ? shardDs : new CancellableDataSource(shardDs, 0, deadline);
+        ScheduledFuture<?> expiry = null;
+        if (deadline != null) {
+            checkDeadline(invocation, "before querying shard " + shardId);
+            expiry = DeadlineTimer.cancelOnExpiry(deadline, (CancellableDataSource) ds);
+        }
+
+        final InterruptWatchdog.Registration registration = watchInterrupts
+            ? INTERRUPT_WATCHDOG.watch((CancellableDataSource) ds) : null;
+        final long start = System.nanoTime();
+        Object result = null;
+        try {
+            result = execute(ds, params, invocation);
+            return result;
+        } catch (final RuntimeException e) {
+            if (deadline != null && deadline.isExpired() && !(e instanceof QueryTimeoutException)) {
+                throw new QueryTimeoutException("Deadline exceeded while querying shard " + shardId + " of sproc "
+                        + name, e);
+            }
+
+            throw e;
+        } finally {
+            if (registration != null) {
+                registration.close();
+            }
+
+            if (expiry != null) {
+                expiry.cancel(false);
+            }
+
+            STATISTICS.recordCall(shardId, dp.getDataSourceId(shardId), System.nanoTime() - start, rowCount(result));
+        }
+    }
+
+    private void checkDeadline(final InvocationContext invocation, final String phase) {
+        final Deadline deadline = invocation.getDeadline();
+        if (deadline != null) {
+            deadline.check(phase + " of sproc " + name);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private int rowCount(final Object sprocResult) {
+        if (sprocResult == null) {
+            return 0;
+        }
+
+        return collectionResult ? ((Collection) sprocResult).size() : 1;
+    }
+
+    private Object executeSProc(final DataSource shardDs, final Object[] params, final InvocationContext invocation) {
+        if (!bulkLoad) {
+            return executor.executeSProc(shardDs, query, params, types, invocation, returnType);
+        }
+
+        // bulk parameters are copied to their staging tables in the transaction of the sproc call
+        Connection connection = null;
+        boolean autoCommit = false;
+        try {
+            connection = shardDs.getConnection();
+            autoCommit = connection.getAutoCommit();
+            if (autoCommit) {
+                connection.setAutoCommit(false);
+            }
+
+            final Object[] values = params.clone();
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] instanceof BulkStoredProcedureParameter.Rows) {
+                    values[i] = ((BulkStoredProcedureParameter.Rows) values[i]).copyIn(connection);
+                }
+            }
+
+            final Object result = executor.executeSProc(new SameConnectionDatasource(connection), query, values, types,
+                    invocation, returnType);
+            if (autoCommit) {
+                connection.commit();
+            }
+
+            return result;
+        } catch (final SQLException | RuntimeException e) {
+            if (connection != null && autoCommit) {
+                try {
+                    connection.rollback();
+                } catch (final SQLException rollbackException) {
+                    LOG.warn("Could not roll back bulk load of {}", name, rollbackException);
+                }
+            }
+
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+
+            throw new SQLStateSQLExceptionTranslator().translate("bulk load of " + name, query, (SQLException) e);
+        } finally {
+            if (connection != null) {
+                try {
+                    if (autoCommit) {
+                        connection.setAutoCommit(true);
+                    }
+
+                    connection.close();
+                } catch (final SQLException e) {
+                    LOG.warn("Could not release connection", e);
+                }
+            }
+        }
+    }
+
     private Object execute(final DataSource shardDs, final Object[] params, final InvocationContext invocation) {
-        return executor.executeSProc(shardDs, query, params, types, invocation, returnType);
+        final DataSourceHealth health = DataSourceHealthRegistry.getHealth(shardDs);
+        if (health == null) {
+            return executeSProc(shardDs, params, invocation);
+        }
+
+        if (!health.allowRequest()) {
+            throw new ShardUnavailableException("Data source " + health.getName() + " is unavailable for " + name);
+        }
+
+        final long start = System.nanoTime();
+        try {
+            final Object result = executeSProc(shardDs, params, invocation);
+            health.recordSuccess(System.nanoTime() - start);
+            return result;
+        } catch (final RuntimeException e) {
+
+            // statements cancelled by ourselves (limit reached, hedging, deadline) and calls shed by the concurrency
+            // limit do not tell anything about the shard
+            if (!isCancelled(shardDs) && !(e instanceof ShardOverloadedException)) {
+                health.recordFailure(System.nanoTime() - start, e);
+            }
+
+            throw e;
+        }
+    }
+
+    private static boolean isCancelled(DataSource shardDs) {
+        while (shardDs instanceof DelegatingDataSource) {
+            if (shardDs instanceof CancellableDataSource && ((CancellableDataSource) shardDs).isCancelled()) {
+                return true;
+            }
+
+            shardDs = ((DelegatingDataSource) shardDs).getTargetDataSource();
+        }
+
+        return false;
+    }
+
+    private void checkAvailable(final DataSource shardDs, final int shardId) {
+        if (DataSourceHealthRegistry.isCircuitBreakerEnabled() && !DataSourceHealthRegistry.isAvailable(shardDs)) {
+            throw new ShardUnavailableException("Virtual shard " + shardId + " is unavailable for " + name);
+        }
+    }
+
+    private static void recordFailure(final DataSource shardDs, final long latencyNanos, final Throwable failure) {
+        final DataSourceHealth health = DataSourceHealthRegistry.getHealth(shardDs);
+        if (health != null) {
+            health.recordFailure(latencyNanos, failure);
+        }
+    }
+
+    private DataSource getMappingDataSource(final DataSourceProvider dp, final List<Integer> shardIds,
+                                            final DataSource firstDs) {
+        if (DataSourceHealthRegistry.isAvailable(firstDs)) {
+            return firstDs;
+        }
+
+        for (final int shardId : shardIds) {
+            final DataSource shardDs = getDataSource(dp, shardId);
+            if (DataSourceHealthRegistry.isAvailable(shardDs)) {
+                return shardDs;
+            }
+        }
+
+        return firstDs;
     }
 
     @SuppressWarnings({ "rawtypes", "unchecked" })
@@ -633,12 +1515,23 @@ class StoredProcedure {
     private DataSource getShardDs(final DataSourceProvider dp,
                                   final Map<Integer, SameConnectionDatasource> transactionIds, final int shardId) {
         if (transactionIds.isEmpty()) {
-            return dp.getDataSource(shardId);
+            return getDataSource(dp, shardId);
         }
 
         return transactionIds.get(shardId);
     }
 
+    /**
+     * sprocs reading from replicas are routed to the replicas of the shard, if the provider knows about them.
+     */
+    private DataSource getDataSource(final DataSourceProvider dp, final int shardId) {
+        if (readFromReplicas && dp instanceof ReplicaAwareDataSourceProvider) {
+            return ((ReplicaAwareDataSourceProvider) dp).getReadOnlyDataSource(shardId);
+        }
+
+        return dp.getDataSource(shardId);
+    }
+
     private Map<Integer, SameConnectionDatasource> startTransaction(final DataSourceProvider dp,
                                                                     final List<Integer> shardIds) throws SQLException {
         final Map<Integer, SameConnectionDatasource> ret = Maps.newHashMap();
@@ -646,9 +1539,26 @@ class StoredProcedure {
         if (readOnly == false && writeTransaction != WriteTransaction.NONE) {
             for (final int shardId : shardIds) {
                 final DataSource shardDs = dp.getDataSource(shardId);
+                final DataSourceHealth health = DataSourceHealthRegistry.getHealth(shardDs);
+                if (health != null && !health.allowRequest()) {
+                    throw new ShardUnavailableException("Virtual shard " + shardId + " is unavailable for " + name);
+                }
+
+                final Connection connection;
+                final long start = System.nanoTime();
+                try {
+                    connection = shardDs.getConnection();
+                } catch (final SQLException e) {
+                    recordFailure(shardDs, System.nanoTime() - start, e);
+                    throw e;
+                }
+
+                if (health != null) {
+                    health.recordSuccess(System.nanoTime() - start);
+                }
 
                 // we need to pin the calls to a single connection
-                final SameConnectionDatasource sameConnDs = new SameConnectionDatasource(shardDs.getConnection());
+                final SameConnectionDatasource sameConnDs = new SameConnectionDatasource(connection);
                 ret.put(shardId, sameConnDs);
 
                 LOG.trace("startTransaction on shard [{}]", shardId);
@@ -18,6 +18,7 @@ import org.zalando.sprocwrapper.globalvaluetransformer.GlobalValueTransformerLoa
 import org.zalando.sprocwrapper.util.NameUtils;
 import org.zalando.typemapper.core.ValueTransformer;
 import org.zalando.typemapper.core.fieldMapper.ObjectMapper;
+import org.zalando.typemapper.postgres.PgTypeHelper;
 
 /**
  * @author  jmussler
@@ -47,12 +48,35 @@ class StoredProcedureParameter {
         SQL_MAPPING.put(Character.class, java.sql.Types.CHAR);
     }
 
+    private static final Map<Integer, String> SQL_TYPE_NAMES = new HashMap<Integer, String>();
+
+    static {
+        SQL_TYPE_NAMES.put(java.sql.Types.SMALLINT, "int2");
+        SQL_TYPE_NAMES.put(java.sql.Types.INTEGER, "int4");
+        SQL_TYPE_NAMES.put(java.sql.Types.BIGINT, "int8");
+        SQL_TYPE_NAMES.put(java.sql.Types.REAL, "float4");
+        SQL_TYPE_NAMES.put(java.sql.Types.FLOAT, "float8");
+        SQL_TYPE_NAMES.put(java.sql.Types.DOUBLE, "float8");
+        SQL_TYPE_NAMES.put(java.sql.Types.NUMERIC, "numeric");
+        SQL_TYPE_NAMES.put(java.sql.Types.DECIMAL, "numeric");
+        SQL_TYPE_NAMES.put(java.sql.Types.CHAR, "bpchar");
+        SQL_TYPE_NAMES.put(java.sql.Types.VARCHAR, "varchar");
+        SQL_TYPE_NAMES.put(java.sql.Types.BIT, "bool");
+        SQL_TYPE_NAMES.put(java.sql.Types.BOOLEAN, "bool");
+        SQL_TYPE_NAMES.put(java.sql.Types.DATE, "date");
+        SQL_TYPE_NAMES.put(java.sql.Types.TIMESTAMP, "timestamp");
+    }
+
     protected final String typeName;
     protected final int type;
     protected final int javaPos;
     protected final Class<?> clazz;
     protected final boolean sensitive;
 
+    // type name and sql type given in @SProcParam, empty and -1 if derived from the Java type
+    protected final String declaredTypeName;
+    protected final int declaredSqlType;
+
     public static StoredProcedureParameter createParameter(final Class<?> clazz, final Type genericType, final Method m,
             final String typeName, final int sqlType, final int javaPosition, final boolean sensitive)
         throws InstantiationException, IllegalAccessException, NoSuchMethodException, InvocationTargetException, SecurityException, IllegalArgumentException {
@@ -119,6 +143,8 @@ class StoredProcedureParameter {
 
         javaPos = javaPosition;
         this.sensitive = sensitive;
+        this.declaredTypeName = typeName == null ? "" : typeName;
+        this.declaredSqlType = sqlType;
 
     }
 
@@ -142,4 +168,21 @@ class StoredProcedureParameter {
         return typeName;
     }
 
+    /**
+     * @return  the database type of the parameter, used to cast values inlined as literals: the declared type name or
+     *          sql type, else the type of the Java class
+     */
+    String getDatabaseTypeName() {
+        if (!declaredTypeName.isEmpty()) {
+            return declaredTypeName;
+        }
+
+        String name = SQL_TYPE_NAMES.get(declaredSqlType);
+        if (name == null) {
+            name = PgTypeHelper.getSQLNameForClass(clazz);
+        }
+
+        return name != null ? name : typeName;
+    }
+
 }
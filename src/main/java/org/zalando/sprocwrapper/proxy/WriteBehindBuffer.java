@@ -0,0 +1,311 @@
+package org.zalando.sprocwrapper.proxy;
+
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.dao.TransientDataAccessResourceException;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.zalando.sprocwrapper.Deadline;
+import org.zalando.sprocwrapper.SProcCall.Overflow;
+
+/**
+ * Write-behind queues of a void write sproc, one bounded queue per shard data source. Calls are queued and return
+ * right away, a background flusher writes the queued calls of each shard in JDBC batches (one transaction per batch)
+ * every flush interval, or as soon as a queue holds a full batch. Calls arriving while the queue of their shard is full
+ * are handled by the {@link Overflow} policy.
+ *
+ * <p>Failed batches are not retried: their calls are logged and counted by {@link #getFailed()}. The queues of all
+ * buffers are flushed when the JVM shuts down, see {@link #flushAll()}.</p>
+ */
+public final class WriteBehindBuffer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindBuffer.class);
+
+    private static final ScheduledExecutorService FLUSHER = Executors.newScheduledThreadPool(2,
+            new ThreadFactoryBuilder().setNameFormat("sproc-write-behind-%d").setDaemon(true).build());
+
+    // the flusher references the started buffers anyway, so that their queued calls are written until they are closed
+    private static final Set<WriteBehindBuffer> BUFFERS = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(WriteBehindBuffer::flushAll, "sproc-write-behind-shutdown"));
+    }
+
+    private final String sprocName;
+    private final int queueCapacity;
+    private final int flushSize;
+    private final long flushIntervalMillis;
+    private final Overflow overflow;
+
+    private final ConcurrentMap<DataSource, ShardQueue> queues = new ConcurrentHashMap<>();
+
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private volatile BatchWriter writer;
+    private volatile ScheduledFuture<?> flushTask;
+    private volatile boolean closed;
+
+    WriteBehindBuffer(final String sprocName, final int queueCapacity, final int flushSize,
+            final long flushIntervalMillis, final Overflow overflow) {
+        Preconditions.checkArgument(queueCapacity > 0, "queue capacity must be positive: %s", queueCapacity);
+        Preconditions.checkArgument(flushSize > 0, "flush size must be positive: %s", flushSize);
+        Preconditions.checkArgument(flushIntervalMillis > 0, "flush interval must be positive: %s",
+            flushIntervalMillis);
+        this.sprocName = sprocName;
+        this.queueCapacity = queueCapacity;
+        this.flushSize = flushSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.overflow = Preconditions.checkNotNull(overflow);
+    }
+
+    /**
+     * starts flushing the queues with the given writer.
+     */
+    void start(final BatchWriter batchWriter) {
+        Preconditions.checkState(writer == null, "write-behind of %s already started", sprocName);
+        writer = batchWriter;
+        flushTask = FLUSHER.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        BUFFERS.add(this);
+    }
+
+    /**
+     * queues a call for the given shard.
+     *
+     * @return  false if the call was neither queued nor dropped and must be executed by the caller
+     *
+     * @throws  QueryTimeoutException  if the caller's deadline expired while waiting for space in the queue
+     */
+    boolean add(final DataSource dataSource, final Object[] args) {
+        if (closed) {
+            return false;
+        }
+
+        final ShardQueue queue = queues.computeIfAbsent(dataSource, ShardQueue::new);
+        if (!queue.calls.offer(args)) {
+            requestFlush(queue);
+
+            switch (overflow) {
+
+                case DROP:
+                    dropped.increment();
+                    LOG.debug("Dropped call of {}: write-behind queue is full", sprocName);
+                    return true;
+
+                case CALLER_RUNS:
+                    return false;
+
+                default:
+                    put(queue, args);
+            }
+        }
+
+        queued.increment();
+        if (closed) {
+
+            // close() may have flushed the queue before the call was queued
+            flush(queue);
+        } else if (queue.calls.size() >= flushSize) {
+            requestFlush(queue);
+        }
+
+        return true;
+    }
+
+    private void put(final ShardQueue queue, final Object[] args) {
+        final Deadline deadline = Deadline.current();
+        try {
+            if (deadline == null) {
+                queue.calls.put(args);
+            } else if (!queue.calls.offer(args, deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS)) {
+                throw new QueryTimeoutException("Deadline exceeded waiting for the write-behind queue of "
+                        + sprocName);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransientDataAccessResourceException("Interrupted while waiting for the write-behind queue of "
+                    + sprocName, e);
+        }
+    }
+
+    private void requestFlush(final ShardQueue queue) {
+        if (writer != null && queue.flushRequested.compareAndSet(false, true)) {
+            FLUSHER.execute(() -> flush(queue));
+        }
+    }
+
+    /**
+     * writes all queued calls now.
+     */
+    public void flush() {
+        for (final ShardQueue queue : queues.values()) {
+            flush(queue);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (final RuntimeException e) {
+            LOG.error("Could not flush write-behind queues of {}", sprocName, e);
+        }
+    }
+
+    private void flush(final ShardQueue queue) {
+        synchronized (queue) {
+            queue.flushRequested.set(false);
+
+            final List<Object[]> batch = new ArrayList<>(Math.min(flushSize, queueCapacity));
+            while (queue.calls.drainTo(batch, flushSize) > 0) {
+                write(queue.dataSource, batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(final DataSource dataSource, final List<Object[]> batch) {
+        try {
+            writer.write(dataSource, batch);
+            written.add(batch.size());
+            batches.increment();
+        } catch (final SQLException | RuntimeException e) {
+            failed.add(batch.size());
+            LOG.error("Could not write {} queued calls of {}", batch.size(), sprocName, e);
+        }
+    }
+
+    /**
+     * stops the background flusher and writes the queued calls. Later calls are executed synchronously.
+     */
+    public void close() {
+        closed = true;
+
+        final ScheduledFuture<?> task = flushTask;
+        if (task != null) {
+            task.cancel(false);
+        }
+
+        BUFFERS.remove(this);
+        flush();
+    }
+
+    /**
+     * writes the queued calls of all write-behind sprocs now.
+     */
+    public static void flushAll() {
+        for (final WriteBehindBuffer buffer : getAll()) {
+            buffer.flushQuietly();
+        }
+    }
+
+    /**
+     * @return  the started write-behind buffers which are not closed
+     */
+    public static Collection<WriteBehindBuffer> getAll() {
+        return ImmutableList.copyOf(BUFFERS);
+    }
+
+    public String getSprocName() {
+        return sprocName;
+    }
+
+    /**
+     * @return  number of calls currently queued on all shards
+     */
+    public int getQueueSize() {
+        int size = 0;
+        for (final ShardQueue queue : queues.values()) {
+            size += queue.calls.size();
+        }
+
+        return size;
+    }
+
+    /**
+     * @return  number of calls queued since start
+     */
+    public long getQueued() {
+        return queued.sum();
+    }
+
+    /**
+     * @return  number of calls written successfully
+     */
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * @return  number of batches written successfully
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * @return  number of calls dropped because the queue of their shard was full
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return  number of calls lost because their batch failed
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "WriteBehindBuffer{sprocName=" + sprocName + ", queueSize=" + getQueueSize() + ", written="
+                + getWritten() + ", dropped=" + getDropped() + ", failed=" + getFailed() + '}';
+    }
+
+    /**
+     * writes a batch of queued calls to a shard.
+     */
+    interface BatchWriter {
+
+        void write(DataSource dataSource, List<Object[]> calls) throws SQLException;
+    }
+
+    private final class ShardQueue {
+
+        private final DataSource dataSource;
+        private final BlockingQueue<Object[]> calls = new ArrayBlockingQueue<>(queueCapacity);
+        private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+        private ShardQueue(final DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+    }
+}
@@ -5,12 +5,15 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 
+import java.util.concurrent.TimeUnit;
+
 import javax.sql.DataSource;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
+import org.zalando.sprocwrapper.Deadline;
 import org.zalando.sprocwrapper.SProcCall;
 import org.zalando.sprocwrapper.dsprovider.SameConnectionDatasource;
 import org.zalando.sprocwrapper.proxy.InvocationContext;
@@ -34,16 +37,24 @@ public class ExecutorWrapper implements Executor {
         lock = a;
     }
 
-    private void setTimeout(final Connection conn) throws SQLException {
+    private void setTimeout(final Connection conn, final Deadline deadline) throws SQLException {
         if (timeoutInMilliSeconds <= 0) {
             return;
         }
 
-        LOG.debug("Setting statement timeout {}", timeoutInMilliSeconds);
+        long timeout = timeoutInMilliSeconds;
+        if (deadline != null) {
+
+            // never wait longer than the caller: the remaining budget caps the timeout (0 would disable it)
+            deadline.check("before statement execution");
+            timeout = Math.max(1, Math.min(timeout, deadline.remaining(TimeUnit.MILLISECONDS)));
+        }
+
+        LOG.debug("Setting statement timeout {}", timeout);
 
         final Statement st = conn.createStatement();
-        st.execute("SET application_name TO 'timeout:" + timeoutInMilliSeconds + "'");
-        st.execute("SET statement_timeout TO " + timeoutInMilliSeconds);
+        st.execute("SET application_name TO 'timeout:" + timeout + "'");
+        st.execute("SET statement_timeout TO " + timeout);
         st.close();
     }
 
@@ -106,7 +117,7 @@ public class ExecutorWrapper implements Executor {
 
             sameConnDs = new SameConnectionDatasource(ds.getConnection());
 
-            setTimeout(sameConnDs.getConnection());
+            setTimeout(sameConnDs.getConnection(), invocationContext.getDeadline());
 
             if (!lockAdvisoryLock(sameConnDs.getConnection())) {
                 throw new RuntimeException("Could not acquire AdvisoryLock " + lock.getName());
@@ -11,23 +11,30 @@ package org.zalando.sprocwrapper.sharding;
  */
 public class Murmur2Hash {
     public static int hash(final byte[] data, final int seed) {
+        return hash(data, 0, data.length, seed);
+    }
+
+    /**
+     * hashes {@code length} bytes of {@code data} starting at {@code offset}.
+     */
+    public static int hash(final byte[] data, final int offset, final int length, final int seed) {
         int m = 0x5bd1e995;
         int r = 24;
 
-        int len = data.length;
+        int len = length;
         int h = seed ^ len;
 
         int len_4 = len >> 2;
 
         for (int i = 0; i < len_4; i++) {
             int i_4 = i << 2;
-            int k = data[i_4 + 3];
+            int k = data[offset + i_4 + 3];
             k = k << 8;
-            k = k | (data[i_4 + 2] & 0xff);
+            k = k | (data[offset + i_4 + 2] & 0xff);
             k = k << 8;
-            k = k | (data[i_4 + 1] & 0xff);
+            k = k | (data[offset + i_4 + 1] & 0xff);
             k = k << 8;
-            k = k | (data[i_4 + 0] & 0xff);
+            k = k | (data[offset + i_4 + 0] & 0xff);
             k *= m;
             k ^= k >>> r;
             k *= m;
@@ -40,15 +47,15 @@ public class Murmur2Hash {
 
         if (left != 0) {
             if (left >= 3) {
-                h ^= (int) data[len - 3] << 16;
+                h ^= (int) data[offset + len - 3] << 16;
             }
 
             if (left >= 2) {
-                h ^= (int) data[len - 2] << 8;
+                h ^= (int) data[offset + len - 2] << 8;
             }
 
             if (left >= 1) {
-                h ^= (int) data[len - 1];
+                h ^= (int) data[offset + len - 1];
             }
 
             h *= m;
@@ -0,0 +1,178 @@
+package org.zalando.sprocwrapper.sharding;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntToDoubleFunction;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.google.common.base.Preconditions;
+
+import org.zalando.sprocwrapper.dsprovider.DataSourceHealth;
+import org.zalando.sprocwrapper.dsprovider.DataSourceHealthRegistry;
+import org.zalando.sprocwrapper.dsprovider.DataSourceProvider;
+
+/**
+ * Mints shard aware ids locally, in the layout decoded by {@link VirtualShardAwareIdStrategy}:
+ *
+ * <pre>
+ * | sign bit (0) | 44 bit block (hi) | 9 bit virtual shard id | 10 bit sequence (lo) |
+ * </pre>
+ *
+ * <p>Each block value taken from the sequence of the shard's database yields 1024 ids. Block values are reserved in
+ * bulk ({@code blocksPerFetch} per round trip), so most ids are created without any database call. Ids are unique as
+ * long as every client takes its block values from the same sequence of the shard. Ids of blocks which are not used up
+ * (e.g. on shutdown) are lost, ids are not gap free.</p>
+ */
+public class ShardAwareIdGenerator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShardAwareIdGenerator.class);
+
+    private static final int SEQUENCE_BITS = 10;
+    private static final int VIRTUAL_SHARD_BITS = 9;
+    private static final int IDS_PER_BLOCK = 1 << SEQUENCE_BITS;
+    private static final int MAX_VIRTUAL_SHARD_ID = (1 << VIRTUAL_SHARD_BITS) - 1;
+    private static final long MAX_BLOCK = (1L << (63 - SEQUENCE_BITS - VIRTUAL_SHARD_BITS)) - 1;
+
+    private final DataSourceProvider dataSourceProvider;
+    private final String sequenceName;
+    private final int blocksPerFetch;
+    private final IntToDoubleFunction shardLoad;
+
+    private final Map<Integer, Block> blocksByVirtualShardId = new ConcurrentHashMap<>();
+
+    // spreads new entities round robin over shards with equal load
+    private final AtomicInteger rotation = new AtomicInteger();
+
+    /**
+     * @param  dataSourceProvider  provider of the shards, its virtual shard ids must fit in 9 bits
+     * @param  sequenceName        name of the sequence providing the block values in every shard
+     * @param  blocksPerFetch      number of block values reserved per database round trip
+     */
+    public ShardAwareIdGenerator(final DataSourceProvider dataSourceProvider, final String sequenceName,
+            final int blocksPerFetch) {
+        this(dataSourceProvider, sequenceName, blocksPerFetch, null);
+    }
+
+    /**
+     * @param  shardLoad  load of the shard of the given virtual shard id, new ids are placed on the shard with the
+     *                    lowest load. Null: latency of the shard's data source (see {@link DataSourceHealth})
+     */
+    public ShardAwareIdGenerator(final DataSourceProvider dataSourceProvider, final String sequenceName,
+            final int blocksPerFetch, final IntToDoubleFunction shardLoad) {
+        Preconditions.checkNotNull(dataSourceProvider, "dataSourceProvider");
+        Preconditions.checkNotNull(sequenceName, "sequenceName");
+        Preconditions.checkArgument(blocksPerFetch > 0, "blocksPerFetch must be positive: %s", blocksPerFetch);
+        this.dataSourceProvider = dataSourceProvider;
+        this.sequenceName = sequenceName;
+        this.blocksPerFetch = blocksPerFetch;
+        this.shardLoad = shardLoad == null ? this::latencyLoad : shardLoad;
+    }
+
+    /**
+     * @return  a new id on the least loaded shard
+     */
+    public long nextId() {
+        return nextId(nextVirtualShardId());
+    }
+
+    /**
+     * @return  a new id on the given virtual shard
+     */
+    public long nextId(final int virtualShardId) {
+        Preconditions.checkArgument(virtualShardId >= 0 && virtualShardId <= MAX_VIRTUAL_SHARD_ID,
+            "virtual shard id must be between 0 and %s: %s", MAX_VIRTUAL_SHARD_ID, virtualShardId);
+
+        final Block block = blocksByVirtualShardId.computeIfAbsent(virtualShardId, id -> new Block());
+        final long id;
+        synchronized (block) {
+            if (block.next == IDS_PER_BLOCK) {
+                block.hi = takeBlock(block, virtualShardId);
+                block.next = 0;
+            }
+
+            id = (block.hi << (SEQUENCE_BITS + VIRTUAL_SHARD_BITS)) | ((long) virtualShardId << SEQUENCE_BITS)
+                    | block.next++;
+        }
+
+        return id;
+    }
+
+    /**
+     * @return  the virtual shard id new entities should be placed on: the one of the shard with the lowest load, round
+     *          robin between shards with the same load
+     */
+    public int nextVirtualShardId() {
+        final List<Integer> shardIds = dataSourceProvider.getDistinctShardIds();
+        final int offset = Math.floorMod(rotation.getAndIncrement(), shardIds.size());
+        int best = shardIds.get(offset);
+        double bestLoad = Double.MAX_VALUE;
+        for (int i = 0; i < shardIds.size(); i++) {
+            final int shardId = shardIds.get((offset + i) % shardIds.size());
+            final double load = shardLoad.applyAsDouble(shardId);
+            if (load < bestLoad) {
+                best = shardId;
+                bestLoad = load;
+            }
+        }
+
+        return best;
+    }
+
+    private long takeBlock(final Block block, final int virtualShardId) {
+        if (block.reserved.isEmpty()) {
+            final List<Long> values = fetchBlocks(dataSourceProvider.getDataSource(virtualShardId), blocksPerFetch);
+            LOG.debug("Reserved {} id blocks for virtual shard {}", values.size(), virtualShardId);
+            for (final Long value : values) {
+                Preconditions.checkState(value >= 0 && value <= MAX_BLOCK,
+                    "Value of sequence %s does not fit into the id: %s", sequenceName, value);
+                block.reserved.add(value);
+            }
+        }
+
+        return block.reserved.removeFirst();
+    }
+
+    /**
+     * reserves block values from the shard's sequence.
+     */
+    protected List<Long> fetchBlocks(final DataSource dataSource, final int count) {
+        return new JdbcTemplate(dataSource).queryForList("SELECT nextval(?) FROM generate_series(1, ?)", Long.class,
+                sequenceName, count);
+    }
+
+    /**
+     * default load: latency of the shard, unavailable shards are avoided.
+     */
+    private double latencyLoad(final int virtualShardId) {
+        final DataSourceHealth health = DataSourceHealthRegistry.getHealth(dataSourceProvider.getDataSource(
+                    virtualShardId));
+        if (health == null) {
+            return 0;
+        }
+
+        return health.isAvailable() ? health.getLatencyEwmaMillis() : Double.MAX_VALUE / 2;
+    }
+
+    /**
+     * current block of a virtual shard and the block values reserved for it.
+     */
+    private static final class Block {
+
+        private long hi;
+
+        // next sequence number in the block, IDS_PER_BLOCK: block is used up
+        private int next = IDS_PER_BLOCK;
+
+        private final Deque<Long> reserved = new ArrayDeque<>();
+    }
+}
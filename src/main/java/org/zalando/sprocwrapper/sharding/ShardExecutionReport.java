@@ -0,0 +1,100 @@
+package org.zalando.sprocwrapper.sharding;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Describes how the last sproc call of the current thread was executed on multiple shards (runOnAllShards or
+ * searchShards), e.g. which shards were skipped because they were unhealthy, or which shards failed or missed their
+ * deadline in partial result mode ({@link org.zalando.sprocwrapper.SProcCall#partialResults()}).
+ *
+ * <pre>
+ * List&lt;Order&gt; orders = orderService.findOrdersOnAllShards(customer);
+ * if (!ShardExecutionReport.last().isComplete()) {
+ *     // some shards were not queried
+ * }
+ * </pre>
+ */
+public final class ShardExecutionReport {
+
+    private static final ShardExecutionReport EMPTY = new ShardExecutionReport(ImmutableList.<Integer>of());
+
+    private static final ThreadLocal<ShardExecutionReport> LAST = new ThreadLocal<>();
+
+    private final List<Integer> skippedShardIds;
+
+    private final Map<Integer, Throwable> failures;
+
+    private final List<Integer> timedOutShardIds;
+
+    public ShardExecutionReport(final List<Integer> skippedShardIds) {
+        this(skippedShardIds, ImmutableMap.<Integer, Throwable>of(), ImmutableList.<Integer>of());
+    }
+
+    public ShardExecutionReport(final List<Integer> skippedShardIds, final Map<Integer, Throwable> failures,
+            final List<Integer> timedOutShardIds) {
+        this.skippedShardIds = ImmutableList.copyOf(skippedShardIds);
+        this.failures = ImmutableMap.copyOf(failures);
+        this.timedOutShardIds = ImmutableList.copyOf(timedOutShardIds);
+    }
+
+    /**
+     * @return  the report of the last sproc call of the current thread if it was executed on multiple shards, an empty
+     *          report otherwise (e.g. single shard calls or calls answered by a cache)
+     */
+    public static ShardExecutionReport last() {
+        final ShardExecutionReport report = LAST.get();
+        return report == null ? EMPTY : report;
+    }
+
+    /**
+     * stores the report of a multi shard sproc call for the current thread. Called by the sproc proxy.
+     */
+    public static void setLast(final ShardExecutionReport report) {
+        LAST.set(report);
+    }
+
+    /**
+     * removes the report of the previous call of the current thread. Called by the sproc proxy.
+     */
+    public static void clear() {
+        LAST.remove();
+    }
+
+    /**
+     * @return  virtual shard ids which were not queried because their data source was unhealthy
+     */
+    public List<Integer> getSkippedShardIds() {
+        return skippedShardIds;
+    }
+
+    /**
+     * @return  the exceptions of the shards which failed in partial result mode, by virtual shard id
+     */
+    public Map<Integer, Throwable> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return  virtual shard ids which did not answer within their deadline in partial result mode
+     */
+    public List<Integer> getTimedOutShardIds() {
+        return timedOutShardIds;
+    }
+
+    /**
+     * @return  true if the call was executed on all shards and all of them answered
+     */
+    public boolean isComplete() {
+        return skippedShardIds.isEmpty() && failures.isEmpty() && timedOutShardIds.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "ShardExecutionReport{skippedShardIds=" + skippedShardIds + ", failedShardIds=" + failures.keySet()
+                + ", timedOutShardIds=" + timedOutShardIds + '}';
+    }
+}
@@ -0,0 +1,185 @@
+package org.zalando.sprocwrapper.sharding;
+
+import java.nio.charset.Charset;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.UUID;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Per thread state to hash shard keys without allocations: encodes keys into a reusable byte buffer and keeps an MD5
+ * digest per thread.
+ *
+ * <p>Keys are encoded like {@code key.toString().getBytes()} with the platform charset, so the hashes stay compatible
+ * with existing shard placements. Only ASCII text is encoded here, keys containing other characters (or all keys, if
+ * the platform charset is not ASCII compatible) are not encodable and have to be converted by the caller.</p>
+ */
+final class ShardKeyEncoder {
+
+    // charsets which encode ASCII characters as single bytes with the same value
+    private static final boolean ASCII_COMPATIBLE_PLATFORM_CHARSET = ImmutableSet.of("UTF-8", "ISO-8859-1",
+            "US-ASCII", "windows-1252", "ISO-8859-15").contains(Charset.defaultCharset().name());
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<ShardKeyEncoder> ENCODER = ThreadLocal.withInitial(ShardKeyEncoder::new);
+
+    private byte[] buffer = new byte[64];
+    private final byte[] md5 = new byte[16];
+    private MessageDigest md5Digest;
+
+    private ShardKeyEncoder() { }
+
+    static ShardKeyEncoder get() {
+        return ENCODER.get();
+    }
+
+    /**
+     * @return  the buffer filled by the last successful {@link #encode(Object)}
+     */
+    byte[] buffer() {
+        return buffer;
+    }
+
+    /**
+     * @return  string representation of a supported key type (CharSequence, Long, Integer, UUID)
+     *
+     * @throws  ClassCastException  for other key types
+     */
+    static String asString(final Object key) {
+        if (key instanceof CharSequence || key instanceof Long || key instanceof Integer || key instanceof UUID) {
+            return key.toString();
+        }
+
+        return (String) key;
+    }
+
+    /**
+     * encodes the key into the buffer.
+     *
+     * @return  number of bytes written, -1 if the key can not be encoded here
+     */
+    int encode(final Object key) {
+        if (!ASCII_COMPATIBLE_PLATFORM_CHARSET) {
+            return -1;
+        }
+
+        if (key instanceof CharSequence) {
+            return encodeAscii((CharSequence) key);
+        }
+
+        if (key instanceof Long || key instanceof Integer) {
+            return encodeDecimal(((Number) key).longValue());
+        }
+
+        if (key instanceof UUID) {
+            return encodeUuid((UUID) key);
+        }
+
+        return -1;
+    }
+
+    private int encodeAscii(final CharSequence chars) {
+        final int length = chars.length();
+        ensureCapacity(length);
+
+        for (int i = 0; i < length; i++) {
+            final char c = chars.charAt(i);
+            if (c >= 0x80) {
+                return -1;
+            }
+
+            buffer[i] = (byte) c;
+        }
+
+        return length;
+    }
+
+    /**
+     * same bytes as {@link Long#toString(long)}.
+     */
+    private int encodeDecimal(final long value) {
+        ensureCapacity(20);
+
+        int pos = 20;
+
+        // negative numbers have one more digit than positive ones (MIN_VALUE)
+        long v = value < 0 ? value : -value;
+        do {
+            buffer[--pos] = (byte) ('0' - (v % 10));
+            v /= 10;
+        } while (v != 0);
+
+        if (value < 0) {
+            buffer[--pos] = '-';
+        }
+
+        final int length = 20 - pos;
+        System.arraycopy(buffer, pos, buffer, 0, length);
+        return length;
+    }
+
+    /**
+     * same bytes as {@link UUID#toString()}.
+     */
+    private int encodeUuid(final UUID uuid) {
+        ensureCapacity(36);
+
+        final long msb = uuid.getMostSignificantBits();
+        final long lsb = uuid.getLeastSignificantBits();
+        hex(msb >>> 32, 8, 0);
+        buffer[8] = '-';
+        hex(msb >>> 16, 4, 9);
+        buffer[13] = '-';
+        hex(msb, 4, 14);
+        buffer[18] = '-';
+        hex(lsb >>> 48, 4, 19);
+        buffer[23] = '-';
+        hex(lsb, 12, 24);
+        return 36;
+    }
+
+    private void hex(long value, final int digits, final int offset) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            buffer[i] = (byte) HEX_DIGITS[(int) (value & 0xf)];
+            value >>>= 4;
+        }
+    }
+
+    private void ensureCapacity(final int length) {
+        if (buffer.length < length) {
+            buffer = new byte[Math.max(length, 2 * buffer.length)];
+        }
+    }
+
+    /**
+     * @return  MD5 hash of the given bytes, the returned array is reused by the next call
+     */
+    byte[] md5(final byte[] bytes, final int length) {
+        final MessageDigest digest = getMd5Digest();
+        digest.update(bytes, 0, length);
+        try {
+            digest.digest(md5, 0, md5.length);
+        } catch (final DigestException e) {
+            throw new IllegalStateException("Unable to compute md5 hash", e);
+        }
+
+        return md5;
+    }
+
+    private MessageDigest getMd5Digest() {
+        if (md5Digest == null) {
+            try {
+                md5Digest = MessageDigest.getInstance("MD5");
+            } catch (final NoSuchAlgorithmException nsae) {
+                throw new RuntimeException("Unable to use md5 algorithm", nsae);
+            }
+        }
+
+        return md5Digest;
+    }
+}
@@ -0,0 +1,21 @@
+package org.zalando.sprocwrapper.sharding;
+
+import org.springframework.dao.TransientDataAccessResourceException;
+
+/**
+ * Signals that a sproc call was rejected without contacting the shard, because the concurrency limit of the shard's
+ * data source was reached and no call completed within the maximum wait time.
+ */
+public class ShardOverloadedException extends TransientDataAccessResourceException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a {@code ShardOverloadedException} with specified detail message.
+     *
+     * @param  msg  the detail message
+     */
+    public ShardOverloadedException(final String msg) {
+        super(msg);
+    }
+}
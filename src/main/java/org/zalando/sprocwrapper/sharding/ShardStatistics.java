@@ -0,0 +1,323 @@
+package org.zalando.sprocwrapper.sharding;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Access statistics of shards, to find hot shards and skewed shard keys: calls, routed keys, returned rows and latency
+ * per virtual and physical shard, and the most frequent shard keys (heavy hitters) of a sample of all keys.
+ *
+ * <p>Collected for all sprocs once {@link #setEnabled(boolean) enabled}, available through {@link #getInstance()} and,
+ * after {@link #registerMBean()}, through JMX as {@value #OBJECT_NAME}. Virtual shard ids are grouped into
+ * {@value #VIRTUAL_SHARD_BUCKETS} buckets by their lowest bits, which keep the physical shard for bit mask based
+ * providers. Keys of sensitive parameters are never sampled.</p>
+ */
+public final class ShardStatistics implements ShardStatisticsMXBean {
+
+    public static final String OBJECT_NAME = "org.zalando.sprocwrapper:type=ShardStatistics";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShardStatistics.class);
+
+    private static final ShardStatistics INSTANCE = new ShardStatistics();
+
+    public static final int VIRTUAL_SHARD_BUCKETS = 1024;
+
+    private static final int HEAVY_HITTER_COUNTERS = 256;
+    private static final int HEAVY_HITTERS_REPORTED = 20;
+
+    private final Map<Integer, Counters> virtualShards = new ConcurrentHashMap<>();
+    private final Map<Integer, Counters> physicalShards = new ConcurrentHashMap<>();
+
+    private final SpaceSavingSketch heavyHitters = new SpaceSavingSketch(HEAVY_HITTER_COUNTERS);
+    private volatile int keySampleRate = 100;
+    private volatile boolean enabled = false;
+
+    ShardStatistics() { }
+
+    public static ShardStatistics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * registers the statistics in the platform MBean server, if not registered yet.
+     */
+    public static void registerMBean() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (final InstanceAlreadyExistsException e) {
+            LOG.debug("{} already registered", OBJECT_NAME);
+        } catch (final JMException e) {
+            throw new IllegalStateException("Could not register " + OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * records a shard key routed to the virtual shard. A sample of the keys is used to find the heavy hitters.
+     */
+    public void recordKey(final int virtualShardId, final Object key) {
+        recordKey(virtualShardId, key, true);
+    }
+
+    /**
+     * records a shard key routed to the virtual shard.
+     *
+     * @param  sample  false if the key must not be sampled for the heavy hitters, e.g. because it is sensitive
+     */
+    public void recordKey(final int virtualShardId, final Object key, final boolean sample) {
+        if (!enabled) {
+            return;
+        }
+
+        counters(virtualShards, bucket(virtualShardId)).keys.increment();
+
+        final int sampleRate = keySampleRate;
+        if (sample && key != null && (sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0)) {
+            final String item = key.toString();
+            synchronized (heavyHitters) {
+                // scaled by the rate the key was sampled with, which may change later
+                heavyHitters.offer(item, sampleRate);
+            }
+        }
+    }
+
+    /**
+     * records a sproc call executed on a shard.
+     *
+     * @param  virtualShardId  virtual shard id the call was routed with
+     * @param  dataSourceId    the physical shard
+     * @param  latencyNanos    execution time
+     * @param  rows            number of rows returned
+     */
+    public void recordCall(final int virtualShardId, final int dataSourceId, final long latencyNanos,
+            final int rows) {
+        if (!enabled) {
+            return;
+        }
+
+        counters(virtualShards, bucket(virtualShardId)).record(latencyNanos, rows);
+        counters(physicalShards, dataSourceId).record(latencyNanos, rows);
+    }
+
+    private static int bucket(final int virtualShardId) {
+        return virtualShardId & (VIRTUAL_SHARD_BUCKETS - 1);
+    }
+
+    private static Counters counters(final Map<Integer, Counters> counters, final int shardId) {
+        final Counters c = counters.get(shardId);
+        return c != null ? c : counters.computeIfAbsent(shardId, id -> new Counters());
+    }
+
+    /**
+     * @return  snapshot of the counters per virtual shard bucket
+     */
+    public Map<Integer, Counters> getVirtualShardCounters() {
+        return new TreeMap<>(virtualShards);
+    }
+
+    /**
+     * @return  snapshot of the counters per physical shard (data source id)
+     */
+    public Map<Integer, Counters> getPhysicalShardCounters() {
+        return new TreeMap<>(physicalShards);
+    }
+
+    /**
+     * @return  the most frequent shard keys, most frequent first
+     */
+    public List<HeavyHitter> getTopKeys(final int n) {
+        final List<Map.Entry<String, long[]>> top;
+        synchronized (heavyHitters) {
+            top = heavyHitters.top(n);
+        }
+
+        final ImmutableList.Builder<HeavyHitter> result = ImmutableList.builder();
+        for (final Map.Entry<String, long[]> entry : top) {
+            result.add(new HeavyHitter(entry.getKey(), entry.getValue()[0], entry.getValue()[1]));
+        }
+
+        return result.build();
+    }
+
+    @Override
+    public Map<Integer, Long> getVirtualShardCalls() {
+        return snapshot(virtualShards, Counters::getCalls);
+    }
+
+    @Override
+    public Map<Integer, Long> getVirtualShardKeys() {
+        return snapshot(virtualShards, Counters::getKeys);
+    }
+
+    @Override
+    public Map<Integer, Long> getPhysicalShardCalls() {
+        return snapshot(physicalShards, Counters::getCalls);
+    }
+
+    @Override
+    public Map<Integer, Long> getPhysicalShardRows() {
+        return snapshot(physicalShards, Counters::getRows);
+    }
+
+    @Override
+    public Map<Integer, Double> getPhysicalShardMeanLatencyMillis() {
+        final Map<Integer, Double> result = new TreeMap<>();
+        for (final Map.Entry<Integer, Counters> entry : physicalShards.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getMeanLatencyMillis());
+        }
+
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getHeavyHitters() {
+        final Map<String, Long> result = new LinkedHashMap<>();
+        for (final HeavyHitter hitter : getTopKeys(HEAVY_HITTERS_REPORTED)) {
+            result.put(hitter.getKey(), hitter.getCount());
+        }
+
+        return result;
+    }
+
+    private static Map<Integer, Long> snapshot(final Map<Integer, Counters> counters,
+            final ToLongFunction<Counters> value) {
+        final Map<Integer, Long> result = new TreeMap<>();
+        for (final Map.Entry<Integer, Counters> entry : counters.entrySet()) {
+            result.put(entry.getKey(), value.applyAsLong(entry.getValue()));
+        }
+
+        return result;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public int getKeySampleRate() {
+        return keySampleRate;
+    }
+
+    @Override
+    public void setKeySampleRate(final int sampleRate) {
+        Preconditions.checkArgument(sampleRate > 0, "sample rate must be positive: %s", sampleRate);
+        keySampleRate = sampleRate;
+    }
+
+    @Override
+    public void reset() {
+        virtualShards.clear();
+        physicalShards.clear();
+        synchronized (heavyHitters) {
+            heavyHitters.clear();
+        }
+    }
+
+    /**
+     * access counters of a single shard.
+     */
+    public static final class Counters {
+
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder keys = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder latencyNanos = new LongAdder();
+
+        private void record(final long latency, final int rowCount) {
+            calls.increment();
+            rows.add(rowCount);
+            latencyNanos.add(latency);
+        }
+
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        /**
+         * @return  number of shard keys routed to the shard (a call may have many keys, e.g. when partitioned)
+         */
+        public long getKeys() {
+            return keys.sum();
+        }
+
+        public long getRows() {
+            return rows.sum();
+        }
+
+        public double getMeanLatencyMillis() {
+            final long c = calls.sum();
+            return c == 0 ? 0 : (double) latencyNanos.sum() / c / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        @Override
+        public String toString() {
+            return "Counters{calls=" + getCalls() + ", keys=" + getKeys() + ", rows=" + getRows()
+                    + ", meanLatencyMillis=" + getMeanLatencyMillis() + '}';
+        }
+    }
+
+    /**
+     * a frequent shard key with its estimated number of occurrences.
+     */
+    public static final class HeavyHitter {
+
+        private final String key;
+        private final long count;
+        private final long error;
+
+        private HeavyHitter(final String key, final long count, final long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return  estimated number of occurrences, extrapolated from the sample
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return  maximum overestimation of the count
+         */
+        public long getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + count + "(+-" + error + ")";
+        }
+    }
+}
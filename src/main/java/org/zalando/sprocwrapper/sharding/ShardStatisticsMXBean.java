@@ -0,0 +1,55 @@
+package org.zalando.sprocwrapper.sharding;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link ShardStatistics}.
+ */
+public interface ShardStatisticsMXBean {
+
+    /**
+     * @return  number of sproc calls per virtual shard bucket
+     */
+    Map<Integer, Long> getVirtualShardCalls();
+
+    /**
+     * @return  number of shard keys routed to each virtual shard bucket
+     */
+    Map<Integer, Long> getVirtualShardKeys();
+
+    /**
+     * @return  number of sproc calls per physical shard (data source id)
+     */
+    Map<Integer, Long> getPhysicalShardCalls();
+
+    /**
+     * @return  number of rows returned per physical shard (data source id)
+     */
+    Map<Integer, Long> getPhysicalShardRows();
+
+    /**
+     * @return  mean call latency in milliseconds per physical shard (data source id)
+     */
+    Map<Integer, Double> getPhysicalShardMeanLatencyMillis();
+
+    /**
+     * @return  estimated number of calls of the most frequent shard keys
+     */
+    Map<String, Long> getHeavyHitters();
+
+    /**
+     * @return  true if calls and keys are recorded (disabled by default)
+     */
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return  one out of this number of shard keys is sampled for the heavy hitters
+     */
+    int getKeySampleRate();
+
+    void setKeySampleRate(int sampleRate);
+
+    void reset();
+}
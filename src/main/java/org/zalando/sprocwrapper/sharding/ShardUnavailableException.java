@@ -0,0 +1,21 @@
+package org.zalando.sprocwrapper.sharding;
+
+import org.springframework.dao.TransientDataAccessResourceException;
+
+/**
+ * Signals that a sproc call was rejected without contacting the shard, because the circuit breaker of the shard's data
+ * source is open.
+ */
+public class ShardUnavailableException extends TransientDataAccessResourceException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a {@code ShardUnavailableException} with specified detail message.
+     *
+     * @param  msg  the detail message
+     */
+    public ShardUnavailableException(final String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,73 @@
+package org.zalando.sprocwrapper.sharding;
+
+import java.util.AbstractMap;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Space-Saving algorithm (Metwally, Agrawal, El Abbadi: "Efficient Computation of Frequent and Top-k Elements in Data
+ * Streams"): finds the most frequent items of a stream with a fixed number of counters. The count of an item is
+ * overestimated by at most its error, items more frequent than {@code total / capacity} are always kept.
+ *
+ * <p>Not thread safe.</p>
+ */
+class SpaceSavingSketch {
+
+    private final int capacity;
+    private final Map<String, long[]> counters;
+
+    SpaceSavingSketch(final int capacity) {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive: %s", capacity);
+        this.capacity = capacity;
+        this.counters = new HashMap<>(2 * capacity);
+    }
+
+    /**
+     * counts the item {@code weight} times, e.g. the inverse of the rate it was sampled with.
+     */
+    void offer(final String item, final long weight) {
+        final long[] counter = counters.get(item);
+        if (counter != null) {
+            counter[0] += weight;
+            return;
+        }
+
+        if (counters.size() < capacity) {
+            counters.put(item, new long[] {weight, 0});
+            return;
+        }
+
+        // replace the item with the lowest count, the new item inherits its count as error
+        String minItem = null;
+        long[] min = null;
+        for (final Map.Entry<String, long[]> entry : counters.entrySet()) {
+            if (min == null || entry.getValue()[0] < min[0]) {
+                minItem = entry.getKey();
+                min = entry.getValue();
+            }
+        }
+
+        counters.remove(minItem);
+        counters.put(item, new long[] {min[0] + weight, min[0]});
+    }
+
+    /**
+     * @return  the top items, most frequent first. Each entry holds the count and the maximum overestimation.
+     */
+    List<Map.Entry<String, long[]>> top(final int n) {
+        return counters.entrySet().stream()
+                       .sorted(Comparator.comparingLong((Map.Entry<String, long[]> e) -> e.getValue()[0]).reversed())
+                       .limit(n)
+                       .map(e -> new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getValue().clone()))
+                       .collect(Collectors.toList());
+    }
+
+    void clear() {
+        counters.clear();
+    }
+}
@@ -14,11 +14,16 @@ public class VirtualShardAwareIdStrategy extends VirtualShardKeyStrategy {
             return 0;
         }
 
-        if (objs[0] == null) {
+        return getShardIdForKey(objs[0]);
+    }
+
+    @Override
+    public int getShardIdForKey(final Object key) {
+        if (key == null) {
             return 0;
         }
 
-        long id = (objs[0] instanceof Long ? (Long) objs[0] : (Integer) objs[0]);
+        long id = (key instanceof Long ? (Long) key : (Integer) key);
 
         // 10 lower bits represent sequence number
         // extract the next 9 bit as virtual shard id
@@ -0,0 +1,79 @@
+package org.zalando.sprocwrapper.sharding;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * maps the shard key to a uniformly distributed, non-negative 31 bit virtual shard id. Intended to be used with
+ * {@link org.zalando.sprocwrapper.dsprovider.JumpHashDataSourceProvider}, which supports any number of shards: unlike
+ * the bit mask based providers, the shard count does not have to be a power of two.
+ *
+ * <p>The shard key may be a String (any CharSequence), Long, Integer, UUID or a list of them (the first list item is
+ * used in this case). Other objects are hashed by their string representation.</p>
+ */
+public class VirtualShardJumpHashStrategy extends VirtualShardKeyStrategy {
+
+    private static final int SEED = 0x9747b28c;
+
+    @Override
+    public int getShardId(final Object[] objs) {
+        if (objs == null || objs.length == 0) {
+            return 0;
+        }
+
+        return getShardIdForKey(objs[0]);
+    }
+
+    @Override
+    public int getShardIdForKey(final Object key) {
+        if (key == null) {
+            return 0;
+        }
+
+        Object input = key;
+        if (input instanceof List) {
+            final List<?> list = (List<?>) input;
+            if (list.isEmpty() || list.get(0) == null) {
+                return 0;
+            }
+
+            input = list.get(0);
+        }
+
+        return (int) (hash(input) >>> 33);
+    }
+
+    private static long hash(final Object key) {
+        if (key instanceof Long || key instanceof Integer) {
+            return mix(((Number) key).longValue());
+        }
+
+        if (key instanceof UUID) {
+            final UUID uuid = (UUID) key;
+            return mix(uuid.getMostSignificantBits() ^ mix(uuid.getLeastSignificantBits()));
+        }
+
+        if (key instanceof CharSequence) {
+            final ShardKeyEncoder encoder = ShardKeyEncoder.get();
+            final int length = encoder.encode(key);
+            if (length >= 0) {
+                return mix(Murmur2Hash.hash(encoder.buffer(), 0, length, SEED) & 0xffffffffL);
+            }
+        }
+
+        final byte[] bytes = key.toString().getBytes(StandardCharsets.UTF_8);
+        return mix(Murmur2Hash.hash(bytes, SEED) & 0xffffffffL);
+    }
+
+    /**
+     * 64 bit finalizer of SplitMix64: spreads similar keys (e.g. consecutive ids) over the whole range.
+     */
+    static long mix(long z) {
+        z += 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
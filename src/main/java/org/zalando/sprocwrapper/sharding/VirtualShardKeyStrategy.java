@@ -13,4 +13,16 @@ public class VirtualShardKeyStrategy {
     public int getShardId(final Object[] objs) {
         return 0;
     }
+
+    /**
+     * same as {@link #getShardId(Object[])} with a single key object. Called for every key of sprocs with a single
+     * shard key, strategies should override it to avoid allocating the key array.
+     *
+     * @param   key  Key Object
+     *
+     * @return  virtual shard id
+     */
+    public int getShardIdForKey(final Object key) {
+        return getShardId(new Object[] {key});
+    }
 }
@@ -1,13 +1,10 @@
 package org.zalando.sprocwrapper.sharding;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-
 import java.util.List;
 
 /**
  * extract the last 3 bytes of the shard key's MD5 hash: the shard key must be either a string or a string list (the
- * first list item is used in this case)
+ * first list item is used in this case). Long, Integer and UUID keys are hashed by their string representation.
  *
  * @author  jmussler
  * @author  hjacobs
@@ -19,33 +16,35 @@ public class VirtualShardMd5Strategy extends VirtualShardKeyStrategy {
             return 0;
         }
 
-        String input = null;
-
-        if (objs[0] == null) {
-            return 0;
-        }
+        return getShardIdForKey(objs[0]);
+    }
 
-        if (objs[0] instanceof List) {
-            @SuppressWarnings("unchecked")
-            final List<String> stringList = (List<String>) objs[0];
-            if (stringList.isEmpty()) {
+    @Override
+    public int getShardIdForKey(final Object key) {
+        Object input = key;
+        if (input instanceof List) {
+            final List<?> list = (List<?>) input;
+            if (list.isEmpty()) {
                 return 0;
             }
 
-            input = stringList.get(0);
-        } else {
-            input = (String) objs[0];
+            input = list.get(0);
         }
 
-        final MessageDigest digest;
-        try {
-            digest = MessageDigest.getInstance("MD5");
-        } catch (final NoSuchAlgorithmException nsae) {
-            throw new RuntimeException("Unable to use md5 algorithm", nsae);
+        if (input == null) {
+            return 0;
         }
 
-        final byte[] md5 = digest.digest(input.getBytes());
-        return (md5[15] & 0xff) + ((md5[14] & 0xff) << 8) + ((md5[13] & 0xff) << 16);
+        final ShardKeyEncoder encoder = ShardKeyEncoder.get();
+        final int length = encoder.encode(input);
+        final byte[] md5;
+        if (length >= 0) {
+            md5 = encoder.md5(encoder.buffer(), length);
+        } else {
+            final byte[] bytes = ShardKeyEncoder.asString(input).getBytes();
+            md5 = encoder.md5(bytes, bytes.length);
+        }
 
+        return (md5[15] & 0xff) + ((md5[14] & 0xff) << 8) + ((md5[13] & 0xff) << 16);
     }
 }
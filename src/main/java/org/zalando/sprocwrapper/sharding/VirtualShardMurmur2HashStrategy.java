@@ -15,31 +15,36 @@ public class VirtualShardMurmur2HashStrategy extends VirtualShardKeyStrategy {
             return 0;
         }
 
-        Object input = null;
+        return getShardIdForKey(objs[0]);
+    }
+
+    /**
+     * hashes the bytes of the key's string representation: String (any CharSequence), Long, Integer and UUID keys are
+     * supported.
+     */
+    @Override
+    public int getShardIdForKey(final Object key) {
+        Object input = key;
 
-        if (objs[0] == null) {
+        if (input == null) {
             return 0;
         }
 
-        if (objs[0] instanceof List) {
-            List<?> list = (List<?>) objs[0];
+        if (input instanceof List) {
+            List<?> list = (List<?>) input;
             if (list.isEmpty()) {
                 return 0;
             }
 
             input = list.get(0);
-        } else {
-            input = objs[0];
         }
-/*
- *      if (input instanceof Long) {
- *          hasher.putLong((Long) input);
- *      } else if (input instanceof Integer) {
- *          hasher.putInt((Integer) input);
- *      } else {
- *          hasher.putString((String) input);
- *      }*/
-
-        return Murmur2Hash.hash(((String) input).getBytes(), 0);
+
+        final ShardKeyEncoder encoder = ShardKeyEncoder.get();
+        final int length = encoder.encode(input);
+        if (length >= 0) {
+            return Murmur2Hash.hash(encoder.buffer(), 0, length, 0);
+        }
+
+        return Murmur2Hash.hash(ShardKeyEncoder.asString(input).getBytes(), 0);
     }
 }
@@ -70,6 +70,31 @@ public class TypeMapper<ITEM> implements RowMapper<ITEM> {
         return result;
     }
 
+    /**
+     * maps a row given as text values of its columns, e.g. read from a COPY stream. Only columns of simple types are
+     * supported.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public ITEM mapRow(final List<String> columnNames, final List<String> values) throws SQLException {
+        final Class<ITEM> resultClass = getResultClass();
+        if (resultClass.isEnum()) {
+            return values.get(0) == null ? null : (ITEM) Enum.valueOf((Class<? extends Enum>) resultClass, values.get(0));
+        }
+
+        final ResultTree tree = new ResultTree();
+        for (int i = 0; i < columnNames.size() && i < values.size(); i++) {
+            tree.addChild(new SimpleResultNode(values.get(i), columnNames.get(i)));
+        }
+
+        try {
+            final ITEM result = resultClass.getDeclaredConstructor().newInstance();
+            fillObject(result, tree);
+            return result;
+        } catch (final InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException e) {
+            throw new SQLException(getResultClass() + " has no public nullary constructor: ", e);
+        }
+    }
+
     private ResultTree extractResultTree(final ResultSet set) throws SQLException {
 
         // cast to obtain more information from the result set.
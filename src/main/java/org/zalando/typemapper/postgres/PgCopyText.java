@@ -0,0 +1,178 @@
+package org.zalando.typemapper.postgres;
+
+import java.sql.Connection;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fields in the text format of PostgreSQL's {@code COPY}: columns are separated by tabs, rows by newlines and NULL is
+ * written as {@code \N}. Values are serialized like array elements and row attributes by
+ * {@link PgTypeHelper#toPgString(Object, Connection)}, e.g. objects with {@code @DatabaseField} attributes as row
+ * literal. Rows read from {@code COPY ... TO STDOUT} are split into their unescaped fields by
+ * {@link #parseRow(CharSequence)}.
+ */
+public final class PgCopyText {
+
+    static final String NULL = "\\N";
+    static final char COLUMN_DELIMITER = '\t';
+    static final char ROW_DELIMITER = '\n';
+
+    private PgCopyText() {
+        // utility class: private constructor
+    }
+
+    /**
+     * appends the value as escaped COPY field.
+     */
+    public static StringBuilder appendField(final StringBuilder sb, final Object value, final Connection connection) {
+        if (value == null) {
+            return sb.append(NULL);
+        }
+
+        return escape(sb, PgTypeHelper.toPgString(value, connection));
+    }
+
+    /**
+     * appends the text with backslashes, tabs and newlines escaped.
+     */
+    public static StringBuilder escape(final StringBuilder sb, final CharSequence s) {
+        final int l = s.length();
+        for (int i = 0; i < l; i++) {
+            final char ch = s.charAt(i);
+            switch (ch) {
+
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+
+                case '\t':
+                    sb.append("\\t");
+                    break;
+
+                case '\n':
+                    sb.append("\\n");
+                    break;
+
+                case '\r':
+                    sb.append("\\r");
+                    break;
+
+                default:
+                    sb.append(ch);
+            }
+        }
+
+        return sb;
+    }
+
+    /**
+     * appends a row of fields followed by the row delimiter.
+     */
+    public static StringBuilder appendRow(final StringBuilder sb, final Connection connection,
+            final Object... fields) {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                sb.append(COLUMN_DELIMITER);
+            }
+
+            appendField(sb, fields[i], connection);
+        }
+
+        return sb.append(ROW_DELIMITER);
+    }
+
+    /**
+     * splits a row (without row delimiter) into its unescaped fields.
+     *
+     * @return  the fields, null for NULL fields
+     */
+    public static List<String> parseRow(final CharSequence line) {
+        final List<String> fields = new ArrayList<>();
+        final StringBuilder field = new StringBuilder();
+        boolean nullField = false;
+
+        final int l = line.length();
+        for (int i = 0; i < l; i++) {
+            char ch = line.charAt(i);
+            if (ch == COLUMN_DELIMITER) {
+                fields.add(nullField ? null : field.toString());
+                field.setLength(0);
+                nullField = false;
+            } else if (ch == '\\' && i + 1 < l) {
+                ch = line.charAt(++i);
+                switch (ch) {
+
+                    case 'N':
+                        nullField = true;
+                        break;
+
+                    case 'b':
+                        field.append('\b');
+                        break;
+
+                    case 'f':
+                        field.append('\f');
+                        break;
+
+                    case 'n':
+                        field.append('\n');
+                        break;
+
+                    case 'r':
+                        field.append('\r');
+                        break;
+
+                    case 't':
+                        field.append('\t');
+                        break;
+
+                    case 'v':
+                        field.append('\013');
+                        break;
+
+                    case 'x':
+                        i = appendCode(field, line, i + 1, 2, 16) - 1;
+                        break;
+
+                    default:
+                        if (ch >= '0' && ch <= '7') {
+                            i = appendCode(field, line, i, 3, 8) - 1;
+                        } else {
+                            field.append(ch);
+                        }
+                }
+            } else {
+                field.append(ch);
+            }
+        }
+
+        fields.add(nullField ? null : field.toString());
+        return fields;
+    }
+
+    /**
+     * appends the character given by up to maxDigits digits starting at the given position.
+     *
+     * @return  position after the digits
+     */
+    private static int appendCode(final StringBuilder sb, final CharSequence line, final int start,
+            final int maxDigits, final int radix) {
+        int code = 0;
+        int i = start;
+        while (i < line.length() && i < start + maxDigits && Character.digit(line.charAt(i), radix) >= 0) {
+            code = code * radix + Character.digit(line.charAt(i), radix);
+            i++;
+        }
+
+        if (i == start) {
+
+            // no digits: the backslash escapes the letter itself
+            sb.append(line.charAt(start - 1));
+        } else {
+            sb.append((char) code);
+        }
+
+        return i;
+    }
+}
@@ -0,0 +1,53 @@
+package org.zalando.sprocwrapper;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.springframework.dao.QueryTimeoutException;
+
+public class DeadlineTest {
+
+    @Test
+    public void should_attach_deadline_to_current_thread() {
+        Assert.assertNull(Deadline.current());
+
+        final Deadline deadline = Deadline.after(1, TimeUnit.MINUTES);
+        try (Deadline.Scope scope = deadline.attach()) {
+            Assert.assertSame(deadline, Deadline.current());
+            Assert.assertFalse(deadline.isExpired());
+            Assert.assertTrue(deadline.remaining(TimeUnit.SECONDS) > 50);
+        }
+
+        Assert.assertNull(Deadline.current());
+    }
+
+    @Test
+    public void should_not_extend_deadline_of_enclosing_scope() {
+        final Deadline outer = Deadline.after(1, TimeUnit.SECONDS);
+        final Deadline inner = Deadline.after(1, TimeUnit.MINUTES);
+        final Deadline innermost = Deadline.after(1, TimeUnit.MILLISECONDS);
+
+        try (Deadline.Scope outerScope = outer.attach()) {
+            try (Deadline.Scope innerScope = inner.attach()) {
+                Assert.assertSame(outer, Deadline.current());
+
+                try (Deadline.Scope innermostScope = innermost.attach()) {
+                    Assert.assertSame(innermost, Deadline.current());
+                }
+            }
+
+            Assert.assertSame(outer, Deadline.current());
+        }
+    }
+
+    @Test(expected = QueryTimeoutException.class)
+    public void should_fail_check_after_expiry() {
+        final Deadline deadline = Deadline.after(0, TimeUnit.MILLISECONDS);
+
+        Assert.assertTrue(deadline.isExpired());
+        Assert.assertEquals(0, deadline.remaining(TimeUnit.NANOSECONDS));
+        deadline.check("in test");
+    }
+}
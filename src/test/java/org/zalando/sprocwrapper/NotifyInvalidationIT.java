@@ -0,0 +1,61 @@
+package org.zalando.sprocwrapper;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import org.zalando.sprocwrapper.cache.NotifyInvalidationListener;
+import org.zalando.sprocwrapper.cache.SProcResultCache;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = {"classpath:backendContextTest.xml"})
+public class NotifyInvalidationIT {
+
+    @Autowired
+    @Qualifier("testDataSource1")
+    private DataSource dataSource1;
+
+    @Test
+    public void testInvalidationByNotify() throws Exception {
+        final SProcResultCache cache = new SProcResultCache("notify_it_get_article", 3600000, 1024 * 1024);
+        cache.get(new Object[] {1L}, () -> "article 1");
+        cache.get(new Object[] {2L}, () -> "article 2");
+
+        try (NotifyInvalidationListener listener = new NotifyInvalidationListener(dataSource1,
+                        Collections.singleton("sproc_cache_it"))) {
+            listener.start();
+            awaitListening(listener);
+
+            new JdbcTemplate(dataSource1).execute("NOTIFY sproc_cache_it, 'notify_it_get_article:1'");
+
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (cache.size() > 1 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+
+            Assert.assertEquals(1, cache.size());
+            Assert.assertEquals("article 2", cache.get(new Object[] {2L}, () -> "reloaded"));
+            Assert.assertEquals("reloaded", cache.get(new Object[] {1L}, () -> "reloaded"));
+        }
+    }
+
+    private static void awaitListening(final NotifyInvalidationListener listener) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!listener.isListening() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        Assert.assertTrue(listener.isListening());
+    }
+}
@@ -0,0 +1,59 @@
+package org.zalando.sprocwrapper;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class SProcScopeTest {
+
+    private static final Object SPROC = new Object();
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    public void should_memoize_results_within_scope() {
+        try (SProcScope scope = SProcScope.open()) {
+            Assert.assertSame(scope, SProcScope.current());
+            Assert.assertEquals(1, scope.get(SPROC, new Object[] {"a"}, calls::incrementAndGet));
+            Assert.assertEquals(1, scope.get(SPROC, new Object[] {"a"}, calls::incrementAndGet));
+            Assert.assertEquals(2, scope.get(SPROC, new Object[] {"b"}, calls::incrementAndGet));
+            Assert.assertEquals(3, scope.get(new Object(), new Object[] {"a"}, calls::incrementAndGet));
+            Assert.assertEquals(1, scope.getHits());
+        }
+
+        Assert.assertNull(SProcScope.current());
+    }
+
+    @Test
+    public void should_share_results_with_nested_scopes_until_outermost_is_closed() {
+        try (SProcScope outer = SProcScope.open()) {
+            try (SProcScope inner = SProcScope.open()) {
+                inner.get(SPROC, null, calls::incrementAndGet);
+            }
+
+            Assert.assertSame(outer, SProcScope.current());
+            Assert.assertEquals(1, outer.get(SPROC, null, calls::incrementAndGet));
+        }
+
+        try (SProcScope scope = SProcScope.open()) {
+            Assert.assertEquals(2, scope.get(SPROC, null, calls::incrementAndGet));
+        }
+    }
+
+    @Test
+    public void should_hand_out_list_copies_and_drop_results_on_clear() {
+        try (SProcScope scope = SProcScope.open()) {
+            @SuppressWarnings("unchecked")
+            final List<String> first = (List<String>) scope.get(SPROC, null, () -> Lists.newArrayList("a"));
+            first.add("b");
+            Assert.assertEquals(Lists.newArrayList("a"), scope.get(SPROC, null, () -> null));
+
+            scope.clear();
+            Assert.assertNull(scope.get(SPROC, null, () -> null));
+        }
+    }
+}
@@ -61,6 +61,26 @@ public class ShardingIT {
         shardingSProcService.collectDataFromAllShardsParallel("a");
     }
 
+    @Test
+    public void testRunOnAllShardsWithLimit() {
+
+        // second shard is cut off after the first row
+        final List<String> results = shardingSProcService.collectDataFromAllShardsWithLimit("a");
+        Assert.assertEquals(3, results.size());
+        Assert.assertEquals("shard1row1", results.get(0));
+        Assert.assertEquals("shard1row2", results.get(1));
+        Assert.assertEquals("shard2row1", results.get(2));
+    }
+
+    @Test
+    public void testRunOnAllShardsParallelWithLimit() {
+
+        // the first shard to answer wins, the other one is cancelled
+        final List<String> results = shardingSProcService.collectDataFromAllShardsParallelWithLimit("a");
+        Assert.assertEquals(1, results.size());
+        Assert.assertTrue(results.get(0).endsWith("row1"));
+    }
+
     @Test
     public void testRunOnAllShardsSearchShardsOn() {
 
@@ -0,0 +1,82 @@
+package org.zalando.sprocwrapper;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Verifies the driver behaviour write-behind batches rely on: batched sproc calls are only accepted when generated
+ * keys are requested.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = {"classpath:backendContextTest.xml"})
+public class WriteBehindIT {
+
+    private static final String CALL = "SELECT * FROM pg_temp.write_behind_it_track(?)";
+
+    @Autowired
+    @Qualifier("testDataSource1")
+    private DataSource dataSource1;
+
+    @Test
+    public void testBatchedSprocCallsWithGeneratedKeys() throws SQLException {
+        try (Connection connection = dataSource1.getConnection()) {
+            createSproc(connection);
+
+            try (PreparedStatement statement = connection.prepareStatement(CALL, Statement.RETURN_GENERATED_KEYS)) {
+                for (int i = 0; i < 3; i++) {
+                    statement.setInt(1, i);
+                    statement.addBatch();
+                }
+
+                statement.executeBatch();
+            }
+
+            Assert.assertEquals(3, countEvents(connection));
+        }
+    }
+
+    @Test(expected = BatchUpdateException.class)
+    public void testBatchedSprocCallsWithoutGeneratedKeysAreRejected() throws SQLException {
+        try (Connection connection = dataSource1.getConnection()) {
+            createSproc(connection);
+
+            try (PreparedStatement statement = connection.prepareStatement(CALL)) {
+                statement.setInt(1, 1);
+                statement.addBatch();
+                statement.executeBatch();
+            }
+        }
+    }
+
+    private static void createSproc(final Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TEMPORARY TABLE IF NOT EXISTS write_behind_it_event (id int)");
+            statement.execute("TRUNCATE write_behind_it_event");
+            statement.execute("CREATE OR REPLACE FUNCTION pg_temp.write_behind_it_track(p_id int) RETURNS void AS "
+                    + "'INSERT INTO write_behind_it_event VALUES (p_id)' LANGUAGE sql");
+        }
+    }
+
+    private static int countEvents(final Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT count(*) FROM write_behind_it_event")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
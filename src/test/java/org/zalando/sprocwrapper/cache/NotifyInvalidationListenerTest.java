@@ -0,0 +1,37 @@
+package org.zalando.sprocwrapper.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NotifyInvalidationListenerTest {
+
+    @Test
+    public void should_invalidate_results_named_by_payload() {
+        final SProcResultCache articles = cache("notify_test_get_article", 123L, "DE");
+        articles.get(new Object[] {123L, "FR"}, () -> "article");
+        articles.get(new Object[] {124L, "DE"}, () -> "article");
+
+        NotifyInvalidationListener.invalidate("notify_test_get_article:123,DE");
+        Assert.assertEquals(2, articles.size());
+
+        NotifyInvalidationListener.invalidate("notify_test_get_article");
+        Assert.assertEquals(0, articles.size());
+    }
+
+    @Test
+    public void should_invalidate_namespace() {
+        final SProcResultCache inNamespace = cache("notify_ns_get_country", "DE");
+        final SProcResultCache otherNamespace = cache("notify_other_get_country", "DE");
+
+        NotifyInvalidationListener.invalidate("notify_ns_*");
+
+        Assert.assertEquals(0, inNamespace.size());
+        Assert.assertEquals(1, otherNamespace.size());
+    }
+
+    private static SProcResultCache cache(final String sprocName, final Object... args) {
+        final SProcResultCache cache = new SProcResultCache(sprocName, 60000, 1024 * 1024);
+        cache.get(args, () -> "cached");
+        return cache;
+    }
+}
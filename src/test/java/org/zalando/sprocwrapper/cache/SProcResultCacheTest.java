@@ -0,0 +1,222 @@
+package org.zalando.sprocwrapper.cache;
+
+import java.io.Serializable;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+public class SProcResultCacheTest {
+
+    private static final Set<Class<?>> TYPES = ImmutableSet.of();
+
+    static class Country implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String code;
+
+        Country(final String code) {
+            this.code = code;
+        }
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void should_load_result_once_per_arguments() {
+        final SProcResultCache cache = new SProcResultCache("get_country", 60000, 1024 * 1024);
+
+        Assert.assertEquals("DE:1", cache.get(new Object[] {"DE"}, () -> "DE:" + loads.incrementAndGet()));
+        Assert.assertEquals("DE:1", cache.get(new Object[] {"DE"}, () -> "DE:" + loads.incrementAndGet()));
+        Assert.assertEquals("FR:2", cache.get(new Object[] {"FR"}, () -> "FR:" + loads.incrementAndGet()));
+
+        Assert.assertEquals(1, cache.stats().hitCount());
+        Assert.assertEquals(2, cache.stats().missCount());
+    }
+
+    @Test
+    public void should_cache_null_results_and_hand_out_list_copies() {
+        final SProcResultCache cache = new SProcResultCache("find_articles", 60000, 1024 * 1024);
+
+        Assert.assertNull(cache.get(new Object[] {1}, () -> {
+                    loads.incrementAndGet();
+                    return null;
+                }));
+        Assert.assertNull(cache.get(new Object[] {1}, () -> "loaded"));
+
+        @SuppressWarnings("unchecked")
+        final List<String> first = (List<String>) cache.get(new Object[] {2}, () -> Lists.newArrayList("a", "b"));
+        first.add("c");
+
+        Assert.assertEquals(Lists.newArrayList("a", "b"), cache.get(new Object[] {2}, () -> null));
+        Assert.assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void should_not_cache_failures() {
+        final SProcResultCache cache = new SProcResultCache("get_config", 60000, 1024 * 1024);
+        try {
+            cache.get(null, () -> {
+                throw new IllegalStateException("database down");
+            });
+            Assert.fail("exception expected");
+        } catch (final IllegalStateException e) {
+            Assert.assertEquals("database down", e.getMessage());
+        }
+
+        Assert.assertEquals("config", cache.get(null, () -> "config"));
+    }
+
+    @Test
+    public void should_invalidate_results_by_sproc_name_and_arguments() {
+        final SProcResultCache cache = new SProcResultCache("get_attributes", 60000, 1024 * 1024);
+        cache.get(new Object[] {"a"}, () -> "a");
+        cache.get(new Object[] {"b"}, () -> "b");
+
+        SProcResultCaches.invalidate("get_attributes", "a");
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals("b", cache.get(new Object[] {"b"}, () -> "reloaded"));
+
+        SProcResultCaches.invalidate("get_attributes");
+        Assert.assertEquals(0, cache.size());
+        Assert.assertTrue(SProcResultCaches.get("get_attributes").contains(cache));
+    }
+
+    @Test
+    public void should_evict_results_exceeding_maximum_weight() {
+        final SProcResultCache cache = new SProcResultCache("get_documents", 60000, 10 * 1024);
+        for (int i = 0; i < 100; i++) {
+            cache.get(new Object[] {i}, () -> new String(new char[1000]));
+        }
+
+        Assert.assertTrue(cache.size() < 100);
+        Assert.assertTrue(cache.stats().evictionCount() > 0);
+    }
+
+    @Test
+    public void should_restore_persisted_results_and_revalidate_them() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("get_country.cache");
+        final SProcResultCache cache = new SProcResultCache("get_country", 60000, 1024 * 1024, file, "v1", TYPES);
+        cache.get(new Object[] {"DE"}, () -> Lists.newArrayList("Germany"));
+        cache.get(new Object[] {"XX"}, () -> null);
+        Assert.assertTrue(cache.persist());
+        Assert.assertFalse(cache.persist());
+
+        final CountDownLatch revalidated = new CountDownLatch(1);
+        final SProcResultCache restarted = new SProcResultCache("get_country", 60000, 1024 * 1024, file, "v1", TYPES);
+        Assert.assertEquals(Lists.newArrayList("Germany"),
+            restarted.get(new Object[] {"DE"}, () -> {
+                revalidated.countDown();
+                return Lists.newArrayList("Deutschland");
+            }));
+        Assert.assertNull(restarted.get(new Object[] {"XX"}, () -> "unexpected"));
+
+        Assert.assertTrue(revalidated.await(10, TimeUnit.SECONDS));
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!Lists.newArrayList("Deutschland").equals(restarted.get(new Object[] {"DE"}, () -> null))
+                && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+
+        Assert.assertEquals(Lists.newArrayList("Deutschland"), restarted.get(new Object[] {"DE"}, () -> null));
+    }
+
+    @Test
+    public void should_not_restore_results_of_other_schema_or_corrupt_files() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("get_config.cache");
+        final SProcResultCache cache = new SProcResultCache("get_config", 60000, 1024 * 1024, file, "v1", TYPES);
+        cache.get(new Object[] {"a"}, () -> "a");
+        cache.persist();
+
+        final SProcResultCache otherSchema = new SProcResultCache("get_config", 60000, 1024 * 1024, file, "v2", TYPES);
+        Assert.assertEquals("loaded", otherSchema.get(new Object[] {"a"}, () -> "loaded"));
+
+        final byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1]++;
+        Files.write(file, bytes);
+
+        final SProcResultCache corrupt = new SProcResultCache("get_config", 60000, 1024 * 1024, file, "v1", TYPES);
+        Assert.assertEquals("loaded", corrupt.get(new Object[] {"a"}, () -> "loaded"));
+    }
+
+    @Test
+    public void should_only_restore_declared_result_types() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("get_country_object.cache");
+        final SProcResultCache cache = new SProcResultCache("get_country_object", 60000, 1024 * 1024, file, "v1",
+                TYPES);
+        cache.get(new Object[] {"DE"}, () -> new Country("DE"));
+        cache.persist();
+
+        final SProcResultCache undeclared = new SProcResultCache("get_country_object", 60000, 1024 * 1024, file,
+                "v1", TYPES);
+        Assert.assertEquals("loaded", undeclared.get(new Object[] {"DE"}, () -> "loaded"));
+
+        final SProcResultCache declared = new SProcResultCache("get_country_object", 60000, 1024 * 1024, file, "v1",
+                ImmutableSet.<Class<?>>of(Country.class));
+        Assert.assertEquals("DE", ((Country) declared.get(new Object[] {"DE"}, () -> "loaded")).code);
+    }
+
+    @Test
+    public void should_delete_stale_files_of_the_same_sproc() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final Path stale = Files.createFile(directory.resolve("get_stale-0123456789abcdef.cache"));
+        final Path other = Files.createFile(directory.resolve("get_stale_other-0123456789abcdef.cache"));
+
+        final SProcResultCache cache = new SProcResultCache("get_stale", 60000, 1024 * 1024,
+                directory.resolve("get_stale.cache"), "v1", TYPES);
+        cache.get(new Object[] {"a"}, () -> "a");
+        Assert.assertTrue(cache.persist());
+
+        Assert.assertFalse(Files.exists(stale));
+        Assert.assertTrue(Files.exists(other));
+    }
+
+    @Test
+    public void should_not_restore_files_writable_by_others() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("get_shared.cache");
+        final SProcResultCache cache = new SProcResultCache("get_shared", 60000, 1024 * 1024, file, "v1", TYPES);
+        cache.get(new Object[] {"a"}, () -> "a");
+        cache.persist();
+
+        final PosixFileAttributeView posix = Files.getFileAttributeView(file, PosixFileAttributeView.class);
+        Assume.assumeNotNull(posix);
+        posix.setPermissions(PosixFilePermissions.fromString("rw-rw-rw-"));
+
+        final SProcResultCache restarted = new SProcResultCache("get_shared", 60000, 1024 * 1024, file, "v1", TYPES);
+        Assert.assertEquals("loaded", restarted.get(new Object[] {"a"}, () -> "loaded"));
+    }
+
+    @Test
+    public void should_create_directory_accessible_by_owner_only() throws Exception {
+        final Path directory = folder.getRoot().toPath().resolve("caches");
+        final SProcResultCache cache = new SProcResultCache("get_private", 60000, 1024 * 1024,
+                directory.resolve("get_private.cache"), "v1", TYPES);
+        cache.get(new Object[] {"a"}, () -> "a");
+        Assert.assertTrue(cache.persist());
+
+        final PosixFileAttributeView posix = Files.getFileAttributeView(directory, PosixFileAttributeView.class);
+        Assume.assumeNotNull(posix);
+        Assert.assertEquals(PosixFilePermissions.fromString("rwx------"), posix.readAttributes().permissions());
+    }
+}
@@ -0,0 +1,154 @@
+package org.zalando.sprocwrapper.dsprovider;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.zalando.sprocwrapper.sharding.VirtualShardMd5Strategy;
+
+public class BitmapShardDataSourceProviderTest {
+
+    private DataSource shard0;
+    private DataSource shard1;
+    private DataSource shard3;
+    private BitmapShardDataSourceProvider provider;
+
+    @Before
+    public void setup() throws SQLException {
+        shard0 = dataSource();
+        shard1 = dataSource();
+        shard3 = dataSource();
+        provider = new BitmapShardDataSourceProvider(ImmutableMap.of("0", shard0, "1", shard1));
+    }
+
+    private static DataSource dataSource() throws SQLException {
+        final DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenAnswer(invocation -> mock(Connection.class));
+        return dataSource;
+    }
+
+    private static DataSource target(final DataSource ds) {
+        return ds instanceof DelegatingDataSource ? ((DelegatingDataSource) ds).getTargetDataSource() : ds;
+    }
+
+    @Test
+    public void should_hand_out_configured_data_sources_without_in_flight_tracking() {
+        Assert.assertSame(shard0, provider.getDataSource(4));
+        Assert.assertSame(shard1, provider.getDataSource(7));
+    }
+
+    @Test
+    public void should_route_by_mask() {
+        Assert.assertSame(shard0, target(provider.getDataSource(4)));
+        Assert.assertSame(shard1, target(provider.getDataSource(7)));
+        Assert.assertEquals(1, provider.getDataSourceId(7));
+        Assert.assertEquals(ImmutableList.of(0, 1), provider.getDistinctShardIds());
+    }
+
+    @Test
+    public void should_split_shard_when_topology_is_updated() {
+        final long version = provider.getTopology().getVersion();
+
+        Assert.assertTrue(provider.updateTopology(version,
+                ImmutableMap.of("0", shard0, "01", shard1, "11", shard3)));
+
+        Assert.assertEquals(version + 1, provider.getTopology().getVersion());
+        Assert.assertSame(shard1, target(provider.getDataSource(5)));
+        Assert.assertSame(shard3, target(provider.getDataSource(7)));
+        Assert.assertEquals(ImmutableList.of(0, 1, 3), provider.getDistinctShardIds());
+    }
+
+    @Test
+    public void should_reject_update_based_on_outdated_version() {
+        final long version = provider.getTopology().getVersion();
+        Assert.assertTrue(provider.updateTopology(version, ImmutableMap.of("", shard0)));
+
+        Assert.assertFalse(provider.updateTopology(version, ImmutableMap.of("0", shard0, "1", shard3)));
+        Assert.assertSame(shard0, target(provider.getDataSource(1)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_incomplete_topology() {
+        provider.updateTopology(provider.getTopology().getVersion(), ImmutableMap.of("00", shard0, "1", shard1));
+    }
+
+    @Test(timeout = 5000)
+    public void should_drain_old_topology() throws Exception {
+        provider.setInFlightTracking(true);
+
+        final BitmapShardDataSourceProvider.Topology old = provider.getTopology();
+        final Connection connection = provider.getDataSource(0).getConnection();
+        Assert.assertNotSame(shard0, provider.getDataSource(0));
+
+        Assert.assertTrue(provider.updateTopology(old.getVersion(), ImmutableMap.of("", shard3)));
+        Assert.assertEquals(1, old.getInFlightCalls());
+        Assert.assertFalse(old.awaitDrained(10, TimeUnit.MILLISECONDS));
+
+        new Thread(() -> {
+                try {
+                    Thread.sleep(50);
+                    connection.close();
+                } catch (final Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }).start();
+
+        Assert.assertTrue(old.awaitDrained(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, old.getInFlightCalls());
+    }
+
+    @Test
+    public void should_refuse_to_drain_topology_used_without_in_flight_tracking() throws Exception {
+        final BitmapShardDataSourceProvider.Topology old = provider.getTopology();
+        provider.getDataSource(0).getConnection();
+        provider.setInFlightTracking(true);
+        Assert.assertTrue(provider.updateTopology(old.getVersion(), ImmutableMap.of("", shard3)));
+
+        Assert.assertEquals(0, old.getInFlightCalls());
+        try {
+            old.awaitDrained(0, TimeUnit.MILLISECONDS);
+            Assert.fail("exception expected");
+        } catch (final IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().contains("without in-flight tracking"));
+        }
+    }
+
+    @Test
+    public void should_simulate_placement_on_shard_count_which_is_not_a_power_of_two() {
+        final ShardPlacementSimulator simulator = new ShardPlacementSimulator(new VirtualShardMd5Strategy(), n -> {
+                final List<DataSource> dataSources = ShardPlacementSimulator.dataSources(n);
+                return new BitmapShardDataSourceProvider(n == 2
+                        ? ImmutableMap.of("0", dataSources.get(0), "1", dataSources.get(1))
+                        : ImmutableMap.of("00", dataSources.get(0), "1", dataSources.get(1), "10", dataSources.get(2)));
+            });
+
+        final List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            keys.add("key" + i);
+        }
+
+        final ShardPlacementSimulator.Report report = simulator.simulate(keys, 2, 3);
+
+        // the keys of the split shard "0" move to "10"
+        Assert.assertEquals(3, report.getKeysPerShard().length);
+        Assert.assertEquals(report.getKeysPerShard()[2], report.getMovedKeys());
+        Assert.assertEquals(0.25, report.getMovedFraction(), 0.05);
+    }
+}
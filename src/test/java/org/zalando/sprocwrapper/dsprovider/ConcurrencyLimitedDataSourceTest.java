@@ -0,0 +1,160 @@
+package org.zalando.sprocwrapper.dsprovider;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import org.zalando.sprocwrapper.sharding.ShardOverloadedException;
+
+public class ConcurrencyLimitedDataSourceTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void should_grow_limit_while_calls_are_fast_and_limit_is_used() throws Exception {
+        final AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(4, 1, 8, 100);
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j < limiter.getLimit(); j++) {
+                Assert.assertTrue(limiter.tryAcquire(0, TimeUnit.MILLISECONDS));
+            }
+
+            for (int j = limiter.getInFlight(); j > 0; j--) {
+                limiter.release(FAST, false);
+            }
+        }
+
+        Assert.assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void should_shrink_limit_on_slow_or_dropped_calls() throws Exception {
+        final AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(10, 2, 20, 100);
+        Assert.assertTrue(limiter.tryAcquire(0, TimeUnit.MILLISECONDS));
+        limiter.release(SLOW, false);
+        Assert.assertEquals(9, limiter.getLimit());
+
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(limiter.tryAcquire(0, TimeUnit.MILLISECONDS));
+            limiter.release(FAST, true);
+        }
+
+        Assert.assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void should_not_grow_limit_if_it_is_not_used() throws Exception {
+        final AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(10, 1, 20, 100);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(limiter.tryAcquire(0, TimeUnit.MILLISECONDS));
+            limiter.release(FAST, false);
+        }
+
+        Assert.assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    public void should_release_permit_when_connection_is_closed() throws SQLException {
+        final ConcurrencyLimitedDataSource ds = new ConcurrencyLimitedDataSource(dataSource(),
+                new AimdConcurrencyLimiter(1, 1, 1, 100), 0);
+
+        final Connection connection = ds.getConnection();
+        Assert.assertEquals(1, ds.getLimiter().getInFlight());
+
+        connection.close();
+        connection.close();
+        Assert.assertEquals(0, ds.getLimiter().getInFlight());
+
+        ds.getConnection().close();
+    }
+
+    @Test
+    public void should_not_adapt_limit_to_unsampled_connections() throws SQLException {
+        final ConcurrencyLimitedDataSource ds = new ConcurrencyLimitedDataSource(dataSource(),
+                new AimdConcurrencyLimiter(2, 1, 8, 100), 0);
+
+        for (int i = 0; i < 100; i++) {
+            final Connection first = ds.getUnsampledConnection();
+            final Connection second = ds.getUnsampledConnection();
+            Assert.assertEquals(2, ds.getLimiter().getInFlight());
+            first.close();
+            second.close();
+        }
+
+        Assert.assertEquals(0, ds.getLimiter().getInFlight());
+        Assert.assertEquals(2, ds.getLimiter().getLimit());
+    }
+
+    @Test
+    public void should_shed_load_when_no_permit_becomes_available() throws SQLException {
+        final ConcurrencyLimitedDataSource ds = new ConcurrencyLimitedDataSource(dataSource(),
+                new AimdConcurrencyLimiter(1, 1, 1, 100), 10);
+        ds.getConnection();
+
+        try {
+            ds.getConnection();
+            Assert.fail("exception expected");
+        } catch (final ShardOverloadedException e) {
+            Assert.assertEquals(1, ds.getLimiter().getRejected());
+        }
+    }
+
+    @Test
+    public void should_release_permit_when_connection_can_not_be_obtained() throws SQLException {
+        final DataSource target = mock(DataSource.class);
+        when(target.getConnection()).thenThrow(new SQLException("connection refused"));
+        final ConcurrencyLimitedDataSource ds = new ConcurrencyLimitedDataSource(target,
+                new AimdConcurrencyLimiter(1, 1, 1, 100), 0);
+
+        try {
+            ds.getConnection();
+            Assert.fail("exception expected");
+        } catch (final SQLException e) {
+            Assert.assertEquals(0, ds.getLimiter().getInFlight());
+        }
+    }
+
+    @Test
+    public void should_limit_each_physical_data_source_once() throws SQLException {
+        final DataSource shard0 = dataSource();
+        final DataSource shard1 = dataSource();
+        final ConcurrencyLimitingDataSourceProvider provider = new ConcurrencyLimitingDataSourceProvider(
+                new ArrayDataSourceProvider(new DataSource[] {shard0, shard1}), 5, 10, 100, 0);
+
+        Assert.assertSame(provider.getDataSource(0), provider.getDataSource(2));
+        Assert.assertNotSame(provider.getDataSource(0), provider.getDataSource(1));
+        Assert.assertSame(shard1, ((ConcurrencyLimitedDataSource) provider.getDataSource(1)).getTargetDataSource());
+    }
+
+    @Test
+    public void should_share_limit_of_physical_data_source_between_wrappers() throws SQLException {
+        final DataSource pool = dataSource();
+        final DataSourceProvider topologies = mock(DataSourceProvider.class);
+        when(topologies.getDataSource(0)).thenReturn(new DelegatingDataSource(pool),
+            new DelegatingDataSource(pool));
+        final ConcurrencyLimitingDataSourceProvider provider = new ConcurrencyLimitingDataSourceProvider(topologies, 5,
+                10, 100, 0);
+
+        final ConcurrencyLimitedDataSource before = (ConcurrencyLimitedDataSource) provider.getDataSource(0);
+        final ConcurrencyLimitedDataSource after = (ConcurrencyLimitedDataSource) provider.getDataSource(0);
+        Assert.assertNotSame(before.getTargetDataSource(), after.getTargetDataSource());
+        Assert.assertSame(before.getLimiter(), after.getLimiter());
+    }
+
+    private static DataSource dataSource() throws SQLException {
+        final DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenAnswer(invocation -> mock(Connection.class));
+        return dataSource;
+    }
+}
@@ -0,0 +1,105 @@
+package org.zalando.sprocwrapper.dsprovider;
+
+import static org.mockito.Mockito.mock;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+public class DataSourceHealthTest {
+
+    private static final long LATENCY = 1000000;
+
+    @Before
+    public void enableCircuitBreaker() {
+        DataSourceHealthRegistry.setCircuitBreakerEnabled(true);
+    }
+
+    @After
+    public void disableCircuitBreaker() {
+        DataSourceHealthRegistry.setCircuitBreakerEnabled(false);
+    }
+
+    @Test
+    public void should_open_circuit_when_failure_rate_is_exceeded() {
+        final DataSourceHealth health = new DataSourceHealth("shard1");
+        for (int i = 0; i < DataSourceHealthRegistry.getMinimumCalls(); i++) {
+            Assert.assertTrue(health.allowRequest());
+            health.recordFailure(LATENCY, new SQLTransientConnectionException("connection refused", "08001"));
+        }
+
+        Assert.assertEquals(DataSourceHealth.State.OPEN, health.getState());
+        Assert.assertFalse(health.isHealthy());
+        Assert.assertFalse(health.isAvailable());
+        Assert.assertFalse(health.allowRequest());
+        Assert.assertEquals(1.0, health.getErrorRate(), 0.001);
+    }
+
+    @Test
+    public void should_only_track_open_circuit_when_circuit_breaker_is_disabled() {
+        DataSourceHealthRegistry.setCircuitBreakerEnabled(false);
+
+        final DataSourceHealth health = new DataSourceHealth("shard1");
+        for (int i = 0; i < DataSourceHealthRegistry.getMinimumCalls(); i++) {
+            health.recordFailure(LATENCY, new SQLTransientConnectionException("connection refused", "08001"));
+        }
+
+        Assert.assertEquals(DataSourceHealth.State.OPEN, health.getState());
+        Assert.assertFalse(health.isAvailable());
+        Assert.assertTrue(health.allowRequest());
+    }
+
+    @Test
+    public void should_not_open_circuit_below_minimum_calls() {
+        final DataSourceHealth health = new DataSourceHealth("shard1");
+        for (int i = 0; i < DataSourceHealthRegistry.getMinimumCalls() - 1; i++) {
+            health.recordFailure(LATENCY, new SQLTransientConnectionException("connection refused", "08001"));
+        }
+
+        Assert.assertEquals(DataSourceHealth.State.CLOSED, health.getState());
+        Assert.assertTrue(health.allowRequest());
+    }
+
+    @Test
+    public void should_count_sproc_errors_as_success() {
+        final DataSourceHealth health = new DataSourceHealth("shard1");
+        for (int i = 0; i < 2 * DataSourceHealthRegistry.getMinimumCalls(); i++) {
+            health.recordFailure(LATENCY,
+                new DataIntegrityViolationException("duplicate key", new SQLException("duplicate key", "23505")));
+        }
+
+        Assert.assertEquals(DataSourceHealth.State.CLOSED, health.getState());
+        Assert.assertEquals(0.0, health.getErrorRate(), 0.001);
+        Assert.assertEquals(1.0, health.getLatencyEwmaMillis(), 0.001);
+    }
+
+    @Test
+    public void should_count_timeouts() {
+        final DataSourceHealth health = new DataSourceHealth("shard1");
+        health.recordFailure(LATENCY, new QueryTimeoutException("timeout"));
+        health.recordFailure(LATENCY, new RuntimeException(new SQLException("canceling statement", "57014")));
+        health.recordSuccess(LATENCY);
+
+        Assert.assertEquals(2, health.getTimeouts());
+        Assert.assertEquals(2.0 / 3, health.getErrorRate(), 0.001);
+    }
+
+    @Test
+    public void registry_should_share_health_of_wrapped_data_source() {
+        final DataSource physical = mock(DataSource.class);
+        final DataSource wrapper = new DelegatingDataSource(physical);
+
+        Assert.assertSame(DataSourceHealthRegistry.getHealth(physical), DataSourceHealthRegistry.getHealth(wrapper));
+        Assert.assertTrue(DataSourceHealthRegistry.isAvailable(wrapper));
+    }
+}
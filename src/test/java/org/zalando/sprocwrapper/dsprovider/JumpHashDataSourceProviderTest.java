@@ -0,0 +1,90 @@
+package org.zalando.sprocwrapper.dsprovider;
+
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import org.zalando.sprocwrapper.sharding.VirtualShardJumpHashStrategy;
+import org.zalando.sprocwrapper.sharding.VirtualShardMd5Strategy;
+
+public class JumpHashDataSourceProviderTest {
+
+    private static List<String> keys(final int count) {
+        final List<String> keys = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            keys.add("SKU-" + i);
+        }
+
+        return keys;
+    }
+
+    @Test
+    public void should_return_one_virtual_shard_id_per_data_source() {
+        final List<DataSource> dataSources = ShardPlacementSimulator.dataSources(7);
+        final JumpHashDataSourceProvider provider = new JumpHashDataSourceProvider(dataSources);
+
+        final List<Integer> shardIds = provider.getDistinctShardIds();
+        Assert.assertEquals(7, shardIds.size());
+
+        final List<DataSource> routed = Lists.newArrayList();
+        for (final int shardId : shardIds) {
+            routed.add(provider.getDataSource(shardId));
+        }
+
+        Assert.assertEquals(Sets.newHashSet(dataSources), Sets.newHashSet(routed));
+    }
+
+    @Test
+    public void should_move_only_new_shards_share_of_keys() {
+        final ShardPlacementSimulator simulator = new ShardPlacementSimulator(new VirtualShardJumpHashStrategy(),
+                n -> new JumpHashDataSourceProvider(ShardPlacementSimulator.dataSources(n)));
+
+        final ShardPlacementSimulator.Report report = simulator.simulate(keys(50000), 5, 6);
+
+        // ideal: 1/6 of the keys
+        Assert.assertEquals(1.0 / 6, report.getMovedFraction(), 0.02);
+        Assert.assertTrue(report.toString(), report.getImbalance() < 1.1);
+    }
+
+    @Test
+    public void should_move_fewer_keys_than_modulo_placement() {
+        final ShardPlacementSimulator jumpHash = new ShardPlacementSimulator(new VirtualShardJumpHashStrategy(),
+                n -> new JumpHashDataSourceProvider(ShardPlacementSimulator.dataSources(n)));
+        final ShardPlacementSimulator modulo = new ShardPlacementSimulator(new VirtualShardMd5Strategy(),
+                n -> new ArrayDataSourceProvider(ShardPlacementSimulator.dataSources(n).toArray(new DataSource[n])));
+
+        final ShardPlacementSimulator.Report jumpHashReport = jumpHash.simulate(keys(50000), 5, 6);
+        final ShardPlacementSimulator.Report moduloReport = modulo.simulate(keys(50000), 5, 6);
+
+        Assert.assertTrue(jumpHashReport + " / " + moduloReport,
+            jumpHashReport.getMovedFraction() < moduloReport.getMovedFraction());
+    }
+
+    @Test
+    public void should_keep_placement_when_data_source_is_added() {
+        final JumpHashDataSourceProvider provider = new JumpHashDataSourceProvider(ShardPlacementSimulator
+                    .dataSources(3));
+        final DataSource added = ShardPlacementSimulator.dataSources(1).get(0);
+        final VirtualShardJumpHashStrategy strategy = new VirtualShardJumpHashStrategy();
+
+        final int[] before = new int[1000];
+        for (int i = 0; i < before.length; i++) {
+            before[i] = provider.getDataSourceId(strategy.getShardId(new Object[] {(long) i}));
+        }
+
+        provider.addDataSource(added);
+        Assert.assertEquals(4, provider.getShardCount());
+
+        for (int i = 0; i < before.length; i++) {
+            final int virtualShardId = strategy.getShardId(new Object[] {(long) i});
+            final int after = provider.getDataSourceId(virtualShardId);
+            Assert.assertTrue(after == before[i] || provider.getDataSource(virtualShardId) == added);
+        }
+    }
+}
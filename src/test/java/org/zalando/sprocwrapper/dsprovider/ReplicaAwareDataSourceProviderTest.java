@@ -0,0 +1,115 @@
+package org.zalando.sprocwrapper.dsprovider;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class ReplicaAwareDataSourceProviderTest {
+
+    private DataSource primary;
+    private DataSource replica1;
+    private DataSource replica2;
+    private ReplicaAwareDataSourceProvider provider;
+
+    @Before
+    public void setup() throws SQLException {
+        primary = dataSource();
+        replica1 = dataSource();
+        replica2 = dataSource();
+        provider = new ReplicaAwareDataSourceProvider(new SingleDataSourceProvider(primary),
+                ImmutableMap.<DataSource, List<DataSource>>of(primary, ImmutableList.of(replica1, replica2)));
+    }
+
+    private static DataSource dataSource() throws SQLException {
+        final DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenAnswer(invocation -> mock(Connection.class));
+        return dataSource;
+    }
+
+    @Test
+    public void should_route_writes_to_primary() {
+        Assert.assertSame(primary, provider.getDataSource(0));
+    }
+
+    @Test
+    public void should_prefer_replica_with_least_outstanding_requests() throws SQLException {
+        final DataSource readOnly = provider.getReadOnlyDataSource(0);
+
+        final Connection first = readOnly.getConnection();
+        Assert.assertEquals(1, provider.getReplicas(0).get(1).getOutstandingRequests());
+        Assert.assertEquals(0, provider.getReplicas(0).get(0).getOutstandingRequests());
+
+        readOnly.getConnection();
+        Assert.assertEquals(1, provider.getReplicas(0).get(0).getOutstandingRequests());
+        Assert.assertEquals(1, provider.getReplicas(0).get(1).getOutstandingRequests());
+
+        first.close();
+        first.close();
+
+        final int outstanding = provider.getReplicas(0).get(0).getOutstandingRequests()
+                + provider.getReplicas(0).get(1).getOutstandingRequests();
+        Assert.assertEquals(1, outstanding);
+        Assert.assertEquals(0, provider.getReplicas(0).get(0).getOutstandingRequests());
+    }
+
+    @Test
+    public void should_fall_back_to_primary() throws SQLException {
+        final Connection primaryConnection = mock(Connection.class);
+        when(primary.getConnection()).thenReturn(primaryConnection);
+        when(replica1.getConnection()).thenThrow(new SQLException("down"));
+        when(replica2.getConnection()).thenThrow(new SQLException("down"));
+
+        Assert.assertSame(primaryConnection, provider.getReadOnlyDataSource(0).getConnection());
+        Assert.assertFalse(provider.getReplicas(0).get(0).isAvailable());
+        Assert.assertFalse(provider.getReplicas(0).get(1).isAvailable());
+    }
+
+    @Test
+    public void should_fall_back_to_next_replica_and_primary_in_hedged_attempts() throws SQLException {
+        final Connection primaryConnection = mock(Connection.class);
+        when(primary.getConnection()).thenReturn(primaryConnection);
+        when(replica1.getConnection()).thenThrow(new SQLException("down"));
+
+        final List<DataSource> attempts = provider.getHedgingDataSources(0);
+        Assert.assertEquals(2, attempts.size());
+
+        // the replica failing first is tried by the first attempt, which falls back to the other replica
+        final Connection first = attempts.get(0).getConnection();
+        Assert.assertNotSame(primaryConnection, first);
+        Assert.assertFalse(provider.getReplicas(0).get(1).isAvailable());
+
+        // the second attempt starts at the unavailable replica and falls back to the primary
+        Assert.assertSame(primaryConnection, provider.getHedgingDataSources(0).get(1).getConnection());
+    }
+
+    @Test
+    public void should_not_hedge_shards_with_single_replica() {
+        final ReplicaAwareDataSourceProvider singleReplica = new ReplicaAwareDataSourceProvider(
+                new SingleDataSourceProvider(primary),
+                ImmutableMap.<DataSource, List<DataSource>>of(primary, ImmutableList.of(replica1)));
+
+        Assert.assertTrue(singleReplica.getHedgingDataSources(0).isEmpty());
+    }
+
+    @Test
+    public void should_use_primary_for_reads_without_replicas() {
+        final ReplicaAwareDataSourceProvider withoutReplicas = new ReplicaAwareDataSourceProvider(
+                new SingleDataSourceProvider(primary), ImmutableMap.<DataSource, List<DataSource>>of());
+
+        Assert.assertSame(primary, withoutReplicas.getReadOnlyDataSource(0));
+        Assert.assertTrue(withoutReplicas.getReplicas(0).isEmpty());
+    }
+}
@@ -29,4 +29,10 @@ public interface ShardingSprocService {
     )
     List<String> collectDataFromAllShardsParallelSearchShardsOn(@SProcParam String someParameter);
 
+    @SProcCall(runOnAllShards = true, limit = 3, name = "collect_data_from_all_shards")
+    List<String> collectDataFromAllShardsWithLimit(@SProcParam String someParameter);
+
+    @SProcCall(runOnAllShards = true, parallel = true, limit = 1, name = "collect_data_from_all_shards")
+    List<String> collectDataFromAllShardsParallelWithLimit(@SProcParam String someParameter);
+
 }
@@ -44,4 +44,14 @@ public class ShardingSprocServiceImpl extends AbstractSProcService<ShardingSproc
     public List<String> collectDataFromAllShardsParallelSearchShardsOn(final String someParameter) {
         return sproc.collectDataFromAllShardsParallelSearchShardsOn(someParameter);
     }
+
+    @Override
+    public List<String> collectDataFromAllShardsWithLimit(final String someParameter) {
+        return sproc.collectDataFromAllShardsWithLimit(someParameter);
+    }
+
+    @Override
+    public List<String> collectDataFromAllShardsParallelWithLimit(final String someParameter) {
+        return sproc.collectDataFromAllShardsParallelWithLimit(someParameter);
+    }
 }
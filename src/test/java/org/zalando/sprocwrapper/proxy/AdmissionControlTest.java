@@ -0,0 +1,122 @@
+package org.zalando.sprocwrapper.proxy;
+
+import static org.zalando.sprocwrapper.proxy.ShardMocks.slow;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.zalando.sprocwrapper.SProcCall;
+import org.zalando.sprocwrapper.SProcRejectedException;
+import org.zalando.sprocwrapper.SProcService;
+import org.zalando.sprocwrapper.dsprovider.ArrayDataSourceProvider;
+
+public class AdmissionControlTest {
+
+    @SProcService(maxConcurrentCalls = 1, admissionTimeoutMillis = 50)
+    interface LimitedService {
+
+        @SProcCall(interruptible = true)
+        String find();
+    }
+
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        callers.shutdownNow();
+    }
+
+    @Test
+    public void should_admit_waiting_interactive_calls_before_batch_calls() throws Exception {
+        final AdmissionGate gate = new AdmissionGate(1, 100);
+        Assert.assertTrue(gate.tryEnter(SProcCall.Priority.INTERACTIVE, 0));
+
+        final Future<Boolean> batch = callers.submit(() ->
+                    gate.tryEnter(SProcCall.Priority.BATCH, TimeUnit.SECONDS.toNanos(10)));
+        Thread.sleep(50);
+
+        final Future<Boolean> interactive = callers.submit(() ->
+                    gate.tryEnter(SProcCall.Priority.INTERACTIVE, TimeUnit.SECONDS.toNanos(10)));
+        Thread.sleep(50);
+
+        gate.exit();
+        Assert.assertTrue(interactive.get(10, TimeUnit.SECONDS));
+        Assert.assertFalse(batch.isDone());
+
+        gate.exit();
+        Assert.assertTrue(batch.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void should_reserve_capacity_for_interactive_calls() throws Exception {
+        final AdmissionGate gate = new AdmissionGate(4, 50);
+        Assert.assertTrue(gate.tryEnter(SProcCall.Priority.BATCH, 0));
+        Assert.assertTrue(gate.tryEnter(SProcCall.Priority.BATCH, 0));
+        Assert.assertFalse(gate.tryEnter(SProcCall.Priority.BATCH, TimeUnit.MILLISECONDS.toNanos(10)));
+
+        Assert.assertTrue(gate.tryEnter(SProcCall.Priority.INTERACTIVE, 0));
+        Assert.assertTrue(gate.tryEnter(SProcCall.Priority.INTERACTIVE, 0));
+        Assert.assertFalse(gate.tryEnter(SProcCall.Priority.INTERACTIVE, 0));
+        Assert.assertEquals(4, gate.getInFlight());
+    }
+
+    @Test
+    public void should_enforce_concurrency_quota_of_sproc() {
+        final AdmissionControl admissionControl = new AdmissionControl("find", SProcCall.Priority.INTERACTIVE, 10,
+                null, 1, 0);
+
+        final AdmissionControl.Permit permit = admissionControl.admit();
+        try {
+            admissionControl.admit();
+            Assert.fail("exception expected");
+        } catch (final SProcRejectedException e) {
+            Assert.assertTrue(e.getMessage().contains("concurrency quota"));
+        }
+
+        permit.close();
+        admissionControl.admit().close();
+    }
+
+    @Test
+    public void should_enforce_rate_quota_of_sproc() {
+        final AdmissionControl admissionControl = new AdmissionControl("find", SProcCall.Priority.INTERACTIVE, 10,
+                null, 0, 1);
+
+        admissionControl.admit().close();
+        try {
+            admissionControl.admit();
+            Assert.fail("exception expected");
+        } catch (final SProcRejectedException e) {
+            Assert.assertTrue(e.getMessage().contains("rate quota"));
+        }
+    }
+
+    @Test
+    public void should_reject_calls_over_service_limit_before_taking_a_connection() throws Exception {
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        final LimitedService service = SProcProxyBuilder.build(new ArrayDataSourceProvider(
+                    new DataSource[] {slow(cancelled)}), LimitedService.class);
+
+        final Future<?> running = callers.submit(service::find);
+        Thread.sleep(100);
+
+        try {
+            service.find();
+            Assert.fail("exception expected");
+        } catch (final SProcRejectedException e) {
+            Assert.assertTrue(e.getMessage().contains("service concurrency limit"));
+        }
+
+        running.cancel(true);
+        Assert.assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,142 @@
+package org.zalando.sprocwrapper.proxy;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import static org.zalando.sprocwrapper.proxy.ShardMocks.answering;
+
+import java.io.ByteArrayOutputStream;
+
+import java.lang.reflect.Method;
+
+import java.nio.charset.StandardCharsets;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+import org.zalando.sprocwrapper.SProcCall;
+import org.zalando.sprocwrapper.SProcParam;
+import org.zalando.sprocwrapper.dsprovider.ArrayDataSourceProvider;
+import org.zalando.sprocwrapper.example.ExampleDomainObject;
+
+public class BulkStoredProcedureParameterTest {
+
+    interface BulkService {
+
+        @SProcCall(readOnly = false)
+        String storeNames(@SProcParam(bulk = true) List<String> names);
+    }
+
+    private final ByteArrayOutputStream copied = new ByteArrayOutputStream();
+
+    private DataSource shard;
+    private Connection connection;
+    private Statement statement;
+    private CopyManager copyManager;
+    private CopyIn copyIn;
+
+    @Before
+    public void setUp() throws SQLException {
+        shard = answering("stored");
+        connection = shard.getConnection();
+        when(connection.getAutoCommit()).thenReturn(true);
+
+        statement = mock(Statement.class);
+        when(connection.createStatement()).thenReturn(statement);
+
+        copyIn = mock(CopyIn.class);
+        doAnswer(invocation -> {
+                copied.write(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2));
+                return null;
+            }).when(copyIn).writeToCopy(any(byte[].class), anyInt(), anyInt());
+
+        copyManager = mock(CopyManager.class);
+        when(copyManager.copyIn(anyString())).thenReturn(copyIn);
+
+        final PGConnection pgConnection = mock(PGConnection.class);
+        when(pgConnection.getCopyAPI()).thenReturn(copyManager);
+        when(connection.unwrap(PGConnection.class)).thenReturn(pgConnection);
+    }
+
+    @Test
+    public void should_copy_rows_to_staging_table_in_transaction_of_the_call() throws Exception {
+        final Object result = execute(Arrays.asList("a", null, "c\td"));
+
+        Assert.assertEquals("stored", result);
+        verify(statement).execute(
+            "CREATE TEMP TABLE IF NOT EXISTS sproc_bulk_0_text (n bigint, v text) ON COMMIT DELETE ROWS;"
+                + " TRUNCATE sproc_bulk_0_text");
+        verify(copyManager).copyIn("COPY sproc_bulk_0_text (n, v) FROM STDIN");
+        Assert.assertEquals("0\ta\n1\t\\N\n2\tc\\td\n", new String(copied.toByteArray(), StandardCharsets.UTF_8));
+        verify(copyIn).endCopy();
+
+        verify(connection).prepareStatement(contains(
+                "(SELECT CASE WHEN ? THEN NULL ELSE coalesce(array_agg(v ORDER BY n), '{}') END FROM"
+                    + " sproc_bulk_0_text)"));
+        verify(connection).setAutoCommit(false);
+        verify(connection).commit();
+        verify(connection).setAutoCommit(true);
+    }
+
+    @Test
+    public void should_not_copy_null_list() throws Exception {
+        Assert.assertEquals("stored", execute(null));
+
+        verify(copyManager, never()).copyIn(anyString());
+        verify(connection).commit();
+    }
+
+    @Test
+    public void should_give_long_type_names_distinct_staging_tables() {
+        final String prefix = "ztest_schema1.a_very_long_inner_type_name_used_by_bulk_parameters_";
+        final String first = BulkStoredProcedureParameter.stagingTableName(0, prefix + "one");
+        final String second = BulkStoredProcedureParameter.stagingTableName(0, prefix + "two");
+
+        Assert.assertTrue(first.length() <= 63);
+        Assert.assertTrue(first.startsWith("sproc_bulk_0_ztest_schema1_a_very_long"));
+        Assert.assertNotEquals(first, second);
+        Assert.assertNotEquals(BulkStoredProcedureParameter.stagingTableName(0, "s.t"),
+            BulkStoredProcedureParameter.stagingTableName(0, "s_t"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_bulk_parameters_of_read_only_sprocs() {
+        class Sample {
+            @SProcCall
+            public String a(@SProcParam(bulk = true) final List<ExampleDomainObject> objects) {
+                return null;
+            }
+        }
+
+        new SProcCallHandler().handle(Sample.class, SProcServiceAnnotationHandler.DEFAULT_HANDLER_RESULT);
+    }
+
+    private Object execute(final List<String> names) throws NoSuchMethodException {
+        final Method method = BulkService.class.getMethod("storeNames", List.class);
+        final StoredProcedure sproc = new SProcCallHandler().handle(BulkService.class,
+                    SProcServiceAnnotationHandler.DEFAULT_HANDLER_RESULT).get(method);
+        return sproc.execute(new ArrayDataSourceProvider(new DataSource[] {shard}),
+                new InvocationContext(BulkService.class, method, new Object[] {names}));
+    }
+}
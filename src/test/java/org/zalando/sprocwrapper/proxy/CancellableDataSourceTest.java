@@ -0,0 +1,79 @@
+package org.zalando.sprocwrapper.proxy;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CancellableDataSourceTest {
+
+    private DataSource dataSource;
+    private PreparedStatement statement;
+
+    @Before
+    public void setup() throws SQLException {
+        dataSource = mock(DataSource.class);
+        statement = mock(PreparedStatement.class);
+
+        final Connection connection = mock(Connection.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement("SELECT 1")).thenReturn(statement);
+    }
+
+    @Test
+    public void should_limit_rows_of_created_statements() throws SQLException {
+        final CancellableDataSource ds = new CancellableDataSource(dataSource, 5);
+
+        Assert.assertSame(statement, ds.getConnection().prepareStatement("SELECT 1"));
+        verify(statement).setMaxRows(5);
+    }
+
+    @Test
+    public void should_not_limit_rows_without_limit() throws SQLException {
+        new CancellableDataSource(dataSource, 0).getConnection().prepareStatement("SELECT 1");
+        verify(statement, never()).setMaxRows(0);
+    }
+
+    @Test
+    public void should_cancel_open_statements() throws SQLException {
+        final CancellableDataSource ds = new CancellableDataSource(dataSource, 0);
+        ds.getConnection().prepareStatement("SELECT 1");
+
+        ds.cancel();
+
+        Assert.assertTrue(ds.isCancelled());
+        verify(statement).cancel();
+    }
+
+    @Test
+    public void should_forget_statements_when_they_close() throws SQLException {
+        final CancellableDataSource ds = new CancellableDataSource(dataSource, 0);
+        final Connection connection = ds.getConnection();
+        connection.prepareStatement("SELECT 1");
+        Assert.assertEquals(1, ds.getOpenStatementCount());
+
+        when(statement.isClosed()).thenReturn(true);
+        connection.prepareStatement("SELECT 1");
+        Assert.assertEquals(1, ds.getOpenStatementCount());
+
+        connection.close();
+        Assert.assertEquals(0, ds.getOpenStatementCount());
+    }
+
+    @Test(expected = SQLException.class)
+    public void should_reject_connections_after_cancel() throws SQLException {
+        final CancellableDataSource ds = new CancellableDataSource(dataSource, 0);
+        ds.cancel();
+        ds.getConnection();
+    }
+}
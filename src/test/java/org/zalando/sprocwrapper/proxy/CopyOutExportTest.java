@@ -0,0 +1,204 @@
+package org.zalando.sprocwrapper.proxy;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+import java.lang.reflect.Method;
+
+import java.nio.charset.StandardCharsets;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.sql.DataSource;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.copy.CopyOut;
+
+import org.zalando.sprocwrapper.SProcCall;
+import org.zalando.sprocwrapper.SProcParam;
+import org.zalando.sprocwrapper.dsprovider.ArrayDataSourceProvider;
+import org.zalando.sprocwrapper.example.ExampleDomainObject;
+
+public class CopyOutExportTest {
+
+    interface ExportService {
+
+        @SProcCall(copyOut = true)
+        long exportNames(@SProcParam String prefix, @SProcParam Integer limit, OutputStream sink);
+
+        @SProcCall(copyOut = true)
+        Stream<ExampleDomainObject> exportObjects(@SProcParam String prefix);
+
+        @SProcCall(copyOut = true)
+        Stream<String> exportValues();
+
+        @SProcCall(copyOut = true)
+        long exportTyped(@SProcParam(type = "varchar") String code, @SProcParam(sqlType = Types.BIGINT) Integer id,
+                @SProcParam List<Integer> ids, OutputStream sink);
+    }
+
+    private final DataSource shard = mock(DataSource.class);
+    private final Connection connection = mock(Connection.class);
+    private final CopyManager copyManager = mock(CopyManager.class);
+
+    @Before
+    public void setUp() throws SQLException {
+        when(shard.getConnection()).thenReturn(connection);
+
+        final PGConnection pgConnection = mock(PGConnection.class);
+        when(pgConnection.getCopyAPI()).thenReturn(copyManager);
+        when(connection.unwrap(PGConnection.class)).thenReturn(pgConnection);
+    }
+
+    @Test
+    public void should_copy_raw_data_with_inlined_arguments_to_sink() throws Exception {
+        final OutputStream sink = new ByteArrayOutputStream();
+        when(copyManager.copyOut(anyString(), any(OutputStream.class))).thenReturn(42L);
+
+        Assert.assertEquals(42L, execute("exportNames", "it's", null, sink));
+
+        verify(copyManager).copyOut("COPY (SELECT * FROM export_names ( E'it''s'::text,NULL::int4 )) TO STDOUT", sink);
+        verify(connection).close();
+    }
+
+    @Test
+    public void should_decode_rows_while_stream_is_consumed() throws Exception {
+        final ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+        when(metaData.getColumnCount()).thenReturn(2);
+        when(metaData.getColumnName(1)).thenReturn("a");
+        when(metaData.getColumnName(2)).thenReturn("b");
+
+        final PreparedStatement describe = mock(PreparedStatement.class);
+        when(describe.getMetaData()).thenReturn(metaData);
+        when(connection.prepareStatement("SELECT * FROM export_objects ( E'x'::text )")).thenReturn(describe);
+        copying("COPY (SELECT * FROM export_objects ( E'x'::text )) TO STDOUT", "a1\tb1\n", "a\\t2\t\\N\n");
+
+        @SuppressWarnings("unchecked")
+        final Stream<ExampleDomainObject> rows = (Stream<ExampleDomainObject>) execute("exportObjects", "x");
+        final Iterator<ExampleDomainObject> iterator = rows.iterator();
+        verify(connection, never()).close();
+
+        final ExampleDomainObject first = iterator.next();
+        Assert.assertEquals("a1", first.getA());
+        Assert.assertEquals("b1", first.getB());
+
+        final ExampleDomainObject second = iterator.next();
+        Assert.assertEquals("a\t2", second.getA());
+        Assert.assertNull(second.getB());
+
+        Assert.assertFalse(iterator.hasNext());
+        verify(connection).close();
+    }
+
+    @Test
+    public void should_decode_simple_values_and_release_connection_on_close() throws Exception {
+        copying("COPY (SELECT * FROM export_values (  )) TO STDOUT", "a\n", "b\n");
+
+        try (Stream<?> rows = (Stream<?>) execute("exportValues")) {
+            Assert.assertEquals("a", rows.iterator().next());
+        }
+
+        verify(connection).close();
+    }
+
+    @Test
+    public void should_collect_simple_values() throws Exception {
+        copying("COPY (SELECT * FROM export_values (  )) TO STDOUT", "a\n", "\\N\n", "c\n");
+
+        final List<?> values = ((Stream<?>) execute("exportValues")).collect(Collectors.toList());
+        Assert.assertEquals(3, values.size());
+        Assert.assertNull(values.get(1));
+    }
+
+    @Test
+    public void should_cast_inlined_arguments_to_declared_types() throws Exception {
+        final OutputStream sink = new ByteArrayOutputStream();
+
+        execute("exportTyped", "a", 1, null, sink);
+
+        verify(copyManager).copyOut(
+            "COPY (SELECT * FROM export_typed ( E'a'::varchar,E'1'::int8,NULL::int4[] )) TO STDOUT", sink);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_copy_out_with_timeout() {
+        class Sample {
+            @SProcCall(copyOut = true, timeoutInMilliSeconds = 100)
+            public Stream<String> a() {
+                return null;
+            }
+        }
+
+        new SProcCallHandler().handle(Sample.class, SProcServiceAnnotationHandler.DEFAULT_HANDLER_RESULT);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_copy_out_with_validation() {
+        class Sample {
+            @SProcCall(copyOut = true, validate = SProcCall.Validate.YES)
+            public Stream<String> a() {
+                return null;
+            }
+        }
+
+        new SProcCallHandler().handle(Sample.class, SProcServiceAnnotationHandler.DEFAULT_HANDLER_RESULT);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_copy_out_of_sproc_returning_list() {
+        class Sample {
+            @SProcCall(copyOut = true)
+            public List<String> a() {
+                return null;
+            }
+        }
+
+        new SProcCallHandler().handle(Sample.class, SProcServiceAnnotationHandler.DEFAULT_HANDLER_RESULT);
+    }
+
+    private void copying(final String sql, final String... rows) throws SQLException {
+        final CopyOut copyOut = mock(CopyOut.class);
+        final byte[][] data = new byte[rows.length + 1][];
+        for (int i = 0; i < rows.length; i++) {
+            data[i] = rows[i].getBytes(StandardCharsets.UTF_8);
+        }
+
+        when(copyOut.readFromCopy()).thenReturn(data[0], Arrays.copyOfRange(data, 1, data.length));
+        when(copyManager.copyOut(sql)).thenReturn(copyOut);
+    }
+
+    private Object execute(final String methodName, final Object... args) {
+        for (final Method method : ExportService.class.getMethods()) {
+            if (method.getName().equals(methodName)) {
+                final StoredProcedure sproc = new SProcCallHandler().handle(ExportService.class,
+                            SProcServiceAnnotationHandler.DEFAULT_HANDLER_RESULT).get(method);
+                return sproc.execute(new ArrayDataSourceProvider(new DataSource[] {shard}),
+                        new InvocationContext(ExportService.class, method, args));
+            }
+        }
+
+        throw new IllegalArgumentException(methodName);
+    }
+}
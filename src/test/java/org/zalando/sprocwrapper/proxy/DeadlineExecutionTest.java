@@ -0,0 +1,117 @@
+package org.zalando.sprocwrapper.proxy;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import static org.zalando.sprocwrapper.proxy.ShardMocks.answering;
+import static org.zalando.sprocwrapper.proxy.ShardMocks.execute;
+import static org.zalando.sprocwrapper.proxy.ShardMocks.slow;
+
+import java.sql.SQLException;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.springframework.dao.QueryTimeoutException;
+
+import com.google.common.collect.ImmutableList;
+
+import org.zalando.sprocwrapper.Deadline;
+import org.zalando.sprocwrapper.SProcCall;
+import org.zalando.sprocwrapper.sharding.ShardedDataAccessException;
+
+public class DeadlineExecutionTest {
+
+    interface DeadlineService {
+
+        @SProcCall
+        String find();
+
+        @SProcCall(runOnAllShards = true)
+        List<String> findOnAllShards();
+    }
+
+    @BeforeClass
+    public static void warmUp() throws Exception {
+
+        // load the JDBC and mapping classes before measuring deadlines
+        execute(DeadlineService.class, "find", answering("a"));
+    }
+
+    @Test
+    public void should_cancel_statement_when_deadline_expires() throws Exception {
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        final DataSource shard = slow(cancelled);
+
+        final long start = System.nanoTime();
+        try (Deadline.Scope scope = Deadline.after(300, TimeUnit.MILLISECONDS).attach()) {
+            execute(DeadlineService.class, "find", shard);
+            Assert.fail("exception expected");
+        } catch (final QueryTimeoutException e) {
+            Assert.assertEquals(0, cancelled.getCount());
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        }
+    }
+
+    @Test
+    public void should_spend_one_budget_on_all_shards_of_sequential_call() throws Exception {
+        final CountDownLatch cancelled = new CountDownLatch(2);
+
+        try (Deadline.Scope scope = Deadline.after(300, TimeUnit.MILLISECONDS).attach()) {
+            execute(DeadlineService.class, "findOnAllShards", slow(cancelled), slow(cancelled));
+            Assert.fail("exception expected");
+        } catch (final ShardedDataAccessException | QueryTimeoutException e) {
+
+            // the second shard is not queried after the first one used up the budget
+            Assert.assertEquals(1, cancelled.getCount());
+        }
+    }
+
+    @Test
+    public void should_stop_waiting_for_connection_when_deadline_expires() throws Exception {
+        final DataSource exhaustedPool = mock(DataSource.class);
+        when(exhaustedPool.getConnection()).thenAnswer(invocation -> {
+            try {
+                Thread.sleep(60000);
+                return null;
+            } catch (final InterruptedException e) {
+
+                // like connection pools waiting for a free connection
+                throw new SQLException("Interrupted during connection acquisition", e);
+            }
+        });
+
+        final long start = System.nanoTime();
+        try (Deadline.Scope scope = Deadline.after(300, TimeUnit.MILLISECONDS).attach()) {
+            execute(DeadlineService.class, "find", exhaustedPool);
+            Assert.fail("exception expected");
+        } catch (final QueryTimeoutException e) {
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+
+            // the interrupt stopping the checkout stays visible to the caller
+            Assert.assertTrue(Thread.interrupted());
+        }
+    }
+
+    @Test(expected = QueryTimeoutException.class)
+    public void should_not_start_call_after_deadline() throws Exception {
+        try (Deadline.Scope scope = Deadline.after(0, TimeUnit.MILLISECONDS).attach()) {
+            execute(DeadlineService.class, "find", answering("a"));
+        }
+    }
+
+    @Test
+    public void should_return_result_within_deadline() throws Exception {
+        try (Deadline.Scope scope = Deadline.after(10, TimeUnit.SECONDS).attach()) {
+            Assert.assertEquals(ImmutableList.of("a", "b"),
+                execute(DeadlineService.class, "findOnAllShards", answering("a"), answering("b")));
+        }
+    }
+}
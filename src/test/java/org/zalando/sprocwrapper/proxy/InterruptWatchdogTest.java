@@ -0,0 +1,117 @@
+package org.zalando.sprocwrapper.proxy;
+
+import static org.mockito.Mockito.mock;
+
+import static org.zalando.sprocwrapper.proxy.ShardMocks.answering;
+import static org.zalando.sprocwrapper.proxy.ShardMocks.execute;
+import static org.zalando.sprocwrapper.proxy.ShardMocks.slow;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.zalando.sprocwrapper.SProcCall;
+
+public class InterruptWatchdogTest {
+
+    interface InterruptibleService {
+
+        @SProcCall(interruptible = true)
+        String find();
+
+        @SProcCall(runOnAllShards = true, parallel = true)
+        List<String> findInParallel();
+    }
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+        callers.shutdownNow();
+    }
+
+    @Test
+    public void should_cancel_statements_of_interrupted_thread() throws Exception {
+        final InterruptWatchdog watchdog = new InterruptWatchdog(timer, Runnable::run, 1000);
+        final CancellableDataSource dataSource = new CancellableDataSource(mock(DataSource.class), 0);
+
+        try (InterruptWatchdog.Registration registration = watchdog.watch(dataSource)) {
+            watchdog.check();
+            Assert.assertFalse(dataSource.isCancelled());
+
+            Thread.currentThread().interrupt();
+            watchdog.check();
+            Assert.assertTrue(dataSource.isCancelled());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void should_not_cancel_after_registration_is_closed() {
+        final InterruptWatchdog watchdog = new InterruptWatchdog(timer, Runnable::run, 1000);
+        final CancellableDataSource dataSource = new CancellableDataSource(mock(DataSource.class), 0);
+
+        watchdog.watch(dataSource).close();
+        try {
+            Thread.currentThread().interrupt();
+            watchdog.check();
+            Assert.assertFalse(dataSource.isCancelled());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void should_check_only_while_calls_are_watched() {
+        final InterruptWatchdog watchdog = new InterruptWatchdog(timer, Runnable::run, 1000);
+        Assert.assertFalse(watchdog.isChecking());
+
+        final InterruptWatchdog.Registration registration = watchdog.watch(new CancellableDataSource(
+                    mock(DataSource.class), 0));
+        Assert.assertTrue(watchdog.isChecking());
+
+        watchdog.check();
+        Assert.assertTrue(watchdog.isChecking());
+
+        registration.close();
+        watchdog.check();
+        Assert.assertFalse(watchdog.isChecking());
+    }
+
+    @Test
+    public void should_cancel_statement_when_call_is_cancelled() throws Exception {
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        final DataSource shard = slow(cancelled);
+
+        final Future<?> call = callers.submit(() -> execute(InterruptibleService.class, "find", shard));
+        Thread.sleep(100);
+        call.cancel(true);
+
+        Assert.assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void should_cancel_statements_on_all_shards_when_caller_is_interrupted() throws Exception {
+        final CountDownLatch cancelled = new CountDownLatch(2);
+        final DataSource[] shards = {answering("a"), slow(cancelled), slow(cancelled)};
+
+        final Future<?> call = callers.submit(() -> execute(InterruptibleService.class, "findInParallel", shards));
+        Thread.sleep(100);
+        call.cancel(true);
+
+        Assert.assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,78 @@
+package org.zalando.sprocwrapper.proxy;
+
+import static org.mockito.Mockito.verify;
+
+import static org.zalando.sprocwrapper.proxy.ShardMocks.dataSource;
+import static org.zalando.sprocwrapper.proxy.ShardMocks.execute;
+import static org.zalando.sprocwrapper.proxy.ShardMocks.statement;
+
+import java.sql.PreparedStatement;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.zalando.sprocwrapper.SProcCall;
+import org.zalando.sprocwrapper.SProcParam;
+import org.zalando.sprocwrapper.sharding.ShardKey;
+
+public class LimitExecutionTest {
+
+    interface LimitedService {
+
+        @SProcCall(runOnAllShards = true, limit = 2)
+        List<String> findOnAllShards();
+
+        @SProcCall(searchShards = true, limit = 2)
+        List<String> searchShards();
+    }
+
+    @Test
+    public void should_limit_rows_of_call_on_all_shards_with_a_single_shard() throws Exception {
+        final PreparedStatement statement = statement("a", "b", "c");
+
+        final Object result = execute(LimitedService.class, "findOnAllShards", dataSource(statement));
+
+        Assert.assertEquals(Arrays.asList("a", "b"), result);
+        verify(statement).setMaxRows(2);
+    }
+
+    @Test
+    public void should_limit_rows_of_search_with_a_single_shard() throws Exception {
+        final PreparedStatement statement = statement("a", "b", "c");
+
+        final Object result = execute(LimitedService.class, "searchShards", dataSource(statement));
+
+        Assert.assertEquals(Arrays.asList("a", "b"), result);
+        verify(statement).setMaxRows(2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_limit_of_auto_partitioned_call() {
+        class Sample {
+            @SProcCall(limit = 2)
+            public List<String> a(@ShardKey @SProcParam final List<String> keys) {
+                return null;
+            }
+        }
+
+        new SProcCallHandler().handle(Sample.class, SProcServiceAnnotationHandler.DEFAULT_HANDLER_RESULT);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_limit_of_sharded_write_transaction() {
+        class Sample {
+            @SProcCall(
+                runOnAllShards = true, limit = 2, readOnly = false,
+                shardedWriteTransaction = SProcCall.WriteTransaction.ONE_PHASE
+            )
+            public List<String> a() {
+                return null;
+            }
+        }
+
+        new SProcCallHandler().handle(Sample.class, SProcServiceAnnotationHandler.DEFAULT_HANDLER_RESULT);
+    }
+}
@@ -0,0 +1,45 @@
+package org.zalando.sprocwrapper.proxy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LongIndexTest {
+
+    @Test
+    public void should_find_rows_by_key() {
+        final LongIndex index = new LongIndex(new long[] {7, -3, 7, Long.MAX_VALUE, 0},
+                new boolean[] {true, true, true, true, false});
+
+        Assert.assertArrayEquals(new int[] {0, 2}, index.get(7));
+        Assert.assertArrayEquals(new int[] {1}, index.get(-3));
+        Assert.assertEquals(3, index.first(Long.MAX_VALUE));
+        Assert.assertEquals(3, index.size());
+    }
+
+    @Test
+    public void should_not_find_absent_keys() {
+        final LongIndex index = new LongIndex(new long[] {1, 2}, new boolean[] {true, false});
+
+        Assert.assertEquals(0, index.get(2).length);
+        Assert.assertEquals(-1, index.first(0));
+        Assert.assertEquals(-1, new LongIndex(new long[0], new boolean[0]).first(1));
+    }
+
+    @Test
+    public void should_index_many_colliding_keys() {
+        final int rows = 10000;
+        final long[] keys = new long[rows];
+        final boolean[] present = new boolean[rows];
+        for (int row = 0; row < rows; row++) {
+            keys[row] = (long) row << 32;
+            present[row] = true;
+        }
+
+        final LongIndex index = new LongIndex(keys, present);
+        for (int row = 0; row < rows; row++) {
+            Assert.assertEquals(row, index.first((long) row << 32));
+        }
+
+        Assert.assertEquals(-1, index.first(1));
+    }
+}
@@ -0,0 +1,106 @@
+package org.zalando.sprocwrapper.proxy;
+
+import static org.zalando.sprocwrapper.proxy.ShardMocks.answering;
+import static org.zalando.sprocwrapper.proxy.ShardMocks.execute;
+import static org.zalando.sprocwrapper.proxy.ShardMocks.failing;
+import static org.zalando.sprocwrapper.proxy.ShardMocks.slow;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.zalando.sprocwrapper.SProcCall;
+import org.zalando.sprocwrapper.sharding.ShardExecutionReport;
+import org.zalando.sprocwrapper.sharding.ShardedDataAccessException;
+
+public class PartialResultsTest {
+
+    interface PartialResultService {
+
+        @SProcCall(runOnAllShards = true)
+        List<String> find();
+
+        @SProcCall(runOnAllShards = true, parallel = true, partialResults = true, shardDeadlineMillis = 500)
+        List<String> findInParallel();
+
+        @SProcCall(runOnAllShards = true, partialResults = true, shardDeadlineMillis = 500)
+        List<String> findSequentially();
+
+        @SProcCall
+        String findOnSingleShard();
+    }
+
+    private final CountDownLatch slowShardCancelled = new CountDownLatch(1);
+
+    @BeforeClass
+    public static void warmUp() throws Exception {
+
+        // load the JDBC and exception translation classes before measuring deadlines
+        try {
+            execute(PartialResultService.class, "find", answering("a"), failing());
+        } catch (final ShardedDataAccessException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void should_return_results_of_shards_answering_in_time_in_parallel() throws Exception {
+        final List<?> result = (List<?>) execute(PartialResultService.class, "findInParallel", answering("a"), failing(),
+                slow(slowShardCancelled), answering("b"));
+
+        Assert.assertEquals(ImmutableSet.of("a", "b"), ImmutableSet.copyOf(result));
+
+        final ShardExecutionReport report = ShardExecutionReport.last();
+        Assert.assertFalse(report.isComplete());
+        Assert.assertEquals(ImmutableList.of(1), ImmutableList.copyOf(report.getFailures().keySet()));
+        Assert.assertEquals(ImmutableList.of(2), report.getTimedOutShardIds());
+        Assert.assertTrue(slowShardCancelled.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void should_give_every_shard_its_own_deadline_sequentially() throws Exception {
+        final List<?> result = (List<?>) execute(PartialResultService.class, "findSequentially",
+                slow(slowShardCancelled), answering("b"));
+
+        Assert.assertEquals(ImmutableList.of("b"), result);
+        Assert.assertEquals(ImmutableList.of(0), ShardExecutionReport.last().getTimedOutShardIds());
+    }
+
+    @Test
+    public void should_not_report_earlier_call_after_single_shard_call() throws Exception {
+        execute(PartialResultService.class, "findSequentially", slow(slowShardCancelled), answering("b"));
+        Assert.assertFalse(ShardExecutionReport.last().isComplete());
+
+        execute(PartialResultService.class, "findOnSingleShard", answering("a"));
+        Assert.assertTrue(ShardExecutionReport.last().isComplete());
+    }
+
+    @Test
+    public void should_fail_if_no_shard_answered() throws Exception {
+        try {
+            execute(PartialResultService.class, "findInParallel", failing(), failing());
+            Assert.fail("exception expected");
+        } catch (final ShardedDataAccessException e) {
+            Assert.assertEquals(2, e.getCauses().size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_require_shard_deadline() {
+        class Sample {
+            @SProcCall(runOnAllShards = true, partialResults = true)
+            public List<String> a() {
+                return null;
+            }
+        }
+
+        new SProcCallHandler().handle(Sample.class, SProcServiceAnnotationHandler.DEFAULT_HANDLER_RESULT);
+    }
+}
@@ -0,0 +1,95 @@
+package org.zalando.sprocwrapper.proxy;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class ReferenceDataSnapshotTest {
+
+    static class Country {
+
+        private final long id;
+        private final String region;
+
+        Country(final long id, final String region) {
+            this.id = id;
+            this.region = region;
+        }
+    }
+
+    private static final Country GERMANY = new Country(1, "EU");
+    private static final Country FRANCE = new Country(2, "EU");
+    private static final Country BRAZIL = new Country(3, "SA");
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void should_serve_lookups_from_one_load() {
+        final ReferenceDataSnapshot snapshot = new ReferenceDataSnapshot("countries", 60000, Country.class,
+                ImmutableList.of("id", "region"));
+        final Supplier<Object> loader = () -> {
+            loads.incrementAndGet();
+            return Lists.newArrayList(GERMANY, FRANCE, BRAZIL);
+        };
+
+        Assert.assertSame(FRANCE, snapshot.findFirst("id", 2L, loader));
+        Assert.assertSame(BRAZIL, snapshot.findFirst("id", 3, loader));
+        Assert.assertNull(snapshot.findFirst("id", 4L, loader));
+        Assert.assertEquals(Lists.newArrayList(GERMANY, FRANCE), snapshot.find("region", "EU", loader));
+        Assert.assertEquals(3, snapshot.getRows(loader).size());
+        Assert.assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void should_serve_stale_snapshot_while_refreshing() throws Exception {
+        final ReferenceDataSnapshot snapshot = new ReferenceDataSnapshot("countries", 1, Country.class,
+                ImmutableList.of("id"));
+        final CountDownLatch refreshStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Supplier<Object> loader = () -> {
+            if (loads.incrementAndGet() == 1) {
+                return Lists.newArrayList(GERMANY);
+            }
+
+            refreshStarted.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return Lists.newArrayList(FRANCE);
+        };
+
+        Assert.assertSame(GERMANY, snapshot.findFirst("id", 1L, loader));
+        Thread.sleep(5);
+
+        Assert.assertSame(GERMANY, snapshot.findFirst("id", 1L, loader));
+        Assert.assertTrue(refreshStarted.await(10, TimeUnit.SECONDS));
+        Assert.assertSame(GERMANY, snapshot.findFirst("id", 1L, loader));
+
+        release.countDown();
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        List<Object> rows = snapshot.getRows(loader);
+        while (rows.contains(GERMANY) && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+            rows = snapshot.getRows(loader);
+        }
+
+        Assert.assertSame(FRANCE, rows.get(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_unknown_key_field() {
+        new ReferenceDataSnapshot("countries", 60000, Country.class, ImmutableList.of("name"));
+    }
+}
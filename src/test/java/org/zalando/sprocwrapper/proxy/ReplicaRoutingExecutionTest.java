@@ -0,0 +1,79 @@
+package org.zalando.sprocwrapper.proxy;
+
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import static org.zalando.sprocwrapper.proxy.ShardMocks.answering;
+
+import java.lang.reflect.Method;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.zalando.sprocwrapper.SProcCall;
+import org.zalando.sprocwrapper.dsprovider.ArrayDataSourceProvider;
+import org.zalando.sprocwrapper.dsprovider.ReplicaAwareDataSourceProvider;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class ReplicaRoutingExecutionTest {
+
+    interface RoutedService {
+
+        @SProcCall
+        String createOrFind();
+
+        @SProcCall(readFromReplicas = true)
+        String find();
+    }
+
+    private final Map<Method, StoredProcedure> sprocs = new SProcCallHandler().handle(RoutedService.class,
+            SProcServiceAnnotationHandler.DEFAULT_HANDLER_RESULT);
+
+    @Test
+    public void should_run_sprocs_not_opting_in_on_primary() throws Exception {
+        final DataSource primary = answering("primary");
+        final DataSource replica = answering("replica");
+
+        Assert.assertEquals("primary", execute("createOrFind", provider(primary, replica)));
+        verify(replica, never()).getConnection();
+    }
+
+    @Test
+    public void should_route_sprocs_reading_from_replicas_to_replica() throws Exception {
+        final DataSource primary = answering("primary");
+        final DataSource replica = answering("replica");
+
+        Assert.assertEquals("replica", execute("find", provider(primary, replica)));
+        verify(primary, never()).getConnection();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_write_sproc_reading_from_replicas() {
+        class Sample {
+            @SProcCall(readFromReplicas = true, readOnly = false)
+            public String a() {
+                return null;
+            }
+        }
+
+        new SProcCallHandler().handle(Sample.class, SProcServiceAnnotationHandler.DEFAULT_HANDLER_RESULT);
+    }
+
+    private static ReplicaAwareDataSourceProvider provider(final DataSource primary, final DataSource replica) {
+        return new ReplicaAwareDataSourceProvider(new ArrayDataSourceProvider(new DataSource[] {primary}),
+                ImmutableMap.<DataSource, List<DataSource>>of(primary, ImmutableList.of(replica)));
+    }
+
+    private Object execute(final String methodName, final ReplicaAwareDataSourceProvider provider)
+        throws NoSuchMethodException {
+        final Method method = RoutedService.class.getMethod(methodName);
+        return sprocs.get(method).execute(provider, new InvocationContext(RoutedService.class, method, new Object[0]));
+    }
+}
@@ -0,0 +1,83 @@
+package org.zalando.sprocwrapper.proxy;
+
+import static org.mockito.Mockito.mock;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import com.google.common.collect.ImmutableList;
+
+public class RequestHedgerTest {
+
+    private final DataSource slowReplica = mock(DataSource.class);
+    private final DataSource fastReplica = mock(DataSource.class);
+    private final List<DataSource> replicas = ImmutableList.of(slowReplica, fastReplica);
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private static DataSource target(final DataSource ds) {
+        return ds instanceof DelegatingDataSource ? ((DelegatingDataSource) ds).getTargetDataSource() : ds;
+    }
+
+    @Test
+    public void should_run_on_calling_thread_without_latency_samples() {
+        final RequestHedger hedger = new RequestHedger(95, 100);
+        final Thread caller = Thread.currentThread();
+
+        Assert.assertEquals(-1, hedger.getDelayNanos());
+        Assert.assertSame(slowReplica, hedger.execute(replicas, null, ds -> {
+                    Assert.assertSame(caller, Thread.currentThread());
+                    return ds;
+                }, pool));
+    }
+
+    @Test(timeout = 5000)
+    public void should_hedge_slow_call_to_second_replica() {
+        final RequestHedger hedger = new RequestHedger(90, 50);
+        for (int i = 0; i < 64; i++) {
+            hedger.execute(replicas, null, RequestHedgerTest::target, pool);
+        }
+
+        Assert.assertTrue(hedger.getDelayNanos() >= 0);
+
+        final Function<DataSource, Object> slowFirst = ds -> {
+            if (target(ds) == slowReplica) {
+                try {
+                    Thread.sleep(60000);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            return target(ds);
+        };
+
+        Assert.assertSame(fastReplica, hedger.execute(replicas, null, slowFirst, pool));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void should_propagate_failure_when_not_hedged() {
+        new RequestHedger(95, 5).execute(replicas, null, ds -> {
+                throw new IllegalStateException("failed");
+            }, pool);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_invalid_percentile() {
+        new RequestHedger(100, 5);
+    }
+}
@@ -3,13 +3,22 @@ package org.zalando.sprocwrapper.proxy;
 import org.zalando.sprocwrapper.SProcCall;
 import org.zalando.sprocwrapper.SProcParam;
 import org.zalando.sprocwrapper.SProcService;
+import org.zalando.sprocwrapper.SnapshotLookup;
+import org.zalando.sprocwrapper.dsprovider.ArrayDataSourceProvider;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
 
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import javax.sql.DataSource;
 
 
 /**
@@ -107,6 +116,166 @@ public class SProcCallHandlerTest {
         Assert.assertEquals("?", storedProcedure.getSqlParameterList());
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void handle_should_throw_exception_when_limit_is_used_without_list_result() {
+        class Sample {
+            @SProcCall(runOnAllShards = true, limit = 10)
+            public String a() {
+                return null;
+            }
+
+        }
+
+        handler.handle(Sample.class, SProcServiceAnnotationHandler.DEFAULT_HANDLER_RESULT);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void handle_should_throw_exception_when_read_only_sproc_is_written_behind() {
+        class Sample {
+            @SProcCall(writeBehind = @SProcCall.WriteBehind(queueCapacity = 10))
+            public void a() { }
+        }
+
+        handler.handle(Sample.class, SProcServiceAnnotationHandler.DEFAULT_HANDLER_RESULT);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void handle_should_throw_exception_when_sproc_with_result_is_written_behind() {
+        class Sample {
+            @SProcCall(readOnly = false, writeBehind = @SProcCall.WriteBehind(queueCapacity = 10))
+            public String a() {
+                return null;
+            }
+        }
+
+        handler.handle(Sample.class, SProcServiceAnnotationHandler.DEFAULT_HANDLER_RESULT);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void handle_should_throw_exception_when_skipping_unhealthy_shards_of_single_shard_sproc() {
+        class Sample {
+            @SProcCall(skipUnhealthyShards = true)
+            public String a() {
+                return null;
+            }
+
+        }
+
+        handler.handle(Sample.class, SProcServiceAnnotationHandler.DEFAULT_HANDLER_RESULT);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void handle_should_throw_exception_when_search_cache_is_used_without_search_shards() {
+        class Sample {
+            @SProcCall(runOnAllShards = true, searchCacheSize = 100)
+            public String a() {
+                return null;
+            }
+
+        }
+
+        handler.handle(Sample.class, SProcServiceAnnotationHandler.DEFAULT_HANDLER_RESULT);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void handle_should_throw_exception_when_stream_buffer_is_used_without_stream_result() {
+        class Sample {
+            @SProcCall(runOnAllShards = true, parallel = true, streamBuffer = 4)
+            public List<String> a() {
+                return null;
+            }
+
+        }
+
+        handler.handle(Sample.class, SProcServiceAnnotationHandler.DEFAULT_HANDLER_RESULT);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void handle_should_throw_exception_when_cache_is_used_for_writing_sproc() {
+        class Sample {
+            @SProcCall(readOnly = false, cache = @SProcCall.Cache(ttlMillis = 1000))
+            public String a() {
+                return null;
+            }
+
+        }
+
+        handler.handle(Sample.class, SProcServiceAnnotationHandler.DEFAULT_HANDLER_RESULT);
+    }
+
+    @Test
+    public void cached_sproc_should_be_executed_once_per_arguments() throws Exception {
+        class Sample {
+            @SProcCall(cache = @SProcCall.Cache(ttlMillis = 60000))
+            public String a() {
+                return null;
+            }
+
+        }
+
+        final Method method = Sample.class.getMethod("a");
+        final StoredProcedure sproc = handler.handle(Sample.class, SProcServiceAnnotationHandler.DEFAULT_HANDLER_RESULT).get(method);
+        final DataSource shard = ShardMocks.answering("cached");
+        final ArrayDataSourceProvider provider = new ArrayDataSourceProvider(new DataSource[] {shard});
+
+        Assert.assertEquals("cached", sproc.execute(provider, new InvocationContext(Sample.class, method, new Object[0])));
+        Mockito.clearInvocations(shard);
+
+        Assert.assertEquals("cached", sproc.execute(provider, new InvocationContext(Sample.class, method, new Object[0])));
+        Mockito.verify(shard, Mockito.never()).getConnection();
+    }
+
+    static class Row {
+        String name;
+    }
+
+    static class RowService {
+        public List<Row> a(Integer key) {
+            return null;
+        }
+    }
+
+    @Test
+    public void describeTypes_should_contain_result_and_argument_types() throws Exception {
+        final Set<Class<?>> types = SProcCallHandler.describeTypes(RowService.class.getMethod("a", Integer.class));
+        Assert.assertTrue(types.containsAll(Arrays.asList(List.class, Row.class, String.class, Integer.class)));
+    }
+
+    @Test
+    public void describeCluster_should_describe_physical_data_sources() {
+        Assert.assertEquals(SProcCallHandler.describeCluster(new ArrayDataSourceProvider(new DataSource[] {new TransactionAwareDataSourceProxy(pool("a"))})),
+                SProcCallHandler.describeCluster(new ArrayDataSourceProvider(new DataSource[] {new TransactionAwareDataSourceProxy(pool("a"))})));
+        Assert.assertNotEquals(SProcCallHandler.describeCluster(new ArrayDataSourceProvider(new DataSource[] {pool("a")})),
+                SProcCallHandler.describeCluster(new ArrayDataSourceProvider(new DataSource[] {pool("b")})));
+    }
+
+    private static DataSource pool(String name) {
+        return new DelegatingDataSource() {
+            @Override
+            public String toString() {
+                return name;
+            }
+        };
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void handleSnapshots_should_throw_exception_when_lookup_refers_to_unknown_snapshot() {
+        class Sample {
+            @SProcCall(snapshotRefreshMillis = 1000)
+            public List<String> a() {
+                return null;
+            }
+
+            @SnapshotLookup(snapshot = "b", key = "value")
+            public String c(long id) {
+                return null;
+            }
+
+        }
+
+        handler.handleSnapshots(Sample.class);
+    }
+
     @Test
     public void NONE_ONE_PHASE_TWO_PHASE_should_return_correspond_write_transaction() {
         Assert.assertEquals(SProcService.WriteTransaction.NONE, SProcCallHandler.mapSprocWriteTransactionToServiceWriteTransaction(SProcCall.WriteTransaction.NONE,DEFAULT_HANDLER_RESULT));
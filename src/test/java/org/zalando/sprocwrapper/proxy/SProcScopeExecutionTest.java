@@ -0,0 +1,101 @@
+package org.zalando.sprocwrapper.proxy;
+
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import static org.zalando.sprocwrapper.proxy.ShardMocks.answering;
+
+import java.lang.reflect.Method;
+
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.zalando.sprocwrapper.SProcCall;
+import org.zalando.sprocwrapper.SProcScope;
+import org.zalando.sprocwrapper.dsprovider.ArrayDataSourceProvider;
+
+public class SProcScopeExecutionTest {
+
+    interface ScopedService {
+
+        @SProcCall(scoped = true)
+        String find();
+
+        @SProcCall
+        String createOrFind();
+
+        @SProcCall(readOnly = false)
+        String update();
+    }
+
+    private final Map<Method, StoredProcedure> sprocs = new SProcCallHandler().handle(ScopedService.class,
+            SProcServiceAnnotationHandler.DEFAULT_HANDLER_RESULT);
+
+    @Test
+    public void should_memoize_read_only_calls_until_data_is_written() throws Exception {
+        final DataSource shard = answering("a");
+        final ArrayDataSourceProvider provider = new ArrayDataSourceProvider(new DataSource[] {shard});
+
+        try (SProcScope scope = SProcScope.open()) {
+            Assert.assertEquals("a", execute("find", provider));
+            clearInvocations(shard);
+
+            Assert.assertEquals("a", execute("find", provider));
+            verify(shard, never()).getConnection();
+
+            execute("update", provider);
+            clearInvocations(shard);
+            execute("find", provider);
+            verify(shard, atLeastOnce()).getConnection();
+        }
+    }
+
+    @Test
+    public void should_run_sprocs_not_opting_in_on_every_call() throws Exception {
+        final DataSource shard = answering("a");
+        final ArrayDataSourceProvider provider = new ArrayDataSourceProvider(new DataSource[] {shard});
+
+        try (SProcScope scope = SProcScope.open()) {
+            execute("createOrFind", provider);
+            clearInvocations(shard);
+
+            execute("createOrFind", provider);
+            verify(shard, atLeastOnce()).getConnection();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_scoped_write_sproc() {
+        class Sample {
+            @SProcCall(scoped = true, readOnly = false)
+            public String a() {
+                return null;
+            }
+        }
+
+        new SProcCallHandler().handle(Sample.class, SProcServiceAnnotationHandler.DEFAULT_HANDLER_RESULT);
+    }
+
+    @Test
+    public void should_not_memoize_outside_of_scope() throws Exception {
+        final DataSource shard = answering("a");
+        final ArrayDataSourceProvider provider = new ArrayDataSourceProvider(new DataSource[] {shard});
+
+        execute("find", provider);
+        clearInvocations(shard);
+        execute("find", provider);
+        verify(shard, atLeastOnce()).getConnection();
+    }
+
+    private Object execute(final String methodName, final ArrayDataSourceProvider provider)
+        throws NoSuchMethodException {
+        final Method method = ScopedService.class.getMethod(methodName);
+        return sprocs.get(method).execute(provider, new InvocationContext(ScopedService.class, method, new Object[0]));
+    }
+}
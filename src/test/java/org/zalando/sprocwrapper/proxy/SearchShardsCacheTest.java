@@ -0,0 +1,75 @@
+package org.zalando.sprocwrapper.proxy;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class SearchShardsCacheTest {
+
+    private static final List<Integer> SHARDS = ImmutableList.of(0, 1, 2, 3);
+
+    @Test
+    public void should_search_known_key_on_its_shard_first() {
+        final SearchShardsCache cache = new SearchShardsCache(100, 0);
+        final List<Object> key = SearchShardsCache.key(new Object[] {"order-1"});
+
+        Assert.assertNull(cache.getShardId(key));
+
+        cache.recordHit(SearchShardsCache.key(new Object[] {"order-1"}), 2);
+
+        Assert.assertEquals(Integer.valueOf(2), cache.getShardId(key));
+        Assert.assertEquals(2, (int) cache.order(SHARDS, key).get(0));
+    }
+
+    @Test
+    public void should_order_unknown_keys_by_hits() {
+        final SearchShardsCache cache = new SearchShardsCache(100, 0);
+        for (int i = 0; i < 10; i++) {
+            cache.recordHit(SearchShardsCache.key(new Object[] {"order-" + i}), i < 7 ? 3 : 1);
+        }
+
+        final List<Integer> ordered = cache.order(SHARDS, SearchShardsCache.key(new Object[] {"unknown"}));
+        Assert.assertEquals(ImmutableList.of(3, 1), ordered.subList(0, 2));
+        Assert.assertEquals(4, ordered.size());
+    }
+
+    @Test
+    public void should_use_bloom_filter_after_eviction() {
+        final SearchShardsCache cache = new SearchShardsCache(1, 0);
+        final List<Object> key = SearchShardsCache.key(new Object[] {"order-1", 42L});
+
+        cache.recordHit(key, 1);
+
+        // evicts order-1 from the key map, hits on shard 3 exceed the ones of shard 1
+        cache.recordHit(SearchShardsCache.key(new Object[] {"order-2", 42L}), 3);
+        cache.recordHit(SearchShardsCache.key(new Object[] {"order-3", 42L}), 3);
+
+        Assert.assertNull(cache.getShardId(key));
+        Assert.assertEquals(1, (int) cache.order(SHARDS, key).get(0));
+    }
+
+    @Test
+    public void should_remember_misses() {
+        final SearchShardsCache cache = new SearchShardsCache(100, 60000);
+        final List<Object> key = SearchShardsCache.key(new Object[] {"order-1"});
+
+        Assert.assertFalse(cache.isKnownMiss(key));
+        cache.recordMiss(key);
+        Assert.assertTrue(cache.isKnownMiss(key));
+
+        cache.recordHit(key, 0);
+        Assert.assertFalse(cache.isKnownMiss(key));
+    }
+
+    @Test
+    public void should_not_remember_misses_without_ttl() {
+        final SearchShardsCache cache = new SearchShardsCache(100, 0);
+        final List<Object> key = SearchShardsCache.key(new Object[] {"order-1"});
+
+        cache.recordMiss(key);
+        Assert.assertFalse(cache.isKnownMiss(key));
+    }
+}
@@ -0,0 +1,118 @@
+package org.zalando.sprocwrapper.proxy;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Method;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sql.DataSource;
+
+import org.zalando.sprocwrapper.dsprovider.ArrayDataSourceProvider;
+
+/**
+ * Mocked shard data sources for sprocs returning a single text column.
+ */
+final class ShardMocks {
+
+    private ShardMocks() { }
+
+    /**
+     * executes the sproc of the given service method on the shards.
+     */
+    static Object execute(final Class<?> service, final String methodName, final DataSource... shards)
+        throws Exception {
+        final Method method = service.getMethod(methodName);
+        final StoredProcedure sproc = new SProcCallHandler().handle(service,
+                    SProcServiceAnnotationHandler.DEFAULT_HANDLER_RESULT).get(method);
+        return sproc.execute(new ArrayDataSourceProvider(shards), new InvocationContext(service, method, new Object[0]));
+    }
+
+    /**
+     * @return  a shard returning the given row to every statement
+     */
+    static DataSource answering(final String row) throws SQLException {
+        return dataSource(statement(row));
+    }
+
+    /**
+     * @return  a statement returning the given rows on every execution, ignoring the maximum number of rows
+     */
+    static PreparedStatement statement(final String... rows) throws SQLException {
+        final PreparedStatement statement = mock(PreparedStatement.class);
+        when(statement.executeQuery()).then(invocation -> resultSet(rows));
+        return statement;
+    }
+
+    /**
+     * @return  a shard failing every statement
+     */
+    static DataSource failing() throws SQLException {
+        final PreparedStatement statement = mock(PreparedStatement.class);
+        when(statement.executeQuery()).thenThrow(new SQLException("shard down"));
+        return dataSource(statement);
+    }
+
+    /**
+     * @return  a shard whose statements run until they are cancelled, which counts down the given latch
+     */
+    static DataSource slow(final CountDownLatch cancelled) throws SQLException {
+        final CountDownLatch statementCancelled = new CountDownLatch(1);
+        final PreparedStatement statement = mock(PreparedStatement.class);
+        when(statement.executeQuery()).then(invocation -> {
+
+            // like JDBC drivers, neither react to nor clear interrupts while waiting for the database
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (statementCancelled.getCount() > 0 && System.nanoTime() < deadline) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+
+            throw new SQLException("canceling statement due to user request");
+        });
+        doAnswer(invocation -> {
+                statementCancelled.countDown();
+                cancelled.countDown();
+                return null;
+            }).when(statement).cancel();
+        return dataSource(statement);
+    }
+
+    private static ResultSet resultSet(final String... rows) throws SQLException {
+        final ResultSet resultSet = mock(ResultSet.class);
+        final ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+        when(metaData.getColumnCount()).thenReturn(1);
+        when(resultSet.getMetaData()).thenReturn(metaData);
+
+        // true for the remaining rows, then false
+        final Boolean[] next = new Boolean[rows.length];
+        Arrays.fill(next, Boolean.TRUE);
+        next[rows.length - 1] = Boolean.FALSE;
+        when(resultSet.next()).thenReturn(true, next);
+        when(resultSet.getString(1)).thenReturn(rows[0], Arrays.copyOfRange(rows, 1, rows.length));
+        return resultSet;
+    }
+
+    /**
+     * @return  a shard preparing the given statement for every call
+     */
+    static DataSource dataSource(final PreparedStatement statement) throws SQLException {
+        final Connection connection = mock(Connection.class);
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+
+        final DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        return dataSource;
+    }
+}
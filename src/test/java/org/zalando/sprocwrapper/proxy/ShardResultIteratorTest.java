@@ -0,0 +1,133 @@
+package org.zalando.sprocwrapper.proxy;
+
+import static org.mockito.Mockito.mock;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import org.zalando.sprocwrapper.sharding.ShardedDataAccessException;
+
+public class ShardResultIteratorTest {
+
+    private final ExecutorService executorService = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    private ShardResultIterator<String> iterator(final Map<Integer, Callable<Object>> calls,
+            final Map<Integer, CancellableDataSource> dataSources, final int concurrency) {
+        return new ShardResultIterator<>(calls, dataSources, concurrency, executorService, "SELECT 1");
+    }
+
+    @Test
+    public void should_return_rows_in_order_of_shard_completion() throws Exception {
+        final CountDownLatch slowShard = new CountDownLatch(1);
+        final Map<Integer, Callable<Object>> calls = Maps.newLinkedHashMap();
+        calls.put(0, () -> {
+            slowShard.await(10, TimeUnit.SECONDS);
+            return ImmutableList.of("a1", "a2");
+        });
+        calls.put(1, () -> ImmutableList.of("b1"));
+
+        final ShardResultIterator<String> rows = iterator(calls, ImmutableMap.of(), 2);
+
+        Assert.assertEquals("b1", rows.next());
+        slowShard.countDown();
+        Assert.assertEquals("a1", rows.next());
+        Assert.assertEquals("a2", rows.next());
+        Assert.assertFalse(rows.hasNext());
+    }
+
+    @Test
+    public void should_limit_the_number_of_buffered_shard_results() {
+        final AtomicInteger started = new AtomicInteger();
+        final Map<Integer, Callable<Object>> calls = Maps.newLinkedHashMap();
+        for (int i = 0; i < 8; i++) {
+            final String row = "row" + i;
+            calls.put(i, () -> {
+                started.incrementAndGet();
+                return ImmutableList.of(row);
+            });
+        }
+
+        final ShardResultIterator<String> rows = iterator(calls, ImmutableMap.of(), 3);
+
+        rows.next();
+        Assert.assertTrue(started.get() <= 3);
+
+        int count = 1;
+        while (rows.hasNext()) {
+            rows.next();
+            count++;
+            Assert.assertTrue(started.get() <= count + 2);
+        }
+
+        Assert.assertEquals(8, count);
+    }
+
+    @Test
+    public void should_fail_with_the_exception_of_the_failing_shard() {
+        final Map<Integer, Callable<Object>> calls = Maps.newLinkedHashMap();
+        calls.put(0, () -> ImmutableList.of("a"));
+        calls.put(1, () -> {
+            throw new IllegalStateException("shard down");
+        });
+
+        try (Stream<String> stream = iterator(calls, ImmutableMap.of(), 1).stream()) {
+            stream.collect(Collectors.toList());
+            Assert.fail("exception expected");
+        } catch (final ShardedDataAccessException e) {
+            Assert.assertTrue(e.getCauses().get(1) instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void should_cancel_running_shards_on_close() throws Exception {
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch neverReleased = new CountDownLatch(1);
+        final AtomicInteger started = new AtomicInteger();
+        final CancellableDataSource slowDs = new CancellableDataSource(mock(DataSource.class), 0);
+
+        final Map<Integer, Callable<Object>> calls = Maps.newLinkedHashMap();
+        calls.put(0, () -> ImmutableList.of("a"));
+        calls.put(1, () -> {
+            running.countDown();
+            neverReleased.await();
+            return ImmutableList.of("b");
+        });
+        calls.put(2, () -> {
+            started.incrementAndGet();
+            return ImmutableList.of("c");
+        });
+
+        final List<String> firstRow;
+        try (Stream<String> stream = iterator(calls, ImmutableMap.of(1, slowDs), 2).stream()) {
+            firstRow = stream.limit(1).collect(Collectors.toList());
+            Assert.assertTrue(running.await(10, TimeUnit.SECONDS));
+        }
+
+        Assert.assertEquals(ImmutableList.of("a"), firstRow);
+        Assert.assertTrue(slowDs.isCancelled());
+        Assert.assertEquals(0, started.get());
+    }
+}
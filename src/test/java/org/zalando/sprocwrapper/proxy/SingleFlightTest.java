@@ -0,0 +1,107 @@
+package org.zalando.sprocwrapper.proxy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class SingleFlightTest {
+
+    private static final int CALLERS = 8;
+
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+
+    private final SingleFlight singleFlight = new SingleFlight("get_country");
+
+    private final AtomicInteger executions = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        callers.shutdownNow();
+    }
+
+    @Test
+    public void should_share_execution_between_identical_concurrent_calls() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Future<Object>> calls = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            calls.add(callers.submit(() ->
+                        singleFlight.execute(new Object[] {"DE"}, () -> {
+                            executions.incrementAndGet();
+                            await(release);
+                            return Lists.newArrayList("DE");
+                        })));
+        }
+
+        awaitSharedCalls(CALLERS - 1);
+        release.countDown();
+
+        final List<Object> results = new ArrayList<>();
+        for (final Future<Object> call : calls) {
+            Assert.assertEquals(Lists.newArrayList("DE"), call.get(10, TimeUnit.SECONDS));
+            results.add(call.get());
+        }
+
+        Assert.assertEquals(1, executions.get());
+        Assert.assertNotSame(results.get(0), results.get(1));
+    }
+
+    @Test
+    public void should_hand_failure_to_all_waiting_calls() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Future<Object> first = callers.submit(() ->
+                    singleFlight.execute(new Object[] {"DE"}, () -> {
+                        await(release);
+                        throw new IllegalStateException("database down");
+                    }));
+        final Future<Object> second = callers.submit(() -> singleFlight.execute(new Object[] {"DE"}, () -> "DE"));
+
+        awaitSharedCalls(1);
+        release.countDown();
+
+        for (final Future<Object> call : Lists.newArrayList(first, second)) {
+            try {
+                call.get(10, TimeUnit.SECONDS);
+                Assert.fail("exception expected");
+            } catch (final ExecutionException e) {
+                Assert.assertEquals("database down", e.getCause().getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void should_not_share_calls_with_different_arguments_or_after_completion() {
+        Assert.assertEquals("DE", singleFlight.execute(new Object[] {"DE"}, () -> "DE"));
+        Assert.assertEquals("FR", singleFlight.execute(new Object[] {"FR"}, () -> "FR"));
+        Assert.assertEquals("DE again", singleFlight.execute(new Object[] {"DE"}, () -> "DE again"));
+        Assert.assertEquals(0, singleFlight.getSharedCalls());
+    }
+
+    private void awaitSharedCalls(final int count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (singleFlight.getSharedCalls() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+
+        Assert.assertEquals(count, singleFlight.getSharedCalls());
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
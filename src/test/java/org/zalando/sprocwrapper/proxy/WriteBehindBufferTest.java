@@ -0,0 +1,165 @@
+package org.zalando.sprocwrapper.proxy;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Method;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.springframework.dao.QueryTimeoutException;
+
+import org.zalando.sprocwrapper.Deadline;
+import org.zalando.sprocwrapper.SProcCall;
+import org.zalando.sprocwrapper.SProcCall.Overflow;
+import org.zalando.sprocwrapper.dsprovider.ArrayDataSourceProvider;
+
+public class WriteBehindBufferTest {
+
+    interface TrackingService {
+
+        @SProcCall(
+            readOnly = false,
+            writeBehind = @SProcCall.WriteBehind(queueCapacity = 10, flushIntervalMillis = 60000)
+        )
+        void trackEvent(String event);
+    }
+
+    private final DataSource shard = mock(DataSource.class);
+
+    private final List<List<Object[]>> batches = new CopyOnWriteArrayList<>();
+
+    private WriteBehindBuffer buffer;
+
+    @After
+    public void tearDown() {
+        if (buffer != null) {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void should_write_queued_calls_in_batches_of_flush_size() {
+        buffer = new WriteBehindBuffer("track_event", 100, 10, 60000, Overflow.BLOCK);
+        buffer.start((dataSource, calls) -> batches.add(new ArrayList<>(calls)));
+
+        for (int i = 0; i < 25; i++) {
+            Assert.assertTrue(buffer.add(shard, new Object[] {i}));
+        }
+
+        buffer.flush();
+
+        Assert.assertEquals(25, buffer.getQueued());
+        Assert.assertEquals(25, buffer.getWritten());
+        Assert.assertEquals(0, buffer.getQueueSize());
+        Assert.assertEquals(batches.size(), buffer.getBatches());
+        Assert.assertTrue(batches.size() >= 3);
+    }
+
+    @Test
+    public void should_drop_calls_while_queue_is_full() {
+        buffer = new WriteBehindBuffer("track_event", 2, 10, 60000, Overflow.DROP);
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(buffer.add(shard, new Object[] {i}));
+        }
+
+        Assert.assertEquals(2, buffer.getQueueSize());
+        Assert.assertEquals(1, buffer.getDropped());
+    }
+
+    @Test
+    public void should_let_caller_run_while_queue_is_full() {
+        buffer = new WriteBehindBuffer("track_event", 1, 10, 60000, Overflow.CALLER_RUNS);
+
+        Assert.assertTrue(buffer.add(shard, new Object[] {1}));
+        Assert.assertFalse(buffer.add(shard, new Object[] {2}));
+        Assert.assertEquals(1, buffer.getQueued());
+    }
+
+    @Test(expected = QueryTimeoutException.class)
+    public void should_block_while_queue_is_full_until_deadline() {
+        buffer = new WriteBehindBuffer("track_event", 1, 10, 60000, Overflow.BLOCK);
+        buffer.add(shard, new Object[] {1});
+
+        try (Deadline.Scope scope = Deadline.after(20, TimeUnit.MILLISECONDS).attach()) {
+            buffer.add(shard, new Object[] {2});
+        }
+    }
+
+    @Test
+    public void should_count_calls_of_failed_batches() {
+        buffer = new WriteBehindBuffer("track_event", 100, 10, 60000, Overflow.BLOCK);
+        buffer.start((dataSource, calls) -> {
+            throw new SQLException("shard down");
+        });
+
+        buffer.add(shard, new Object[] {1});
+        buffer.add(shard, new Object[] {2});
+        buffer.flush();
+
+        Assert.assertEquals(2, buffer.getFailed());
+        Assert.assertEquals(0, buffer.getWritten());
+    }
+
+    @Test
+    public void should_flush_on_close_and_let_later_calls_run_synchronously() {
+        buffer = new WriteBehindBuffer("track_event", 100, 10, 60000, Overflow.BLOCK);
+        buffer.start((dataSource, calls) -> batches.add(new ArrayList<>(calls)));
+        buffer.add(shard, new Object[] {1});
+
+        buffer.close();
+
+        Assert.assertEquals(1, buffer.getWritten());
+        Assert.assertFalse(buffer.add(shard, new Object[] {2}));
+    }
+
+    @Test
+    public void should_return_before_sproc_is_written_in_a_batch() throws Exception {
+        final PreparedStatement statement = mock(PreparedStatement.class);
+        final Connection connection = mock(Connection.class);
+        when(connection.getAutoCommit()).thenReturn(true);
+        when(connection.prepareStatement(anyString(), anyInt())).thenReturn(statement);
+        when(shard.getConnection()).thenReturn(connection);
+
+        final Method method = TrackingService.class.getMethod("trackEvent", String.class);
+        final StoredProcedure sproc = new SProcCallHandler().handle(TrackingService.class,
+                    SProcServiceAnnotationHandler.DEFAULT_HANDLER_RESULT).get(method);
+        final ArrayDataSourceProvider provider = new ArrayDataSourceProvider(new DataSource[] {shard});
+
+        Assert.assertNull(sproc.execute(provider, new InvocationContext(TrackingService.class, method,
+                    new Object[] {"click"})));
+        Assert.assertNull(sproc.execute(provider, new InvocationContext(TrackingService.class, method,
+                    new Object[] {"view"})));
+        verify(statement, never()).executeBatch();
+
+        for (final WriteBehindBuffer writeBehind : WriteBehindBuffer.getAll()) {
+            if (writeBehind.getSprocName().equals(sproc.getName())) {
+                writeBehind.close();
+            }
+        }
+
+        verify(statement, times(2)).addBatch();
+        verify(statement).executeBatch();
+        verify(connection).commit();
+        verify(connection).setAutoCommit(true);
+    }
+}
@@ -0,0 +1,94 @@
+package org.zalando.sprocwrapper.sharding;
+
+import static org.mockito.Mockito.mock;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import org.zalando.sprocwrapper.dsprovider.ArrayDataSourceProvider;
+
+public class ShardAwareIdGeneratorTest {
+
+    private final ArrayDataSourceProvider provider = new ArrayDataSourceProvider(new DataSource[] {
+                mock(DataSource.class), mock(DataSource.class)
+            });
+
+    private final AtomicLong sequence = new AtomicLong(1);
+    private final AtomicInteger fetches = new AtomicInteger();
+
+    private ShardAwareIdGenerator generator(final int blocksPerFetch, final double... loads) {
+        return new ShardAwareIdGenerator(provider, "id_block_seq", blocksPerFetch,
+                loads.length == 0 ? null : shardId -> loads[shardId]) {
+            @Override
+            protected List<Long> fetchBlocks(final DataSource dataSource, final int count) {
+                fetches.incrementAndGet();
+
+                final List<Long> values = Lists.newArrayList();
+                for (int i = 0; i < count; i++) {
+                    values.add(sequence.getAndIncrement());
+                }
+
+                return values;
+            }
+        };
+    }
+
+    @Test
+    public void should_encode_virtual_shard_id() {
+        final ShardAwareIdGenerator generator = generator(1);
+        final VirtualShardAwareIdStrategy strategy = new VirtualShardAwareIdStrategy();
+
+        for (final int virtualShardId : new int[] {0, 1, 42, 511}) {
+            final long id = generator.nextId(virtualShardId);
+            Assert.assertTrue(id > 0);
+            Assert.assertEquals(virtualShardId, strategy.getShardIdForKey(id));
+        }
+    }
+
+    @Test
+    public void should_mint_unique_ids_from_reserved_blocks() {
+        final ShardAwareIdGenerator generator = generator(4);
+        final Set<Long> ids = Sets.newHashSet();
+
+        // 4 blocks of 1024 ids
+        for (int i = 0; i < 4096; i++) {
+            Assert.assertTrue(ids.add(generator.nextId(3)));
+        }
+
+        Assert.assertEquals(1, fetches.get());
+
+        generator.nextId(3);
+        Assert.assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void should_place_new_ids_on_least_loaded_shard() {
+        final ShardAwareIdGenerator generator = generator(1, 20.0, 5.0);
+
+        Assert.assertEquals(1, generator.nextVirtualShardId());
+        Assert.assertEquals(1, new VirtualShardAwareIdStrategy().getShardIdForKey(generator.nextId()));
+    }
+
+    @Test
+    public void should_spread_new_ids_over_shards_with_equal_load() {
+        final ShardAwareIdGenerator generator = generator(1, 1.0, 1.0);
+
+        Assert.assertEquals(Sets.newHashSet(0, 1),
+            Sets.newHashSet(generator.nextVirtualShardId(), generator.nextVirtualShardId()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_virtual_shard_id_exceeding_9_bits() {
+        generator(1).nextId(512);
+    }
+}
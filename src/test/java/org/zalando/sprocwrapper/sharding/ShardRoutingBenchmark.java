@@ -0,0 +1,82 @@
+package org.zalando.sprocwrapper.sharding;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * measures the cost of routing a single shard key. Run with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.zalando.sprocwrapper.sharding.ShardRoutingBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShardRoutingBenchmark {
+
+    private final VirtualShardKeyStrategy md5 = new VirtualShardMd5Strategy();
+    private final VirtualShardKeyStrategy murmur2 = new VirtualShardMurmur2HashStrategy();
+    private final VirtualShardKeyStrategy jumpHash = new VirtualShardJumpHashStrategy();
+
+    // sample SKU
+    private final String sku = "SE622H003-802000S000";
+    private final Long id = 1234567890123L;
+    private final UUID uuid = UUID.fromString("3f2c8a1e-5b7d-4c9e-8f01-23456789abcd");
+
+    @Benchmark
+    public int md5String() {
+        return md5.getShardIdForKey(sku);
+    }
+
+    @Benchmark
+    public int md5StringArray() {
+        return md5.getShardId(new Object[] {sku});
+    }
+
+    @Benchmark
+    public int md5Long() {
+        return md5.getShardIdForKey(id);
+    }
+
+    @Benchmark
+    public int md5Uuid() {
+        return md5.getShardIdForKey(uuid);
+    }
+
+    @Benchmark
+    public int murmur2String() {
+        return murmur2.getShardIdForKey(sku);
+    }
+
+    @Benchmark
+    public int jumpHashString() {
+        return jumpHash.getShardIdForKey(sku);
+    }
+
+    @Benchmark
+    public int jumpHashLong() {
+        return jumpHash.getShardIdForKey(id);
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ShardRoutingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
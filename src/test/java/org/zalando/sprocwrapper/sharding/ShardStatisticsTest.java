@@ -0,0 +1,120 @@
+package org.zalando.sprocwrapper.sharding;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShardStatisticsTest {
+
+    private final ShardStatistics statistics = new ShardStatistics();
+
+    @Before
+    public void enable() {
+        statistics.setEnabled(true);
+    }
+
+    @Test
+    public void shouldNotRecordWhenDisabled() {
+        statistics.setEnabled(false);
+        statistics.recordKey(1, "key");
+        statistics.recordCall(1, 1, 1, 1);
+
+        Assert.assertTrue(statistics.getVirtualShardCalls().isEmpty());
+        Assert.assertTrue(statistics.getVirtualShardKeys().isEmpty());
+    }
+
+    @Test
+    public void shouldGroupVirtualShardIdsIntoBuckets() {
+        statistics.recordCall(3, 1, 1, 1);
+        statistics.recordCall(3 + ShardStatistics.VIRTUAL_SHARD_BUCKETS, 1, 1, 1);
+        statistics.recordCall(Integer.MAX_VALUE, 1, 1, 1);
+
+        Assert.assertEquals(Long.valueOf(2), statistics.getVirtualShardCalls().get(3));
+        Assert.assertEquals(2, statistics.getVirtualShardCalls().size());
+    }
+
+    @Test
+    public void shouldNotSampleSensitiveKeys() {
+        statistics.setKeySampleRate(1);
+        statistics.recordKey(1, "secret", false);
+
+        Assert.assertEquals(Long.valueOf(1), statistics.getVirtualShardKeys().get(1));
+        Assert.assertTrue(statistics.getTopKeys(10).isEmpty());
+    }
+
+    @Test
+    public void shouldCountCallsPerVirtualAndPhysicalShard() {
+        statistics.recordCall(4, 0, TimeUnit.MILLISECONDS.toNanos(2), 10);
+        statistics.recordCall(6, 0, TimeUnit.MILLISECONDS.toNanos(4), 0);
+        statistics.recordCall(5, 1, TimeUnit.MILLISECONDS.toNanos(1), 1);
+
+        Assert.assertEquals(Long.valueOf(1), statistics.getVirtualShardCalls().get(4));
+        Assert.assertEquals(Long.valueOf(2), statistics.getPhysicalShardCalls().get(0));
+        Assert.assertEquals(Long.valueOf(10), statistics.getPhysicalShardRows().get(0));
+        Assert.assertEquals(3.0, statistics.getPhysicalShardMeanLatencyMillis().get(0), 0.001);
+        Assert.assertEquals(1.0, statistics.getPhysicalShardCounters().get(1).getMeanLatencyMillis(), 0.001);
+    }
+
+    @Test
+    public void shouldFindHeavyHitters() {
+        statistics.setKeySampleRate(1);
+        for (int i = 0; i < 10000; i++) {
+            statistics.recordKey(i % 8, i % 2 == 0 ? "hot" : "key-" + i);
+            if (i % 10 == 0) {
+                statistics.recordKey(1, "warm");
+            }
+        }
+
+        final List<ShardStatistics.HeavyHitter> top = statistics.getTopKeys(2);
+        Assert.assertEquals("hot", top.get(0).getKey());
+        Assert.assertTrue(top.get(0).getCount() >= 5000);
+        Assert.assertTrue(top.get(0).getCount() - top.get(0).getError() <= 5000);
+        Assert.assertEquals("warm", top.get(1).getKey());
+
+        Assert.assertEquals(Long.valueOf(1250 + 1000), statistics.getVirtualShardKeys().get(1));
+        Assert.assertEquals("hot", statistics.getHeavyHitters().keySet().iterator().next());
+    }
+
+    @Test
+    public void shouldExtrapolateSampledCounts() {
+        statistics.setKeySampleRate(10);
+        for (int i = 0; i < 100000; i++) {
+            statistics.recordKey(0, "hot");
+        }
+
+        final long count = statistics.getTopKeys(1).get(0).getCount();
+        Assert.assertTrue("count " + count, count > 90000 && count < 110000);
+    }
+
+    @Test
+    public void shouldKeepCountsRecordedBeforeSampleRateChange() {
+        statistics.setKeySampleRate(1);
+        for (int i = 0; i < 1000; i++) {
+            statistics.recordKey(0, "hot");
+        }
+
+        statistics.setKeySampleRate(100);
+
+        Assert.assertEquals(1000, statistics.getTopKeys(1).get(0).getCount());
+    }
+
+    @Test
+    public void shouldReset() {
+        statistics.recordKey(1, 42L);
+        statistics.recordCall(1, 1, 1, 1);
+        statistics.reset();
+
+        final Map<Integer, Long> calls = statistics.getVirtualShardCalls();
+        Assert.assertTrue(calls.isEmpty());
+        Assert.assertTrue(statistics.getTopKeys(10).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidSampleRate() {
+        statistics.setKeySampleRate(0);
+    }
+}
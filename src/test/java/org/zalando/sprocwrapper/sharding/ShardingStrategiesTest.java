@@ -62,6 +62,53 @@ public class ShardingStrategiesTest {
         Assert.assertEquals(11320873, strategy.getShardId(args));
     }
 
+    @Test
+    public void testVirtualShardJumpHashStrategy() {
+        VirtualShardKeyStrategy strategy = new VirtualShardJumpHashStrategy();
+        Assert.assertEquals(0, strategy.getShardId(null));
+        Assert.assertEquals(0, strategy.getShardId(new Object[0]));
+        Assert.assertEquals(0, strategy.getShardId(new Object[1]));
+
+        Object[] args = new Object[1];
+        args[0] = "A";
+
+        int shardId = strategy.getShardId(args);
+        Assert.assertTrue(shardId >= 0);
+        Assert.assertEquals(shardId, strategy.getShardId(new Object[] {java.util.Arrays.asList("A", "B")}));
+
+        // consecutive numeric keys are spread
+        Assert.assertNotEquals(strategy.getShardId(new Object[] {1L}) >>> 20,
+            strategy.getShardId(new Object[] {2L}) >>> 20);
+        Assert.assertEquals(strategy.getShardId(new Object[] {1L}), strategy.getShardId(new Object[] {1}));
+    }
+
+    @Test
+    public void testTypedKeysAreHashedLikeTheirStringRepresentation() {
+        VirtualShardKeyStrategy md5 = new VirtualShardMd5Strategy();
+        VirtualShardKeyStrategy murmur2 = new VirtualShardMurmur2HashStrategy();
+
+        Object[] keys = {
+            "SE622H003-802000S000", "", "Grüße", 0L, -1L, Long.MIN_VALUE, Long.MAX_VALUE, Integer.MIN_VALUE, 42,
+            java.util.UUID.fromString("3f2c8a1e-5b7d-4c9e-8f01-23456789abcd"), new StringBuilder("builder"),
+            "a much longer shard key exceeding the initial size of the per thread encoding buffer ................"
+        };
+
+        for (Object key : keys) {
+            byte[] bytes = key.toString().getBytes();
+            byte[] md5Hash;
+            try {
+                md5Hash = java.security.MessageDigest.getInstance("MD5").digest(bytes);
+            } catch (java.security.NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+
+            int expectedMd5 = (md5Hash[15] & 0xff) + ((md5Hash[14] & 0xff) << 8) + ((md5Hash[13] & 0xff) << 16);
+            Assert.assertEquals(key.toString(), expectedMd5, md5.getShardIdForKey(key));
+            Assert.assertEquals(key.toString(), expectedMd5, md5.getShardId(new Object[] {key}));
+            Assert.assertEquals(key.toString(), Murmur2Hash.hash(bytes, 0), murmur2.getShardIdForKey(key));
+        }
+    }
+
     @Test
     public void testVirtualShardAwareIdStrategy() {
         VirtualShardAwareIdStrategy strategy = new VirtualShardAwareIdStrategy();
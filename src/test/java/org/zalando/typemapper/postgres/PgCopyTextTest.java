@@ -0,0 +1,39 @@
+package org.zalando.typemapper.postgres;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.zalando.sprocwrapper.example.ExampleDomainObject;
+
+public class PgCopyTextTest {
+
+    @Test
+    public void should_escape_delimiters_and_backslashes() {
+        Assert.assertEquals("a\\tb\\nc\\\\d\\r", PgCopyText.escape(new StringBuilder(), "a\tb\nc\\d\r").toString());
+    }
+
+    @Test
+    public void should_write_null_as_marker() {
+        Assert.assertEquals("1\t\\N\n", PgCopyText.appendRow(new StringBuilder(), null, 1, null).toString());
+    }
+
+    @Test
+    public void should_write_database_objects_as_row_literal() {
+        Assert.assertEquals("0\t(a,\"b c\")\n",
+            PgCopyText.appendRow(new StringBuilder(), null, 0L, new ExampleDomainObject("a", "b c")).toString());
+    }
+
+    @Test
+    public void should_parse_escaped_fields_and_null() {
+        Assert.assertEquals(Arrays.asList("a\tb", null, "", "c\\d\ne", "\013A"),
+            PgCopyText.parseRow("a\\tb\t\\N\t\tc\\\\d\\ne\t\\v\\101"));
+    }
+
+    @Test
+    public void should_parse_what_was_written() {
+        final StringBuilder row = PgCopyText.appendRow(new StringBuilder(), null, "x\ty", null, "\\");
+        Assert.assertEquals(Arrays.asList("x\ty", null, "\\"), PgCopyText.parseRow(row.substring(0, row.length() - 1)));
+    }
+}